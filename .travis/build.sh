@@ -1,7 +1,11 @@
 #!/bin/sh
 dir="$(dirname "$0")"
-test "$TRAVIS_SECURE_ENV_VARS" = true \
-  -a "$TRAVIS_PULL_REQUEST" = false \
-  -a "$TRAVIS_BRANCH" = master &&
-  mvn -Pdeploy-to-imagej deploy --settings "$dir/settings.xml" ||
-  mvn install
+{
+  test "$TRAVIS_SECURE_ENV_VARS" = true \
+    -a "$TRAVIS_PULL_REQUEST" = false \
+    -a "$TRAVIS_BRANCH" = master &&
+    mvn -Pdeploy-to-imagej deploy --settings "$dir/settings.xml" ||
+    mvn install
+} &&
+# Run the tests of the headless distribution, too; see the headless profile.
+mvn -Djava.awt.headless=true test
@@ -91,6 +91,9 @@ main_class=net.imagej.Main
 dashdash=f
 dry_run=
 needs_tools_jar=
+cds=t
+cds_train=
+jar_index=
 CLASSPATH=
 
 while test $# -gt 0
@@ -115,6 +118,17 @@ General options:
 	show the command line but do not run anything
 --debugger=<port>[,suspend=(y|n)]
 	start up in debug mode, ready to be attached to
+--no-cds
+	do not use a class data sharing archive to speed up startup
+--jar-index
+	find classes and plugins via a persistent index of the jars
+	(.jar-index/) rather than by opening each jar; only used
+	without class data sharing, e.g. with --no-cds or on Java 8
+--no-jar-index
+	find classes by opening each jar (the default)
+--cds-train
+	record the classes of a typical session for the class data
+	sharing archive, e.g. after adding update sites, then exit
 
 Options to run programs other than ImageJ:
 --jython
@@ -137,6 +151,18 @@ EOF
 	?,--dry-run)
 		dry_run=t
 		;;
+	?,--no-cds)
+		cds=
+		;;
+	?,--cds-train)
+		cds_train=t
+		;;
+	?,--jar-index)
+		jar_index=t
+		;;
+	?,--no-jar-index)
+		jar_index=
+		;;
 	?,--cp=*)
 		add_classpath "${1#--cp=}"
 		;;
@@ -264,6 +290,120 @@ discover_jar () {
 	head -n 1
 }
 
+# The version of the Java runtime, e.g. 1.7.0_80 or 17.0.9; it is read from
+# the runtime's release file, and only asked from a forked JVM if there is none
+discover_java_version () {
+	java_path="`command -v java`"
+	while test -h "$java_path"
+	do
+		link="`readlink "$java_path"`"
+		case "$link" in
+		/*)
+			java_path="$link"
+			;;
+		*)
+			java_path="${java_path%/*}/$link"
+			;;
+		esac
+	done
+	for release in "${java_path%/bin/java}/release" \
+		"${java_path%/jre/bin/java}/release"
+	do
+		test -f "$release" || continue
+		version="`sed -n 's/^JAVA_VERSION="\(.*\)"$/\1/p' "$release"`"
+		if test -n "$version"
+		then
+			echo "$version"
+			return
+		fi
+	done
+	java -version 2>&1 |
+	sed -n '1s/^[^"]*"\([^"]*\)".*/\1/p'
+}
+
+# The major version of the Java runtime, e.g. 7 for 1.7.0_80 and 17 for 17.0.9,
+# or empty if it cannot be determined
+java_version="`discover_java_version`"
+case "$java_version" in
+1.*)
+	java_major="`expr "$java_version" : '1\.\([0-9]*\)'`"
+	;;
+*)
+	java_major="`expr "$java_version" : '\([0-9]*\)'`"
+	;;
+esac
+
+# Class data sharing (CDS): the classes recorded by the training run
+# (cds/imagej.classlist) are dumped once into an archive which every later
+# JVM maps instead of loading and verifying those classes again. As the
+# archive is only valid for the exact Java runtime and class path it was
+# dumped for, it is named after a checksum of both, so that a new archive is
+# dumped whenever the jar set changes.
+
+cds_dir () {
+	if test -w "$IMAGEJ_ROOT/cds" ||
+		{ test ! -e "$IMAGEJ_ROOT/cds" && test -w "$IMAGEJ_ROOT"; }
+	then
+		echo "$IMAGEJ_ROOT/cds"
+	else
+		echo "${XDG_CACHE_HOME:-$HOME/.cache}/imagej/cds"
+	fi
+}
+
+cds_classlist () {
+	for classlist in "`cds_dir`/imagej.classlist" \
+		"$IMAGEJ_ROOT/cds/imagej.classlist"
+	do
+		if test -f "$classlist"
+		then
+			echo "$classlist"
+			return
+		fi
+	done
+}
+
+# The jars of the ImageJ installation, separated by the path separator
+discover_jars () {
+	find "$IMAGEJ_ROOT/jars" "$IMAGEJ_ROOT/plugins" -name '*.jar' \
+		2> /dev/null |
+	sort |
+	tr '\n' "$PATHSEPARATOR" |
+	sed "s/$PATHSEPARATOR\$//"
+}
+
+cds_archive () {
+	classlist="`cds_classlist`"
+	test -n "$classlist" || return
+	# NB: List all jars with a single ls, splitting the class path (and
+	# nothing else) at the path separator.
+	checksum="`{
+		echo "$java_version"
+		(
+			IFS="$PATHSEPARATOR"
+			set -f
+			ls -lL $CLASSPATH
+		)
+		cat "$classlist"
+	} | cksum | sed 's/ .*//'`"
+	dir="`cds_dir`"
+	archive="$dir/imagej-$checksum.jsa"
+	if test ! -f "$archive" && test -z "$dry_run"
+	then
+		# NB: Concurrent launches each dump into a file of their own. Archives
+		# of other jar sets are left alone, as other installations or Java
+		# runtimes sharing the directory may still use them.
+		tmp="$archive.$$.tmp"
+		mkdir -p "$dir" 2> /dev/null &&
+		java -Xshare:dump -XX:SharedClassListFile="$classlist" \
+			-XX:SharedArchiveFile="$tmp" \
+			-Djava.class.path="$CLASSPATH" > /dev/null 2>&1 &&
+		mv -f "$tmp" "$archive" ||
+		rm -f "$tmp"
+	fi
+	test -f "$archive" || test -n "$dry_run" || return
+	echo "$archive"
+}
+
 test -z "$needs_tools_jar" || {
 	add_classpath "`discover_tools_jar`"
 	case "$main_class" in
@@ -275,8 +415,55 @@ test -z "$needs_tools_jar" || {
 	esac
 }
 
+# CDS needs Java 11 or later, and the jars on the class path proper
+test -z "$cds_train" || {
+	test -n "$java_major" && test "$java_major" -ge 11 || {
+		echo "Class data sharing needs Java 11 or later" >&2
+		exit 1
+	}
+	main_class=net.imagej.startup.TrainingRun
+}
+case "$cds,$main_class,$ISWINDOWS" in
+t,net.imagej.Main,)
+	test -n "$java_major" && test "$java_major" -ge 11 || cds=
+	;;
+*)
+	cds=
+	;;
+esac
+
 case "$main_class" in
-net.imagej.Main|ij.ImageJ)
+net.imagej.startup.TrainingRun)
+	add_classpath "`discover_jars`"
+	classlist="`cds_dir`/imagej.classlist"
+	mkdir -p "`dirname "$classlist"`" || exit
+	first_java_options="$first_java_options -Xshare:off"
+	first_java_options="$first_java_options -XX:DumpLoadedClassList=`sq_quote "$classlist"`"
+	first_java_options="$first_java_options -Djava.awt.headless=true"
+	;;
+net.imagej.Main)
+	if test -n "$cds"
+	then
+		add_classpath "`discover_jars`"
+		archive="`cds_archive`"
+		test -z "$archive" ||
+		first_java_options="$first_java_options -XX:SharedArchiveFile=`sq_quote "$archive"`"
+	elif test -n "$jar_index" && test -n "`discover_jar imagej 2> /dev/null`"
+	then
+		# The jar index (.jar-index/) maps packages and plugins to jars,
+		# so that only the jars which are needed get opened
+		ij_options="$main_class $ij_options"
+		main_class=net.imagej.index.IndexedLauncher
+		add_classpath "`discover_jar imagej`"
+	else
+		ij_options="$main_class $ij_options"
+		main_class="net.imagej.launcher.ClassLauncher -ijjarpath jars/ -ijjarpath plugins/"
+		add_classpath "`discover_jar imagej-launcher`" "`discover_jar ij`" "`discover_jar javassist`"
+	fi
+	# Worker JVMs spawned by a batch run start through the same launcher
+	first_java_options="$first_java_options -Dimagej.launcher=`sq_quote "$main_class"`"
+	;;
+ij.ImageJ)
 	ij_options="$main_class $ij_options"
 	main_class="net.imagej.launcher.ClassLauncher -ijjarpath jars/ -ijjarpath plugins/"
 	add_classpath "`discover_jar imagej-launcher`" "`discover_jar ij`" "`discover_jar javassist`"
@@ -317,6 +504,14 @@ case "$EXECUTABLE_NAME" in
 	;;
 esac
 
+# -Xincgc and -XX:PermSize were removed in Java 9 and 8, respectively; they
+# are only passed to a runtime known to be older
+GC_OPTIONS=
+if test -n "$java_major" && test "$java_major" -lt 8
+then
+	GC_OPTIONS="-Xincgc -XX:PermSize=128m"
+fi
+
 EXT_OPTION=
 case "`uname -s`" in
 Darwin)
@@ -326,7 +521,7 @@ esac
 
 eval java $EXT_OPTION \
 	-Dpython.cachedir.skip=true \
-	-Xincgc -XX:PermSize=128m \
+	$GC_OPTIONS \
 	-Dplugins.dir=$IMAGEJ_ROOT_SQ \
 	-Djava.class.path="`sq_quote "$CLASSPATH"`" \
 	-Dsun.java.command=ImageJ -Dij.dir=$IMAGEJ_ROOT_SQ \
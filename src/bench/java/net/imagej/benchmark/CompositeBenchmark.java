@@ -0,0 +1,130 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.imagej.ImageJ;
+import net.imagej.composite.CompositeService;
+import net.imglib2.display.ColorTable;
+import net.imglib2.display.ColorTables;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks compositing a four-channel 16-bit plane to ARGB: per pixel on one
+ * thread through {@link ColorTable#lookupARGB}, as the display code does
+ * today, and through the cached tables of {@link CompositeService}.
+ * 
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CompositeBenchmark {
+
+	/** Side length of the square input planes. */
+	@Param({ "512", "2048" })
+	public int size;
+
+	private static final ColorTable[] LUTS = { ColorTables.RED,
+		ColorTables.GREEN, ColorTables.BLUE, ColorTables.MAGENTA };
+
+	private static final double MIN = 100, MAX = 40000;
+
+	private ImageJ ij;
+	private short[][] channels;
+	private int[] argb;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		ij = new ImageJ();
+		final Random r = new Random(0xdeadbeef);
+		channels = new short[LUTS.length][size * size];
+		for (final short[] channel : channels) {
+			for (int i = 0; i < channel.length; i++) {
+				channel[i] = (short) r.nextInt(1 << 16);
+			}
+		}
+		argb = new int[size * size];
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		ij.getContext().dispose();
+	}
+
+	/** Looks up every channel of every pixel in its LUT on one thread. */
+	@Benchmark
+	public int[] perPixel() {
+		for (int i = 0; i < argb.length; i++) {
+			int red = 0, green = 0, blue = 0;
+			for (int c = 0; c < LUTS.length; c++) {
+				final int v = LUTS[c].lookupARGB(MIN, MAX, channels[c][i] & 0xffff);
+				red += v >> 16 & 0xff;
+				green += v >> 8 & 0xff;
+				blue += v & 0xff;
+			}
+			argb[i] = 0xff000000 | Math.min(red, 0xff) << 16 | //
+				Math.min(green, 0xff) << 8 | Math.min(blue, 0xff);
+		}
+		return argb;
+	}
+
+	@Benchmark
+	public int[] composite() {
+		final CompositeService compositeService = ij.composite();
+		final int[][] tables = new int[LUTS.length][];
+		for (int c = 0; c < LUTS.length; c++) {
+			tables[c] = compositeService.getTable(LUTS[c], MIN, MAX);
+		}
+		compositeService.composite(channels, tables, size, argb);
+		return argb;
+	}
+
+}
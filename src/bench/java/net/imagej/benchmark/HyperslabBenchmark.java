@@ -0,0 +1,131 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.hyperslab.Hyperslab;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks sampling a hyperslab (two of three channels, every other Z
+ * slice, the second half of the time points) of a 16-bit XYCZT image: as a
+ * view, reading through a view, materializing a view in parallel, and
+ * copying eagerly on one thread, as the sampler does today.
+ * 
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HyperslabBenchmark {
+
+	/** Dimensions of the XYCZT input image, comma-separated. */
+	@Param({ "256,256,3,16,10", "512,512,3,8,10" })
+	public String dims;
+
+	private ImageJ ij;
+	private Dataset dataset;
+	private Hyperslab slab;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		ij = new ImageJ();
+		final long[] size = OpBenchmark.Images.parseDims(dims);
+		final Img<UnsignedShortType> img = ArrayImgs.unsignedShorts(size);
+		final Random r = new Random(0xdeadbeef);
+		for (final UnsignedShortType t : img) {
+			t.set(r.nextInt(1 << 16));
+		}
+		dataset = ij.dataset().create(new ImgPlus<>(img, "bench",
+			new AxisType[] { Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z, Axes.TIME }));
+		slab = new Hyperslab().pick(Axes.CHANNEL, 2, 0).every(Axes.Z, 2).range(
+			Axes.TIME, size[4] / 2, -1);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		ij.getContext().dispose();
+	}
+
+	@Benchmark
+	public Object view() {
+		return ij.hyperslab().view(dataset, slab);
+	}
+
+	@Benchmark
+	public double viewAndRead() {
+		double sum = 0;
+		for (final RealType<?> t : ij.hyperslab().view(dataset, slab)) {
+			sum += t.getRealDouble();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public Object materialize() throws InterruptedException {
+		return ij.hyperslab().materialize(ij.hyperslab().view(dataset, slab));
+	}
+
+	/** Copies the hyperslab eagerly on the calling thread. */
+	@Benchmark
+	public Object copy() {
+		return ij.hyperslab().view(dataset, slab).getImgPlus().getImg().copy();
+	}
+
+}
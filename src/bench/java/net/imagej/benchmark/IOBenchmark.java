@@ -0,0 +1,126 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.benchmark;
+
+import io.scif.services.DatasetIOService;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks SCIFIO open/save round-trips of synthetic 16-bit TIFFs.
+ * 
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IOBenchmark {
+
+	/** Dimensions of the synthetic image, comma-separated (X,Y[,Z]). */
+	@Param({ "512,512", "2048,2048", "512,512,64" })
+	public String dims;
+
+	private ImageJ ij;
+	private DatasetIOService datasetIO;
+	private File source;
+	private File destination;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		ij = new ImageJ();
+		datasetIO = ij.get(DatasetIOService.class);
+
+		final long[] lengths = OpBenchmark.Images.parseDims(dims);
+		final AxisType[] axes = { Axes.X, Axes.Y, Axes.Z };
+		final AxisType[] types = new AxisType[lengths.length];
+		System.arraycopy(axes, 0, types, 0, types.length);
+		final Dataset dataset = ij.dataset().create(new UnsignedShortType(),
+			lengths, "synthetic", types);
+		final Random r = new Random(0xdeadbeef);
+		for (final RealType<?> t : dataset) {
+			t.setReal(r.nextInt(65536));
+		}
+
+		source = File.createTempFile("imagej-bench-", ".tif");
+		destination = File.createTempFile("imagej-bench-", ".tif");
+		source.delete();
+		datasetIO.save(dataset, source.getPath());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		source.delete();
+		destination.delete();
+		ij.getContext().dispose();
+	}
+
+	@Benchmark
+	public Dataset open() throws IOException {
+		return datasetIO.open(source.getPath());
+	}
+
+	@Benchmark
+	public Dataset roundTrip() throws IOException {
+		final Dataset dataset = datasetIO.open(source.getPath());
+		destination.delete();
+		datasetIO.save(dataset, destination.getPath());
+		return dataset;
+	}
+
+}
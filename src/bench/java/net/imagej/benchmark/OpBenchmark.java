@@ -0,0 +1,132 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.imagej.ImageJ;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks representative ops on 2D and 3D images of several sizes.
+ * 
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OpBenchmark {
+
+	/** Dimensions of the input image, comma-separated. */
+	@Param({ "256,256", "1024,1024", "128,128,32", "256,256,64" })
+	public String dims;
+
+	private ImageJ ij;
+	private Img<FloatType> img;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		ij = new ImageJ();
+		img = Images.randomFloats(Images.parseDims(dims), new Random(0xdeadbeef));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		ij.getContext().dispose();
+	}
+
+	@Benchmark
+	public Object gauss() {
+		return ij.op().run("filter.gauss", img, 2.0);
+	}
+
+	@Benchmark
+	public Object mean() {
+		return ij.op().run("stats.mean", img);
+	}
+
+	@Benchmark
+	public Object otsu() {
+		return ij.op().run("threshold.otsu", img);
+	}
+
+	@Benchmark
+	public Object addConstant() {
+		return ij.op().run("math.add", img, new FloatType(1));
+	}
+
+	/** Helper methods for creating synthetic images. */
+	static final class Images {
+
+		private Images() {
+			// prevent instantiation of utility class
+		}
+
+		static long[] parseDims(final String dims) {
+			final String[] tokens = dims.split(",");
+			final long[] result = new long[tokens.length];
+			for (int d = 0; d < result.length; d++) {
+				result[d] = Long.parseLong(tokens[d].trim());
+			}
+			return result;
+		}
+
+		static Img<FloatType> randomFloats(final long[] dims, final Random r) {
+			final Img<FloatType> img = ArrayImgs.floats(dims);
+			for (final FloatType t : img) {
+				t.set(r.nextFloat());
+			}
+			return img;
+		}
+	}
+
+}
@@ -0,0 +1,167 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.imagej.ImageJ;
+import net.imagej.overlay.Overlay;
+import net.imagej.overlay.RectangleOverlay;
+import net.imagej.spatial.OverlayIndex;
+import net.imglib2.roi.RegionOfInterest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks hit testing and region queries over many small rectangular
+ * overlays spread over a 4096 x 4096 image: by scanning all overlays, as
+ * callers of the {@link net.imagej.display.OverlayService} do today, and
+ * through an {@link OverlayIndex}. Also measures bulk loading the index.
+ * 
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OverlayIndexBenchmark {
+
+	/** Number of overlays. */
+	@Param({ "1000", "20000" })
+	public int count;
+
+	private static final int QUERIES = 100;
+
+	private ImageJ ij;
+	private List<Overlay> overlays;
+	private OverlayIndex index;
+	private double[] points;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		ij = new ImageJ();
+		final Random r = new Random(0xdeadbeef);
+		overlays = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			final RectangleOverlay overlay = new RectangleOverlay(ij.getContext());
+			overlay.setOrigin(r.nextInt(4096), 0);
+			overlay.setOrigin(r.nextInt(4096), 1);
+			overlay.setExtent(4 + r.nextInt(28), 0);
+			overlay.setExtent(4 + r.nextInt(28), 1);
+			overlays.add(overlay);
+		}
+		index = ij.overlayIndex().createIndex(overlays);
+		points = new double[2 * QUERIES];
+		for (int i = 0; i < points.length; i++) {
+			points[i] = r.nextDouble() * 4096;
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		ij.getContext().dispose();
+	}
+
+	/** Hit tests by checking every overlay. */
+	@Benchmark
+	public int hitScan() {
+		int hits = 0;
+		final double[] pos = new double[2];
+		for (int q = 0; q < QUERIES; q++) {
+			pos[0] = points[2 * q];
+			pos[1] = points[2 * q + 1];
+			for (final Overlay overlay : overlays) {
+				if (overlay.getRegionOfInterest().contains(pos)) hits++;
+			}
+		}
+		return hits;
+	}
+
+	@Benchmark
+	public int hitIndexed() {
+		int hits = 0;
+		for (int q = 0; q < QUERIES; q++) {
+			hits += index.at(points[2 * q], points[2 * q + 1]).size();
+		}
+		return hits;
+	}
+
+	/** Finds the overlays intersecting 128 x 128 regions by checking all. */
+	@Benchmark
+	public int regionScan() {
+		int found = 0;
+		for (int q = 0; q < QUERIES; q++) {
+			final double x = points[2 * q], y = points[2 * q + 1];
+			for (final Overlay overlay : overlays) {
+				final RegionOfInterest roi = overlay.getRegionOfInterest();
+				if (roi.realMin(0) <= x + 128 && x <= roi.realMax(0) && //
+					roi.realMin(1) <= y + 128 && y <= roi.realMax(1)) found++;
+			}
+		}
+		return found;
+	}
+
+	@Benchmark
+	public int regionIndexed() {
+		int found = 0;
+		for (int q = 0; q < QUERIES; q++) {
+			final double x = points[2 * q], y = points[2 * q + 1];
+			found += index.intersecting(x, y, x + 128, y + 128).size();
+		}
+		return found;
+	}
+
+	@Benchmark
+	public OverlayIndex bulkLoad() {
+		final OverlayIndex loaded = new OverlayIndex();
+		loaded.addAll(overlays);
+		return loaded;
+	}
+
+}
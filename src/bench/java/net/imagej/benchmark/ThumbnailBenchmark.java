@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.thumbnail.RenderOptions;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks rendering 128 x 128 PNG thumbnails of a batch of 16-bit images:
+ * one at a time through a {@link BufferedImage} and {@link ImageIO}, and in
+ * parallel through the {@link net.imagej.thumbnail.ThumbnailService}, as
+ * separate thumbnails and as one montage.
+ * 
+ * @author agent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ThumbnailBenchmark {
+
+	/** Number of images in the batch. */
+	@Param({ "64" })
+	public int count;
+
+	/** Side length of each square image. */
+	@Param({ "1024" })
+	public int size;
+
+	private static final int THUMB = 128;
+
+	private ImageJ ij;
+	private List<Dataset> datasets;
+	private RenderOptions options;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		ij = new ImageJ();
+		final Random r = new Random(0xdeadbeef);
+		datasets = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			final Img<UnsignedShortType> img = ArrayImgs.unsignedShorts(size, size);
+			for (final UnsignedShortType t : img) {
+				t.set(r.nextInt(1 << 12));
+			}
+			datasets.add(ij.dataset().create(new ImgPlus<>(img, "bench" + i,
+				new AxisType[] { Axes.X, Axes.Y })));
+		}
+		options = new RenderOptions().size(THUMB, THUMB);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		ij.getContext().dispose();
+	}
+
+	/** Renders each image into a new {@link BufferedImage} on one thread. */
+	@Benchmark
+	public List<byte[]> imageIO() throws IOException {
+		final List<byte[]> result = new ArrayList<>(count);
+		for (final Dataset dataset : datasets) {
+			final BufferedImage image = new BufferedImage(THUMB, THUMB,
+				BufferedImage.TYPE_INT_RGB);
+			final RandomAccess<RealType<?>> access = dataset.randomAccess();
+			for (int y = 0; y < THUMB; y++) {
+				access.setPosition(y * size / THUMB, 1);
+				for (int x = 0; x < THUMB; x++) {
+					access.setPosition(x * size / THUMB, 0);
+					final int v = (int) (access.get().getRealDouble() * 255 / 4095);
+					image.setRGB(x, y, v << 16 | v << 8 | v);
+				}
+			}
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			ImageIO.write(image, "png", out);
+			result.add(out.toByteArray());
+		}
+		return result;
+	}
+
+	@Benchmark
+	public List<byte[]> thumbnails() throws IOException, InterruptedException {
+		return ij.thumbnail().render(datasets, options);
+	}
+
+	@Benchmark
+	public byte[] montage() throws IOException, InterruptedException {
+		return ij.thumbnail().montage(datasets, options, 8);
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.startup;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event describing one step of an ImageJ gateway's startup.
+ * <p>
+ * This class is compiled only by the {@code jfr} profile, since the
+ * {@code jdk.jfr} API is missing from older Java 8 runtimes, and is looked up
+ * reflectively by {@link StartupProfiler} when present.
+ * </p>
+ * 
+ * @author agent
+ */
+@Name("net.imagej.ServiceStartup")
+@Label("ImageJ Service Startup")
+@Category("ImageJ")
+@Description("Initialization of one service (or other startup step) of an " +
+	"ImageJ application context")
+class StartupEvent extends Event {
+
+	@Label("Step")
+	String step;
+
+	@Label("Duration")
+	@Timespan(Timespan.NANOSECONDS)
+	long wallTime;
+
+	@Label("Allocated")
+	@DataAmount(DataAmount.BYTES)
+	long allocatedBytes;
+
+	@Label("Classes Loaded")
+	long classesLoaded;
+
+	static void emit(final String step, final long wallTime,
+		final long allocatedBytes, final long classesLoaded)
+	{
+		final StartupEvent event = new StartupEvent();
+		if (!event.isEnabled()) return;
+		event.step = step;
+		event.wallTime = wallTime;
+		event.allocatedBytes = allocatedBytes;
+		event.classesLoaded = classesLoaded;
+		event.commit();
+	}
+
+}
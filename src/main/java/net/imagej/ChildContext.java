@@ -0,0 +1,186 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.scijava.Context;
+import org.scijava.plugin.PluginIndex;
+import org.scijava.plugin.PluginInfo;
+import org.scijava.service.Service;
+import org.scijava.util.ClassUtils;
+
+/**
+ * An application context forked from a parent context, which shares the
+ * parent's plugin index and stateless services.
+ * <p>
+ * The child's plugin index is a copy of the parent's, made without discovering
+ * any plugins, and holding the very same {@link PluginInfo} instances, so that
+ * classes loaded and annotations parsed for the parent are reused. The
+ * {@link #SHARED_SERVICES shared services} of the parent are added to the
+ * child's service index as they are; all other services are created by the
+ * child when first needed, so that stateful ones (displays, overlays, windows,
+ * objects, events) are isolated from the parent and from other children.
+ * Shared services which are {@link OnDemandService on demand} are shared once
+ * the parent has started them; when the child needs one first, the parent
+ * starts it, so that parent and child never hold separate instances.
+ * </p>
+ * <p>
+ * Disposing the child disposes its own services only.
+ * </p>
+ * 
+ * @author agent
+ * @see ImageJ#fork()
+ */
+class ChildContext extends Context {
+
+	/**
+	 * Names of the services which a child shares with its parent: services
+	 * which hold no per-request state, and whose creation dominates the cost of
+	 * a context. The ImageJ 1.x legacy service is shared too, since there can
+	 * be only one per JVM.
+	 */
+	static final List<String> SHARED_SERVICES = Collections.unmodifiableList(
+		Arrays.asList( //
+			"org.scijava.convert.ConvertService", //
+			"org.scijava.log.LogService", //
+			"org.scijava.thread.ThreadService", //
+			"io.scif.codec.CodecService", //
+			"io.scif.services.FormatService", //
+			"io.scif.services.TranslatorService", //
+			"net.imagej.lut.LUTService", //
+			"net.imagej.memory.MemoryBudgetService", //
+			"net.imagej.metrics.MetricsService", //
+			"net.imagej.ops.NamespaceService", //
+			"net.imagej.ops.OpMatchingService", //
+			"net.imagej.ops.OpService", //
+			"net.imagej.types.DataTypeService", //
+			"net.imagej.legacy.LegacyService"));
+
+	private final Context parent;
+	private final List<Service> shared;
+
+	/**
+	 * Creates a child of the given context, sharing those of the given services
+	 * which are shared.
+	 */
+	public ChildContext(final Context parent, final List<Service> services) {
+		super(Collections.<Class<? extends Service>> emptyList(), new PluginIndex(
+			plugins -> {
+				plugins.addAll(parent.getPluginIndex().getAll());
+				return new HashMap<>();
+			}));
+		this.parent = parent;
+		shared = new ArrayList<>();
+		for (final Service service : services) {
+			if (isShared(service.getClass())) shared.add(service);
+		}
+		getServiceIndex().addAll(shared);
+	}
+
+	// -- ChildContext methods --
+
+	/**
+	 * Gets whether the given service class, or any of its supertypes, is among
+	 * the {@link #SHARED_SERVICES shared services}.
+	 */
+	public static boolean isShared(final Class<?> c) {
+		if (c == null) return false;
+		if (SHARED_SERVICES.contains(c.getName())) return true;
+		for (final Class<?> iface : c.getInterfaces()) {
+			if (isShared(iface)) return true;
+		}
+		return isShared(c.getSuperclass());
+	}
+
+	/** Gets the shared service classes which are available. */
+	public static List<Class<? extends Service>> sharedServiceClasses() {
+		final List<Class<? extends Service>> classes = new ArrayList<>();
+		for (final String name : SHARED_SERVICES) {
+			final Class<?> c = ClassUtils.loadClass(name);
+			if (c != null && Service.class.isAssignableFrom(c)) {
+				classes.add(c.asSubclass(Service.class));
+			}
+		}
+		return classes;
+	}
+
+	// -- Context methods --
+
+	@Override
+	public <S extends Service> S getService(final Class<S> c) {
+		final S service = super.getService(c);
+		// NB: The parent is null while the superclass is constructed.
+		if (service != null || parent == null || !isShared(c)) return service;
+		// NB: Share what the parent has started on demand since the fork.
+		return share(parent.getService(c));
+	}
+
+	@Override
+	public <S extends Service> S service(final Class<S> c) {
+		if (parent == null || !isShared(c) || super.getService(c) != null) {
+			return super.service(c);
+		}
+		// NB: Start shared services in the parent, rather than a copy here.
+		return share(parent.service(c));
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public void dispose() {
+		// NB: The shared services belong to the parent.
+		synchronized (shared) {
+			getServiceIndex().removeAll(shared);
+		}
+		super.dispose();
+	}
+
+	// -- Helper methods --
+
+	/** Adds the given service of the parent to the child's, if not null. */
+	private <S extends Service> S share(final S service) {
+		if (service == null) return null;
+		synchronized (shared) {
+			if (!shared.contains(service)) {
+				shared.add(service);
+				getServiceIndex().add(service);
+			}
+		}
+		return service;
+	}
+
+}
@@ -34,17 +34,38 @@
 import io.scif.SCIFIO;
 import io.scif.SCIFIOService;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import net.imagej.animation.AnimationService;
+import net.imagej.app.DeferredLegacy;
 import net.imagej.app.ImageJApp;
+import net.imagej.async.AsyncService;
+import net.imagej.cache.OpCacheService;
+import net.imagej.composite.CompositeService;
 import net.imagej.display.ImageDisplayService;
 import net.imagej.display.OverlayService;
 import net.imagej.display.ScreenCaptureService;
 import net.imagej.display.WindowService;
+import net.imagej.hyperslab.HyperslabService;
+import net.imagej.index.PluginIndexSnapshot;
+import net.imagej.io.LazyIOService;
+import net.imagej.io.ReaderCacheService;
 import net.imagej.lut.LUTService;
+import net.imagej.memory.MemoryBudgetService;
+import net.imagej.metrics.MetricsService;
 import net.imagej.notebook.NotebookService;
 import net.imagej.ops.OpService;
+import net.imagej.pipeline.PipelineService;
 import net.imagej.render.RenderingService;
 import net.imagej.sampler.SamplerService;
+import net.imagej.spatial.OverlayIndexService;
+import net.imagej.startup.ParallelServiceLoader;
+import net.imagej.startup.StartupProfiler;
+import net.imagej.startup.StartupReport;
+import net.imagej.thumbnail.ThumbnailService;
 import net.imagej.updater.UpdateService;
 import net.imagej.updater.UploaderService;
 
@@ -52,7 +73,12 @@
 import org.scijava.Context;
 import org.scijava.Gateway;
 import org.scijava.plugin.Plugin;
+import org.scijava.plugin.PluginFinder;
+import org.scijava.plugin.PluginIndex;
 import org.scijava.service.SciJavaService;
+import org.scijava.service.Service;
+import org.scijava.service.ServiceHelper;
+import org.scijava.util.ClassUtils;
 
 /**
  * Main entry point into ImageJ. This class enables working with ImageJ services
@@ -64,18 +90,98 @@
 @Plugin(type = Gateway.class)
 public class ImageJ extends AbstractGateway {
 
+	/**
+	 * Strategies for starting the services of a newly created ImageJ application
+	 * context.
+	 */
+	public enum Startup {
+
+		/**
+		 * All ImageJ, SCIFIO and SciJava services are created up front, except
+		 * for {@link OnDemandService}s.
+		 */
+		EAGER,
+
+		/**
+		 * No services are created up front; each service (along with its
+		 * dependencies) is created the first time it is requested from the
+		 * gateway.
+		 */
+		LAZY,
+
+		/**
+		 * All ImageJ, SCIFIO and SciJava services are created up front, but
+		 * services which do not depend on each other are initialized in
+		 * parallel.
+		 * 
+		 * @see ParallelServiceLoader
+		 */
+		PARALLEL
+	}
+
+	/** Class name of the ImageJ legacy service, from imagej-legacy. */
+	private static final String LEGACY_SERVICE =
+		"net.imagej.legacy.LegacyService";
+
+	/** How the services of this gateway's context are started. */
+	private final Startup startup;
+
+	/** Time spent constructing this gateway, in nanoseconds. */
+	private final long startupTime;
+
+	/** Profiler measuring the startup of this gateway, or null if disabled. */
+	private final StartupProfiler profiler;
+
+	/** Gateway from which this one was {@link #fork() forked}, or null. */
+	private final ImageJ parent;
+
 	/** SCIFIO gateway instance, for access to SCIFIO services. */
-	private SCIFIO scifio;
+	private volatile SCIFIO scifio;
 
 	// -- Constructors --
 
 	/**
 	 * Creates a new ImageJ application context with all ImageJ, SCIFIO and
-	 * SciJava services.
+	 * SciJava services. {@link OnDemandService}s are started when first
+	 * requested.
+	 * <p>
+	 * Plugins are discovered from the precomputed {@link PluginIndexSnapshot}
+	 * when it matches the current class path. If the
+	 * {@value StartupProfiler#PROPERTY} system property is set, the startup is
+	 * profiled; see {@link #getStartupReport()}. If the
+	 * {@value DeferredLegacy#PROPERTY} system property is set, the ImageJ 1.x
+	 * legacy layer is not started until it is needed; see {@link #legacy()}.
+	 * </p>
 	 */
 	public ImageJ() {
-		this(new Context(SciJavaService.class, SCIFIOService.class,
-			ImageJService.class));
+		this(Startup.EAGER);
+	}
+
+	/**
+	 * Creates a new ImageJ application context whose services are started
+	 * according to the given strategy.
+	 * 
+	 * @param startup {@link Startup#EAGER} to create all ImageJ, SCIFIO and
+	 *          SciJava services immediately, {@link Startup#PARALLEL} to do so
+	 *          using multiple threads, or {@link Startup#LAZY} to defer the
+	 *          creation of each service until it is first requested.
+	 */
+	public ImageJ(final Startup startup) {
+		this(startup, StartupProfiler.isEnabled() ? new StartupProfiler() : null);
+	}
+
+	/**
+	 * Creates a new ImageJ application context whose services are started
+	 * according to the given strategy, and whose startup is measured by the
+	 * given profiler.
+	 * 
+	 * @param startup The startup strategy; see {@link #ImageJ(Startup)}.
+	 * @param profiler The profiler which measures the startup, or null to not
+	 *          profile it.
+	 * @see #getStartupReport()
+	 */
+	public ImageJ(final Startup startup, final StartupProfiler profiler) {
+		this(System.nanoTime(), startup, profiler);
 	}
 
 	/**
@@ -85,13 +191,123 @@ public ImageJ() {
 	 * @see Context
 	 */
 	public ImageJ(final Context context) {
+		this(context, Startup.EAGER, System.nanoTime(), null, null);
+	}
+
+	private ImageJ(final long start, final Startup startup,
+		final StartupProfiler profiler)
+	{
+		this(createContext(startup, profiler), startup, start, profiler, null);
+	}
+
+	private ImageJ(final Context context, final Startup startup,
+		final long start, final StartupProfiler profiler, final ImageJ parent)
+	{
 		super(ImageJApp.NAME, context);
-		scifio = new SCIFIO(context);
+		this.startup = startup;
+		this.profiler = profiler;
+		this.parent = parent;
+		if (startup != Startup.LAZY) {
+			if (profiler == null) scifio = new SCIFIO(context);
+			else {
+				scifio = profiler.measure("[SCIFIO gateway]", () -> new SCIFIO(
+					context));
+				profiler.measure("[app version]", () -> app().getApp().getVersion());
+			}
+		}
+		startupTime = System.nanoTime() - start;
+	}
+
+	// -- ImageJ methods --
+
+	/** Gets the strategy used to start this gateway's services. */
+	public Startup getStartup() {
+		return startup;
+	}
+
+	/**
+	 * Gets the time spent constructing this gateway, including the creation of
+	 * its application context, in milliseconds.
+	 */
+	public double getStartupTime() {
+		return startupTime / 1e6;
+	}
+
+	/**
+	 * Gets the breakdown of this gateway's startup by service, or null if its
+	 * startup was not profiled. With {@link Startup#LAZY}, services started on
+	 * demand are added to the report as they are started.
+	 * 
+	 * @see StartupProfiler
+	 */
+	public StartupReport getStartupReport() {
+		return profiler == null ? null : profiler.getReport();
+	}
+
+	/**
+	 * Gets the classes of the services which have been started so far, in the
+	 * order in which the context reports them.
+	 * <p>
+	 * With {@link Startup#EAGER} or {@link Startup#PARALLEL} this is every
+	 * service of the context; with {@link Startup#LAZY} it is only the services
+	 * which have actually been requested, plus their dependencies.
+	 * </p>
+	 */
+	public List<Class<? extends Service>> getStartedServices() {
+		final List<Service> services = getContext().getServiceIndex().getAll();
+		final List<Class<? extends Service>> classes = new ArrayList<>();
+		for (final Service service : services) {
+			classes.add(service.getClass());
+		}
+		return classes;
+	}
+
+	/**
+	 * Creates a lightweight child gateway, e.g. to isolate the state of one
+	 * incoming request.
+	 * <p>
+	 * The child shares this gateway's plugin index, along with the services
+	 * which hold no per-request state, such as op matching, data types and the
+	 * SCIFIO format lists (see {@link ChildContext#SHARED_SERVICES}). All other
+	 * services, notably the stateful ones (displays, overlays, windows, objects
+	 * and events), are the child's own; they are started on demand, as with
+	 * {@link Startup#LAZY}. Creating a child therefore takes milliseconds,
+	 * rather than the time needed to discover plugins and start services.
+	 * </p>
+	 * <p>
+	 * Shared services keep reporting to this gateway: they see only this
+	 * gateway's events, and objects they create belong to this gateway's
+	 * context. Disposing the child's context disposes only its own services;
+	 * this gateway must outlive its children. Forking a child forks its parent.
+	 * </p>
+	 */
+	public ImageJ fork() {
+		if (parent != null) return parent.fork();
+		final long start = System.nanoTime();
+		final List<Service> services = new ArrayList<>();
+		for (final Class<? extends Service> c : ChildContext
+			.sharedServiceClasses())
+		{
+			// NB: Never start the legacy layer, or services which are on demand,
+			// just in order to share them; the child shares them once started.
+			final Service service = startup == Startup.LAZY && !DeferredLegacy
+				.isLegacy(c.getName()) && !OnDemandService.class.isAssignableFrom(c)
+					? loadService(getContext(), c) : getContext().getService(c);
+			if (service != null) services.add(service);
+		}
+		return new ImageJ(new ChildContext(getContext(), services), Startup.LAZY,
+			start, null, this);
+	}
+
+	/** Gets the gateway from which this one was {@link #fork() forked}, if any. */
+	public ImageJ getParent() {
+		return parent;
 	}
 
 	// -- ImageJ methods - gateways --
 
 	public SCIFIO scifio() {
+		if (scifio == null) initSCIFIO();
 		return scifio;
 	}
 
@@ -106,6 +322,24 @@ public AnimationService animation() {
 		return get(AnimationService.class);
 	}
 
+	/**
+	 * Gets this application context's {@link AsyncService}.
+	 *
+	 * @return The {@link AsyncService} of this application context.
+	 */
+	public AsyncService async() {
+		return get(AsyncService.class);
+	}
+
+	/**
+	 * Gets this application context's {@link CompositeService}.
+	 *
+	 * @return The {@link CompositeService} of this application context.
+	 */
+	public CompositeService composite() {
+		return get(CompositeService.class);
+	}
+
 	/**
 	 * Gets this application context's {@link DatasetService}.
 	 *
@@ -115,6 +349,15 @@ public DatasetService dataset() {
 		return get(DatasetService.class);
 	}
 
+	/**
+	 * Gets this application context's {@link HyperslabService}.
+	 *
+	 * @return The {@link HyperslabService} of this application context.
+	 */
+	public HyperslabService hyperslab() {
+		return get(HyperslabService.class);
+	}
+
 	/**
 	 * Gets this application context's {@link ImageDisplayService}.
 	 *
@@ -124,6 +367,15 @@ public ImageDisplayService imageDisplay() {
 		return get(ImageDisplayService.class);
 	}
 
+	/**
+	 * Gets this application context's {@link LazyIOService}.
+	 *
+	 * @return The {@link LazyIOService} of this application context.
+	 */
+	public LazyIOService lazyIO() {
+		return get(LazyIOService.class);
+	}
+
 	/**
 	 * Gets this application context's {@link LUTService}.
 	 *
@@ -133,6 +385,24 @@ public LUTService lut() {
 		return get(LUTService.class);
 	}
 
+	/**
+	 * Gets this application context's {@link MemoryBudgetService}.
+	 *
+	 * @return The {@link MemoryBudgetService} of this application context.
+	 */
+	public MemoryBudgetService memoryBudget() {
+		return get(MemoryBudgetService.class);
+	}
+
+	/**
+	 * Gets this application context's {@link MetricsService}.
+	 *
+	 * @return The {@link MetricsService} of this application context.
+	 */
+	public MetricsService metrics() {
+		return get(MetricsService.class);
+	}
+
 	/**
 	 * Gets this application context's {@link NotebookService}.
 	 *
@@ -151,6 +421,15 @@ public OpService op() {
 		return get(OpService.class);
 	}
 
+	/**
+	 * Gets this application context's {@link OpCacheService}.
+	 *
+	 * @return The {@link OpCacheService} of this application context.
+	 */
+	public OpCacheService opCache() {
+		return get(OpCacheService.class);
+	}
+
 	/**
 	 * Gets this application context's {@link OverlayService}.
 	 *
@@ -160,6 +439,33 @@ public OverlayService overlay() {
 		return get(OverlayService.class);
 	}
 
+	/**
+	 * Gets this application context's {@link OverlayIndexService}.
+	 *
+	 * @return The {@link OverlayIndexService} of this application context.
+	 */
+	public OverlayIndexService overlayIndex() {
+		return get(OverlayIndexService.class);
+	}
+
+	/**
+	 * Gets this application context's {@link PipelineService}.
+	 *
+	 * @return The {@link PipelineService} of this application context.
+	 */
+	public PipelineService pipeline() {
+		return get(PipelineService.class);
+	}
+
+	/**
+	 * Gets this application context's {@link ReaderCacheService}.
+	 *
+	 * @return The {@link ReaderCacheService} of this application context.
+	 */
+	public ReaderCacheService readerCache() {
+		return get(ReaderCacheService.class);
+	}
+
 	/**
 	 * Gets this application context's {@link RenderingService}.
 	 *
@@ -187,6 +493,15 @@ public ScreenCaptureService screenCapture() {
 		return get(ScreenCaptureService.class);
 	}
 
+	/**
+	 * Gets this application context's {@link ThumbnailService}.
+	 *
+	 * @return The {@link ThumbnailService} of this application context.
+	 */
+	public ThumbnailService thumbnail() {
+		return get(ThumbnailService.class);
+	}
+
 	/**
 	 * Gets this application context's {@link UpdateService}.
 	 *
@@ -214,10 +529,115 @@ public WindowService window() {
 		return get(WindowService.class);
 	}
 
+	/**
+	 * Gets this application context's ImageJ legacy service, starting the
+	 * ImageJ 1.x legacy layer if it has been deferred.
+	 *
+	 * @return The legacy service, or null if imagej-legacy is not available.
+	 * @see DeferredLegacy
+	 */
+	public Service legacy() {
+		final Class<?> c = ClassUtils.loadClass(LEGACY_SERVICE);
+		if (c == null || !Service.class.isAssignableFrom(c)) return null;
+		return get(c.asSubclass(Service.class));
+	}
+
 	// -- Gateway methods --
 
+	@Override
+	public <S extends Service> S get(final Class<S> serviceClass) {
+		if (parent != null && ChildContext.isShared(serviceClass)) {
+			return parent.get(serviceClass);
+		}
+		if (DeferredLegacy.isLegacy(serviceClass.getName())) {
+			DeferredLegacy.start(getContext());
+		}
+		if (startup == Startup.LAZY || OnDemandService.class.isAssignableFrom(
+			serviceClass))
+		{
+			final S service = profiler == null || getContext().getService(
+				serviceClass) != null ? loadService(getContext(), serviceClass)
+					: profiler.measure(serviceClass.getName(), () -> loadService(
+						getContext(), serviceClass));
+			if (service != null) return service;
+		}
+		return super.get(serviceClass);
+	}
+
 	@Override
 	public String getShortName() {
 		return "ij";
 	}
+
+	// -- Helper methods --
+
+	private static Context createContext(final Startup startup,
+		final StartupProfiler profiler)
+	{
+		final List<Class<? extends Service>> serviceClasses;
+		if (startup == Startup.LAZY) serviceClasses = Collections.emptyList();
+		else serviceClasses = Arrays.<Class<? extends Service>> asList(
+			SciJavaService.class, SCIFIOService.class, ImageJService.class);
+		final DeferredLegacy legacy = DeferredLegacy.isEnabled()
+			? new DeferredLegacy() : null;
+		final PluginIndex pluginIndex = profiler == null ? createPluginIndex(
+			legacy) : profiler.measure("[plugin index]", () -> createPluginIndex(
+				legacy));
+		final Context context;
+		if (startup == Startup.PARALLEL) {
+			context = new ParallelServiceLoader(profiler).createContext(
+				serviceClasses, pluginIndex);
+		}
+		else if (profiler == null) {
+			context = new Context(Collections.<Class<? extends Service>> emptyList(),
+				pluginIndex);
+			new ServiceHelper(context, OnDemandService.startupServices(context
+				.getPluginIndex(), serviceClasses)).loadServices();
+		}
+		else context = profiler.createContext(serviceClasses, pluginIndex);
+		if (legacy != null) legacy.attach(context);
+		return context;
+	}
+
+	private static PluginIndex createPluginIndex(final DeferredLegacy legacy) {
+		final PluginFinder finder = PluginIndexSnapshot.finder();
+		return new PluginIndex(legacy == null ? finder : legacy.wrap(finder));
+	}
+
+	private synchronized void initSCIFIO() {
+		if (scifio != null) return;
+		scifio = startup == Startup.LAZY ? new LazySCIFIO(getContext())
+			: new SCIFIO(getContext());
+	}
+
+	/**
+	 * Obtains the requested service from the given context, creating it (and any
+	 * services it depends on) if it has not been started yet.
+	 */
+	private static <S extends Service> S loadService(final Context context,
+		final Class<S> serviceClass)
+	{
+		final S service = context.getService(serviceClass);
+		if (service != null) return service;
+		synchronized (context) {
+			return new ServiceHelper(context).loadService(serviceClass);
+		}
+	}
+
+	// -- Helper classes --
+
+	/** A SCIFIO gateway which starts its services on demand. */
+	private static class LazySCIFIO extends SCIFIO {
+
+		public LazySCIFIO(final Context context) {
+			super(context);
+		}
+
+		@Override
+		public <S extends Service> S get(final Class<S> serviceClass) {
+			final S service = loadService(getContext(), serviceClass);
+			return service == null ? super.get(serviceClass) : service;
+		}
+	}
+
 }
@@ -0,0 +1,444 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.imagej.event.DatasetDeletedEvent;
+import net.imagej.event.OverlayDeletedEvent;
+import net.imagej.overlay.Overlay;
+
+import org.scijava.Context;
+import org.scijava.display.Display;
+import org.scijava.display.DisplayService;
+import org.scijava.event.EventService;
+import org.scijava.object.ObjectService;
+
+/**
+ * A pool of reusable {@link ImageJ} gateways, for workloads which process
+ * many independent requests concurrently.
+ * <p>
+ * Each gateway is leased by one thread at a time, so that stateful services
+ * (displays, overlays, windows) are never shared between requests. When a
+ * gateway is released, its displays are closed, the datasets and overlays it
+ * still holds are deleted, and it is checked for health; unhealthy gateways
+ * are disposed and replaced.
+ * Gateways are created on demand, up to the size of the pool; disposing the
+ * pool fails all leases which are still waiting.
+ * </p>
+ * 
+ * @author agent
+ */
+public class ImageJPool {
+
+	private final int size;
+	private final ImageJ.Startup startup;
+
+	/** Guards the gateways, the number created, and the disposed flag. */
+	private final Lock lock = new ReentrantLock();
+	private final Condition available = lock.newCondition();
+	private final Deque<ImageJ> idle = new ArrayDeque<>();
+	private final Map<ImageJ, Long> leased = new IdentityHashMap<>();
+	private int created;
+	private boolean disposed;
+
+	private final AtomicLong leaseCount = new AtomicLong();
+	private final AtomicLong totalWaitTime = new AtomicLong();
+	private final AtomicLong maxWaitTime = new AtomicLong();
+	private final AtomicLong returnCount = new AtomicLong();
+	private final AtomicLong totalLeaseTime = new AtomicLong();
+	private final AtomicLong discardCount = new AtomicLong();
+
+	/**
+	 * Creates a pool of up to the given number of eagerly started gateways.
+	 */
+	public ImageJPool(final int size) {
+		this(size, ImageJ.Startup.EAGER);
+	}
+
+	/**
+	 * Creates a pool of up to the given number of gateways, whose services are
+	 * started according to the given strategy.
+	 */
+	public ImageJPool(final int size, final ImageJ.Startup startup) {
+		if (size < 1) throw new IllegalArgumentException("Invalid size: " + size);
+		this.size = size;
+		this.startup = startup;
+	}
+
+	// -- ImageJPool methods --
+
+	/** Gets the maximum number of gateways in the pool. */
+	public int getSize() {
+		return size;
+	}
+
+	/** Gets the number of gateways which are currently leased. */
+	public int getInUse() {
+		lock.lock();
+		try {
+			return leased.size();
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Leases a gateway, waiting as long as necessary for one to become
+	 * available.
+	 * 
+	 * @throws IllegalStateException if the pool is disposed, also while
+	 *           waiting.
+	 */
+	public ImageJ lease() throws InterruptedException {
+		return lease(-1, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Leases a gateway, waiting up to the given time for one to become
+	 * available.
+	 * 
+	 * @return The leased gateway, or null if none became available in time.
+	 * @throws IllegalStateException if the pool is disposed, also while
+	 *           waiting.
+	 */
+	public ImageJ lease(final long timeout, final TimeUnit unit)
+		throws InterruptedException
+	{
+		final long start = System.nanoTime();
+		ImageJ ij;
+		lock.lock();
+		try {
+			long remaining = unit.toNanos(timeout);
+			while (true) {
+				if (disposed) throw new IllegalStateException("Pool is disposed");
+				ij = idle.poll();
+				if (ij != null) break;
+				if (created < size) {
+					// NB: Reserve a slot; the gateway is created outside the lock.
+					created++;
+					break;
+				}
+				if (timeout < 0) available.await();
+				else if (remaining <= 0) return null;
+				else remaining = available.awaitNanos(remaining);
+			}
+			if (ij != null) leased.put(ij, System.nanoTime());
+		}
+		finally {
+			lock.unlock();
+		}
+		if (ij == null) ij = create();
+		final long wait = System.nanoTime() - start;
+		leaseCount.incrementAndGet();
+		totalWaitTime.addAndGet(wait);
+		long max;
+		while (wait > (max = maxWaitTime.get())) {
+			if (maxWaitTime.compareAndSet(max, wait)) break;
+		}
+		return ij;
+	}
+
+	/**
+	 * Returns a leased gateway to the pool, resetting its display and overlay
+	 * state. If the gateway fails its health check afterwards, it is disposed;
+	 * its replacement is created by the next lease.
+	 */
+	public void release(final ImageJ ij) {
+		final Long start;
+		lock.lock();
+		try {
+			start = leased.remove(ij);
+		}
+		finally {
+			lock.unlock();
+		}
+		if (start == null) {
+			throw new IllegalArgumentException("Gateway was not leased from this pool");
+		}
+		returnCount.incrementAndGet();
+		totalLeaseTime.addAndGet(System.nanoTime() - start);
+
+		boolean healthy;
+		try {
+			reset(ij);
+			healthy = isHealthy(ij);
+		}
+		catch (final RuntimeException exc) {
+			healthy = false;
+		}
+		if (!healthy) discardCount.incrementAndGet();
+		lock.lock();
+		try {
+			if (healthy && !disposed) {
+				idle.add(ij);
+				available.signal();
+				return;
+			}
+			// NB: Free the slot, so that a waiting thread can create a gateway.
+			created--;
+			available.signal();
+		}
+		finally {
+			lock.unlock();
+		}
+		dispose(ij);
+	}
+
+	/**
+	 * Disposes all idle gateways, and fails the leases which are waiting for
+	 * one; leased gateways are disposed upon release.
+	 */
+	public void dispose() {
+		final List<ImageJ> gateways;
+		lock.lock();
+		try {
+			disposed = true;
+			gateways = new ArrayList<>(idle);
+			idle.clear();
+			created -= gateways.size();
+			available.signalAll();
+		}
+		finally {
+			lock.unlock();
+		}
+		for (final ImageJ ij : gateways) {
+			dispose(ij);
+		}
+	}
+
+	/** Gets a snapshot of the pool's usage statistics. */
+	public Statistics getStatistics() {
+		return new Statistics(this);
+	}
+
+	/**
+	 * Checks whether the given gateway is fit to be reused. The default
+	 * implementation verifies that its context is still populated and that
+	 * resetting it left no displays, datasets or overlays behind.
+	 */
+	protected boolean isHealthy(final ImageJ ij) {
+		final Context context = ij.getContext();
+		if (context == null) return false;
+		if (ij.getStartup() != ImageJ.Startup.LAZY && context.getServiceIndex()
+			.isEmpty()) return false;
+		final DisplayService displayService =
+			context.getService(DisplayService.class);
+		if (displayService != null && !displayService.getDisplays().isEmpty()) {
+			return false;
+		}
+		final ObjectService objectService =
+			context.getService(ObjectService.class);
+		return objectService == null || objectService.getObjects(Dataset.class)
+			.isEmpty() && objectService.getObjects(Overlay.class).isEmpty();
+	}
+
+	/**
+	 * Clears the mutable state of the given gateway: closes its displays, which
+	 * also deactivates their overlays, and deletes the datasets and overlays
+	 * which are still registered with its object service. A deletion event is
+	 * published for each of them, so that the services holding on to them (such
+	 * as caches and indices) let go as well. Services which have not been
+	 * started are left alone.
+	 */
+	protected void reset(final ImageJ ij) {
+		final Context context = ij.getContext();
+		final DisplayService displayService =
+			context.getService(DisplayService.class);
+		if (displayService != null) {
+			for (final Display<?> display : new ArrayList<>(displayService
+				.getDisplays()))
+			{
+				display.close();
+			}
+		}
+		final ObjectService objectService =
+			context.getService(ObjectService.class);
+		if (objectService == null) return;
+		final EventService eventService = context.getService(EventService.class);
+		for (final Overlay overlay : new ArrayList<>(objectService.getObjects(
+			Overlay.class)))
+		{
+			if (eventService != null) {
+				eventService.publish(new OverlayDeletedEvent(overlay));
+			}
+			remove(objectService, overlay);
+		}
+		for (final Dataset dataset : new ArrayList<>(objectService.getObjects(
+			Dataset.class)))
+		{
+			if (eventService != null) {
+				eventService.publish(new DatasetDeletedEvent(dataset));
+			}
+			remove(objectService, dataset);
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Creates a gateway in a slot reserved by {@link #lease}. */
+	private ImageJ create() {
+		final ImageJ ij;
+		try {
+			ij = new ImageJ(startup);
+		}
+		catch (final RuntimeException | Error exc) {
+			lock.lock();
+			try {
+				created--;
+				available.signal();
+			}
+			finally {
+				lock.unlock();
+			}
+			throw exc;
+		}
+		lock.lock();
+		try {
+			if (!disposed) {
+				leased.put(ij, System.nanoTime());
+				return ij;
+			}
+			created--;
+		}
+		finally {
+			lock.unlock();
+		}
+		dispose(ij);
+		throw new IllegalStateException("Pool is disposed");
+	}
+
+	private int getCreated() {
+		lock.lock();
+		try {
+			return created;
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the given object from the object service, unless handling its
+	 * deletion event already did.
+	 */
+	private void remove(final ObjectService objectService, final Object o) {
+		if (objectService.getIndex().contains(o)) objectService.removeObject(o);
+	}
+
+	private void dispose(final ImageJ ij) {
+		ij.getContext().dispose();
+	}
+
+	// -- Helper classes --
+
+	/** Usage statistics of an {@link ImageJPool}, in milliseconds. */
+	public static class Statistics {
+
+		private final int size;
+		private final int created;
+		private final int inUse;
+		private final long leases;
+		private final long discarded;
+		private final double averageWaitTime;
+		private final double maxWaitTime;
+		private final double averageLeaseTime;
+
+		private Statistics(final ImageJPool pool) {
+			size = pool.size;
+			created = pool.getCreated();
+			inUse = pool.getInUse();
+			leases = pool.leaseCount.get();
+			discarded = pool.discardCount.get();
+			averageWaitTime = average(pool.totalWaitTime.get(), leases);
+			maxWaitTime = pool.maxWaitTime.get() / 1e6;
+			averageLeaseTime = average(pool.totalLeaseTime.get(), pool.returnCount
+				.get());
+		}
+
+		public int getSize() {
+			return size;
+		}
+
+		public int getCreated() {
+			return created;
+		}
+
+		public int getInUse() {
+			return inUse;
+		}
+
+		public long getLeases() {
+			return leases;
+		}
+
+		public long getDiscarded() {
+			return discarded;
+		}
+
+		public double getAverageWaitTime() {
+			return averageWaitTime;
+		}
+
+		public double getMaxWaitTime() {
+			return maxWaitTime;
+		}
+
+		public double getAverageLeaseTime() {
+			return averageLeaseTime;
+		}
+
+		@Override
+		public String toString() {
+			return "size=" + size + ", created=" + created + ", inUse=" + inUse +
+				", leases=" + leases + ", discarded=" + discarded +
+				", averageWait=" + averageWaitTime + "ms, maxWait=" + maxWaitTime +
+				"ms, averageLease=" + averageLeaseTime + "ms";
+		}
+
+		private static double average(final long totalNanos, final long count) {
+			return count == 0 ? 0 : totalNanos / 1e6 / count;
+		}
+	}
+
+}
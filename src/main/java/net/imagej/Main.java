@@ -31,13 +31,38 @@
 
 package net.imagej;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.imagej.index.JarIndex;
+import net.imagej.metrics.MetricsService;
+import net.imagej.startup.StartupProfiler;
+import net.imagej.startup.StartupReport;
+
 /**
  * Launches ImageJ.
+ * <p>
+ * In addition to the arguments understood by {@link ImageJ#launch}, the
+ * {@code --profile-startup} argument prints a breakdown of the time and
+ * resources spent starting each service to standard error, and the
+ * {@code --dump-metrics[=<file>]} argument writes the
+ * {@link net.imagej.metrics.MetricsService runtime metrics} as JSON to the
+ * given file (or to standard error) when the JVM shuts down.
+ * </p>
  * 
  * @author Curtis Rueden
  */
 public final class Main {
 
+	private static final String PROFILE_STARTUP = "--profile-startup";
+
+	private static final String DUMP_METRICS = "--dump-metrics";
+
 	private Main() {
 		// prevent instantiation of utility class
 	}
@@ -45,14 +70,85 @@ private Main() {
 	/** @deprecated Use {@link ImageJ#launch} instead. */
 	@Deprecated
 	public static ImageJ launch(final String... args) {
-		final ImageJ ij = new ImageJ();
-		ij.launch(args);
-		return ij;
+		return run(args);
 	}
 
 	public static void main(final String... args) {
-		final ImageJ ij = new ImageJ();
-		ij.launch(args);
+		run(args);
+	}
+
+	// -- Helper methods --
+
+	private static ImageJ run(final String... args) {
+		final List<String> argList = new ArrayList<>(Arrays.asList(args));
+		final ImageJ ij = create(argList);
+		ij.launch(argList.toArray(new String[argList.size()]));
+		return ij;
+	}
+
+	/**
+	 * Creates the ImageJ gateway, consuming the arguments which influence its
+	 * creation.
+	 */
+	private static ImageJ create(final List<String> args) {
+		final boolean profile = args.remove(PROFILE_STARTUP) || StartupProfiler
+			.isEnabled();
+		final String metricsFile = removeOption(args, DUMP_METRICS);
+		JarIndex.installForClassPath();
+		final ImageJ ij = new ImageJ(ImageJ.Startup.EAGER, profile
+			? new StartupProfiler() : null);
+		if (metricsFile != null) dumpMetricsOnShutdown(ij, metricsFile);
+		final StartupReport report = ij.getStartupReport();
+		if (report != null) {
+			System.err.println("ImageJ started in " + ij.getStartupTime() + " ms");
+			System.err.print(report);
+		}
+		return ij;
+	}
+
+	/**
+	 * Removes the given option, of the form {@code --option} or
+	 * {@code --option=value}, from the arguments.
+	 * 
+	 * @return The value of the option, the empty string if it has no value, or
+	 *         null if it is absent.
+	 */
+	private static String removeOption(final List<String> args,
+		final String option)
+	{
+		for (int i = 0; i < args.size(); i++) {
+			final String arg = args.get(i);
+			if (arg.equals(option)) {
+				args.remove(i);
+				return "";
+			}
+			if (arg.startsWith(option + "=")) {
+				args.remove(i);
+				return arg.substring(option.length() + 1);
+			}
+		}
+		return null;
+	}
+
+	private static void dumpMetricsOnShutdown(final ImageJ ij,
+		final String file)
+	{
+		// NB: Get the service right away, since the context may be disposed by
+		// the time the hook runs.
+		final MetricsService metrics = ij.metrics();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			final String json = metrics.toJSON();
+			if (file.isEmpty()) {
+				System.err.print(json);
+				return;
+			}
+			try {
+				Files.write(Paths.get(file), json.getBytes(StandardCharsets.UTF_8));
+			}
+			catch (final IOException exc) {
+				System.err.println("Cannot write metrics to " + file + ": " + exc);
+			}
+		}, "imagej-metrics-dump"));
 	}
 
 }
@@ -0,0 +1,87 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.scijava.InstantiableException;
+import org.scijava.plugin.PluginIndex;
+import org.scijava.plugin.PluginInfo;
+import org.scijava.service.Service;
+
+/**
+ * Marker interface for ImageJ services which are not started along with the
+ * {@link ImageJ} gateway, but only when first requested from it (or required
+ * by another service). Services which add optional capabilities, and which
+ * most applications never use, should be on demand, so that they do not add
+ * to the startup time of every context.
+ * 
+ * @author agent
+ */
+public interface OnDemandService extends ImageJService {
+
+	/**
+	 * Gets the concrete service classes of the given plugin index which provide
+	 * any of the given service types and are not on demand, in priority order;
+	 * these are the services to start up front.
+	 */
+	static List<Class<? extends Service>> startupServices(
+		final PluginIndex pluginIndex,
+		final Collection<Class<? extends Service>> serviceClasses)
+	{
+		final List<Class<? extends Service>> classes = new ArrayList<>();
+		for (final PluginInfo<Service> info : pluginIndex.getPlugins(
+			Service.class))
+		{
+			final Class<? extends Service> c;
+			try {
+				c = info.loadClass();
+			}
+			catch (final InstantiableException exc) {
+				continue;
+			}
+			if (c.isInterface() || Modifier.isAbstract(c.getModifiers())) continue;
+			if (OnDemandService.class.isAssignableFrom(c)) continue;
+			for (final Class<? extends Service> serviceClass : serviceClasses) {
+				if (serviceClass.isAssignableFrom(c)) {
+					classes.add(c);
+					break;
+				}
+			}
+		}
+		return classes;
+	}
+
+}
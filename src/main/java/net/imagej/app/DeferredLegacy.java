@@ -0,0 +1,229 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.app;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.scijava.Context;
+import org.scijava.InstantiableException;
+import org.scijava.log.LogService;
+import org.scijava.module.ModuleInfo;
+import org.scijava.plugin.PluginFinder;
+import org.scijava.plugin.PluginInfo;
+import org.scijava.plugin.PluginService;
+import org.scijava.script.ScriptInfo;
+import org.scijava.script.ScriptLanguage;
+import org.scijava.script.ScriptService;
+import org.scijava.service.Service;
+import org.scijava.service.ServiceHelper;
+
+/**
+ * Defers the ImageJ 1.x legacy layer until it is actually needed.
+ * <p>
+ * Starting the legacy service patches the ImageJ 1.x classes with javassist,
+ * which is among the most expensive steps of an ImageJ startup, and is wasted
+ * on headless jobs which only run ops. When the {@value #PROPERTY} system
+ * property is set, the plugins of the {@code net.imagej.legacy} package are
+ * withheld from the plugin index of a new gateway, and only added back (and
+ * their services started) when {@link #start(Context)} is called.
+ * </p>
+ * <p>
+ * The {@link net.imagej.ImageJ} gateway does so as soon as a legacy service
+ * is requested. Otherwise, the legacy layer is only started right before an
+ * ImageJ 1.x macro or legacy command runs (see {@link #isLegacy(ModuleInfo)}
+ * and the {@link DeferredLegacyPreprocessor}), so that scripts in other
+ * languages and non-legacy commands run without it. The batch and daemon
+ * modes do so before running an ImageJ 1.x macro, too.
+ * </p>
+ * 
+ * @author agent
+ */
+public final class DeferredLegacy {
+
+	/** System property which enables the deferred legacy bootstrap. */
+	public static final String PROPERTY = "imagej.legacy.defer";
+
+	/** Package prefix of the ImageJ legacy layer. */
+	public static final String PACKAGE = "net.imagej.legacy.";
+
+	/** The deferred legacy layers, keyed on their application context. */
+	private static final Map<Context, DeferredLegacy> DEFERRED = Collections
+		.synchronizedMap(new WeakHashMap<>());
+
+	private final List<PluginInfo<?>> withheld = new ArrayList<>();
+
+	/** Guards the bootstrap, without locking the public context object. */
+	private final Object lock = new Object();
+
+	private volatile boolean started;
+
+	/** Gets whether new gateways should defer their legacy layer. */
+	public static boolean isEnabled() {
+		return Boolean.getBoolean(PROPERTY);
+	}
+
+	/** Gets whether the given class belongs to the ImageJ legacy layer. */
+	public static boolean isLegacy(final String className) {
+		return className != null && className.startsWith(PACKAGE);
+	}
+
+	/**
+	 * Gets whether the given module is an ImageJ 1.x macro or a legacy command,
+	 * and thus needs the legacy layer.
+	 */
+	public static boolean isLegacy(final ModuleInfo info) {
+		if (info instanceof ScriptInfo) {
+			final String path = ((ScriptInfo) info).getPath();
+			return path != null && isLegacyScript(new File(path));
+		}
+		return isLegacy(info.getClass().getName()) || isLegacy(info
+			.getDelegateClassName());
+	}
+
+	/** Gets whether the given script is an ImageJ 1.x macro. */
+	public static boolean isLegacyScript(final File script) {
+		return script.getName().toLowerCase().endsWith(".ijm");
+	}
+
+	/**
+	 * Gets whether the given context has a legacy layer which has been deferred
+	 * and not yet started.
+	 */
+	public static boolean isDeferred(final Context context) {
+		final DeferredLegacy legacy = DEFERRED.get(context);
+		return legacy != null && !legacy.started;
+	}
+
+	/**
+	 * Starts the deferred legacy layer of the given context, if any. Does
+	 * nothing if the context does not defer its legacy layer, or if it has
+	 * already been started.
+	 */
+	public static void start(final Context context) {
+		final DeferredLegacy legacy = DEFERRED.get(context);
+		if (legacy != null) legacy.bootstrap(context);
+	}
+
+	/**
+	 * Wraps the given plugin finder, withholding the plugins of the legacy
+	 * layer from the plugins it discovers.
+	 */
+	public PluginFinder wrap(final PluginFinder finder) {
+		return new PluginFinder() {
+
+			@Override
+			public HashMap<String, Throwable> findPlugins(
+				final List<PluginInfo<?>> plugins)
+			{
+				final HashMap<String, Throwable> exceptions = //
+					finder.findPlugins(plugins);
+				synchronized (withheld) {
+					final Iterator<PluginInfo<?>> iter = plugins.iterator();
+					while (iter.hasNext()) {
+						final PluginInfo<?> info = iter.next();
+						if (!isLegacy(info.getClassName())) continue;
+						withheld.add(info);
+						iter.remove();
+					}
+				}
+				return exceptions;
+			}
+		};
+	}
+
+	/**
+	 * Associates this deferred legacy layer with the context whose plugin index
+	 * was built by {@link #wrap(PluginFinder) our finder}.
+	 */
+	public void attach(final Context context) {
+		DEFERRED.put(context, this);
+	}
+
+	// -- Helper methods --
+
+	private void bootstrap(final Context context) {
+		synchronized (lock) {
+			if (started) return;
+			started = true;
+
+			final List<PluginInfo<?>> plugins;
+			synchronized (withheld) {
+				plugins = new ArrayList<>(withheld);
+				withheld.clear();
+			}
+			if (plugins.isEmpty()) return;
+
+			// NB: Adding the plugins via the plugin service notifies interested
+			// services (e.g., the command service) of the new plugins.
+			final PluginService pluginService = //
+				context.getService(PluginService.class);
+			if (pluginService == null) context.getPluginIndex().addAll(plugins);
+			else pluginService.addPlugins(plugins);
+
+			final ServiceHelper serviceHelper = new ServiceHelper(context);
+			final ScriptService scriptService = //
+				context.getService(ScriptService.class);
+			for (final PluginInfo<?> info : plugins) {
+				try {
+					if (Service.class.isAssignableFrom(info.getPluginType())) {
+						serviceHelper.loadService(info.loadClass().asSubclass(
+							Service.class));
+					}
+					else if (scriptService != null && pluginService != null &&
+						ScriptLanguage.class.isAssignableFrom(info.getPluginType()))
+					{
+						@SuppressWarnings("unchecked")
+						final PluginInfo<ScriptLanguage> languageInfo =
+							(PluginInfo<ScriptLanguage>) info;
+						final ScriptLanguage language = //
+							pluginService.createInstance(languageInfo);
+						if (language != null) {
+							scriptService.getLanguages().add(language, false);
+						}
+					}
+				}
+				catch (final InstantiableException | IllegalArgumentException exc) {
+					final LogService log = context.getService(LogService.class);
+					if (log != null) log.error("Cannot start " + info, exc);
+				}
+			}
+		}
+	}
+
+}
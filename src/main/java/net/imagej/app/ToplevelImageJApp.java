@@ -31,6 +31,16 @@
 
 package net.imagej.app;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+import org.scijava.Context;
 import org.scijava.app.App;
 import org.scijava.log.LogService;
 import org.scijava.plugin.Parameter;
@@ -52,6 +62,20 @@ public class ToplevelImageJApp extends ImageJApp {
 	// NB: This app uses the same name as ImageJApp, but with a higher priority,
 	// so that it takes precedence in the AppService.
 
+	/** Class name of the ImageJ legacy service, from imagej-legacy. */
+	private static final String LEGACY_SERVICE =
+		"net.imagej.legacy.LegacyService";
+
+	/** Maven metadata of the ImageJ 1.x JAR file. */
+	private static final String IJ_POM =
+		"META-INF/maven/net.imagej/ij/pom.properties";
+
+	/**
+	 * The cached ImageJ 1.x version, resolved once per JVM: null until it has
+	 * been resolved, and empty if it could not be resolved.
+	 */
+	private static volatile Optional<String> legacyVersion;
+
 	@Parameter(required = false)
 	private LogService log;
 
@@ -69,23 +93,75 @@ public String getVersion() {
 
 	// -- Helper methods --
 
+	/**
+	 * Gets the version of ImageJ 1.x available to the legacy layer.
+	 * <p>
+	 * The version is resolved from the build metadata of the ImageJ 1.x JAR
+	 * file, without loading the legacy layer itself: loading it (let alone
+	 * starting the legacy service) triggers the patching of the ImageJ 1.x
+	 * classes, which merely asking for the application version should not do.
+	 * Only if the metadata is unavailable is the version requested from a
+	 * legacy service which is already running.
+	 * </p>
+	 * <p>
+	 * Consequently, the ImageJ 1.x version is reported whenever imagej-legacy
+	 * and ImageJ 1.x are available, even if the legacy service is not running
+	 * (e.g., because it is {@link DeferredLegacy deferred}); formerly, it was
+	 * only reported while a legacy service was running.
+	 * </p>
+	 */
 	private String getLegacyVersion() {
-		try {
-			final Class<?> c = Class.forName("net.imagej.legacy.LegacyService");
-			if (!Service.class.isAssignableFrom(c)) return null; // no imagej-legacy
-
-			@SuppressWarnings("unchecked")
-			final Class<? extends Service> sc = (Class<? extends Service>) c;
-
-			final Service legacyService = getContext().getService(sc);
-			if (legacyService == null) return null; // no LegacyService in context
+		Optional<String> version = legacyVersion;
+		if (version == null) {
+			version = Optional.ofNullable(resolveLegacyVersion());
+			legacyVersion = version;
+		}
+		return version.isPresent() ? version.get() : getRunningLegacyVersion();
+	}
 
-			return legacyService.getVersion();
+	private String resolveLegacyVersion() {
+		final ClassLoader loader = Context.getClassLoader();
+		if (loader.getResource(LEGACY_SERVICE.replace('.', '/') +
+			".class") == null)
+		{
+			return null; // no imagej-legacy
+		}
+		try {
+			final URL pom = loader.getResource(IJ_POM);
+			if (pom != null) {
+				final Properties properties = new Properties();
+				try (final InputStream in = pom.openStream()) {
+					properties.load(in);
+				}
+				final String version = properties.getProperty("version");
+				if (version != null) return version;
+			}
+			final URL ij = loader.getResource("ij/IJ.class");
+			if (ij != null && "jar".equals(ij.getProtocol())) {
+				final JarURLConnection connection = //
+					(JarURLConnection) ij.openConnection();
+				connection.setUseCaches(false);
+				final Manifest manifest = connection.getManifest();
+				if (manifest != null) {
+					return manifest.getMainAttributes().getValue(
+						Attributes.Name.IMPLEMENTATION_VERSION);
+				}
+			}
 		}
-		catch (final ClassNotFoundException exc) {
+		catch (final IOException exc) {
 			if (log != null) log.debug(exc);
 		}
 		return null;
 	}
 
+	private String getRunningLegacyVersion() {
+		// NB: Match by name, since loading the class would patch ImageJ 1.x.
+		for (final Service service : getContext().getServiceIndex()) {
+			if (LEGACY_SERVICE.equals(service.getClass().getName())) {
+				return service.getVersion();
+			}
+		}
+		return null;
+	}
+
 }
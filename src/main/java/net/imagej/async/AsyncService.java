@@ -0,0 +1,109 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.async;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import net.imagej.Dataset;
+import net.imagej.OnDemandService;
+
+/**
+ * Interface for services which run ImageJ operations asynchronously.
+ * <p>
+ * Each operation returns a {@link CompletableFuture}, which can be cancelled:
+ * cancelling it with {@code mayInterruptIfRunning} interrupts the operation if
+ * it has already started. At most {@link #getConcurrency()} operations run at
+ * the same time, so that operations which parallelize internally (as many ops
+ * do) do not oversubscribe the processors; and at most
+ * {@link #getMaxPending()} operations may be pending, beyond which submitting
+ * another operation blocks until one of them has completed.
+ * </p>
+ * <p>
+ * An operation submitted from within another operation runs right away, on
+ * the thread of the submitting operation, and its future is already complete
+ * when returned; otherwise, an operation waiting for nested ones could
+ * deadlock the service. Disposing the service cancels all operations which
+ * have not completed yet.
+ * </p>
+ * 
+ * @author agent
+ */
+public interface AsyncService extends OnDemandService {
+
+	/** Runs the given task asynchronously. */
+	<T> CompletableFuture<T> submit(Callable<T> task);
+
+	/**
+	 * Executes the op with the given name and arguments asynchronously.
+	 * 
+	 * @see net.imagej.ops.OpService#run(String, Object...)
+	 */
+	CompletableFuture<Object> op(String name, Object... args);
+
+	/** Opens the given image source as a dataset asynchronously. */
+	CompletableFuture<Dataset> open(String source);
+
+	/** Saves the given dataset to the given destination asynchronously. */
+	CompletableFuture<Void> save(Dataset dataset, String destination);
+
+	/**
+	 * Runs the given script asynchronously.
+	 * 
+	 * @return A future of the script's outputs, keyed by name.
+	 */
+	CompletableFuture<Map<String, Object>> script(File script,
+		Map<String, Object> inputs);
+
+	/**
+	 * Sets the executor on which operations are run, replacing the default
+	 * executor; null runs them on the {@link org.scijava.thread.ThreadService}.
+	 * The caller remains responsible for shutting it down.
+	 */
+	void setExecutor(ExecutorService executor);
+
+	/** Gets the maximum number of operations running at the same time. */
+	int getConcurrency();
+
+	/** Gets the maximum number of operations pending (queued or running). */
+	int getMaxPending();
+
+	/** Gets the number of operations currently pending (queued or running). */
+	int getPending();
+
+	/** Gets the number of operations currently running. */
+	int getRunning();
+
+}
@@ -0,0 +1,406 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.async;
+
+import io.scif.services.DatasetIOService;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import net.imagej.Dataset;
+import net.imagej.daemon.JobRunner;
+import net.imagej.memory.MemoryBudgetService;
+import net.imagej.ops.OpService;
+import net.imagej.thread.BoundedThreadService;
+
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.script.ScriptService;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Default implementation of {@link AsyncService}.
+ * <p>
+ * Operations run on virtual threads where the JVM supports them (Java 21 and
+ * newer), unless the {@value #VIRTUAL_PROPERTY} system property is
+ * {@code false}, and on the threads of the {@link ThreadService} otherwise.
+ * The concurrency defaults to the number of processors, and can be given by
+ * the {@value #THREADS_PROPERTY} system property; the maximum number of
+ * pending operations defaults to four times the concurrency, and can be given
+ * by the {@value #QUEUE_PROPERTY} system property.
+ * </p>
+ * <p>
+ * Many ops parallelize internally on the {@link ThreadService}. The work which
+ * operations submit there shares one core per processor with the operations
+ * themselves: each running operation occupies a core, if one is free, and
+ * each piece of its work runs on a thread of its own only while a core is
+ * free, and on the operation's thread otherwise (see
+ * {@link BoundedThreadService}). Thus, no more threads are busy at once than
+ * the larger of the concurrency and the number of processors.
+ * </p>
+ * 
+ * @author agent
+ */
+@Plugin(type = Service.class)
+public class DefaultAsyncService extends AbstractService implements
+	AsyncService
+{
+
+	/** System property defining the maximum number of running operations. */
+	public static final String THREADS_PROPERTY = "imagej.async.threads";
+
+	/** System property defining the maximum number of pending operations. */
+	public static final String QUEUE_PROPERTY = "imagej.async.queue";
+
+	/** System property which can disable the use of virtual threads. */
+	public static final String VIRTUAL_PROPERTY = "imagej.async.virtual";
+
+	@Parameter
+	private OpService opService;
+
+	@Parameter
+	private ThreadService threadService;
+
+	// NB: The job runner is injected from the context, and needs these.
+
+	@Parameter
+	private DatasetIOService datasetIOService;
+
+	@Parameter
+	private ScriptService scriptService;
+
+	@Parameter(required = false)
+	private MemoryBudgetService memoryBudgetService;
+
+	private int concurrency;
+	private int maxPending;
+	private Semaphore running;
+	private Semaphore pending;
+
+	/** The cores shared by running operations and the work they split off. */
+	private Semaphore cores;
+
+	private ExecutorService executor;
+	private boolean ownExecutor;
+	private boolean executorChosen;
+	private boolean disposed;
+
+	/** The operations which have been submitted but not completed yet. */
+	private final Set<Task<?>> tasks = ConcurrentHashMap.newKeySet();
+
+	/** The operation running on the current thread, if any. */
+	private final ThreadLocal<Task<?>> current = new ThreadLocal<>();
+
+	private JobRunner jobRunner;
+
+	// -- AsyncService methods --
+
+	@Override
+	public <T> CompletableFuture<T> submit(final Callable<T> task) {
+		// NB: An operation waiting for a nested one would hold its running
+		// permit, and could deadlock once all permits are held that way.
+		if (current.get() != null) return runNested(task);
+
+		final Task<T> future = new Task<>(attribute(task));
+		try {
+			pending.acquire();
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			future.completeExceptionally(exc);
+			return future;
+		}
+		synchronized (this) {
+			if (disposed) {
+				pending.release();
+				future.completeExceptionally(new RejectedExecutionException(
+					"The async service has been disposed"));
+				return future;
+			}
+			tasks.add(future);
+		}
+		future.whenComplete((result, exc) -> tasks.remove(future));
+		try {
+			execute(future);
+		}
+		catch (final RejectedExecutionException exc) {
+			pending.release();
+			future.completeExceptionally(exc);
+		}
+		return future;
+	}
+
+	@Override
+	public CompletableFuture<Object> op(final String name, final Object... args) {
+		return submit(() -> {
+			final Object result = opService.run(name, args);
+			return memoryBudgetService == null ? result : memoryBudgetService.track(
+				result);
+		});
+	}
+
+	@Override
+	public CompletableFuture<Dataset> open(final String source) {
+		return submit(() -> jobRunner().open(source));
+	}
+
+	@Override
+	public CompletableFuture<Void> save(final Dataset dataset,
+		final String destination)
+	{
+		return submit(() -> {
+			jobRunner().save(dataset, destination);
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Map<String, Object>> script(final File script,
+		final Map<String, Object> inputs)
+	{
+		return submit(() -> jobRunner().runScript(script, inputs));
+	}
+
+	@Override
+	public synchronized void setExecutor(final ExecutorService executor) {
+		if (ownExecutor) this.executor.shutdown();
+		this.executor = executor;
+		ownExecutor = false;
+		executorChosen = true;
+	}
+
+	@Override
+	public int getConcurrency() {
+		return concurrency;
+	}
+
+	@Override
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	@Override
+	public int getPending() {
+		return maxPending - pending.availablePermits();
+	}
+
+	@Override
+	public int getRunning() {
+		return concurrency - running.availablePermits();
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		concurrency = Math.max(1, Integer.getInteger(THREADS_PROPERTY, Runtime
+			.getRuntime().availableProcessors()));
+		maxPending = Math.max(concurrency, Integer.getInteger(QUEUE_PROPERTY, 4 *
+			concurrency));
+		running = new Semaphore(concurrency, true);
+		pending = new Semaphore(maxPending, true);
+		cores = new Semaphore(Runtime.getRuntime().availableProcessors());
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public void dispose() {
+		final ExecutorService ownedExecutor;
+		synchronized (this) {
+			disposed = true;
+			ownedExecutor = ownExecutor ? executor : null;
+			executor = null;
+			ownExecutor = false;
+		}
+		for (final Task<?> task : tasks) {
+			task.cancel(true);
+		}
+		if (ownedExecutor != null) ownedExecutor.shutdownNow();
+		// NB: Wake up submitters blocked on a full queue, so they are rejected.
+		pending.release(maxPending);
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Attributes the memory used by the given task to the job which submits it,
+	 * rather than to the thread which happens to run it.
+	 */
+	private <T> Callable<T> attribute(final Callable<T> task) {
+		if (memoryBudgetService == null) return task;
+		final String job = memoryBudgetService.getCurrentJob();
+		return () -> {
+			try (final MemoryBudgetService.Scope scope = memoryBudgetService.enter(
+				job))
+			{
+				return task.call();
+			}
+		};
+	}
+
+	/**
+	 * Calls the given operation, such that it and the work it splits off on the
+	 * thread service occupy no more than the free cores.
+	 */
+	private <T> T callBounded(final Callable<T> task) throws Exception {
+		if (!(threadService instanceof BoundedThreadService)) return task.call();
+		final boolean core = cores.tryAcquire();
+		try {
+			return ((BoundedThreadService) threadService).callWithin(cores, task);
+		}
+		finally {
+			if (core) cores.release();
+		}
+	}
+
+	/** Runs the given nested operation right away, on the current thread. */
+	private static <T> CompletableFuture<T> runNested(final Callable<T> task) {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			future.complete(task.call());
+		}
+		catch (final Throwable t) {
+			future.completeExceptionally(t);
+		}
+		return future;
+	}
+
+	private void execute(final Task<?> task) {
+		final ExecutorService e;
+		synchronized (this) {
+			if (!executorChosen) {
+				executor = createExecutor();
+				ownExecutor = executor != null;
+				executorChosen = true;
+			}
+			e = executor;
+		}
+		// NB: The running permits limit the concurrency; the pool need not.
+		if (e == null) threadService.run(task);
+		else e.execute(task);
+	}
+
+	/** Creates an executor of virtual threads, if enabled and available. */
+	private static ExecutorService createExecutor() {
+		if ("false".equals(System.getProperty(VIRTUAL_PROPERTY))) return null;
+		try {
+			final Method m = Executors.class.getMethod(
+				"newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		}
+		catch (final ReflectiveOperationException exc) {
+			// NB: Virtual threads are not available; use the thread service.
+			return null;
+		}
+	}
+
+	private synchronized JobRunner jobRunner() {
+		if (jobRunner == null) jobRunner = new JobRunner(getContext());
+		return jobRunner;
+	}
+
+	// -- Helper classes --
+
+	/**
+	 * A future which runs its task once a running permit is available, and
+	 * interrupts the task when cancelled.
+	 */
+	private class Task<T> extends CompletableFuture<T> implements Runnable {
+
+		private final Callable<T> callable;
+
+		/** The thread running the task, or null if it is not running. */
+		private Thread thread;
+
+		public Task(final Callable<T> callable) {
+			this.callable = callable;
+		}
+
+		@Override
+		public void run() {
+			try {
+				if (isDone()) return; // cancelled while queued
+				running.acquire();
+				try {
+					synchronized (this) {
+						if (isDone()) return;
+						thread = Thread.currentThread();
+					}
+					current.set(this);
+					complete(callBounded(callable));
+				}
+				catch (final Throwable t) {
+					completeExceptionally(t);
+				}
+				finally {
+					current.remove();
+					synchronized (this) {
+						thread = null;
+						// NB: Clear any interrupt meant for this task.
+						Thread.interrupted();
+					}
+					running.release();
+				}
+			}
+			catch (final InterruptedException exc) {
+				completeExceptionally(exc);
+			}
+			finally {
+				pending.release();
+			}
+		}
+
+		@Override
+		public boolean cancel(final boolean mayInterruptIfRunning) {
+			final boolean cancelled = super.cancel(mayInterruptIfRunning);
+			if (cancelled && mayInterruptIfRunning) {
+				synchronized (this) {
+					if (thread != null) thread.interrupt();
+				}
+			}
+			return cancelled;
+		}
+	}
+
+}
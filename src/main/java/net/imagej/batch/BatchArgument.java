@@ -0,0 +1,225 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.scijava.Context;
+import org.scijava.console.AbstractConsoleArgument;
+import org.scijava.console.ConsoleArgument;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Handles the {@code --batch} command line argument, which processes a whole
+ * directory of images with a {@link BatchProcessor}:
+ * 
+ * <pre>
+ * --batch &lt;input-dir&gt; (--script &lt;path&gt; | --op &lt;name&gt; [&lt;arg&gt; ...])
+ *         --out &lt;output-dir&gt; [--threads &lt;count&gt;]
+ *         [--workers &lt;count&gt;] [--connect &lt;host:port&gt;[,...]]
+ * </pre>
+ * <p>
+ * With {@code --workers} or {@code --connect}, the files are sharded across
+ * worker JVMs by a {@link ShardCoordinator} instead: the given number of
+ * workers is spawned on this host, and/or the given workers (started with
+ * {@code --serve <port>}) are attached. Each worker then processes
+ * {@code --threads} files at once. Workers only listen on the loopback
+ * interface, so a worker on another host is attached through a tunnel, e.g.
+ * {@code ssh -L <port>:localhost:<port> <host>} and
+ * {@code --connect localhost:<port>}.
+ * </p>
+ * 
+ * @author agent
+ */
+@Plugin(type = ConsoleArgument.class)
+public class BatchArgument extends AbstractConsoleArgument {
+
+	private static final String USAGE = "Usage: --batch <input-dir> " +
+		"(--script <path> | --op <name> [<arg> ...]) --out <output-dir> " +
+		"[--threads <count>] [--workers <count>] [--connect <host:port>[,...]]";
+
+	private static final List<String> OPTIONS = Arrays.asList("--script",
+		"--op", "--out", "--threads", "--workers", "--connect");
+
+	@Parameter
+	private Context context;
+
+	@Parameter
+	private LogService log;
+
+	// -- ConsoleArgument methods --
+
+	@Override
+	public void handle(final LinkedList<String> args) {
+		if (!supports(args)) return;
+		args.removeFirst(); // --batch
+		if (args.isEmpty()) {
+			log.error(USAGE);
+			return;
+		}
+		final File inputDir = new File(args.removeFirst());
+		File script = null, outputDir = null;
+		String opName = null;
+		final List<String> opArgs = new ArrayList<>();
+		int threads = Runtime.getRuntime().availableProcessors();
+		int workers = 0;
+		final List<String> connect = new ArrayList<>();
+		while (!args.isEmpty() && OPTIONS.contains(args.getFirst())) {
+			final String option = args.removeFirst();
+			if (args.isEmpty()) {
+				log.error("Missing value for " + option);
+				return;
+			}
+			final String value = args.removeFirst();
+			switch (option) {
+				case "--script":
+					script = new File(value);
+					break;
+				case "--op":
+					opName = value;
+					while (!args.isEmpty() && !OPTIONS.contains(args.getFirst())) {
+						opArgs.add(args.removeFirst());
+					}
+					break;
+				case "--out":
+					outputDir = new File(value);
+					break;
+				case "--threads":
+					threads = count(option, value, 1);
+					if (threads < 0) return;
+					break;
+				case "--workers":
+					workers = count(option, value, 0);
+					if (workers < 0) return;
+					break;
+				case "--connect":
+					connect.addAll(Arrays.asList(value.split(",")));
+					break;
+			}
+		}
+		if (outputDir == null || (script == null) == (opName == null)) {
+			log.error("--batch requires --out and exactly one of --script or --op");
+			return;
+		}
+
+		try {
+			final BatchProcessor.Report report;
+			if (workers > 0 || !connect.isEmpty()) {
+				report = shard(inputDir, outputDir, script, opName, opArgs, threads,
+					workers, connect);
+			}
+			else {
+				final BatchProcessor processor = new BatchProcessor(context, threads);
+				if (script != null) processor.setScript(script);
+				else processor.setOp(opName, opArgs);
+				report = processor.process(inputDir, outputDir);
+			}
+			log.info("Batch complete: " + report);
+			for (final Map.Entry<File, Throwable> failure : report.getFailures()
+				.entrySet())
+			{
+				log.error(failure.getKey() + ": " + failure.getValue());
+			}
+		}
+		catch (final IOException exc) {
+			log.error(exc);
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Parses the value of a numeric option, reporting an invalid one along with
+	 * the usage.
+	 * 
+	 * @return The value, or -1 if it is not a number of at least {@code min}.
+	 */
+	private int count(final String option, final String value, final int min) {
+		try {
+			final int count = Integer.parseInt(value);
+			if (count >= min) return count;
+		}
+		catch (final NumberFormatException exc) {
+			// NB: Reported below.
+		}
+		log.error("Invalid value for " + option + ": " + value);
+		log.error(USAGE);
+		return -1;
+	}
+
+	private BatchProcessor.Report shard(final File inputDir,
+		final File outputDir, final File script, final String opName,
+		final List<String> opArgs, final int threads, final int workers,
+		final List<String> connect) throws IOException, InterruptedException
+	{
+		try (final ShardCoordinator coordinator = new ShardCoordinator(context)) {
+			if (script != null) coordinator.setScript(script);
+			else coordinator.setOp(opName, opArgs);
+			for (final String address : connect) {
+				final int colon = address.lastIndexOf(':');
+				final int port = colon < 0 ? -1 : count("--connect", address
+					.substring(colon + 1), 1);
+				if (port < 0) throw new IOException("Invalid worker: " + address);
+				coordinator.connect(address.substring(0, colon), port, threads);
+			}
+			if (workers > 0) coordinator.spawn(workers, threads);
+			final BatchProcessor.Report report = coordinator.process(inputDir,
+				outputDir);
+			for (final Map.Entry<String, Number> metric : coordinator
+				.getWorkerMetrics().entrySet())
+			{
+				log.debug("workers: " + metric.getKey() + " = " + metric.getValue());
+			}
+			return report;
+		}
+	}
+
+	// -- Typed methods --
+
+	@Override
+	public boolean supports(final LinkedList<String> args) {
+		return args != null && !args.isEmpty() && "--batch".equals(args
+			.getFirst());
+	}
+
+}
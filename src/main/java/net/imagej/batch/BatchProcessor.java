@@ -0,0 +1,366 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.batch;
+
+import io.scif.services.DatasetIOService;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imagej.Dataset;
+import net.imagej.daemon.JobRunner;
+import net.imagej.memory.MemoryBudgetService;
+import net.imagej.ops.OpService;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+
+/**
+ * Applies a script or an op to every image file of a directory, in parallel.
+ * <p>
+ * Files are streamed from the input directory into a work-stealing pool, with
+ * a bounded number of files in flight at any time, so that memory use does
+ * not grow with the size of the directory. Each file is opened through SCIFIO,
+ * processed, and its result saved as a TIFF in the output directory, which
+ * must differ from the input directory (see {@link #outputName}). A file which
+ * fails is recorded and skipped, rather than aborting the run.
+ * </p>
+ * <p>
+ * Progress is recorded in a checkpoint manifest ({@link #MANIFEST}) in the
+ * output directory. Running the same batch again resumes it: files which were
+ * already processed successfully are skipped, and failed ones are retried.
+ * </p>
+ * <p>
+ * A script receives the opened image as its {@code input} input; its
+ * {@code output} output, if any, is saved. An op receives the opened image as
+ * its first argument, followed by the extra arguments given (see
+ * {@link JobRunner#parse}); its output is saved.
+ * </p>
+ * 
+ * @author agent
+ */
+public class BatchProcessor {
+
+	/** File name of the checkpoint manifest within the output directory. */
+	public static final String MANIFEST = "batch-manifest.txt";
+
+	static final String DONE = "done";
+	static final String FAILED = "failed";
+
+	@Parameter
+	private DatasetIOService datasetIOService;
+
+	@Parameter
+	private OpService opService;
+
+	@Parameter
+	private LogService log;
+
+	private final JobRunner runner;
+	private final int threads;
+
+	private File script;
+	private String opName;
+	private List<String> opArgs = Collections.emptyList();
+
+	/**
+	 * Creates a batch processor which works on the given number of files at
+	 * once.
+	 */
+	public BatchProcessor(final Context context, final int threads) {
+		context.inject(this);
+		runner = new JobRunner(context);
+		this.threads = threads;
+	}
+
+	// -- BatchProcessor methods --
+
+	/** Sets the script to apply to each file. */
+	public void setScript(final File script) {
+		this.script = script;
+		opName = null;
+	}
+
+	/** Sets the op to apply to each file, along with its extra arguments. */
+	public void setOp(final String name, final List<String> args) {
+		opName = name;
+		opArgs = new ArrayList<>(args);
+		script = null;
+	}
+
+	/**
+	 * Processes every file of the input directory which has not been processed
+	 * successfully before, writing the results to the output directory.
+	 */
+	public Report process(final File inputDir, final File outputDir)
+		throws IOException, InterruptedException
+	{
+		if (script == null && opName == null) {
+			throw new IllegalStateException("No script or op given");
+		}
+		checkDirectories(inputDir, outputDir);
+		final File manifestFile = new File(outputDir, MANIFEST);
+		final Set<String> done = readManifest(manifestFile);
+		final Report report = new Report();
+
+		final Semaphore inFlight = new Semaphore(2 * threads);
+		try (final PrintWriter manifest = new PrintWriter(new OutputStreamWriter(
+			new FileOutputStream(manifestFile, true), StandardCharsets.UTF_8));
+				final DirectoryStream<Path> files = Files.newDirectoryStream(inputDir
+					.toPath()))
+		{
+			final ExecutorService pool = Executors.newWorkStealingPool(threads);
+			try {
+				for (final Path path : files) {
+					final File file = path.toFile();
+					if (!isInput(file)) continue;
+					if (done.contains(file.getName())) {
+						report.skip();
+						continue;
+					}
+					inFlight.acquire();
+					pool.execute(new Runnable() {
+
+						@Override
+						public void run() {
+							try {
+								processFile(file, outputDir);
+								record(manifest, DONE, file, null);
+								report.succeed();
+							}
+							catch (final Throwable t) {
+								log.warn("Failed to process " + file, t);
+								record(manifest, FAILED, file, t);
+								report.fail(file, t);
+							}
+							finally {
+								inFlight.release();
+							}
+						}
+					});
+				}
+				pool.shutdown();
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			}
+			finally {
+				pool.shutdownNow();
+				// NB: Let running tasks record their outcome before the manifest
+				// is closed.
+				awaitTermination(pool);
+			}
+		}
+		return report;
+	}
+
+	// -- Helper methods --
+
+	private void processFile(final File file, final File outputDir)
+		throws Exception
+	{
+		try (final MemoryBudgetService.Scope scope = runner.enter(file
+			.getName()))
+		{
+			final Dataset input = runner.track(datasetIOService.open(file
+				.getPath()));
+			final Object result;
+			if (script != null) {
+				final Map<String, Object> inputs = new LinkedHashMap<>();
+				inputs.put("input", input);
+				result = runner.runScript(script, inputs).get("output");
+			}
+			else {
+				final List<Object> args = new ArrayList<>();
+				args.add(input);
+				for (final String arg : opArgs) {
+					args.add(runner.parse(arg));
+				}
+				result = runner.track(opService.run(opName, args.toArray()));
+			}
+			if (result != null) {
+				runner.save(result, new File(outputDir, outputName(file)).getPath());
+			}
+		}
+	}
+
+	/**
+	 * Waits until the given pool has terminated, even if the calling thread is
+	 * interrupted meanwhile; the interrupt is restored afterwards.
+	 */
+	private static void awaitTermination(final ExecutorService pool) {
+		boolean interrupted = false;
+		while (!pool.isTerminated()) {
+			try {
+				pool.awaitTermination(1, TimeUnit.SECONDS);
+			}
+			catch (final InterruptedException exc) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Gets the name of the file to which the result of the given input file is
+	 * saved: TIFF files keep their name, and other files get a {@code .tif}
+	 * suffix appended, so that, e.g., {@code a.tif} and {@code a.png} do not
+	 * overwrite each other's results.
+	 */
+	static String outputName(final File file) {
+		final String name = file.getName();
+		final String lower = name.toLowerCase();
+		if (lower.endsWith(".tif") || lower.endsWith(".tiff")) return name;
+		return name + ".tif";
+	}
+
+	/**
+	 * Creates the output directory if needed, and makes sure it is not the input
+	 * directory, whose files would otherwise be overwritten by their results.
+	 */
+	static void checkDirectories(final File inputDir, final File outputDir)
+		throws IOException
+	{
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			throw new IOException("Cannot create directory: " + outputDir);
+		}
+		if (inputDir.getCanonicalFile().equals(outputDir.getCanonicalFile())) {
+			throw new IOException("Output directory must differ from input " +
+				"directory: " + outputDir);
+		}
+	}
+
+	/** Whether the given file of the input directory is to be processed. */
+	static boolean isInput(final File file) {
+		return file.isFile() && !file.isHidden() && !MANIFEST.equals(file
+			.getName());
+	}
+
+	static Set<String> readManifest(final File manifestFile)
+		throws IOException
+	{
+		final Set<String> done = new HashSet<>();
+		if (!manifestFile.exists()) return done;
+		try (final BufferedReader in = new BufferedReader(new InputStreamReader(
+			new FileInputStream(manifestFile), StandardCharsets.UTF_8)))
+		{
+			String line;
+			while ((line = in.readLine()) != null) {
+				final String[] fields = line.split("\t");
+				if (fields.length < 2) continue;
+				if (DONE.equals(fields[0])) done.add(fields[1]);
+				else if (FAILED.equals(fields[0])) done.remove(fields[1]);
+			}
+		}
+		return done;
+	}
+
+	static void record(final PrintWriter manifest, final String status,
+		final File file, final Throwable t)
+	{
+		synchronized (manifest) {
+			manifest.print(status + "\t" + file.getName());
+			if (t != null) manifest.print("\t" + String.valueOf(t).replaceAll(
+				"\\s+", " "));
+			manifest.println();
+			manifest.flush();
+		}
+	}
+
+	// -- Helper classes --
+
+	/** Outcome of a batch run. */
+	public static class Report {
+
+		private final AtomicInteger succeeded = new AtomicInteger();
+		private final AtomicInteger skipped = new AtomicInteger();
+		private final Map<File, Throwable> failures = Collections
+			.synchronizedMap(new LinkedHashMap<File, Throwable>());
+
+		/** Gets the number of files processed successfully in this run. */
+		public int getSucceeded() {
+			return succeeded.get();
+		}
+
+		/** Gets the number of files skipped as already processed. */
+		public int getSkipped() {
+			return skipped.get();
+		}
+
+		/** Gets the files which failed in this run, with their errors. */
+		public Map<File, Throwable> getFailures() {
+			synchronized (failures) {
+				return new LinkedHashMap<>(failures);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "succeeded=" + getSucceeded() + ", skipped=" + getSkipped() +
+				", failed=" + failures.size();
+		}
+
+		void succeed() {
+			succeeded.incrementAndGet();
+		}
+
+		void skip() {
+			skipped.incrementAndGet();
+		}
+
+		void fail(final File file, final Throwable t) {
+			failures.put(file, t);
+		}
+	}
+
+}
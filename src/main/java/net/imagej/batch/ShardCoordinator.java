@@ -0,0 +1,1006 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.imagej.daemon.JobServer;
+import net.imagej.index.JarIndex;
+import net.imagej.metrics.MetricsService;
+
+import org.scijava.Context;
+import org.scijava.app.StatusService;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+
+/**
+ * Applies a script or an op to every image file of a directory, sharded across
+ * a pool of worker JVMs.
+ * <p>
+ * Each worker is a separate process with its own warm application context,
+ * serving jobs through a {@link JobServer} on a local socket: either spawned on
+ * this host by {@link #spawn}, or started separately with
+ * {@code --serve <port>} and attached by {@link #connect}. As job servers only
+ * listen on the loopback interface, and do not authenticate their clients,
+ * workers on other hosts can only be attached through a tunnel to this host,
+ * such as {@code ssh -L}. Keeping the heaps small and separate bounds garbage
+ * collection pauses, and confines a crashing plugin to one worker.
+ * </p>
+ * <p>
+ * Each file is one shard. Shards are dealt out to the workers up front; a
+ * worker which runs out of shards steals from the back of the longest queue of
+ * another. A shard which fails, times out, or whose worker is lost, is retried
+ * on another worker, up to {@link #setMaxAttempts a number of attempts}. A
+ * shard which timed out or was cancelled keeps its slot of the worker until
+ * the worker reports that the job has actually returned. A lost worker which
+ * was spawned by the coordinator is replaced by a new one, as is one whose
+ * slots are all held by such stuck jobs.
+ * </p>
+ * <p>
+ * Results, the checkpoint manifest and the resume behavior are the same as
+ * those of {@link BatchProcessor}. Progress is reported to the
+ * {@link StatusService}, and the coordinator's own metrics under
+ * {@code batch.shards.*}; the {@link #getWorkerMetrics() metrics of the
+ * workers} are aggregated after each run.
+ * </p>
+ * 
+ * @author agent
+ */
+public class ShardCoordinator implements AutoCloseable {
+
+	/**
+	 * System property with extra JVM options for spawned workers, separated by
+	 * whitespace, e.g. {@code -Xmx2g}.
+	 */
+	public static final String OPTIONS_PROPERTY = "imagej.worker.options";
+
+	/**
+	 * System property naming the launcher through which this JVM was started,
+	 * along with the launcher's own arguments, e.g.
+	 * {@code net.imagej.index.IndexedLauncher}; set by the ImageJ launcher
+	 * script. Spawned workers are started through the same launcher.
+	 */
+	public static final String LAUNCHER_PROPERTY = "imagej.launcher";
+
+	/** The main class of spawned workers. */
+	private static final String MAIN_CLASS = "net.imagej.Main";
+
+	/** System properties which spawned workers inherit from this JVM. */
+	private static final String[] INHERITED_PROPERTIES = { "imagej.dir",
+		"ij.dir", "plugins.dir", LAUNCHER_PROPERTY, JarIndex.PROPERTY };
+
+	@Parameter
+	private LogService log;
+
+	@Parameter(required = false)
+	private MetricsService metricsService;
+
+	@Parameter(required = false)
+	private StatusService statusService;
+
+	private final List<Worker> workers = new ArrayList<>();
+
+	/** Shards to be retried, or orphaned by a lost worker. */
+	private final Deque<Shard> pending = new ArrayDeque<>();
+
+	private final Map<String, Number> workerMetrics = new TreeMap<>();
+
+	private File script;
+	private String opName;
+	private List<String> opArgs = Collections.emptyList();
+	private int maxAttempts = 3;
+	private long timeout;
+
+	private int spawnThreads;
+	private int restarts;
+	private int respawning;
+	private int sequence;
+
+	// -- Per-run state --
+
+	private File outputDir;
+	private PrintWriter manifest;
+	private BatchProcessor.Report report;
+	private int total;
+	private int finished;
+
+	public ShardCoordinator(final Context context) {
+		context.inject(this);
+	}
+
+	// -- ShardCoordinator methods --
+
+	/** Sets the script to apply to each file. */
+	public void setScript(final File script) {
+		checkTokens(script.getAbsolutePath());
+		this.script = script;
+		opName = null;
+	}
+
+	/** Sets the op to apply to each file, along with its extra arguments. */
+	public void setOp(final String name, final List<String> args) {
+		checkTokens(name);
+		for (final String arg : args) {
+			checkTokens(arg);
+		}
+		opName = name;
+		opArgs = new ArrayList<>(args);
+		script = null;
+	}
+
+	/** Sets how often a shard is attempted before it counts as failed. */
+	public void setMaxAttempts(final int maxAttempts) {
+		if (maxAttempts < 1) throw new IllegalArgumentException(
+			"Invalid number of attempts: " + maxAttempts);
+		this.maxAttempts = maxAttempts;
+	}
+
+	/** Sets the timeout of each attempt in seconds, or 0 for none. */
+	public void setTimeout(final long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Starts the given number of worker JVMs on this host, through the same
+	 * {@link #LAUNCHER_PROPERTY launcher} and with the same class path as this
+	 * one, and attaches them.
+	 * 
+	 * @param count The number of workers to start.
+	 * @param threads The number of files each worker processes at once.
+	 */
+	public void spawn(final int count, final int threads) throws IOException {
+		final List<Process> processes = new ArrayList<>();
+		try {
+			// NB: Start all workers first, so that they warm up in parallel.
+			for (int i = 0; i < count; i++) {
+				processes.add(start(threads));
+			}
+			while (!processes.isEmpty()) {
+				attach(processes.get(0), threads);
+				processes.remove(0);
+			}
+		}
+		finally {
+			for (final Process process : processes) {
+				process.destroy();
+			}
+		}
+		synchronized (this) {
+			spawnThreads = threads;
+			restarts += count;
+		}
+	}
+
+	/**
+	 * Attaches the worker which is serving jobs on the given host and port.
+	 * Since job servers only listen on the loopback interface, the host is this
+	 * one, or the local end of a tunnel to the worker's host.
+	 * 
+	 * @param slots The number of files the worker is asked to process at once.
+	 */
+	public void connect(final String host, final int port, final int slots)
+		throws IOException
+	{
+		add(new Worker(host + ":" + port, new Socket(host, port), null, slots));
+	}
+
+	/** Gets the number of workers which are currently attached. */
+	public synchronized int getWorkerCount() {
+		int count = 0;
+		for (final Worker worker : workers) {
+			if (worker.alive) count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Processes every file of the input directory which has not been processed
+	 * successfully before, writing the results to the output directory. Files
+	 * whose names contain whitespace cannot be passed to the workers, and fail
+	 * without being attempted.
+	 * 
+	 * @throws IllegalStateException if there is nothing to apply, or no worker.
+	 */
+	public BatchProcessor.Report process(final File inputDir,
+		final File outputDir) throws IOException, InterruptedException
+	{
+		if (script == null && opName == null) {
+			throw new IllegalStateException("No script or op given");
+		}
+		if (getWorkerCount() == 0) throw new IllegalStateException("No workers");
+		BatchProcessor.checkDirectories(inputDir, outputDir);
+		checkTokens(inputDir.getAbsolutePath());
+		checkTokens(outputDir.getAbsolutePath());
+		final File manifestFile = new File(outputDir, BatchProcessor.MANIFEST);
+		final Set<String> done = BatchProcessor.readManifest(manifestFile);
+		final BatchProcessor.Report runReport = new BatchProcessor.Report();
+
+		final List<Shard> shards = new ArrayList<>();
+		final List<File> unsupported = new ArrayList<>();
+		try (final DirectoryStream<Path> files = Files.newDirectoryStream(inputDir
+			.toPath()))
+		{
+			for (final Path path : files) {
+				final File file = path.toFile();
+				if (!BatchProcessor.isInput(file)) continue;
+				if (done.contains(file.getName())) runReport.skip();
+				else if (!isToken(file.getName())) unsupported.add(file);
+				else shards.add(new Shard(file));
+			}
+		}
+		Collections.sort(shards, (s1, s2) -> s1.file.compareTo(s2.file));
+
+		// NB: The workers report their metrics since they started.
+		final Map<Worker, String[]> baseline = fetchMetrics();
+		try (final PrintWriter manifestWriter = new PrintWriter(
+			new OutputStreamWriter(new FileOutputStream(manifestFile, true),
+				StandardCharsets.UTF_8)))
+		{
+			// NB: Requests cannot carry whitespace, so fail such files up front.
+			for (final File file : unsupported) {
+				final IOException exc = new IOException(
+					"Workers do not support whitespace in file names");
+				log.warn("Cannot process " + file, exc);
+				BatchProcessor.record(manifestWriter, BatchProcessor.FAILED, file,
+					exc);
+				runReport.fail(file, exc);
+			}
+			synchronized (this) {
+				this.outputDir = outputDir;
+				manifest = manifestWriter;
+				report = runReport;
+				total = shards.size();
+				finished = 0;
+				deal(shards);
+				try {
+					while (finished < total) {
+						wait();
+					}
+				}
+				catch (final InterruptedException exc) {
+					cancel();
+					throw exc;
+				}
+				finally {
+					manifest = null;
+				}
+			}
+		}
+		collectMetrics(baseline);
+		return runReport;
+	}
+
+	/**
+	 * Gets the metrics of the last run on all workers, as reported by their
+	 * {@link JobServer}s and aggregated over the workers: counts, sums and
+	 * total times are the differences to before the run, added up, and maxima
+	 * are combined, but cover all runs of each worker. Other statistics, such
+	 * as percentiles, cannot be aggregated and are omitted.
+	 */
+	public synchronized Map<String, Number> getWorkerMetrics() {
+		return new LinkedHashMap<>(workerMetrics);
+	}
+
+	// -- AutoCloseable methods --
+
+	/** Detaches all workers, shutting down the ones which were spawned. */
+	@Override
+	public void close() {
+		final List<Worker> detached;
+		synchronized (this) {
+			restarts = 0;
+			detached = new ArrayList<>(workers);
+			workers.clear();
+		}
+		for (final Worker worker : detached) {
+			worker.send(worker.process == null ? "quit" : "shutdown");
+			worker.close();
+			if (worker.process == null) continue;
+			try {
+				if (!worker.process.waitFor(10, TimeUnit.SECONDS)) {
+					worker.process.destroyForcibly();
+				}
+			}
+			catch (final InterruptedException exc) {
+				worker.process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Starts a worker JVM. */
+	private Process start(final int threads) throws IOException {
+		final List<String> launcher = launcher();
+		final List<String> command = new ArrayList<>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"),
+			"java").getPath());
+		command.add("-cp");
+		command.add(classPath(launcher.isEmpty()));
+		for (final String name : INHERITED_PROPERTIES) {
+			final String value = System.getProperty(name);
+			if (value != null) command.add("-D" + name + "=" + value);
+		}
+		command.add("-Djava.awt.headless=true");
+		command.add("-Dimagej.serve.threads=" + threads);
+		final String options = System.getProperty(OPTIONS_PROPERTY);
+		if (options != null) {
+			for (final String option : options.trim().split("\\s+")) {
+				if (!option.isEmpty()) command.add(option);
+			}
+		}
+		command.addAll(launcher);
+		command.add(MAIN_CLASS);
+		command.add("--headless");
+		command.add("--serve");
+		command.add("0");
+		final ProcessBuilder builder = new ProcessBuilder(command);
+		// NB: Launchers find the JAR files relative to the ImageJ directory.
+		final String imagejDir = System.getProperty("imagej.dir");
+		if (!launcher.isEmpty() && imagejDir != null && new File(imagejDir)
+			.isDirectory()) builder.directory(new File(imagejDir));
+		return builder.redirectError(Redirect.INHERIT).start();
+	}
+
+	/**
+	 * Gets the launcher class and arguments through which this JVM was started,
+	 * or an empty list if it was started without one.
+	 */
+	private static List<String> launcher() {
+		final List<String> launcher = new ArrayList<>();
+		final String property = System.getProperty(LAUNCHER_PROPERTY);
+		if (property == null) return launcher;
+		for (final String token : property.trim().split("\\s+")) {
+			if (!token.isEmpty()) launcher.add(token);
+		}
+		// NB: A JVM started directly runs the main class itself.
+		if (!launcher.isEmpty() && MAIN_CLASS.equals(launcher.get(0))) {
+			launcher.clear();
+		}
+		return launcher;
+	}
+
+	/**
+	 * Gets the class path of spawned workers. A launcher is given the class
+	 * path of this JVM, to which it adds the JAR files itself. Otherwise, the
+	 * class path also has to contain the JAR files which a class loader added,
+	 * and those of the ImageJ installation, if any.
+	 */
+	private static String classPath(final boolean complete) {
+		final Set<String> paths = new LinkedHashSet<>();
+		final String classPath = System.getProperty("java.class.path");
+		if (classPath != null) {
+			for (final String path : classPath.split(File.pathSeparator)) {
+				if (!path.isEmpty()) paths.add(path);
+			}
+		}
+		if (complete) {
+			ClassLoader loader = Thread.currentThread().getContextClassLoader();
+			for (; loader != null; loader = loader.getParent()) {
+				if (!(loader instanceof URLClassLoader)) continue;
+				for (final URL url : ((URLClassLoader) loader).getURLs()) {
+					if (!"file".equals(url.getProtocol())) continue;
+					try {
+						paths.add(new File(url.toURI()).getPath());
+					}
+					catch (final URISyntaxException | IllegalArgumentException exc) {
+						// NB: Not a local file after all.
+					}
+				}
+			}
+			final String imagejDir = System.getProperty("imagej.dir");
+			if (imagejDir != null) {
+				for (final File jar : JarIndex.jars(new File(imagejDir))) {
+					paths.add(jar.getPath());
+				}
+			}
+		}
+		final StringBuilder sb = new StringBuilder();
+		for (final String path : paths) {
+			if (sb.length() > 0) sb.append(File.pathSeparator);
+			sb.append(path);
+		}
+		return sb.toString();
+	}
+
+	/** Waits until the given worker JVM listens, then connects to it. */
+	private void attach(final Process process, final int threads)
+		throws IOException
+	{
+		final BufferedReader out = new BufferedReader(new InputStreamReader(
+			process.getInputStream(), StandardCharsets.UTF_8));
+		int port = -1;
+		while (port < 0) {
+			final String line = out.readLine();
+			if (line == null) {
+				throw new IOException("Worker exited before listening");
+			}
+			if (line.matches("listening \\d+")) {
+				port = Integer.parseInt(line.substring(10));
+			}
+			else log.debug("worker: " + line);
+		}
+		// NB: Keep draining the worker's output, so that it never blocks.
+		daemon("imagej-worker-output", () -> {
+			try {
+				String line;
+				while ((line = out.readLine()) != null) {
+					log.debug("worker: " + line);
+				}
+			}
+			catch (final IOException exc) {
+				log.debug(exc);
+			}
+		});
+		final InetAddress loopback = InetAddress.getLoopbackAddress();
+		final Socket socket;
+		try {
+			socket = new Socket(loopback, port);
+		}
+		catch (final IOException exc) {
+			process.destroy();
+			throw exc;
+		}
+		add(new Worker("localhost:" + port, socket, process, threads));
+	}
+
+	private void add(final Worker worker) {
+		synchronized (this) {
+			workers.add(worker);
+			// NB: During a run, the new worker starts out by stealing work.
+			if (manifest != null) dispatch(worker);
+		}
+		daemon("imagej-worker-" + worker.name, () -> {
+			try {
+				String line;
+				while ((line = worker.in.readLine()) != null) {
+					handle(worker, line);
+				}
+			}
+			catch (final IOException exc) {
+				log.debug(exc);
+			}
+			finally {
+				lost(worker);
+			}
+		});
+	}
+
+	/** Deals the given shards out to the workers, and starts them working. */
+	private void deal(final List<Shard> shards) {
+		final List<Worker> alive = alive();
+		for (int i = 0; i < shards.size(); i++) {
+			alive.get(i % alive.size()).queue.add(shards.get(i));
+		}
+		for (final Worker worker : alive) {
+			dispatch(worker);
+		}
+	}
+
+	/** Keeps the given worker busy with as many shards as it has free slots. */
+	private void dispatch(final Worker worker) {
+		while (worker.alive && worker.running.size() + worker.stuck.size() <
+			worker.slots)
+		{
+			final Shard shard = next(worker);
+			if (shard == null) break;
+			shard.attempts++;
+			shard.id = "shard-" + ++sequence;
+			shard.start = System.nanoTime();
+			worker.running.put(shard.id, shard);
+			worker.send("run " + shard.id + (timeout > 0 ? " timeout=" + timeout
+				: "") + " " + request(shard));
+		}
+	}
+
+	/** Chooses the next shard for the given worker, or null if there is none. */
+	private Shard next(final Worker worker) {
+		// Shards to retry come first, preferably ones which have not failed here.
+		final Set<Worker> alive = new HashSet<>(alive());
+		for (final Iterator<Shard> iter = pending.iterator(); iter.hasNext();) {
+			final Shard shard = iter.next();
+			if (!shard.failedOn.contains(worker) || shard.failedOn.containsAll(
+				alive))
+			{
+				iter.remove();
+				return shard;
+			}
+		}
+		final Shard own = worker.queue.pollFirst();
+		if (own != null) return own;
+		// Steal from the back of the longest queue.
+		Worker victim = null;
+		for (final Worker other : alive) {
+			if (other.queue.isEmpty()) continue;
+			if (victim == null || other.queue.size() > victim.queue.size()) {
+				victim = other;
+			}
+		}
+		if (victim == null) return null;
+		if (metricsService != null) {
+			metricsService.counter("batch.shards.stolen").inc();
+		}
+		return victim.queue.pollLast();
+	}
+
+	private String request(final Shard shard) {
+		// NB: Workers need not share the working directory of the coordinator.
+		final String input = "@" + shard.file.getAbsolutePath();
+		final String output = ">" + new File(outputDir, BatchProcessor
+			.outputName(shard.file)).getAbsolutePath();
+		final StringBuilder sb = new StringBuilder();
+		if (script != null) {
+			sb.append("script ").append(script.getAbsolutePath());
+			sb.append(" input=").append(input);
+		}
+		else {
+			sb.append("op ").append(opName).append(" ").append(input);
+			for (final String arg : opArgs) {
+				sb.append(" ").append(arg);
+			}
+		}
+		return sb.append(" ").append(output).toString();
+	}
+
+	/** Handles one response line of the given worker. */
+	private synchronized void handle(final Worker worker, final String line) {
+		final String[] tokens = line.trim().split("\\s+", 3);
+		final String kind = tokens[0];
+		final String id = tokens.length > 1 ? tokens[1] : "-";
+		final String message = tokens.length > 2 ? tokens[2] : "";
+		switch (kind) {
+			case "accepted":
+				break;
+			case "ok":
+				if (worker.running.containsKey(id)) succeeded(worker, id);
+				else returned(worker, id);
+				break;
+			case "error":
+				if ("-".equals(id)) {
+					log.warn(worker.name + ": " + message);
+					worker.metricsReceived(null);
+				}
+				else if (worker.running.containsKey(id)) {
+					failed(worker, id, kind + ": " + message, false);
+				}
+				else returned(worker, id);
+				break;
+			case "timeout":
+			case "cancelled":
+				// NB: The job may still hold its thread, until it has returned.
+				failed(worker, id, kind + ": " + message, true);
+				break;
+			case "returned":
+				returned(worker, id);
+				break;
+			case "metrics":
+				worker.metricsReceived(line.trim().split("\\s+"));
+				break;
+			default:
+				log.debug(worker.name + ": " + line);
+		}
+	}
+
+	private void succeeded(final Worker worker, final String id) {
+		final Shard shard = worker.running.remove(id);
+		if (shard == null) return;
+		BatchProcessor.record(manifest, BatchProcessor.DONE, shard.file, null);
+		report.succeed();
+		if (metricsService != null) {
+			metricsService.counter("batch.shards.succeeded").inc();
+			metricsService.timer("batch.shard").update(System.nanoTime() -
+				shard.start);
+		}
+		finish();
+		dispatch(worker);
+	}
+
+	/**
+	 * Handles a shard which failed on the given worker.
+	 * 
+	 * @param stopped Whether the job was stopped, and may keep its slot of the
+	 *          worker until it has returned.
+	 */
+	private void failed(final Worker worker, final String id,
+		final String message, final boolean stopped)
+	{
+		final Shard shard = worker.running.remove(id);
+		if (shard == null) return;
+		if (stopped) worker.stuck.add(id);
+		log.warn(worker.name + " failed to process " + shard.file + ": " +
+			message);
+		shard.failedOn.add(worker);
+		shard.error = message;
+		retry(shard);
+		if (worker.stuck.size() >= worker.slots && worker.process != null) {
+			log.warn("Replacing worker " + worker.name +
+				", whose jobs are all stuck");
+			// NB: The worker is lost, and replaced, once its connection closes.
+			worker.process.destroyForcibly();
+		}
+		dispatch(worker);
+	}
+
+	/** Frees the slot of a stopped job, once the worker reports its end. */
+	private void returned(final Worker worker, final String id) {
+		if (!worker.stuck.remove(id)) return;
+		if (manifest != null) dispatch(worker);
+	}
+
+	/** Handles the loss of the given worker. */
+	private void lost(final Worker worker) {
+		final Process replace;
+		synchronized (this) {
+			if (!worker.alive) return;
+			worker.alive = false;
+			worker.close();
+			worker.metricsReceived(null);
+			if (!workers.contains(worker)) return; // closed
+			log.warn("Lost worker " + worker.name);
+			pending.addAll(worker.queue);
+			worker.queue.clear();
+			for (final Shard shard : worker.running.values()) {
+				shard.failedOn.add(worker);
+				shard.error = "worker " + worker.name + " was lost";
+				retry(shard);
+			}
+			worker.running.clear();
+			worker.stuck.clear();
+			replace = worker.process != null && restarts > 0 ? worker.process
+				: null;
+			if (replace != null) {
+				restarts--;
+				respawning++;
+			}
+			for (final Worker other : alive()) {
+				dispatch(other);
+			}
+			orphan();
+		}
+		if (replace == null) return;
+		replace.destroyForcibly();
+		daemon("imagej-worker-respawn", () -> {
+			try {
+				spawnOne();
+			}
+			catch (final IOException exc) {
+				log.warn("Cannot replace worker " + worker.name, exc);
+			}
+			finally {
+				synchronized (ShardCoordinator.this) {
+					respawning--;
+					orphan();
+				}
+			}
+		});
+	}
+
+	private void spawnOne() throws IOException {
+		final int threads;
+		synchronized (this) {
+			threads = spawnThreads;
+		}
+		final Process process = start(threads);
+		try {
+			attach(process, threads);
+		}
+		catch (final IOException exc) {
+			process.destroy();
+			throw exc;
+		}
+	}
+
+	/** Queues the given shard for another attempt, if it has any left. */
+	private void retry(final Shard shard) {
+		if (shard.attempts >= maxAttempts) {
+			fail(shard);
+			return;
+		}
+		if (metricsService != null) {
+			metricsService.counter("batch.shards.retried").inc();
+		}
+		pending.addFirst(shard);
+		for (final Worker worker : alive()) {
+			dispatch(worker);
+		}
+	}
+
+	/** Fails the pending shards if no worker is left to process them. */
+	private void orphan() {
+		if (manifest == null || respawning > 0 || !alive().isEmpty()) return;
+		while (!pending.isEmpty()) {
+			final Shard shard = pending.poll();
+			if (shard.error == null) shard.error = "no workers left";
+			fail(shard);
+		}
+	}
+
+	private void fail(final Shard shard) {
+		if (manifest == null) return;
+		final IOException exc = new IOException(shard.error + " (after " +
+			shard.attempts + " attempt" + (shard.attempts == 1 ? "" : "s") + ")");
+		log.warn("Failed to process " + shard.file, exc);
+		BatchProcessor.record(manifest, BatchProcessor.FAILED, shard.file, exc);
+		report.fail(shard.file, exc);
+		if (metricsService != null) {
+			metricsService.counter("batch.shards.failed").inc();
+		}
+		finish();
+	}
+
+	private void finish() {
+		finished++;
+		if (statusService != null) statusService.showProgress(finished, total);
+		notifyAll();
+	}
+
+	/** Cancels the current run, after the calling thread was interrupted. */
+	private void cancel() {
+		pending.clear();
+		for (final Worker worker : alive()) {
+			worker.queue.clear();
+			for (final String id : worker.running.keySet()) {
+				worker.send("cancel " + id);
+				// NB: The slot stays taken until the job ends, even in later runs.
+				worker.stuck.add(id);
+			}
+			worker.running.clear();
+		}
+	}
+
+	/** Fetches the metrics of all workers, as {@code <name>=<value>} tokens. */
+	private Map<Worker, String[]> fetchMetrics() throws InterruptedException {
+		final List<Worker> alive;
+		synchronized (this) {
+			alive = alive();
+			for (final Worker worker : alive) {
+				worker.metrics = null;
+				worker.metricsLatch = new CountDownLatch(1);
+				worker.send("metrics");
+			}
+		}
+		for (final Worker worker : alive) {
+			worker.metricsLatch.await(10, TimeUnit.SECONDS);
+		}
+		final Map<Worker, String[]> metrics = new LinkedHashMap<>();
+		synchronized (this) {
+			for (final Worker worker : alive) {
+				if (worker.metrics != null) metrics.put(worker, worker.metrics);
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Fetches the metrics of all workers, and aggregates their differences to
+	 * the given ones from before the run.
+	 */
+	private void collectMetrics(final Map<Worker, String[]> baseline)
+		throws InterruptedException
+	{
+		final Map<Worker, String[]> metrics = fetchMetrics();
+		synchronized (this) {
+			workerMetrics.clear();
+			for (final Map.Entry<Worker, String[]> entry : metrics.entrySet()) {
+				// NB: Workers which were attached during the run started from zero.
+				final Map<String, Double> before = parse(baseline.get(entry
+					.getKey()));
+				for (final String token : entry.getValue()) {
+					aggregate(token, before);
+				}
+			}
+		}
+	}
+
+	/** Parses {@code <name>=<value>} tokens. */
+	private static Map<String, Double> parse(final String[] tokens) {
+		final Map<String, Double> values = new HashMap<>();
+		if (tokens == null) return values;
+		for (final String token : tokens) {
+			final int equals = token.indexOf('=');
+			if (equals < 0) continue;
+			try {
+				values.put(token.substring(0, equals), Double.parseDouble(token
+					.substring(equals + 1)));
+			}
+			catch (final NumberFormatException exc) {
+				// NB: Not a number; skip it.
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Adds one {@code <name>.<key>=<value>} token to the worker metrics.
+	 * 
+	 * @param before The worker's metrics before the run, by name.
+	 */
+	private void aggregate(final String token, final Map<String, Double> before) {
+		final int equals = token.indexOf('=');
+		final int dot = token.lastIndexOf('.', equals);
+		if (equals < 0 || dot < 0) return;
+		final String key = token.substring(dot + 1, equals);
+		final String name = token.substring(0, equals);
+		final double value;
+		try {
+			value = Double.parseDouble(token.substring(equals + 1));
+		}
+		catch (final NumberFormatException exc) {
+			return;
+		}
+		final Number previous = workerMetrics.get(name);
+		final boolean integral = !key.endsWith("Ms") && !key.equals("mean");
+		final double combined;
+		if (key.equals("count") || key.equals("sum") || key.equals("totalMs")) {
+			final Double start = before.get(name);
+			final double delta = start == null ? value : value - start;
+			combined = previous == null ? delta : previous.doubleValue() + delta;
+		}
+		else if (key.startsWith("max")) {
+			combined = previous == null ? value : Math.max(previous.doubleValue(),
+				value);
+		}
+		else return;
+		workerMetrics.put(name, integral ? (Number) (long) combined
+			: (Number) combined);
+	}
+
+	private List<Worker> alive() {
+		final List<Worker> alive = new ArrayList<>();
+		for (final Worker worker : workers) {
+			if (worker.alive) alive.add(worker);
+		}
+		return alive;
+	}
+
+	private static void checkTokens(final String s) {
+		if (!isToken(s)) {
+			throw new IllegalArgumentException("Workers do not support " +
+				"whitespace in names, paths or arguments: " + s);
+		}
+	}
+
+	/** Gets whether the given string fits into one token of a request. */
+	private static boolean isToken(final String s) {
+		return !s.matches(".*\\s.*");
+	}
+
+	private static void daemon(final String name, final Runnable r) {
+		final Thread t = new Thread(r, name);
+		t.setDaemon(true);
+		t.start();
+	}
+
+	// -- Helper classes --
+
+	/** A file to process, along with its attempts so far. */
+	private static class Shard {
+
+		private final File file;
+		private final Set<Worker> failedOn = new HashSet<>();
+		private int attempts;
+		private String id;
+		private long start;
+		private String error;
+
+		public Shard(final File file) {
+			this.file = file;
+		}
+	}
+
+	/** A connection to one worker, along with the shards assigned to it. */
+	private static class Worker {
+
+		private final String name;
+		private final Socket socket;
+		private final PrintWriter out;
+		private final BufferedReader in;
+		private final Process process;
+		private final int slots;
+		private final Deque<Shard> queue = new ArrayDeque<>();
+		private final Map<String, Shard> running = new LinkedHashMap<>();
+
+		/** IDs of stopped jobs which may still hold a slot of the worker. */
+		private final Set<String> stuck = new HashSet<>();
+		private boolean alive = true;
+		private String[] metrics;
+		private CountDownLatch metricsLatch;
+
+		public Worker(final String name, final Socket socket,
+			final Process process, final int slots) throws IOException
+		{
+			this.name = name;
+			this.socket = socket;
+			this.process = process;
+			this.slots = Math.max(1, slots);
+			out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+				StandardCharsets.UTF_8), true);
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+				StandardCharsets.UTF_8));
+		}
+
+		public void send(final String line) {
+			out.println(line);
+		}
+
+		public void metricsReceived(final String[] tokens) {
+			if (metricsLatch == null) return;
+			if (tokens != null) {
+				metrics = new String[tokens.length - 1];
+				System.arraycopy(tokens, 1, metrics, 0, metrics.length);
+			}
+			metricsLatch.countDown();
+		}
+
+		public void close() {
+			try {
+				socket.close();
+			}
+			catch (final IOException exc) {
+				// NB: The connection is gone either way.
+			}
+		}
+	}
+
+}
@@ -0,0 +1,535 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.cache;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.imagej.Dataset;
+import net.imagej.event.DatasetDeletedEvent;
+import net.imagej.event.DatasetUpdatedEvent;
+import net.imagej.metrics.MetricsService;
+import net.imagej.ops.OpService;
+import net.imglib2.IterableInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+
+import org.scijava.ItemIO;
+import org.scijava.event.EventHandler;
+import org.scijava.event.EventService;
+import org.scijava.module.Module;
+import org.scijava.module.ModuleItem;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default implementation of {@link OpCacheService}.
+ * <p>
+ * The capacity of the cache can be given in MiB by the {@value #SIZE_PROPERTY}
+ * system property; it defaults to an eighth of the maximum heap size. Image
+ * inputs other than datasets are compared by content: each call makes a
+ * single pass over their pixels, and each cached result keeps a copy of the
+ * pixel values it was computed from, which counts towards the capacity.
+ * Arguments compared by identity, datasets included, are only referenced
+ * weakly; the results computed from them are discarded once they are garbage
+ * collected.
+ * </p>
+ * <p>
+ * Calls which write into one of their arguments, such as ops given a
+ * preallocated output, are passed through to the {@link OpService} and never
+ * cached; the same goes for calls with image inputs of non-real types.
+ * </p>
+ * 
+ * @author agent
+ */
+@Plugin(type = Service.class)
+public class DefaultOpCacheService extends AbstractService implements
+	OpCacheService
+{
+
+	/** System property defining the capacity of the cache, in MiB. */
+	public static final String SIZE_PROPERTY = "imagej.ops.cache";
+
+	/** Estimated size of a cached result besides its pixels, in bytes. */
+	private static final long OVERHEAD = 64;
+
+	@Parameter
+	private OpService opService;
+
+	// NB: Ensures that dataset events reach this service.
+	@Parameter
+	private EventService eventService;
+
+	@Parameter(required = false)
+	private MetricsService metricsService;
+
+	/** The cached results, in least recently used order. */
+	private final LinkedHashMap<Key, Entry> results = new LinkedHashMap<>(16,
+		0.75f, true);
+
+	/** The tokens of cached arguments which have been garbage collected. */
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+	private long maxBytes;
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long invalidations;
+
+	// -- OpCacheService methods --
+
+	@Override
+	public Object run(final String name, final Object... args) {
+		final Key key = Key.create(name, args, collected);
+		if (key == null) return opService.run(name, args);
+		synchronized (this) {
+			expunge();
+			final Entry entry = results.get(key);
+			if (entry != null) {
+				hits++;
+				if (metricsService != null) {
+					metricsService.counter("ops.cache.hits").inc();
+				}
+				return entry.result;
+			}
+			misses++;
+		}
+		if (metricsService != null) metricsService.counter("ops.cache.misses").inc();
+
+		// NB: Only calls whose results were cached can hit, so it suffices to
+		// inspect the matched op on a miss. Equal keys imply equal argument
+		// types, and hence the same op.
+		final Module module = opService.module(name, args);
+		final Object result = opService.run(module);
+		if (!isPure(module)) return result;
+
+		final long size = sizeOf(result) + key.snapshot();
+		synchronized (this) {
+			expunge();
+			if (size <= maxBytes && !results.containsKey(key)) {
+				results.put(key, new Entry(result, size));
+				bytes += size;
+				evict();
+			}
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized void invalidate(final Object input) {
+		expunge();
+		final Iterator<Map.Entry<Key, Entry>> iter = results.entrySet().iterator();
+		while (iter.hasNext()) {
+			final Map.Entry<Key, Entry> e = iter.next();
+			if (!e.getKey().references(input) && e.getValue().result != input) {
+				continue;
+			}
+			bytes -= e.getValue().size;
+			iter.remove();
+			invalidations++;
+		}
+	}
+
+	@Override
+	public synchronized void clear() {
+		results.clear();
+		bytes = 0;
+	}
+
+	@Override
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	@Override
+	public synchronized void setMaxBytes(final long maxBytes) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Invalid cache size: " + maxBytes);
+		}
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	@Override
+	public synchronized OpCacheStatistics getStatistics() {
+		expunge();
+		return new OpCacheStatistics(maxBytes, bytes, results.size(), hits, misses,
+			evictions, invalidations);
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		final long defaultSize = Runtime.getRuntime().maxMemory() / 8;
+		setMaxBytes(Long.getLong(SIZE_PROPERTY, defaultSize >> 20) << 20);
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public void dispose() {
+		clear();
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	protected void onEvent(final DatasetUpdatedEvent evt) {
+		invalidate(evt.getObject());
+	}
+
+	@EventHandler
+	protected void onEvent(final DatasetDeletedEvent evt) {
+		invalidate(evt.getObject());
+	}
+
+	// -- Helper methods --
+
+	/** Discards the results computed from garbage collected arguments. */
+	private void expunge() {
+		Reference<?> token;
+		while ((token = collected.poll()) != null) {
+			final Iterator<Map.Entry<Key, Entry>> iter = results.entrySet()
+				.iterator();
+			while (iter.hasNext()) {
+				final Map.Entry<Key, Entry> e = iter.next();
+				if (!e.getKey().contains(token)) continue;
+				bytes -= e.getValue().size;
+				iter.remove();
+				invalidations++;
+			}
+		}
+	}
+
+	private void evict() {
+		final Iterator<Entry> iter = results.values().iterator();
+		while (bytes > maxBytes && iter.hasNext()) {
+			bytes -= iter.next().size;
+			iter.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Gets whether the given op only reads its arguments, i.e., whether none of
+	 * them is a preallocated output or modified in place.
+	 */
+	private static boolean isPure(final Module module) {
+		for (final ModuleItem<?> item : module.getInfo().inputs()) {
+			if (item.getIOType() != ItemIO.INPUT) return false;
+		}
+		return true;
+	}
+
+	/** Estimates the memory held by the given op result. */
+	private static long sizeOf(final Object result) {
+		if (!(result instanceof IterableInterval)) return OVERHEAD;
+		final IterableInterval<?> image = (IterableInterval<?>) result;
+		if (image.size() == 0) return OVERHEAD;
+		final Object type = image.firstElement();
+		final int bits = type instanceof RealType ? //
+			((RealType<?>) type).getBitsPerPixel() : Long.SIZE;
+		return OVERHEAD + image.size() * bits / 8;
+	}
+
+	/**
+	 * Converts an op argument into a token which is equal to the token of
+	 * another argument if and only if the op would compute the same result from
+	 * either, or null if the argument cannot be compared at all.
+	 */
+	private static Object token(final Object arg,
+		final ReferenceQueue<Object> queue)
+	{
+		if (arg == null || arg instanceof Number || arg instanceof String ||
+			arg instanceof Boolean || arg instanceof Character ||
+			arg instanceof Enum)
+		{
+			return arg;
+		}
+		if (arg instanceof Dataset) return new Identity(arg, queue);
+		if (arg instanceof IterableInterval) {
+			final IterableInterval<?> image = (IterableInterval<?>) arg;
+			if (image.size() > Integer.MAX_VALUE - 8) return null;
+			if (image.size() > 0 && !(image.firstElement() instanceof RealType)) {
+				return null;
+			}
+			return new Content(image);
+		}
+		if (arg.getClass().isArray() && isValueArray(arg.getClass())) {
+			// NB: Snapshot the values, since the array might change later.
+			return new ArrayValue(Arrays.deepToString(new Object[] { arg }));
+		}
+		return new Identity(arg, queue);
+	}
+
+	/** Gets whether the given array type holds only primitives or strings. */
+	private static boolean isValueArray(final Class<?> arrayClass) {
+		Class<?> c = arrayClass;
+		while (c.isArray()) {
+			c = c.getComponentType();
+		}
+		return c.isPrimitive() || c == String.class;
+	}
+
+	/** Gets the bits of the given pixel value, losing no precision. */
+	private static long bits(final Object t) {
+		if (t instanceof IntegerType) return ((IntegerType<?>) t).getIntegerLong();
+		return Double.doubleToLongBits(((RealType<?>) t).getRealDouble());
+	}
+
+	// -- Helper classes --
+
+	private static class Key {
+
+		private final String name;
+		private final Object[] tokens;
+		private final int hashCode;
+
+		private Key(final String name, final Object[] tokens) {
+			this.name = name;
+			this.tokens = tokens;
+			hashCode = 31 * name.hashCode() + Arrays.hashCode(tokens);
+		}
+
+		/** Creates the key of the given call, or null if it cannot be cached. */
+		public static Key create(final String name, final Object[] args,
+			final ReferenceQueue<Object> queue)
+		{
+			final Object[] tokens = new Object[args.length];
+			for (int i = 0; i < args.length; i++) {
+				tokens[i] = token(args[i], queue);
+				if (tokens[i] == null && args[i] != null) return null;
+			}
+			return new Key(name, tokens);
+		}
+
+		/**
+		 * Copies the pixel values of all images compared by content, so that
+		 * the key no longer depends on them.
+		 * 
+		 * @return the size of the copies, in bytes
+		 */
+		public long snapshot() {
+			long size = 0;
+			for (final Object token : tokens) {
+				if (token instanceof Content) size += ((Content) token).snapshot();
+			}
+			return size;
+		}
+
+		public boolean references(final Object input) {
+			for (final Object token : tokens) {
+				if (token instanceof Identity && ((Identity) token).get() == input) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public boolean contains(final Object token) {
+			for (final Object t : tokens) {
+				if (t == token) return true;
+			}
+			return false;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Key)) return false;
+			final Key key = (Key) o;
+			return name.equals(key.name) && Arrays.equals(tokens, key.tokens);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	private static class Entry {
+
+		private final Object result;
+		private final long size;
+
+		public Entry(final Object result, final long size) {
+			this.result = result;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Token of an argument which is compared by identity. The argument is only
+	 * referenced weakly; once it is collected, the token equals no other.
+	 */
+	private static class Identity extends WeakReference<Object> {
+
+		private final int hashCode;
+
+		public Identity(final Object o, final ReferenceQueue<Object> queue) {
+			super(o, queue);
+			hashCode = System.identityHashCode(o);
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (obj == this) return true;
+			if (!(obj instanceof Identity)) return false;
+			final Object o = get();
+			return o != null && ((Identity) obj).get() == o;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	/**
+	 * Token of an image which is compared by content. The hash only narrows
+	 * down the candidates; equality is decided by comparing every pixel, either
+	 * of the image itself or of a copy taken once the token is cached.
+	 */
+	private static class Content {
+
+		private final Class<?> imageClass;
+		private final Class<?> typeClass;
+		private final long[] min;
+		private final long[] max;
+		private final long hash;
+		private IterableInterval<?> image;
+		private long[] values;
+
+		public Content(final IterableInterval<?> image) {
+			this.image = image;
+			imageClass = image.getClass();
+			typeClass = image.size() == 0 ? null : image.firstElement().getClass();
+			min = Intervals.minAsLongArray(image);
+			max = Intervals.maxAsLongArray(image);
+			long h = 1125899906842597L;
+			for (final Object t : image) {
+				h = 31 * h + bits(t);
+			}
+			hash = h;
+		}
+
+		/** Replaces the image by a copy of its values. */
+		public long snapshot() {
+			if (values != null) return 0;
+			final long[] copy = new long[(int) image.size()];
+			int i = 0;
+			for (final Object t : image) {
+				copy[i++] = bits(t);
+			}
+			values = copy;
+			image = null;
+			return (long) copy.length * Long.BYTES;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Content)) return false;
+			final Content content = (Content) o;
+			if (hash != content.hash || imageClass != content.imageClass ||
+				typeClass != content.typeClass || !Arrays.equals(min, content.min) ||
+				!Arrays.equals(max, content.max))
+			{
+				return false;
+			}
+			if (values != null && content.values != null) {
+				return Arrays.equals(values, content.values);
+			}
+			if (values == null && content.values == null) {
+				return sameValues(image, content.image);
+			}
+			return values == null ? matches(image, content.values) : //
+				matches(content.image, values);
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(hash);
+		}
+
+		private static boolean matches(final IterableInterval<?> image,
+			final long[] values)
+		{
+			if (image.size() != values.length) return false;
+			int i = 0;
+			for (final Object t : image) {
+				if (bits(t) != values[i++]) return false;
+			}
+			return true;
+		}
+
+		private static boolean sameValues(final IterableInterval<?> a,
+			final IterableInterval<?> b)
+		{
+			final Iterator<?> ia = a.iterator();
+			final Iterator<?> ib = b.iterator();
+			while (ia.hasNext() && ib.hasNext()) {
+				if (bits(ia.next()) != bits(ib.next())) return false;
+			}
+			return !ia.hasNext() && !ib.hasNext();
+		}
+	}
+
+	/** Token of an array argument, which is compared by value. */
+	private static class ArrayValue {
+
+		private final String values;
+
+		public ArrayValue(final String values) {
+			this.values = values;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			return o instanceof ArrayValue && values.equals(((ArrayValue) o).values);
+		}
+
+		@Override
+		public int hashCode() {
+			return values.hashCode();
+		}
+	}
+
+}
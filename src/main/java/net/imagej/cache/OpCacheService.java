@@ -0,0 +1,86 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.cache;
+
+import net.imagej.OnDemandService;
+
+/**
+ * Interface for services which memoize the results of ops.
+ * <p>
+ * Running an op through this service rather than
+ * {@link net.imagej.ops.OpService} returns the cached result of an earlier
+ * call with the same op and inputs, if there is one. Image inputs are
+ * compared by content, except for {@link net.imagej.Dataset}s, which are
+ * compared by identity and whose results are discarded as soon as they are
+ * {@link net.imagej.Dataset#update() updated} or deleted, or once they are
+ * garbage collected. Only {@link net.imagej.Dataset#update()} signals a
+ * change: a dataset modified without it (e.g., through a view of its pixels)
+ * keeps serving the results computed before, unless it is
+ * {@link #invalidate invalidated} explicitly. The cache is bounded by the
+ * estimated size of the cached results, evicting the least recently used
+ * results first.
+ * </p>
+ * <p>
+ * Cached results are shared between callers, and must therefore not be
+ * modified; this service makes no defensive copies. Calls which write into
+ * their arguments, such as ops given a preallocated output, are never cached.
+ * </p>
+ * 
+ * @author agent
+ */
+public interface OpCacheService extends OnDemandService {
+
+	/**
+	 * Executes the op with the given name and arguments, unless its result is
+	 * already cached. A cached result is the very object returned by the
+	 * earlier call, not a copy.
+	 * 
+	 * @see net.imagej.ops.OpService#run(String, Object...)
+	 */
+	Object run(String name, Object... args);
+
+	/** Discards all cached results computed from the given input. */
+	void invalidate(Object input);
+
+	/** Discards all cached results. */
+	void clear();
+
+	/** Gets the capacity of the cache, in bytes. */
+	long getMaxBytes();
+
+	/** Sets the capacity of the cache in bytes, evicting results as needed. */
+	void setMaxBytes(long maxBytes);
+
+	/** Gets a snapshot of the cache's statistics. */
+	OpCacheStatistics getStatistics();
+
+}
@@ -0,0 +1,109 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.cache;
+
+/**
+ * A snapshot of the statistics of an {@link OpCacheService}.
+ * 
+ * @author agent
+ */
+public class OpCacheStatistics {
+
+	private final long maxBytes;
+	private final long bytes;
+	private final int entries;
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long invalidations;
+
+	public OpCacheStatistics(final long maxBytes, final long bytes,
+		final int entries, final long hits, final long misses,
+		final long evictions, final long invalidations)
+	{
+		this.maxBytes = maxBytes;
+		this.bytes = bytes;
+		this.entries = entries;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.invalidations = invalidations;
+	}
+
+	/** Gets the capacity of the cache, in bytes. */
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/** Gets the estimated size of all cached results, in bytes. */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/** Gets the number of cached results. */
+	public int getEntries() {
+		return entries;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	/** Gets the number of results discarded to make room for others. */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/** Gets the number of results discarded because their inputs changed. */
+	public long getInvalidations() {
+		return invalidations;
+	}
+
+	/** Gets the fraction of op executions which hit the cache. */
+	public double getHitRatio() {
+		final long requests = hits + misses;
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+			"%d results (%d/%d bytes), %d hits, %d misses, %d evictions, " +
+				"%d invalidations", entries, bytes, maxBytes, hits, misses, evictions,
+			invalidations);
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.composite;
+
+import java.io.IOException;
+import java.util.List;
+
+import net.imagej.Dataset;
+import net.imagej.OnDemandService;
+import net.imglib2.display.ColorTable;
+
+/**
+ * Interface for services which render multi-channel 16-bit images to ARGB
+ * pixels by additive compositing, e.g. for thumbnails or quality control
+ * images of many files.
+ * <p>
+ * LUTs are parsed once and shared between threads, and each combination of a
+ * LUT and a display range is precomputed as a lookup table from every 16-bit
+ * value to RGB, so that compositing a pixel takes one table lookup per
+ * channel.
+ * </p>
+ * 
+ * @author agent
+ */
+public interface CompositeService extends OnDemandService {
+
+	/**
+	 * Gets the LUT of the given name, as listed by
+	 * {@link net.imagej.lut.LUTService#findLUTs()}, reading it only the first
+	 * time it is requested.
+	 * 
+	 * @throws IOException if there is no such LUT, or it cannot be read.
+	 */
+	ColorTable getLUT(String name) throws IOException;
+
+	/**
+	 * Gets the lookup table from every unsigned 16-bit value to the color of the
+	 * given LUT, for the given display range. Each entry packs the red, green
+	 * and blue components into 10-bit fields ({@code r << 20 | g << 10 | b}),
+	 * so that the entries of up to four channels can be added up without
+	 * overflow. Tables are cached; they must not be modified.
+	 */
+	int[] getTable(ColorTable lut, double min, double max);
+
+	/**
+	 * Composites the given channels additively into opaque ARGB pixels,
+	 * saturating each component at 255. Rows are processed in parallel; no
+	 * memory is allocated per pixel or per row.
+	 * 
+	 * @param channels One plane of unsigned 16-bit values per channel, in row
+	 *          major order.
+	 * @param tables One table per channel, as obtained from
+	 *          {@link #getTable(ColorTable, double, double)}.
+	 * @param width The width of each plane.
+	 * @param argb The array into which the pixels are written; it must be at
+	 *          least as long as each plane.
+	 */
+	void composite(short[][] channels, int[][] tables, int width, int[] argb);
+
+	/**
+	 * Composites the first {@code width * height} pixels of the given channels,
+	 * as {@link #composite(short[][], int[][], int, int[])} does. The planes and
+	 * the output may be longer, e.g. when their arrays are reused for images of
+	 * different sizes.
+	 */
+	void composite(short[][] channels, int[][] tables, int width, int height,
+		int[] argb);
+
+	/**
+	 * Composites the channels of an unsigned 16-bit XY(C...) dataset, using the
+	 * given LUT for each channel and the dataset's channel ranges (or else the
+	 * full 16-bit range) for display.
+	 * 
+	 * @param dataset The dataset, whose first two axes must be X and Y.
+	 * @param luts One LUT per channel.
+	 * @param position The position of the plane to composite, in all dimensions
+	 *          of the dataset; the entries of X, Y and the channel axis are
+	 *          ignored. May be null for the first plane.
+	 * @param argb The array into which the pixels are written, or null to
+	 *          allocate one.
+	 * @return The composited pixels.
+	 * @throws IllegalArgumentException if the dataset is not an unsigned 16-bit
+	 *           XY image, or the number of LUTs does not match its channels.
+	 */
+	int[] composite(Dataset dataset, List<ColorTable> luts, long[] position,
+		int[] argb);
+
+}
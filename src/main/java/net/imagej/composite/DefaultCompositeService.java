@@ -0,0 +1,315 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.composite;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.imagej.Dataset;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.lut.LUTService;
+import net.imagej.metrics.MetricsService;
+import net.imagej.metrics.Timer;
+import net.imagej.thread.Parallel;
+import net.imglib2.display.ColorTable;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Default implementation of {@link CompositeService}.
+ * <p>
+ * The list of available LUTs is discovered once. At most {@link #MAX_TABLES}
+ * lookup tables (of 256 KiB each) are kept, in least recently used order.
+ * </p>
+ * 
+ * @author agent
+ */
+@Plugin(type = Service.class)
+public class DefaultCompositeService extends AbstractService implements
+	CompositeService
+{
+
+	/** Maximum number of lookup tables kept. */
+	public static final int MAX_TABLES = 64;
+
+	/** Images smaller than this (in pixels) are composited on one thread. */
+	private static final int MIN_PARALLEL = 1 << 16;
+
+	@Parameter
+	private LUTService lutService;
+
+	@Parameter
+	private ThreadService threadService;
+
+	@Parameter(required = false)
+	private MetricsService metricsService;
+
+	private final Map<String, ColorTable> luts = new ConcurrentHashMap<>();
+
+	private final LinkedHashMap<TableKey, int[]> tables = new LinkedHashMap<
+		TableKey, int[]>(16, 0.75f, true)
+	{
+
+		@Override
+		protected boolean removeEldestEntry(
+			final Map.Entry<TableKey, int[]> eldest)
+		{
+			return size() > MAX_TABLES;
+		}
+	};
+
+	private volatile Map<String, URL> lutURLs;
+
+	// -- CompositeService methods --
+
+	@Override
+	public ColorTable getLUT(final String name) throws IOException {
+		final ColorTable cached = luts.get(name);
+		if (cached != null) return cached;
+		Map<String, URL> urls = lutURLs;
+		if (urls == null) lutURLs = urls = lutService.findLUTs();
+		final URL url = urls.get(name);
+		if (url == null) throw new IOException("No such LUT: " + name);
+		final ColorTable lut = lutService.loadLUT(url);
+		if (lut == null) throw new IOException("Cannot read LUT: " + url);
+		final ColorTable existing = luts.putIfAbsent(name, lut);
+		return existing == null ? lut : existing;
+	}
+
+	@Override
+	public int[] getTable(final ColorTable lut, final double min,
+		final double max)
+	{
+		final TableKey key = new TableKey(lut, min, max);
+		synchronized (tables) {
+			final int[] table = tables.get(key);
+			if (table != null) return table;
+		}
+		// NB: Compute outside the lock; a duplicate computation is harmless.
+		final int[] table = table(lut, min, max);
+		synchronized (tables) {
+			final int[] existing = tables.get(key);
+			if (existing != null) return existing;
+			tables.put(key, table);
+		}
+		return table;
+	}
+
+	@Override
+	public void composite(final short[][] channels, final int[][] tables,
+		final int width, final int[] argb)
+	{
+		if (width <= 0) throw new IllegalArgumentException("Invalid width: " +
+			width);
+		if (channels.length == 0) throw new IllegalArgumentException(
+			"No channels");
+		for (final short[] channel : channels) {
+			if (channel.length != channels[0].length) {
+				throw new IllegalArgumentException("Channels differ in size");
+			}
+		}
+		composite(channels, tables, width, channels[0].length / width, argb);
+	}
+
+	@Override
+	public void composite(final short[][] channels, final int[][] tables,
+		final int width, final int height, final int[] argb)
+	{
+		if (channels.length != tables.length) {
+			throw new IllegalArgumentException("Got " + channels.length +
+				" channels but " + tables.length + " tables");
+		}
+		if (channels.length == 0) throw new IllegalArgumentException(
+			"No channels");
+		if (width <= 0 || height < 0) {
+			throw new IllegalArgumentException("Invalid size: " + width + " x " +
+				height);
+		}
+		final int size = width * height;
+		for (final short[] channel : channels) {
+			if (channel.length < size) {
+				throw new IllegalArgumentException("Channel is too small: " +
+					channel.length + " < " + size);
+			}
+		}
+		if (argb.length < size) {
+			throw new IllegalArgumentException("Output is too small: " +
+				argb.length + " < " + size);
+		}
+		try (final Timer.Sample sample = metricsService == null ? null
+			: metricsService.timer("composite.render").start())
+		{
+			render(channels, tables, width, height, argb);
+		}
+	}
+
+	@Override
+	public int[] composite(final Dataset dataset, final List<ColorTable> luts,
+		final long[] position, final int[] argb)
+	{
+		final ImgPlus<?> imgPlus = dataset.getImgPlus();
+		if (dataset.numDimensions() < 2 || dataset.axis(0).type() != Axes.X ||
+			dataset.axis(1).type() != Axes.Y)
+		{
+			throw new IllegalArgumentException("Not an XY image: " + dataset);
+		}
+		if (!(imgPlus.firstElement() instanceof UnsignedShortType)) {
+			throw new IllegalArgumentException("Not a 16-bit image: " + dataset);
+		}
+		final int c = dataset.dimensionIndex(Axes.CHANNEL);
+		final int count = c < 0 ? 1 : (int) dataset.dimension(c);
+		if (luts.size() != count) {
+			throw new IllegalArgumentException("Got " + luts.size() +
+				" LUTs for " + count + " channels");
+		}
+
+		final short[][] channels = new short[count][];
+		final int[][] channelTables = new int[count][];
+		for (int ch = 0; ch < count; ch++) {
+			// NB: Planes are numbered over all dimensions beyond X and Y.
+			int no = 0;
+			for (int d = dataset.numDimensions() - 1; d >= 2; d--) {
+				final long p = d == c ? ch : position == null ? 0 : position[d];
+				no = (int) (no * dataset.dimension(d) + p);
+			}
+			channels[ch] = (short[]) dataset.getPlane(no);
+			double min = imgPlus.getChannelMinimum(ch);
+			double max = imgPlus.getChannelMaximum(ch);
+			if (Double.isNaN(min) || Double.isNaN(max) || max <= min) {
+				min = 0;
+				max = 0xffff;
+			}
+			channelTables[ch] = getTable(luts.get(ch), min, max);
+		}
+		final int[] result = argb != null ? argb
+			: new int[channels[0].length];
+		composite(channels, channelTables, (int) dataset.dimension(0), result);
+		return result;
+	}
+
+	// -- Helper methods --
+
+	/** Composites the given channels, splitting the rows into bands. */
+	private void render(final short[][] channels, final int[][] tables,
+		final int width, final int height, final int[] argb)
+	{
+		final int size = width * height;
+		final int bands = size < MIN_PARALLEL ? 1 : Math.min(height, Runtime
+			.getRuntime().availableProcessors());
+		try {
+			// NB: Bands consist of whole rows.
+			Parallel.forRanges(threadService, height, bands, (y0, y1) -> composite(
+				channels, tables, argb, (int) y0 * width, (int) y1 * width));
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while compositing", exc);
+		}
+	}
+
+	/** Composites the pixels with the given indices. */
+	private static void composite(final short[][] channels,
+		final int[][] tables, final int[] argb, final int start, final int end)
+	{
+		final int count = channels.length;
+		for (int i = start; i < end; i++) {
+			int r = 0, g = 0, b = 0;
+			// NB: Add up the packed entries of up to four channels at once.
+			for (int c0 = 0; c0 < count; c0 += 4) {
+				final int c1 = Math.min(count, c0 + 4);
+				int rgb = 0;
+				for (int c = c0; c < c1; c++) {
+					rgb += tables[c][channels[c][i] & 0xffff];
+				}
+				r += rgb >>> 20;
+				g += (rgb >>> 10) & 0x3ff;
+				b += rgb & 0x3ff;
+			}
+			argb[i] = 0xff000000 | Math.min(r, 0xff) << 16 | //
+				Math.min(g, 0xff) << 8 | Math.min(b, 0xff);
+		}
+	}
+
+	/** Computes the packed lookup table of the given LUT and display range. */
+	private static int[] table(final ColorTable lut, final double min,
+		final double max)
+	{
+		final double hi = max > min ? max : min + 1;
+		final int[] table = new int[1 << 16];
+		for (int v = 0; v < table.length; v++) {
+			final int argb = lut.lookupARGB(min, hi, v);
+			table[v] = (argb >> 16 & 0xff) << 20 | (argb >> 8 & 0xff) << 10 |
+				argb & 0xff;
+		}
+		return table;
+	}
+
+	// -- Helper classes --
+
+	/** Identifies a lookup table by its LUT instance and display range. */
+	private static class TableKey {
+
+		private final ColorTable lut;
+		private final double min, max;
+
+		public TableKey(final ColorTable lut, final double min, final double max) {
+			this.lut = lut;
+			this.min = min;
+			this.max = max;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof TableKey)) return false;
+			final TableKey other = (TableKey) o;
+			return lut == other.lut && Double.compare(min, other.min) == 0 &&
+				Double.compare(max, other.max) == 0;
+		}
+
+		@Override
+		public int hashCode() {
+			return (System.identityHashCode(lut) * 31 + Double.hashCode(min)) * 31 +
+				Double.hashCode(max);
+		}
+	}
+
+}
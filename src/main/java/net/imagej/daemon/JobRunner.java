@@ -0,0 +1,229 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.daemon;
+
+import io.scif.services.DatasetIOService;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import javax.script.ScriptException;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imagej.app.DeferredLegacy;
+import net.imagej.memory.DefaultMemoryBudgetService;
+import net.imagej.memory.MemoryBudgetService;
+import net.imagej.ops.OpService;
+import net.imglib2.img.Img;
+
+import org.scijava.Context;
+import org.scijava.module.Module;
+import org.scijava.plugin.Parameter;
+import org.scijava.script.ScriptService;
+
+/**
+ * Executes individual jobs (scripts or ops) against an existing application
+ * context, translating between their textual descriptions and live objects.
+ * <p>
+ * Inputs are given as strings: a token of the form {@code @path} is opened as
+ * a {@link Dataset}, numeric tokens become numbers, and anything else is
+ * passed through as a string.
+ * </p>
+ * 
+ * @author agent
+ */
+public class JobRunner {
+
+	@Parameter
+	private OpService opService;
+
+	@Parameter
+	private ScriptService scriptService;
+
+	@Parameter
+	private DatasetService datasetService;
+
+	@Parameter
+	private DatasetIOService datasetIOService;
+
+	@Parameter(required = false)
+	private MemoryBudgetService memoryBudgetService;
+
+	public JobRunner(final Context context) {
+		context.inject(this);
+		// NB: The memory budget is opt-in; configuring it starts the service.
+		if (memoryBudgetService == null && System.getProperty(
+			DefaultMemoryBudgetService.BUDGET_PROPERTY) != null)
+		{
+			memoryBudgetService = context.service(MemoryBudgetService.class);
+		}
+	}
+
+	// -- JobRunner methods --
+
+	/**
+	 * Runs the given script to completion. If the script is an ImageJ 1.x macro,
+	 * the {@link DeferredLegacy deferred legacy layer} is started first.
+	 * 
+	 * @param script The script to run.
+	 * @param inputs The script's inputs, keyed by name.
+	 * @return The outputs of the script, keyed by name.
+	 * @throws InterruptedException If the calling thread is interrupted while
+	 *           the script is running, in which case the script is cancelled.
+	 */
+	public Map<String, Object> runScript(final File script,
+		final Map<String, Object> inputs) throws IOException, InterruptedException,
+		ExecutionException
+	{
+		if (DeferredLegacy.isLegacyScript(script)) {
+			// NB: ImageJ 1.x macros need the legacy layer.
+			DeferredLegacy.start(scriptService.getContext());
+		}
+		final Future<? extends Module> future;
+		try {
+			future = scriptService.run(script, true, inputs);
+		}
+		catch (final ScriptException exc) {
+			throw new ExecutionException(exc);
+		}
+		try {
+			return future.get().getOutputs();
+		}
+		catch (final InterruptedException exc) {
+			future.cancel(true);
+			throw exc;
+		}
+	}
+
+	/**
+	 * Runs the op with the given name on the given inputs. An output image is
+	 * accounted by the {@link MemoryBudgetService}, if there is one.
+	 * 
+	 * @param name The name of the op, e.g. {@code filter.gauss}.
+	 * @param inputs The inputs of the op, in textual form (see
+	 *          {@link #parse(String)}).
+	 * @return The output of the op.
+	 * @throws net.imagej.memory.MemoryBudgetException if the output image does
+	 *           not fit into the memory budget.
+	 */
+	public Object runOp(final String name, final List<String> inputs)
+		throws IOException
+	{
+		final List<Object> args = new ArrayList<>();
+		for (final String input : inputs) {
+			args.add(parse(input));
+		}
+		return track(opService.run(name, args.toArray()));
+	}
+
+	/**
+	 * Attributes the images allocated by the current thread to the given job,
+	 * until the returned scope is closed.
+	 * 
+	 * @return The scope of the job, or null if there is no
+	 *         {@link MemoryBudgetService}.
+	 * @see MemoryBudgetService#enter(String)
+	 */
+	public MemoryBudgetService.Scope enter(final String job) {
+		return memoryBudgetService == null ? null : memoryBudgetService.enter(
+			job);
+	}
+
+	/**
+	 * Accounts for the given image, if there is a {@link MemoryBudgetService}.
+	 * 
+	 * @see MemoryBudgetService#track(Object)
+	 */
+	public <T> T track(final T image) {
+		return memoryBudgetService == null ? image : memoryBudgetService.track(
+			image);
+	}
+
+	/**
+	 * Converts a textual input into an object: {@code @path} tokens are opened
+	 * as datasets, numeric tokens become numbers and all else stays a string.
+	 */
+	public Object parse(final String token) throws IOException {
+		if (token.startsWith("@")) return open(token.substring(1));
+		try {
+			return Long.parseLong(token);
+		}
+		catch (final NumberFormatException exc) {
+			// NB: Not an integer.
+		}
+		try {
+			return Double.parseDouble(token);
+		}
+		catch (final NumberFormatException exc) {
+			// NB: Not a number.
+		}
+		return token;
+	}
+
+	/**
+	 * Saves the given result, which must be an image, to the given destination.
+	 * 
+	 * @throws IllegalArgumentException if the result is not an image.
+	 */
+	public void save(final Object result, final String destination)
+		throws IOException
+	{
+		datasetIOService.save(toDataset(result), destination);
+	}
+
+	/** Opens the given source as a dataset. */
+	public Dataset open(final String source) throws IOException {
+		return datasetIOService.open(source);
+	}
+
+	/** Wraps the given image-like object as a {@link Dataset}. */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public Dataset toDataset(final Object result) {
+		if (result instanceof Dataset) return (Dataset) result;
+		if (result instanceof ImgPlus) {
+			return datasetService.create((ImgPlus) result);
+		}
+		if (result instanceof Img) {
+			return datasetService.create(new ImgPlus((Img) result));
+		}
+		throw new IllegalArgumentException("Not an image: " + (result == null
+			? null : result.getClass().getName()));
+	}
+
+}
@@ -0,0 +1,644 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.imagej.memory.MemoryBudgetService;
+import net.imagej.metrics.Metric;
+import net.imagej.metrics.MetricsService;
+
+import org.scijava.Context;
+import org.scijava.log.LogService;
+
+/**
+ * A long-lived job server which executes scripts and ops against a single warm
+ * application context.
+ * <p>
+ * Clients talk to the server using a line-based text protocol, either over
+ * standard input/output or over a TCP socket bound to the loopback interface.
+ * Tokens are separated by whitespace. Requests are:
+ * </p>
+ * <ul>
+ * <li>{@code run <id> [timeout=<seconds>] script <path> [<key>=<value> ...]
+ * [><path>]}</li>
+ * <li>{@code run <id> [timeout=<seconds>] op <name> [<input> ...] [><path>]}
+ * </li>
+ * <li>{@code cancel <id>}</li>
+ * <li>{@code status}</li>
+ * <li>{@code memory} (answered with
+ * {@code memory <used> <budget> [<job>=<bytes> ...]})</li>
+ * <li>{@code metrics} (answered with {@code metrics [<name>=<value> ...]},
+ * e.g. {@code ops.run.count=42})</li>
+ * <li>{@code quit} (closes the connection)</li>
+ * <li>{@code shutdown} (stops the server)</li>
+ * </ul>
+ * <p>
+ * Inputs are interpreted as described in {@link JobRunner#parse}. An op
+ * request ending with {@code ><path>} saves the op's output image there; a
+ * script request ending with {@code ><path>} saves the script's
+ * {@code output} output there, if it has one. Jobs
+ * run concurrently; each {@code run} request is answered immediately with
+ * {@code accepted <id>}, and later with exactly one of {@code ok <id> ...},
+ * {@code error <id> ...}, {@code cancelled <id>} or {@code timeout <id>}.
+ * Images created while a job runs are attributed to that job's ID by the
+ * {@link MemoryBudgetService}, when one is available.
+ * </p>
+ * <p>
+ * Cancelling a job, or letting it time out, interrupts the thread running it.
+ * A job which ignores the interruption keeps its thread, but no longer counts
+ * against the number of concurrent jobs: the server starts another thread in
+ * its place, which it retires once the stuck job finally returns. Either way,
+ * a stopped job is followed by {@code returned <id>} once no thread executes
+ * it any longer, so that clients can tell when the work has actually ended.
+ * </p>
+ * 
+ * @author agent
+ */
+public class JobServer {
+
+	private final JobRunner runner;
+	private final LogService log;
+	private final MemoryBudgetService memoryBudgetService;
+	private final MetricsService metricsService;
+	private final long defaultTimeout;
+	private final int threads;
+
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService timer;
+	private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+	private final CountDownLatch stopped = new CountDownLatch(1);
+
+	private volatile boolean shutdown;
+	private ServerSocket serverSocket;
+
+	/** Number of threads held by jobs which were stopped but did not return. */
+	private int abandoned;
+
+	/**
+	 * Creates a new job server.
+	 * 
+	 * @param context The application context against which jobs run.
+	 * @param threads The maximum number of jobs to execute concurrently.
+	 * @param timeout The default timeout of each job in seconds, or 0 for none.
+	 */
+	public JobServer(final Context context, final int threads,
+		final long timeout)
+	{
+		runner = new JobRunner(context);
+		log = context.getService(LogService.class);
+		memoryBudgetService = context.getService(MemoryBudgetService.class);
+		metricsService = context.getService(MetricsService.class);
+		defaultTimeout = timeout;
+		this.threads = threads;
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(), threadFactory("job"));
+		timer = Executors.newSingleThreadScheduledExecutor(threadFactory(
+			"job-timer"));
+	}
+
+	// -- JobServer methods --
+
+	/**
+	 * Serves requests from the given streams, until the input ends or the
+	 * server is shut down.
+	 */
+	public void serve(final InputStream in, final OutputStream out)
+		throws IOException
+	{
+		final Connection conn = new Connection(out);
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(in,
+			StandardCharsets.UTF_8));
+		String line;
+		while (!shutdown && (line = reader.readLine()) != null) {
+			if (!handle(conn, line)) break;
+		}
+	}
+
+	/**
+	 * Starts accepting connections on the given TCP port of the loopback
+	 * interface, in the background.
+	 * 
+	 * @param port The port to bind, or 0 to choose a free port.
+	 * @return The port actually bound.
+	 */
+	public int listen(final int port) throws IOException {
+		serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		final Thread acceptor = threadFactory("job-acceptor").newThread(
+			new Runnable()
+			{
+
+				@Override
+				public void run() {
+					while (!shutdown) {
+						try {
+							accept(serverSocket.accept());
+						}
+						catch (final IOException exc) {
+							if (!shutdown) log.error(exc);
+						}
+					}
+				}
+			});
+		acceptor.start();
+		return serverSocket.getLocalPort();
+	}
+
+	/** Blocks until the server has been shut down. */
+	public void awaitShutdown() throws InterruptedException {
+		stopped.await();
+	}
+
+	/**
+	 * Blocks until all pending and running jobs have reported their outcome, or
+	 * until the given timeout elapses.
+	 * 
+	 * @return true if no jobs are left.
+	 */
+	public boolean awaitJobs(final long timeout, final TimeUnit unit)
+		throws InterruptedException
+	{
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (jobs) {
+			while (!jobs.isEmpty()) {
+				final long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) return false;
+				TimeUnit.NANOSECONDS.timedWait(jobs, remaining);
+			}
+		}
+		return true;
+	}
+
+	/** Cancels all running jobs and stops the server. */
+	public void shutdown() {
+		if (shutdown) return;
+		shutdown = true;
+		for (final Job job : jobs.values()) {
+			job.stop("cancelled");
+		}
+		executor.shutdownNow();
+		timer.shutdownNow();
+		if (serverSocket != null) {
+			try {
+				serverSocket.close();
+			}
+			catch (final IOException exc) {
+				log.debug(exc);
+			}
+		}
+		stopped.countDown();
+	}
+
+	/**
+	 * Cancels the job with the given ID.
+	 * 
+	 * @return true if the job was still pending or running.
+	 */
+	public boolean cancel(final String id) {
+		final Job job = jobs.get(id);
+		return job != null && job.stop("cancelled");
+	}
+
+	/** Gets the IDs of the jobs which are pending or running. */
+	public List<String> getActiveJobs() {
+		return new ArrayList<>(jobs.keySet());
+	}
+
+	// -- Helper methods --
+
+	private void accept(final Socket socket) {
+		final Thread handler = threadFactory("job-connection").newThread(
+			new Runnable()
+			{
+
+				@Override
+				public void run() {
+					try {
+						serve(socket.getInputStream(), socket.getOutputStream());
+					}
+					catch (final IOException exc) {
+						log.debug(exc);
+					}
+					finally {
+						try {
+							socket.close();
+						}
+						catch (final IOException exc) {
+							log.debug(exc);
+						}
+					}
+				}
+			});
+		handler.start();
+	}
+
+	/**
+	 * Handles one request line.
+	 * 
+	 * @return false if the connection should be closed.
+	 */
+	private boolean handle(final Connection conn, final String line) {
+		final List<String> tokens = new ArrayList<>();
+		for (final String token : line.trim().split("\\s+")) {
+			if (!token.isEmpty()) tokens.add(token);
+		}
+		if (tokens.isEmpty()) return true;
+		final String command = tokens.get(0);
+		switch (command) {
+			case "run":
+				submit(conn, tokens);
+				return true;
+			case "cancel":
+				for (final String id : tokens.subList(1, tokens.size())) {
+					if (!cancel(id)) conn.send("error " + id + " no such job");
+				}
+				return true;
+			case "status":
+				conn.send("status " + jobs.size() + " " + join(getActiveJobs()));
+				return true;
+			case "memory":
+				conn.send(memory());
+				return true;
+			case "metrics":
+				conn.send(metrics());
+				return true;
+			case "quit":
+				return false;
+			case "shutdown":
+				shutdown();
+				return false;
+			default:
+				conn.send("error - unknown command: " + command);
+				return true;
+		}
+	}
+
+	private void submit(final Connection conn, final List<String> tokens) {
+		if (tokens.size() < 4) {
+			conn.send("error - usage: run <id> [timeout=<seconds>] " +
+				"(script|op) <name> ...");
+			return;
+		}
+		final String id = tokens.get(1);
+		int i = 2;
+		long timeout = defaultTimeout;
+		if (tokens.get(i).startsWith("timeout=")) {
+			try {
+				timeout = Long.parseLong(tokens.get(i++).substring(8));
+			}
+			catch (final NumberFormatException exc) {
+				conn.send("error " + id + " invalid timeout");
+				return;
+			}
+		}
+		if (i + 1 >= tokens.size()) {
+			conn.send("error " + id + " missing job description");
+			return;
+		}
+		final String kind = tokens.get(i);
+		final String name = tokens.get(i + 1);
+		final List<String> args = tokens.subList(i + 2, tokens.size());
+		final Callable<String> task;
+		if ("script".equals(kind)) task = scriptTask(name, args);
+		else if ("op".equals(kind)) task = opTask(name, args);
+		else {
+			conn.send("error " + id + " unknown job type: " + kind);
+			return;
+		}
+
+		submit(conn, id, timeout, task);
+	}
+
+	/** Submits a job, which reports its outcome to the given connection. */
+	void submit(final Connection conn, final String id, final long timeout,
+		final Callable<String> task)
+	{
+		final Job job = new Job(id, conn, task);
+		if (jobs.putIfAbsent(id, job) != null) {
+			conn.send("error " + id + " duplicate job id");
+			return;
+		}
+		conn.send("accepted " + id);
+		try {
+			if (shutdown) throw new RejectedExecutionException();
+			job.future = executor.submit(job);
+			if (timeout > 0) {
+				job.deadline = timer.schedule(new Runnable() {
+
+					@Override
+					public void run() {
+						job.stop("timeout");
+					}
+				}, timeout, TimeUnit.SECONDS);
+			}
+		}
+		catch (final RejectedExecutionException exc) {
+			// NB: The server was shut down concurrently.
+			job.stop("cancelled");
+		}
+	}
+
+	/**
+	 * Adjusts the number of threads held by stopped jobs which did not return,
+	 * and resizes the pool so that the other jobs keep as many threads.
+	 */
+	private synchronized void abandon(final int delta) {
+		abandoned += delta;
+		final int size = threads + abandoned;
+		if (delta > 0) {
+			executor.setMaximumPoolSize(size);
+			executor.setCorePoolSize(size);
+		}
+		else {
+			executor.setCorePoolSize(size);
+			executor.setMaximumPoolSize(size);
+		}
+	}
+
+	private Callable<String> scriptTask(final String path,
+		final List<String> args)
+	{
+		return new Callable<String>() {
+
+			@Override
+			public String call() throws Exception {
+				final List<String> tokens = new ArrayList<>(args);
+				String destination = null;
+				if (!tokens.isEmpty() && tokens.get(tokens.size() - 1).startsWith(
+					">"))
+				{
+					destination = tokens.remove(tokens.size() - 1).substring(1);
+				}
+				final Map<String, Object> inputs = new LinkedHashMap<>();
+				for (final String arg : tokens) {
+					final int equals = arg.indexOf('=');
+					if (equals < 0) {
+						throw new IllegalArgumentException("Invalid input: " + arg);
+					}
+					inputs.put(arg.substring(0, equals), runner.parse(arg.substring(
+						equals + 1)));
+				}
+				final Map<String, Object> outputs = //
+					runner.runScript(new File(path), inputs);
+				final Object output = outputs.get("output");
+				if (destination != null && output != null) {
+					runner.save(output, destination);
+				}
+				final List<String> pairs = new ArrayList<>();
+				for (final Map.Entry<String, Object> entry : outputs.entrySet()) {
+					pairs.add(entry.getKey() + "=" + entry.getValue());
+				}
+				return join(pairs);
+			}
+		};
+	}
+
+	private Callable<String> opTask(final String name, final List<String> args) {
+		return new Callable<String>() {
+
+			@Override
+			public String call() throws Exception {
+				final List<String> inputs = new ArrayList<>(args);
+				String destination = null;
+				if (!inputs.isEmpty() && inputs.get(inputs.size() - 1).startsWith(
+					">"))
+				{
+					destination = inputs.remove(inputs.size() - 1).substring(1);
+				}
+				final Object result = runner.runOp(name, inputs);
+				if (destination == null) return String.valueOf(result);
+				runner.save(result, destination);
+				return destination;
+			}
+		};
+	}
+
+	private String memory() {
+		if (memoryBudgetService == null) return "error - no memory budget";
+		final List<String> tokens = new ArrayList<>();
+		tokens.add("memory");
+		tokens.add(String.valueOf(memoryBudgetService.getUsage()));
+		tokens.add(String.valueOf(memoryBudgetService.getBudget()));
+		for (final Map.Entry<String, Long> entry : memoryBudgetService
+			.getUsageByJob().entrySet())
+		{
+			// NB: Thread names may contain whitespace; job IDs never do.
+			tokens.add(entry.getKey().replaceAll("\\s+", "_") + "=" + entry
+				.getValue());
+		}
+		return join(tokens);
+	}
+
+	private String metrics() {
+		if (metricsService == null) return "error - no metrics";
+		final List<String> tokens = new ArrayList<>();
+		tokens.add("metrics");
+		for (final Metric metric : metricsService.getMetrics().values()) {
+			for (final Map.Entry<String, Number> entry : metric.getValues()
+				.entrySet())
+			{
+				tokens.add(metric.getName() + "." + entry.getKey() + "=" + entry
+					.getValue());
+			}
+		}
+		return join(tokens);
+	}
+
+	private static String join(final List<String> tokens) {
+		final StringBuilder sb = new StringBuilder();
+		for (final String token : tokens) {
+			if (sb.length() > 0) sb.append(' ');
+			sb.append(token.replaceAll("\\s+", " "));
+		}
+		return sb.toString();
+	}
+
+	private static ThreadFactory threadFactory(final String prefix) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "imagej-" + prefix + "-" + count
+					.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	// -- Helper classes --
+
+	/** A client connection, to which responses are written one line at a time. */
+	static class Connection {
+
+		private final PrintWriter out;
+
+		public Connection(final OutputStream out) {
+			this.out = new PrintWriter(new OutputStreamWriter(out,
+				StandardCharsets.UTF_8), true);
+		}
+
+		public synchronized void send(final String line) {
+			out.println(line);
+		}
+	}
+
+	/** A submitted job, which reports its outcome exactly once. */
+	private class Job implements Runnable {
+
+		private final String id;
+		private final Connection conn;
+		private final Callable<String> task;
+		private final AtomicReference<String> outcome = new AtomicReference<>();
+		private volatile Future<?> future;
+		private volatile Future<?> deadline;
+
+		/** Whether a thread is executing the job. Guarded by {@code this}. */
+		private boolean running;
+
+		/** Whether the job was stopped while running. Guarded by {@code this}. */
+		private boolean stuck;
+
+		/** Whether another thread replaces the stuck one. Guarded by {@code this}. */
+		private boolean replaced;
+
+		public Job(final String id, final Connection conn,
+			final Callable<String> task)
+		{
+			this.id = id;
+			this.conn = conn;
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			synchronized (this) {
+				if (outcome.get() != null) return; // stopped before it started
+				running = true;
+			}
+			try {
+				execute();
+			}
+			finally {
+				synchronized (this) {
+					running = false;
+					if (stuck) {
+						log.warn("Job " + id + " returned after it was stopped");
+						if (replaced) abandon(-1);
+						conn.send("returned " + id);
+					}
+				}
+			}
+		}
+
+		private void execute() {
+			try (final MemoryBudgetService.Scope scope = runner.enter(id)) {
+				final String result = task.call();
+				finish("ok", "ok " + id + (result.isEmpty() ? "" : " " + result));
+			}
+			catch (final InterruptedException exc) {
+				// NB: The job was stopped; its outcome has already been reported.
+			}
+			catch (final Throwable t) {
+				if (outcome.get() == null) log.debug(t);
+				final String message = t.getMessage() == null ? t.getClass()
+					.getName() : t.getMessage();
+				finish("error", "error " + id + " " + message.replaceAll("\\s+", " "));
+			}
+		}
+
+		/**
+		 * Stops the job for the given reason.
+		 * 
+		 * @return true if the job had not finished yet.
+		 */
+		public boolean stop(final String reason) {
+			if (!finish(reason, reason + " " + id)) return false;
+			final Future<?> f = future;
+			if (f != null) f.cancel(true);
+			synchronized (this) {
+				if (!running) conn.send("returned " + id);
+				else {
+					stuck = true;
+					if (!shutdown) {
+						// NB: Replace the job's thread until it actually returns.
+						replaced = true;
+						abandon(1);
+					}
+				}
+			}
+			return true;
+		}
+
+		private boolean finish(final String result, final String message) {
+			if (!outcome.compareAndSet(null, result)) return false;
+			final Future<?> d = deadline;
+			if (d != null) d.cancel(false);
+			conn.send(message);
+			synchronized (jobs) {
+				jobs.remove(id);
+				jobs.notifyAll();
+			}
+			return true;
+		}
+	}
+
+}
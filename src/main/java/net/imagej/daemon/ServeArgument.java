@@ -0,0 +1,113 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.daemon;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+
+import org.scijava.Context;
+import org.scijava.console.AbstractConsoleArgument;
+import org.scijava.console.ConsoleArgument;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+/**
+ * Handles the {@code --serve [port]} command line argument, which keeps the
+ * application context alive and serves jobs through a {@link JobServer}.
+ * <p>
+ * Without a port, requests are read from standard input and answered on
+ * standard output, and the jobs still running when the input ends are
+ * completed before the server stops; with a port (0 for any free one), the server listens on the
+ * loopback interface and prints {@code listening <port>} once it is ready.
+ * The {@code imagej.serve.threads} and {@code imagej.serve.timeout} system
+ * properties set the number of concurrent jobs (default: one per core) and
+ * the default job timeout in seconds (default: none).
+ * </p>
+ * 
+ * @author agent
+ */
+@Plugin(type = ConsoleArgument.class)
+public class ServeArgument extends AbstractConsoleArgument {
+
+	@Parameter
+	private Context context;
+
+	@Parameter(required = false)
+	private LogService log;
+
+	// -- ConsoleArgument methods --
+
+	@Override
+	public void handle(final LinkedList<String> args) {
+		if (!supports(args)) return;
+		args.removeFirst(); // --serve
+		Integer port = null;
+		if (!args.isEmpty() && args.getFirst().matches("\\d+")) {
+			port = Integer.parseInt(args.removeFirst());
+		}
+
+		final int threads = Integer.getInteger("imagej.serve.threads", Runtime
+			.getRuntime().availableProcessors());
+		final long timeout = Long.getLong("imagej.serve.timeout", 0);
+		final JobServer server = new JobServer(context, threads, timeout);
+		try {
+			if (port == null) {
+				server.serve(System.in, System.out);
+				server.awaitJobs(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			}
+			else {
+				System.out.println("listening " + server.listen(port));
+				server.awaitShutdown();
+			}
+		}
+		catch (final IOException exc) {
+			if (log != null) log.error(exc);
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+		}
+		finally {
+			server.shutdown();
+		}
+	}
+
+	// -- Typed methods --
+
+	@Override
+	public boolean supports(final LinkedList<String> args) {
+		return args != null && !args.isEmpty() && "--serve".equals(args
+			.getFirst());
+	}
+
+}
@@ -0,0 +1,235 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.hyperslab;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.axis.CalibratedAxis;
+import net.imagej.axis.DefaultLinearAxis;
+import net.imagej.axis.LinearAxis;
+import net.imagej.metrics.MetricsService;
+import net.imagej.metrics.Timer;
+import net.imagej.thread.Parallel;
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.ImgView;
+import net.imglib2.type.Type;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Default implementation of {@link HyperslabService}.
+ * <p>
+ * Contiguous ranges and strides become interval and subsampling views. Other
+ * picks become a stack of hyperplanes of the source, which is permuted back
+ * into place. Materialization splits the view into chunks in flat iteration
+ * order, and copies them in parallel.
+ * </p>
+ * 
+ * @author agent
+ */
+@Plugin(type = Service.class)
+public class DefaultHyperslabService extends AbstractService implements
+	HyperslabService
+{
+
+	/** Minimum number of pixels copied by one thread. */
+	private static final long MIN_CHUNK = 1 << 16;
+
+	@Parameter
+	private DatasetService datasetService;
+
+	@Parameter
+	private ThreadService threadService;
+
+	@Parameter(required = false)
+	private MetricsService metricsService;
+
+	// -- HyperslabService methods --
+
+	@Override
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public Dataset view(final Dataset dataset, final Hyperslab slab) {
+		final ImgPlus imgPlus = dataset.getImgPlus();
+		final CalibratedAxis[] axes = new CalibratedAxis[dataset.numDimensions()];
+		for (int d = 0; d < axes.length; d++) {
+			axes[d] = dataset.axis(d).copy();
+		}
+		RandomAccessibleInterval view = imgPlus.getImg();
+		for (final AxisType type : slab.getAxes()) {
+			final int d = dataset.dimensionIndex(type);
+			if (d < 0) {
+				throw new IllegalArgumentException("No " + type + " axis: " +
+					dataset.getName());
+			}
+			final long[] indices = slab.indices(type, dataset.dimension(d));
+			final long step = step(indices);
+			if (step > 0) {
+				view = range(view, d, indices[0], indices[indices.length - 1], step);
+				axes[d] = calibrate(axes[d], indices[0], step);
+			}
+			else view = pick(view, d, indices);
+		}
+
+		final ImgPlus result = new ImgPlus(new ImgView(view, imgPlus.factory()),
+			dataset.getName(), axes);
+		result.setValidBits(imgPlus.getValidBits());
+		final int c = result.dimensionIndex(Axes.CHANNEL);
+		result.setCompositeChannelCount(c < 0 ? 1 : (int) Math.min(imgPlus
+			.getCompositeChannelCount(), result.dimension(c)));
+		if (metricsService != null) {
+			metricsService.counter("hyperslab.views").inc();
+		}
+		return datasetService.create(result);
+	}
+
+	@Override
+	public boolean isView(final Dataset dataset) {
+		return dataset.getImgPlus().getImg() instanceof ImgView;
+	}
+
+	@Override
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	public Dataset materialize(final Dataset dataset)
+		throws InterruptedException
+	{
+		if (!isView(dataset)) return dataset;
+		final ImgPlus imgPlus = dataset.getImgPlus();
+		final ImgView view = (ImgView) imgPlus.getImg();
+		final Img copy = view.factory().create(Intervals.dimensionsAsLongArray(
+			view), (Type) Util.getTypeFromInterval(view));
+		try (final Timer.Sample sample = metricsService == null ? null
+			: metricsService.timer("hyperslab.materialize").start())
+		{
+			copy(view, copy);
+		}
+		return datasetService.create(new ImgPlus(copy, imgPlus));
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets the step of the given indices if they are strictly increasing at a
+	 * constant step, or else 0.
+	 */
+	private static long step(final long[] indices) {
+		if (indices.length == 1) return 1;
+		final long step = indices[1] - indices[0];
+		if (step <= 0) return 0;
+		for (int i = 2; i < indices.length; i++) {
+			if (indices[i] - indices[i - 1] != step) return 0;
+		}
+		return step;
+	}
+
+	/** Restricts the given dimension to every {@code step}th index of a range. */
+	private static <T> RandomAccessibleInterval<T> range(
+		final RandomAccessibleInterval<T> source, final int d, final long min,
+		final long max, final long step)
+	{
+		final long[] mins = Intervals.minAsLongArray(source);
+		final long[] maxs = Intervals.maxAsLongArray(source);
+		mins[d] = min;
+		maxs[d] = max;
+		final RandomAccessibleInterval<T> interval = Views.zeroMin(Views.interval(
+			source, mins, maxs));
+		if (step == 1) return interval;
+		final long[] steps = new long[source.numDimensions()];
+		for (int i = 0; i < steps.length; i++) {
+			steps[i] = i == d ? step : 1;
+		}
+		return Views.subsample(interval, steps);
+	}
+
+	/** Restricts the given dimension to the given indices, in that order. */
+	private static <T> RandomAccessibleInterval<T> pick(
+		final RandomAccessibleInterval<T> source, final int d,
+		final long[] indices)
+	{
+		final List<RandomAccessibleInterval<T>> planes = new ArrayList<>();
+		for (final long index : indices) {
+			planes.add(Views.hyperSlice(source, d, index));
+		}
+		// NB: The stacked dimension comes last; move it back into place.
+		RandomAccessibleInterval<T> stack = Views.stack(planes);
+		for (int i = stack.numDimensions() - 1; i > d; i--) {
+			stack = Views.permute(stack, i, i - 1);
+		}
+		return stack;
+	}
+
+	/** Adjusts the calibration of an axis to a range and stride. */
+	private static CalibratedAxis calibrate(final CalibratedAxis axis,
+		final long min, final long step)
+	{
+		if (!(axis instanceof LinearAxis)) return axis;
+		return new DefaultLinearAxis(axis.type(), axis.unit(), //
+			((LinearAxis) axis).scale() * step, axis.calibratedValue(min));
+	}
+
+	/** Copies the source into the target, in parallel chunks. */
+	private <T extends Type<T>> void copy(
+		final RandomAccessibleInterval<T> source, final Img<T> target)
+		throws InterruptedException
+	{
+		final IterableInterval<T> in = Views.flatIterable(source);
+		final IterableInterval<T> out = Views.flatIterable(target);
+		final long size = out.size();
+		final int chunks = (int) Math.max(1, Math.min(size / MIN_CHUNK, 4L *
+			Runtime.getRuntime().availableProcessors()));
+		Parallel.forRanges(threadService, size, chunks, (start, end) -> {
+			final Cursor<T> inCursor = in.cursor();
+			final Cursor<T> outCursor = out.cursor();
+			inCursor.jumpFwd(start);
+			outCursor.jumpFwd(start);
+			for (long j = start; j < end; j++) {
+				outCursor.next().set(inCursor.next());
+			}
+		});
+	}
+
+}
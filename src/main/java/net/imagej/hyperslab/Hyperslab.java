@@ -0,0 +1,189 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.hyperslab;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import net.imagej.axis.AxisType;
+
+/**
+ * A selection of indices along some axes of an image: ranges, strides and
+ * arbitrary picks (e.g. of channels). Axes without a selection are kept whole.
+ * <p>
+ * Indices are zero-based and inclusive. A negative maximum counts from the
+ * end of the axis, so that {@code -1} denotes its last index.
+ * </p>
+ * 
+ * @author agent
+ * @see HyperslabService
+ */
+public class Hyperslab {
+
+	private final Map<AxisType, Selection> selections = new LinkedHashMap<>();
+
+	// -- Hyperslab methods --
+
+	/**
+	 * Selects the given range of an axis.
+	 * 
+	 * @return This hyperslab, for chaining.
+	 */
+	public Hyperslab range(final AxisType axis, final long min, final long max) {
+		return range(axis, min, max, 1);
+	}
+
+	/**
+	 * Selects every {@code step}th index of the given range of an axis.
+	 * 
+	 * @return This hyperslab, for chaining.
+	 */
+	public Hyperslab range(final AxisType axis, final long min, final long max,
+		final long step)
+	{
+		if (min < 0) throw new IllegalArgumentException("Invalid min: " + min);
+		if (step < 1) throw new IllegalArgumentException("Invalid step: " + step);
+		selections.put(axis, new Selection(min, max, step, null));
+		return this;
+	}
+
+	/**
+	 * Selects every {@code step}th index of an axis, starting with the first.
+	 * 
+	 * @return This hyperslab, for chaining.
+	 */
+	public Hyperslab every(final AxisType axis, final long step) {
+		return range(axis, 0, -1, step);
+	}
+
+	/**
+	 * Selects the given indices of an axis, in the given order.
+	 * 
+	 * @return This hyperslab, for chaining.
+	 */
+	public Hyperslab pick(final AxisType axis, final long... indices) {
+		if (indices.length == 0) {
+			throw new IllegalArgumentException("No indices given for " + axis);
+		}
+		selections.put(axis, new Selection(0, 0, 0, indices.clone()));
+		return this;
+	}
+
+	/** Gets the axes with a selection. */
+	public Set<AxisType> getAxes() {
+		return selections.keySet();
+	}
+
+	/**
+	 * Gets the indices selected along the given axis.
+	 * 
+	 * @param axis The axis.
+	 * @param length The length of the axis in the image being sampled.
+	 * @throws IllegalArgumentException if the selection exceeds the axis.
+	 */
+	public long[] indices(final AxisType axis, final long length) {
+		final Selection s = selections.get(axis);
+		if (s == null) return range(0, length - 1, 1);
+		if (s.indices != null) {
+			for (final long index : s.indices) {
+				check(axis, index, length);
+			}
+			return s.indices.clone();
+		}
+		final long max = s.max < 0 ? length + s.max : s.max;
+		check(axis, s.min, length);
+		check(axis, max, length);
+		if (max < s.min) {
+			throw new IllegalArgumentException("Empty range for " + axis + ": " +
+				s.min + "-" + max);
+		}
+		return range(s.min, max, s.step);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		for (final Map.Entry<AxisType, Selection> entry : selections.entrySet()) {
+			if (sb.length() > 0) sb.append(", ");
+			sb.append(entry.getKey()).append("=").append(entry.getValue());
+		}
+		return sb.toString();
+	}
+
+	// -- Helper methods --
+
+	private static long[] range(final long min, final long max,
+		final long step)
+	{
+		final long[] indices = new long[(int) ((max - min) / step + 1)];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = min + i * step;
+		}
+		return indices;
+	}
+
+	private static void check(final AxisType axis, final long index,
+		final long length)
+	{
+		if (index < 0 || index >= length) {
+			throw new IllegalArgumentException("Index " + index + " is out of " +
+				"bounds for " + axis + " of length " + length);
+		}
+	}
+
+	// -- Helper classes --
+
+	private static class Selection {
+
+		private final long min, max, step;
+		private final long[] indices;
+
+		public Selection(final long min, final long max, final long step,
+			final long[] indices)
+		{
+			this.min = min;
+			this.max = max;
+			this.step = step;
+			this.indices = indices;
+		}
+
+		@Override
+		public String toString() {
+			if (indices != null) return Arrays.toString(indices);
+			return min + "-" + (max < 0 ? "end" + (max + 1 == 0 ? "" : max + 1)
+				: max) + (step == 1 ? "" : ":" + step);
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.hyperslab;
+
+import net.imagej.Dataset;
+import net.imagej.OnDemandService;
+
+/**
+ * Interface for services which sample hyperslabs of datasets (sub-volumes,
+ * every Nth slice or time point, subsets of channels) as views, without
+ * copying any pixels.
+ * <p>
+ * Unlike the copies made by the {@link net.imagej.sampler.SamplerService}, a
+ * view costs the same regardless of the size of the hyperslab, and reads
+ * through to the pixels of its source; changes to either are visible in
+ * both. Views are copied into memory only when {@link #materialize}d.
+ * </p>
+ * 
+ * @author agent
+ * @see Hyperslab
+ */
+public interface HyperslabService extends OnDemandService {
+
+	/**
+	 * Creates a view of the given hyperslab of a dataset. Calibrations are
+	 * adjusted to the selected ranges and strides.
+	 * 
+	 * @throws IllegalArgumentException if the dataset lacks an axis of the
+	 *           hyperslab, or the hyperslab exceeds the dataset.
+	 */
+	Dataset view(Dataset dataset, Hyperslab slab);
+
+	/** Gets whether the given dataset is a view of another one. */
+	boolean isView(Dataset dataset);
+
+	/**
+	 * Copies the pixels of the given view into a new dataset of the same type
+	 * as its source, using multiple threads. A dataset which is no view is
+	 * returned as is.
+	 * 
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 *           copying.
+	 */
+	Dataset materialize(Dataset dataset) throws InterruptedException;
+
+}
@@ -0,0 +1,212 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.index;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * A class loader which looks up classes and resources via a {@link JarIndex},
+ * opening only the JAR files which contain them.
+ * <p>
+ * It is a {@link URLClassLoader} over the indexed JAR files only so that code
+ * which inspects the class path via {@link #getURLs()} keeps working; lookups
+ * never go through the superclass.
+ * </p>
+ * 
+ * @author agent
+ */
+class IndexedClassLoader extends URLClassLoader {
+
+	static {
+		registerAsParallelCapable();
+	}
+
+	private final JarIndex index;
+	private final Map<File, JarFile> jarFiles = new ConcurrentHashMap<>();
+	private final Map<File, URL> urls = new ConcurrentHashMap<>();
+
+	public IndexedClassLoader(final JarIndex index, final ClassLoader parent)
+		throws MalformedURLException
+	{
+		super(urls(index.getJars()), parent);
+		this.index = index;
+	}
+
+	// -- ClassLoader methods --
+
+	@Override
+	protected Class<?> findClass(final String name)
+		throws ClassNotFoundException
+	{
+		final String path = name.replace('.', '/') + ".class";
+		try {
+			for (final File jar : index.locate(path)) {
+				final JarFile jarFile = jarFile(jar);
+				final JarEntry entry = jarFile.getJarEntry(path);
+				if (entry == null) continue;
+				final byte[] bytes;
+				try (final InputStream in = jarFile.getInputStream(entry)) {
+					bytes = readFully(in);
+				}
+				final URL url = url(jar);
+				definePackage(name, jarFile, url);
+				// NB: The code signers are known once the entry was read fully.
+				final CodeSource source = new CodeSource(url, entry.getCodeSigners());
+				return defineClass(name, bytes, 0, bytes.length, source);
+			}
+		}
+		catch (final IOException exc) {
+			throw new ClassNotFoundException(name, exc);
+		}
+		throw new ClassNotFoundException(name);
+	}
+
+	@Override
+	public URL findResource(final String name) {
+		final List<URL> resources = find(name, true);
+		return resources.isEmpty() ? null : resources.get(0);
+	}
+
+	@Override
+	public Enumeration<URL> findResources(final String name) {
+		return Collections.enumeration(find(name, false));
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (final JarFile jarFile : jarFiles.values()) {
+			jarFile.close();
+		}
+		jarFiles.clear();
+		super.close();
+	}
+
+	// -- Helper methods --
+
+	private List<URL> find(final String name, final boolean first) {
+		final List<URL> resources = new ArrayList<>();
+		for (final File jar : index.locate(name)) {
+			try {
+				// NB: Directories are known to exist from the index alone.
+				if (!name.endsWith("/") && jarFile(jar).getEntry(name) == null) {
+					continue;
+				}
+				resources.add(new URL("jar:" + url(jar) + "!/" + name));
+				if (first) break;
+			}
+			catch (final IOException exc) {
+				// NB: Skip unreadable JAR files, like URLClassLoader does.
+			}
+		}
+		return resources;
+	}
+
+	private JarFile jarFile(final File jar) throws IOException {
+		JarFile jarFile = jarFiles.get(jar);
+		if (jarFile == null) {
+			synchronized (jarFiles) {
+				jarFile = jarFiles.get(jar);
+				if (jarFile == null) {
+					jarFile = new JarFile(jar);
+					jarFiles.put(jar, jarFile);
+				}
+			}
+		}
+		return jarFile;
+	}
+
+	private URL url(final File jar) throws MalformedURLException {
+		URL url = urls.get(jar);
+		if (url == null) {
+			url = jar.toURI().toURL();
+			urls.put(jar, url);
+		}
+		return url;
+	}
+
+	@SuppressWarnings("deprecation")
+	private void definePackage(final String className, final JarFile jarFile,
+		final URL url) throws IOException
+	{
+		final int dot = className.lastIndexOf('.');
+		if (dot < 0) return;
+		final String name = className.substring(0, dot);
+		if (getPackage(name) != null) return;
+		final Manifest manifest = jarFile.getManifest();
+		try {
+			if (manifest == null) {
+				definePackage(name, null, null, null, null, null, null, null);
+			}
+			else definePackage(name, manifest, url);
+		}
+		catch (final IllegalArgumentException exc) {
+			// NB: Another thread defined the package meanwhile.
+		}
+	}
+
+	private static URL[] urls(final List<File> jars)
+		throws MalformedURLException
+	{
+		final URL[] urls = new URL[jars.size()];
+		for (int i = 0; i < urls.length; i++) {
+			urls[i] = jars.get(i).toURI().toURL();
+		}
+		return urls;
+	}
+
+	private static byte[] readFully(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buf = new byte[8192];
+		int r;
+		while ((r = in.read(buf)) > 0) {
+			out.write(buf, 0, r);
+		}
+		return out.toByteArray();
+	}
+
+}
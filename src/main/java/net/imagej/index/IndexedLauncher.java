@@ -0,0 +1,94 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * Launches ImageJ with a class loader backed by a {@link JarIndex} of the
+ * {@code jars/} and {@code plugins/} directories beneath {@code imagej.dir},
+ * in place of the ImageJ launcher's {@code -ijjarpath} discovery.
+ * <p>
+ * Usage: {@code IndexedLauncher <main-class> [<argument>...]}. Only the JAR
+ * file containing this class needs to be on the class path.
+ * </p>
+ * 
+ * @author agent
+ */
+public final class IndexedLauncher {
+
+	private IndexedLauncher() {
+		// prevent instantiation of utility class
+	}
+
+	public static void main(final String... args) throws Throwable {
+		if (args.length == 0) {
+			System.err.println("Usage: IndexedLauncher <main-class> [<argument>...]");
+			System.exit(1);
+		}
+		final ClassLoader loader = createClassLoader(new File(System.getProperty(
+			"imagej.dir", ".")));
+		Thread.currentThread().setContextClassLoader(loader);
+		final Method main = loader.loadClass(args[0]).getMethod("main",
+			String[].class);
+		try {
+			main.invoke(null, (Object) Arrays.copyOfRange(args, 1, args.length));
+		}
+		catch (final InvocationTargetException exc) {
+			throw exc.getCause();
+		}
+	}
+
+	/**
+	 * Creates a class loader for the given ImageJ installation, updating its
+	 * {@link JarIndex} as needed.
+	 */
+	public static ClassLoader createClassLoader(final File imagejDir)
+		throws IOException
+	{
+		final JarIndex index = JarIndex.load(JarIndex.defaultDir(), JarIndex
+			.jars(imagejDir));
+		if (index.getPluginsFile() != null) {
+			System.setProperty(JarIndex.PLUGINS_PROPERTY, index.getPluginsFile()
+				.getPath());
+		}
+		// NB: Bypass the system class loader, which has this JAR file only, so
+		// that all of ImageJ is loaded via the index.
+		return new IndexedClassLoader(index, ClassLoader.getSystemClassLoader()
+			.getParent());
+	}
+
+}
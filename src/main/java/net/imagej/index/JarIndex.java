@@ -0,0 +1,493 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A persistent index of the contents of ImageJ's JAR files.
+ * <p>
+ * For each JAR file, the index records which directories (i.e., packages and
+ * resource folders) it contains, and its SciJava plugin annotations, from
+ * which the {@link org.scijava.plugin.PluginIndex} and hence the list of
+ * services are built. With it, classes and resources can be looked up in the
+ * one JAR file which contains them, rather than by opening each JAR file in
+ * turn, and plugin discovery need not open any JAR file at all; see
+ * {@link IndexedLauncher}.
+ * </p>
+ * <p>
+ * Each JAR file's entry is validated by its size and modification time. When
+ * only the modification time differs (e.g., after the file was copied), its
+ * checksum decides whether the file needs to be indexed again. Hence, after
+ * an update only the changed JAR files are read.
+ * </p>
+ * <p>
+ * This class must only depend on the Java runtime, as it is used before the
+ * rest of ImageJ is on the class path.
+ * </p>
+ * 
+ * @author agent
+ */
+public final class JarIndex {
+
+	/**
+	 * System property naming the directory in which to keep the index, or
+	 * {@code false} to not use an index. If unset, a {@code .jar-index}
+	 * directory beneath {@code imagej.dir} is used when that is writable.
+	 */
+	public static final String PROPERTY = "imagej.jar.index";
+
+	/**
+	 * System property naming the merged plugin annotations of an up-to-date
+	 * index, which {@link PluginIndexSnapshot} then serves in place of scanning
+	 * the class path, provided that {@link #isCurrent} confirms that they
+	 * belong to the JAR files ImageJ runs with.
+	 */
+	public static final String PLUGINS_PROPERTY = "imagej.jar.index.plugins";
+
+	/** Name of the annotation index resource read by the plugin finder. */
+	private static final String INDEX = "META-INF/json/org.scijava.plugin.Plugin";
+
+	/** File name of the index within its directory. */
+	private static final String FILE = "jars";
+
+	/** File name of the merged plugin annotations within the directory. */
+	private static final String PLUGINS = "org.scijava.plugin.Plugin";
+
+	private static final int MAGIC = 0x494a4a49; // "IJJI"
+	private static final int VERSION = 1;
+
+	private final List<Entry> entries;
+	private final Map<String, List<File>> dirs = new HashMap<>();
+	private final File pluginsFile;
+
+	private JarIndex(final List<Entry> entries, final File pluginsFile) {
+		this.entries = entries;
+		this.pluginsFile = pluginsFile;
+		for (final Entry entry : entries) {
+			for (final String dir : entry.dirs) {
+				dirs.computeIfAbsent(dir, d -> new ArrayList<>()).add(entry.file);
+			}
+		}
+	}
+
+	// -- JarIndex methods --
+
+	/** Gets the indexed JAR files, in class path order. */
+	public List<File> getJars() {
+		final List<File> jars = new ArrayList<>(entries.size());
+		for (final Entry entry : entries) {
+			jars.add(entry.file);
+		}
+		return jars;
+	}
+
+	/**
+	 * Gets the JAR files which may contain the given class file or resource,
+	 * i.e., which contain its directory, in class path order.
+	 */
+	public List<File> locate(final String resource) {
+		final List<File> jars = dirs.get(dir(resource));
+		return jars == null ? Collections.<File> emptyList() : jars;
+	}
+
+	/**
+	 * Gets the merged plugin annotations of all indexed JAR files, or null if
+	 * the index is not kept on disk.
+	 */
+	public File getPluginsFile() {
+		return pluginsFile;
+	}
+
+	// -- Utility methods --
+
+	/**
+	 * Gets the directory in which to keep the index, according to the
+	 * {@link #PROPERTY} and {@code imagej.dir} system properties.
+	 * 
+	 * @return The directory, or null if no index should be kept.
+	 */
+	public static File defaultDir() {
+		final String property = System.getProperty(PROPERTY);
+		if ("false".equals(property)) return null;
+		if (property != null) return new File(property);
+		final String imagejDir = System.getProperty("imagej.dir");
+		if (imagejDir == null) return null;
+		final File dir = new File(imagejDir);
+		return dir.canWrite() ? new File(dir, ".jar-index") : null;
+	}
+
+	/**
+	 * Gets the JAR files of an ImageJ installation: those in its {@code jars/}
+	 * and {@code plugins/} directories and their subdirectories, in the order in
+	 * which the ImageJ launcher puts them on the class path.
+	 */
+	public static List<File> jars(final File imagejDir) {
+		final List<File> jars = new ArrayList<>();
+		addJars(new File(imagejDir, "jars"), jars);
+		addJars(new File(imagejDir, "plugins"), jars);
+		return jars;
+	}
+
+	/**
+	 * Gets an up-to-date index of the given JAR files. Entries of the index
+	 * stored in the given directory are reused where still valid; the others
+	 * are indexed anew, after which the stored index is updated.
+	 * 
+	 * @param dir The directory in which the index is kept, or null to index all
+	 *          JAR files in memory.
+	 * @param jars The JAR files to index, in class path order.
+	 */
+	public static JarIndex load(final File dir, final List<File> jars)
+		throws IOException
+	{
+		final Map<File, Entry> stored = dir == null ? //
+			Collections.<File, Entry> emptyMap() : read(new File(dir, FILE));
+		final List<Entry> entries = new ArrayList<>(jars.size());
+		boolean changed = dir == null || stored.size() != jars.size();
+		for (final File jar : jars) {
+			final File file = jar.getAbsoluteFile();
+			final Entry entry = validate(stored.get(file), file);
+			changed |= entry != stored.get(file);
+			entries.add(entry);
+		}
+		if (dir == null) return new JarIndex(entries, null);
+
+		final File pluginsFile = new File(dir, PLUGINS);
+		if (changed || !pluginsFile.isFile()) {
+			if (!dir.isDirectory() && !dir.mkdirs()) {
+				throw new IOException("Cannot create directory: " + dir);
+			}
+			// NB: Write the plugins first, so that a valid index implies them.
+			write(pluginsFile, out -> {
+				for (final Entry entry : entries) {
+					if (entry.plugins == null) continue;
+					out.write(entry.plugins);
+					out.write('\n');
+				}
+			});
+			write(new File(dir, FILE), out -> write(new DataOutputStream(out),
+				entries));
+		}
+		return new JarIndex(entries, pluginsFile);
+	}
+
+	/**
+	 * Gets the JAR files on the class path, or null if the class path contains
+	 * anything but JAR files (i.e., during development).
+	 */
+	public static List<File> classPathJars() {
+		final String classPath = System.getProperty("java.class.path");
+		if (classPath == null) return null;
+		final List<File> jars = new ArrayList<>();
+		for (final String path : classPath.split(File.pathSeparator)) {
+			if (path.isEmpty()) continue;
+			final File file = new File(path);
+			if (!file.isFile() || !path.endsWith(".jar")) return null;
+			jars.add(file);
+		}
+		return jars;
+	}
+
+	/**
+	 * Gets whether the given merged plugin annotations were written by an
+	 * index of exactly the given JAR files, none of which changed since.
+	 */
+	public static boolean isCurrent(final File pluginsFile,
+		final List<File> jars)
+	{
+		if (!PLUGINS.equals(pluginsFile.getName()) || !pluginsFile.isFile()) {
+			return false;
+		}
+		final Map<File, Entry> stored = read(new File(pluginsFile
+			.getParentFile(), FILE));
+		if (stored.size() != jars.size()) return false;
+		for (final File jar : jars) {
+			final File file = jar.getAbsoluteFile();
+			final Entry entry = stored.get(file);
+			if (entry == null || entry.size != file.length() || //
+				entry.mtime != file.lastModified()) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Makes the plugin annotations of the class path available to
+	 * {@link PluginIndexSnapshot} via an index, unless the launcher already
+	 * did so or the class path contains anything but JAR files (i.e., during
+	 * development).
+	 */
+	public static void installForClassPath() {
+		if (System.getProperty(PLUGINS_PROPERTY) != null) return;
+		final File dir = defaultDir();
+		final List<File> jars = classPathJars();
+		if (dir == null || jars == null) return;
+		try {
+			final JarIndex index = load(dir, jars);
+			System.setProperty(PLUGINS_PROPERTY, index.getPluginsFile().getPath());
+		}
+		catch (final IOException exc) {
+			// NB: Fall back to scanning the class path.
+		}
+	}
+
+	// -- Helper methods --
+
+	private static void addJars(final File dir, final List<File> jars) {
+		final File[] files = dir.listFiles();
+		if (files == null) return;
+		final List<File> sorted = new ArrayList<>();
+		Collections.addAll(sorted, files);
+		Collections.sort(sorted);
+		for (final File file : sorted) {
+			if (file.isDirectory()) addJars(file, jars);
+			else if (file.getName().endsWith(".jar")) jars.add(file);
+		}
+	}
+
+	/** Gets the directory to look up for the given resource. */
+	private static String dir(final String resource) {
+		if (resource.endsWith("/")) {
+			return resource.substring(0, resource.length() - 1);
+		}
+		final int slash = resource.lastIndexOf('/');
+		return slash < 0 ? "" : resource.substring(0, slash);
+	}
+
+	/**
+	 * Gets a valid entry for the given JAR file: the stored one if the file is
+	 * unchanged, or a new one otherwise.
+	 */
+	private static Entry validate(final Entry stored, final File file)
+		throws IOException
+	{
+		final long size = file.length(), mtime = file.lastModified();
+		if (stored != null && stored.size == size) {
+			if (stored.mtime == mtime) return stored;
+			final long checksum = checksum(file);
+			if (stored.checksum == checksum) {
+				return new Entry(file, size, mtime, checksum, stored.dirs,
+					stored.plugins);
+			}
+		}
+		return index(file, size, mtime);
+	}
+
+	private static Entry index(final File file, final long size,
+		final long mtime) throws IOException
+	{
+		final Set<String> dirs = new LinkedHashSet<>();
+		byte[] plugins = null;
+		try (final ZipFile zip = new ZipFile(file)) {
+			final Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+			while (zipEntries.hasMoreElements()) {
+				final ZipEntry zipEntry = zipEntries.nextElement();
+				// NB: Record the ancestors, too, for lookups of directories.
+				for (String dir = dir(zipEntry.getName()); dirs.add(dir);) {
+					if (dir.isEmpty()) break;
+					dir = dir(dir);
+				}
+				if (INDEX.equals(zipEntry.getName())) {
+					try (final InputStream in = zip.getInputStream(zipEntry)) {
+						plugins = readFully(in);
+					}
+				}
+			}
+		}
+		return new Entry(file, size, mtime, checksum(file), dirs, plugins);
+	}
+
+	private static long checksum(final File file) throws IOException {
+		final CRC32 crc = new CRC32();
+		try (final InputStream in = new FileInputStream(file)) {
+			final byte[] buf = new byte[65536];
+			int r;
+			while ((r = in.read(buf)) > 0) {
+				crc.update(buf, 0, r);
+			}
+		}
+		return crc.getValue();
+	}
+
+	private static byte[] readFully(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buf = new byte[8192];
+		int r;
+		while ((r = in.read(buf)) > 0) {
+			out.write(buf, 0, r);
+		}
+		return out.toByteArray();
+	}
+
+	/** Reads a stored index, or returns an empty one if it is unreadable. */
+	private static Map<File, Entry> read(final File file) {
+		final Map<File, Entry> entries = new HashMap<>();
+		if (!file.isFile()) return entries;
+		try (final DataInputStream in = new DataInputStream(
+			new BufferedInputStream(new FileInputStream(file))))
+		{
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) return entries;
+			final int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				final File jar = new File(in.readUTF());
+				final long size = in.readLong();
+				final long mtime = in.readLong();
+				final long checksum = in.readLong();
+				final int dirCount = in.readInt();
+				final Set<String> dirs = new LinkedHashSet<>();
+				for (int d = 0; d < dirCount; d++) {
+					dirs.add(in.readUTF());
+				}
+				final int length = in.readInt();
+				byte[] plugins = null;
+				if (length >= 0) {
+					plugins = new byte[length];
+					in.readFully(plugins);
+				}
+				entries.put(jar, new Entry(jar, size, mtime, checksum, dirs,
+					plugins));
+			}
+		}
+		catch (final IOException exc) {
+			// NB: Index everything anew.
+			entries.clear();
+		}
+		return entries;
+	}
+
+	private static void write(final DataOutputStream out,
+		final List<Entry> entries) throws IOException
+	{
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(entries.size());
+		for (final Entry entry : entries) {
+			out.writeUTF(entry.file.getPath());
+			out.writeLong(entry.size);
+			out.writeLong(entry.mtime);
+			out.writeLong(entry.checksum);
+			out.writeInt(entry.dirs.size());
+			for (final String dir : entry.dirs) {
+				out.writeUTF(dir);
+			}
+			if (entry.plugins == null) out.writeInt(-1);
+			else {
+				out.writeInt(entry.plugins.length);
+				out.write(entry.plugins);
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes a file atomically, so that concurrently starting JVMs never see a
+	 * partially written one.
+	 */
+	private static void write(final File file, final Content content)
+		throws IOException
+	{
+		final File tmp = File.createTempFile(file.getName(), ".tmp", file
+			.getParentFile());
+		try {
+			try (final OutputStream out = new BufferedOutputStream(
+				new FileOutputStream(tmp)))
+			{
+				content.write(out);
+			}
+			try {
+				Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (final AtomicMoveNotSupportedException exc) {
+				Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			tmp.delete();
+		}
+	}
+
+	// -- Helper classes --
+
+	private interface Content {
+
+		void write(OutputStream out) throws IOException;
+	}
+
+	/** The indexed contents of one JAR file. */
+	private static class Entry {
+
+		private final File file;
+		private final long size;
+		private final long mtime;
+		private final long checksum;
+		private final Set<String> dirs;
+		private final byte[] plugins;
+
+		public Entry(final File file, final long size, final long mtime,
+			final long checksum, final Set<String> dirs, final byte[] plugins)
+		{
+			this.file = file;
+			this.size = size;
+			this.mtime = mtime;
+			this.checksum = checksum;
+			this.dirs = dirs;
+			this.plugins = plugins;
+		}
+	}
+
+}
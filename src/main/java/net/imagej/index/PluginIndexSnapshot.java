@@ -0,0 +1,463 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.index;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.scijava.plugin.DefaultPluginFinder;
+import org.scijava.plugin.Plugin;
+import org.scijava.plugin.PluginFinder;
+import org.scijava.plugin.PluginIndex;
+
+/**
+ * A precomputed snapshot of the SciJava plugin index.
+ * <p>
+ * Every new {@link org.scijava.Context} normally discovers its plugins by
+ * reading the annotation index of every JAR file and directory on the class
+ * path. A snapshot is the merged annotation index of the whole class path,
+ * written once (at build time, or on first use), together with a fingerprint
+ * of the class path it was computed from. As long as the fingerprint still
+ * matches, the snapshot can be used in place of the scan; plugin priorities,
+ * types and names are all part of the index, so service ordering and
+ * {@link org.scijava.app.App} resolution come out exactly as before.
+ * </p>
+ * <p>
+ * The snapshot bundled with ImageJ lives at {@link #PATH}. In addition, the
+ * {@code imagej.plugin.index} system property can name a directory in which a
+ * snapshot is cached whenever the bundled one is stale, or can be set to
+ * {@code false} to always scan. If unset, a {@code .plugin-index} directory
+ * beneath {@code imagej.dir} is used when that property is set.
+ * </p>
+ * <p>
+ * When ImageJ was started with an up-to-date {@link JarIndex}, the plugin
+ * annotations merged by that index take precedence over any snapshot, once
+ * the index is confirmed to cover the JAR files of the class path or, when
+ * started by the {@link IndexedLauncher}, of the installation.
+ * </p>
+ * 
+ * @author agent
+ */
+public final class PluginIndexSnapshot {
+
+	/** Resource path of the snapshot bundled with ImageJ. */
+	public static final String PATH = "META-INF/imagej/plugin-index/";
+
+	/** Name of the annotation index resource read by the plugin finder. */
+	private static final String INDEX = "META-INF/json/" + Plugin.class.getName();
+
+	/** File name of the merged annotation index within a snapshot. */
+	private static final String PLUGINS = Plugin.class.getName();
+
+	/** File name of the class path fingerprint within a snapshot. */
+	private static final String FINGERPRINT = "fingerprint";
+
+	private PluginIndexSnapshot() {
+		// prevent instantiation of utility class
+	}
+
+	// -- Utility methods --
+
+	/**
+	 * Gets a plugin index for the current class path, backed by a snapshot when
+	 * an up-to-date one is available, and by a regular class path scan
+	 * otherwise.
+	 */
+	public static PluginIndex load() {
+		return new PluginIndex(finder());
+	}
+
+	/**
+	 * Gets a plugin finder for the current class path, which reads an
+	 * up-to-date snapshot when one is available, and scans the class path
+	 * otherwise.
+	 */
+	public static PluginFinder finder() {
+		final String property = System.getProperty("imagej.plugin.index");
+		if ("false".equals(property)) return new DefaultPluginFinder();
+		try {
+			final String indexed = System.getProperty(JarIndex.PLUGINS_PROPERTY);
+			if (indexed != null && isIndexed(new File(indexed))) {
+				return finder(new File(indexed).toURI().toURL());
+			}
+
+			final File cacheDir = cacheDir(property);
+			if (cacheDir != null) {
+				final PluginFinder cached = finder(cacheDir);
+				if (cached != null) return cached;
+			}
+
+			final URL bundled = loader().getResource(PATH + PLUGINS);
+			final URL bundledPrint = loader().getResource(PATH + FINGERPRINT);
+			if (bundled != null && bundledPrint != null) {
+				final String fingerprint = fingerprint(location(bundled));
+				if (fingerprint.equals(read(bundledPrint))) return finder(bundled);
+			}
+
+			if (cacheDir != null) {
+				write(cacheDir, null);
+				return finder(new File(cacheDir, PLUGINS).toURI().toURL());
+			}
+		}
+		catch (final IOException exc) {
+			// NB: Fall back to scanning the class path.
+		}
+		return new DefaultPluginFinder();
+	}
+
+	/**
+	 * Gets a plugin index backed by the snapshot in the given directory.
+	 * 
+	 * @return The plugin index, or null if the directory does not contain a
+	 *         snapshot matching the current class path.
+	 */
+	public static PluginIndex load(final File dir) throws IOException {
+		final PluginFinder finder = finder(dir);
+		return finder == null ? null : new PluginIndex(finder);
+	}
+
+	/**
+	 * Writes a snapshot of the current class path's plugin index into the given
+	 * directory.
+	 * 
+	 * @param dir The directory in which to write the snapshot.
+	 * @param exclude A class path entry to leave out of the fingerprint (i.e.,
+	 *          the entry which will contain the snapshot), or null.
+	 */
+	public static void write(final File dir, final File exclude)
+		throws IOException
+	{
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create directory: " + dir);
+		}
+		// NB: The fingerprint is written last, so that a reader never pairs it
+		// with the plugins of an older snapshot.
+		final String fingerprint = fingerprint(exclude);
+		write(new File(dir, PLUGINS), out -> {
+			final Enumeration<URL> indices = loader().getResources(INDEX);
+			while (indices.hasMoreElements()) {
+				try (final InputStream in = indices.nextElement().openStream()) {
+					final byte[] buf = new byte[8192];
+					int r;
+					while ((r = in.read(buf)) > 0) {
+						out.write(buf, 0, r);
+					}
+				}
+				out.write('\n');
+			}
+		});
+		write(new File(dir, FINGERPRINT), out -> {
+			final Writer writer = new OutputStreamWriter(out,
+				StandardCharsets.UTF_8);
+			writer.write(fingerprint);
+			writer.flush();
+		});
+	}
+
+	/**
+	 * Computes a fingerprint of the current class path: the names, sizes and
+	 * modification times of its JAR files, and the size and modification time
+	 * of the annotation index of each of its directories.
+	 * <p>
+	 * The entries are sorted, and JAR files are identified by file name only
+	 * (the ImageJ updater names them {@code ${artifactId}-${baseVersion}.jar}),
+	 * so that the fingerprint does not depend on where the installation lives,
+	 * nor on the order in which a launcher puts the JAR files on the class path.
+	 * The modification time is part of it so that a rebuilt JAR file of the same
+	 * name and size, such as a {@code SNAPSHOT}, invalidates the snapshot. Hence
+	 * the bundled snapshot only matches JAR files whose modification times were
+	 * preserved; otherwise, the first start writes a snapshot to the cache
+	 * directory, if any. The JAR files of the launcher itself are left out,
+	 * since whether they are on the class path depends only on how ImageJ was
+	 * started.
+	 * </p>
+	 * 
+	 * @param exclude A class path entry to leave out, or null.
+	 */
+	public static String fingerprint(final File exclude) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		catch (final NoSuchAlgorithmException exc) {
+			throw new IllegalStateException(exc);
+		}
+		final Set<String> ids = new TreeSet<>();
+		for (final File entry : classPath()) {
+			if (exclude != null && entry.getAbsoluteFile().equals(exclude
+				.getAbsoluteFile())) continue;
+			final String id;
+			if (entry.isDirectory()) {
+				final File index = new File(entry, INDEX);
+				if (!index.isFile()) continue;
+				id = index.getAbsolutePath() + ":" + index.length() + ":" + //
+					index.lastModified();
+			}
+			else if (entry.isFile()) {
+				if (isLauncher(entry)) continue;
+				id = entry.getName() + ":" + entry.length() + ":" + //
+					entry.lastModified();
+			}
+			else continue;
+			ids.add(id);
+		}
+		for (final String id : ids) {
+			digest.update(id.getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+		}
+		final StringBuilder sb = new StringBuilder();
+		for (final byte b : digest.digest()) {
+			sb.append(String.format("%02x", b & 0xff));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the snapshot which is bundled with ImageJ. This is invoked by the
+	 * build, with the build's output directory as the only argument.
+	 */
+	public static void main(final String... args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: PluginIndexSnapshot <output-directory>");
+			System.exit(1);
+		}
+		final File outputDir = new File(args[0]);
+		write(new File(outputDir, PATH), outputDir);
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Gets whether the given plugin annotations of a {@link JarIndex} belong to
+	 * the JAR files ImageJ runs with: those of the class path, or those of the
+	 * installation when the {@link IndexedLauncher} loads them via the index.
+	 */
+	private static boolean isIndexed(final File plugins) {
+		final List<File> classPath = JarIndex.classPathJars();
+		if (classPath != null && JarIndex.isCurrent(plugins, classPath)) {
+			return true;
+		}
+		final String imagejDir = System.getProperty("imagej.dir");
+		return imagejDir != null && JarIndex.isCurrent(plugins, JarIndex.jars(
+			new File(imagejDir)));
+	}
+
+	private static ClassLoader loader() {
+		final ClassLoader loader = Thread.currentThread().getContextClassLoader();
+		return loader == null ? PluginIndexSnapshot.class.getClassLoader()
+			: loader;
+	}
+
+	/** Gets the directory in which to cache a snapshot, or null if none. */
+	private static File cacheDir(final String property) {
+		if (property != null) return new File(property);
+		final String imagejDir = System.getProperty("imagej.dir");
+		if (imagejDir == null) return null;
+		final File dir = new File(imagejDir);
+		return dir.canWrite() ? new File(dir, ".plugin-index") : null;
+	}
+
+	/** Whether the given JAR file belongs to the ImageJ launcher. */
+	private static boolean isLauncher(final File jar) {
+		final String name = jar.getName();
+		return name.startsWith("imagej-launcher-") || name.equals(
+			"imagej-launcher.jar") || name.startsWith("ij-launcher");
+	}
+
+	/**
+	 * Writes a file atomically, so that concurrently starting JVMs never see a
+	 * partially written one.
+	 */
+	private static void write(final File file, final Content content)
+		throws IOException
+	{
+		final File tmp = File.createTempFile(file.getName(), ".tmp", file
+			.getParentFile());
+		try {
+			try (final OutputStream out = new BufferedOutputStream(
+				new FileOutputStream(tmp)))
+			{
+				content.write(out);
+			}
+			try {
+				Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch (final AtomicMoveNotSupportedException exc) {
+				Files.move(tmp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			tmp.delete();
+		}
+	}
+
+	/** Gets the entries of the current class path, in order. */
+	private static List<File> classPath() {
+		final Set<File> entries = new LinkedHashSet<>();
+		final String classPath = System.getProperty("java.class.path");
+		if (classPath != null) {
+			for (final String path : classPath.split(File.pathSeparator)) {
+				if (!path.isEmpty()) entries.add(new File(path));
+			}
+		}
+		// NB: Launchers such as the ImageJ ClassLauncher do not use the system
+		// class path, but a class loader of their own.
+		final List<File> loaderEntries = new ArrayList<>();
+		for (ClassLoader l = loader(); l != null; l = l.getParent()) {
+			if (!(l instanceof URLClassLoader)) continue;
+			final List<File> files = new ArrayList<>();
+			for (final URL url : ((URLClassLoader) l).getURLs()) {
+				final File file = toFile(url);
+				if (file != null) files.add(file);
+			}
+			loaderEntries.addAll(0, files);
+		}
+		entries.addAll(loaderEntries);
+		return new ArrayList<>(entries);
+	}
+
+	/** Gets the class path entry from which the given resource was loaded. */
+	private static File location(final URL resource) {
+		final String url = resource.toString();
+		if ("jar".equals(resource.getProtocol())) {
+			final int bang = url.indexOf("!/");
+			try {
+				return toFile(new URL(url.substring(4, bang)));
+			}
+			catch (final IOException exc) {
+				return null;
+			}
+		}
+		final File file = toFile(resource);
+		if (file == null) return null;
+		// strip the resource path from the end of the file path
+		File dir = file;
+		for (final String component : (PATH + PLUGINS).split("/")) {
+			if (!component.isEmpty() && dir != null) dir = dir.getParentFile();
+		}
+		return dir;
+	}
+
+	private static File toFile(final URL url) {
+		if (!"file".equals(url.getProtocol())) return null;
+		try {
+			return new File(url.toURI());
+		}
+		catch (final URISyntaxException | IllegalArgumentException exc) {
+			return new File(url.getPath());
+		}
+	}
+
+	private static String read(final URL url) throws IOException {
+		try (final BufferedReader in = new BufferedReader(new InputStreamReader(
+			url.openStream(), StandardCharsets.UTF_8)))
+		{
+			final String line = in.readLine();
+			return line == null ? "" : line.trim();
+		}
+	}
+
+	/**
+	 * Gets a plugin finder backed by the snapshot in the given directory, or
+	 * null if the directory does not contain a snapshot matching the current
+	 * class path.
+	 */
+	private static PluginFinder finder(final File dir) throws IOException {
+		final File plugins = new File(dir, PLUGINS);
+		final File print = new File(dir, FINGERPRINT);
+		if (!plugins.isFile() || !print.isFile()) return null;
+		if (!fingerprint(null).equals(read(print.toURI().toURL()))) return null;
+		return finder(plugins.toURI().toURL());
+	}
+
+	private static PluginFinder finder(final URL plugins) {
+		return new DefaultPluginFinder(new SnapshotClassLoader(loader(), plugins));
+	}
+
+	// -- Helper classes --
+
+	private interface Content {
+
+		void write(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * A class loader which serves the snapshot in place of the annotation
+	 * indices on the class path, and defers everything else to its parent.
+	 */
+	private static class SnapshotClassLoader extends ClassLoader {
+
+		private final URL plugins;
+
+		public SnapshotClassLoader(final ClassLoader parent, final URL plugins) {
+			super(parent);
+			this.plugins = plugins;
+		}
+
+		@Override
+		public Enumeration<URL> getResources(final String name)
+			throws IOException
+		{
+			if (INDEX.equals(name)) {
+				return Collections.enumeration(Collections.singletonList(plugins));
+			}
+			return super.getResources(name);
+		}
+	}
+
+}
@@ -0,0 +1,300 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.io;
+
+import io.scif.ImageMetadata;
+import io.scif.Metadata;
+import io.scif.common.DataTools;
+import io.scif.util.FormatTools;
+
+import java.io.IOException;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.CalibratedAxis;
+import net.imagej.io.LazyPlanarImg.ReadOnlyByteArray;
+import net.imagej.io.LazyPlanarImg.ReadOnlyDoubleArray;
+import net.imagej.io.LazyPlanarImg.ReadOnlyFloatArray;
+import net.imagej.io.LazyPlanarImg.ReadOnlyIntArray;
+import net.imagej.io.LazyPlanarImg.ReadOnlyShortArray;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default implementation of {@link LazyIOService}.
+ * <p>
+ * Planes are read through the {@link ReaderCacheService}, so that datasets
+ * opened from the same source share one parsed reader, and no file handles
+ * are held between plane reads beyond the bound of that service.
+ * </p>
+ * <p>
+ * The capacity of the plane cache can be given in MiB by the
+ * {@value #CACHE_PROPERTY} system property; it defaults to a quarter of the
+ * maximum heap size.
+ * </p>
+ * 
+ * @author agent
+ */
+@Plugin(type = Service.class)
+public class DefaultLazyIOService extends AbstractService implements
+	LazyIOService
+{
+
+	/** System property defining the capacity of the plane cache, in MiB. */
+	public static final String CACHE_PROPERTY = "imagej.io.cache";
+
+	@Parameter
+	private ReaderCacheService readerCacheService;
+
+	@Parameter
+	private DatasetService datasetService;
+
+	private PlaneCache cache;
+
+	// -- LazyIOService methods --
+
+	@Override
+	public Dataset open(final String source) throws IOException {
+		return open(source, 0);
+	}
+
+	@Override
+	public Dataset open(final String source, final int imageIndex)
+		throws IOException
+	{
+		// NB: Copy the metadata of the image, which must outlive the lease.
+		final ImageMetadata meta = readerCacheService.read(source, reader -> {
+			final Metadata metadata = reader.getMetadata();
+			if (imageIndex < 0 || imageIndex >= metadata.getImageCount()) {
+				throw new IOException("No such image: " + imageIndex);
+			}
+			return metadata.get(imageIndex).copy();
+		});
+		final Dataset dataset = open(meta, source, imageIndex);
+		dataset.setSource(source);
+		return dataset;
+	}
+
+	@Override
+	public <T extends RealType<T> & NativeType<T>> Dataset create(
+		final String name, final T type, final CalibratedAxis[] axes,
+		final long[] dims, final PlaneCache.Loader<Object> planes)
+	{
+		if (axes.length != dims.length || dims.length < 2 || //
+			axes[0].type() != Axes.X || axes[1].type() != Axes.Y)
+		{
+			throw new IllegalArgumentException("Planes must be XY planes");
+		}
+		if (type instanceof ByteType) {
+			final LazyPlanarImg<ByteType, ByteArray> img = new LazyPlanarImg<>(dims,
+				1, cache, no -> new ReadOnlyByteArray((byte[]) planes.load(no)));
+			return dataset(img, new ByteType(img), name, axes);
+		}
+		if (type instanceof UnsignedByteType) {
+			final LazyPlanarImg<UnsignedByteType, ByteArray> img =
+				new LazyPlanarImg<>(dims, 1, cache, no -> new ReadOnlyByteArray(
+					(byte[]) planes.load(no)));
+			return dataset(img, new UnsignedByteType(img), name, axes);
+		}
+		if (type instanceof ShortType) {
+			final LazyPlanarImg<ShortType, ShortArray> img = new LazyPlanarImg<>(
+				dims, 2, cache, no -> new ReadOnlyShortArray((short[]) planes.load(
+					no)));
+			return dataset(img, new ShortType(img), name, axes);
+		}
+		if (type instanceof UnsignedShortType) {
+			final LazyPlanarImg<UnsignedShortType, ShortArray> img =
+				new LazyPlanarImg<>(dims, 2, cache, no -> new ReadOnlyShortArray(
+					(short[]) planes.load(no)));
+			return dataset(img, new UnsignedShortType(img), name, axes);
+		}
+		if (type instanceof IntType) {
+			final LazyPlanarImg<IntType, IntArray> img = new LazyPlanarImg<>(dims, 4,
+				cache, no -> new ReadOnlyIntArray((int[]) planes.load(no)));
+			return dataset(img, new IntType(img), name, axes);
+		}
+		if (type instanceof UnsignedIntType) {
+			final LazyPlanarImg<UnsignedIntType, IntArray> img = new LazyPlanarImg<>(
+				dims, 4, cache, no -> new ReadOnlyIntArray((int[]) planes.load(no)));
+			return dataset(img, new UnsignedIntType(img), name, axes);
+		}
+		if (type instanceof FloatType) {
+			final LazyPlanarImg<FloatType, FloatArray> img = new LazyPlanarImg<>(
+				dims, 4, cache, no -> new ReadOnlyFloatArray((float[]) planes.load(
+					no)));
+			return dataset(img, new FloatType(img), name, axes);
+		}
+		if (type instanceof DoubleType) {
+			final LazyPlanarImg<DoubleType, DoubleArray> img = new LazyPlanarImg<>(
+				dims, 8, cache, no -> new ReadOnlyDoubleArray((double[]) planes.load(
+					no)));
+			return dataset(img, new DoubleType(img), name, axes);
+		}
+		throw new IllegalArgumentException("Unsupported pixel type: " + type
+			.getClass().getName());
+	}
+
+	@Override
+	public boolean isLazy(final Object image) {
+		Object img = image;
+		if (img instanceof Dataset) img = ((Dataset) img).getImgPlus();
+		if (img instanceof ImgPlus) img = ((ImgPlus<?>) img).getImg();
+		return img instanceof LazyPlanarImg;
+	}
+
+	@Override
+	public PlaneCache getCache() {
+		return cache;
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		final long defaultSize = Runtime.getRuntime().maxMemory() / 4;
+		final long size = Long.getLong(CACHE_PROPERTY, defaultSize >> 20) << 20;
+		cache = new PlaneCache(size);
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public void dispose() {
+		cache.clear();
+	}
+
+	// -- Helper methods --
+
+	private <T extends RealType<T> & NativeType<T>> Dataset open(
+		final ImageMetadata meta, final String source, final int imageIndex)
+		throws IOException
+	{
+		if (meta.getPlanarAxisCount() != 2 || //
+			meta.getAxis(0).type() != Axes.X || meta.getAxis(1).type() != Axes.Y)
+		{
+			throw new IOException("Planes are not stored as XY planes: " + //
+				meta.getAxes());
+		}
+
+		final T type = type(meta.getPixelType());
+		final Planes planes = new Planes(source, imageIndex, meta);
+		final CalibratedAxis[] axes = meta.getAxes().toArray(
+			new CalibratedAxis[0]);
+		return create(meta.getName(), type, axes, meta.getAxesLengths(),
+			planes::read);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends RealType<T> & NativeType<T>> T type(
+		final int pixelType) throws IOException
+	{
+		switch (pixelType) {
+			case FormatTools.INT8:
+				return (T) new ByteType();
+			case FormatTools.UINT8:
+				return (T) new UnsignedByteType();
+			case FormatTools.INT16:
+				return (T) new ShortType();
+			case FormatTools.UINT16:
+				return (T) new UnsignedShortType();
+			case FormatTools.INT32:
+				return (T) new IntType();
+			case FormatTools.UINT32:
+				return (T) new UnsignedIntType();
+			case FormatTools.FLOAT:
+				return (T) new FloatType();
+			case FormatTools.DOUBLE:
+				return (T) new DoubleType();
+			default:
+				throw new IOException("Unsupported pixel type: " + FormatTools
+					.getPixelTypeString(pixelType));
+		}
+	}
+
+	private <T extends RealType<T> & NativeType<T>, A extends ArrayDataAccess<A>>
+		Dataset dataset(final LazyPlanarImg<T, A> img, final T linkedType,
+			final String name, final CalibratedAxis[] axes)
+	{
+		img.setLinkedType(linkedType);
+		return datasetService.create(new ImgPlus<>(img, name, axes));
+	}
+
+	// -- Helper classes --
+
+	/** Reads the planes of one image, converting them to primitive arrays. */
+	private class Planes {
+
+		private final String source;
+		private final int imageIndex;
+		private final int bpp;
+		private final boolean floatingPoint;
+		private final boolean littleEndian;
+
+		public Planes(final String source, final int imageIndex,
+			final ImageMetadata meta)
+		{
+			this.source = source;
+			this.imageIndex = imageIndex;
+			bpp = FormatTools.getBytesPerPixel(meta.getPixelType());
+			floatingPoint = FormatTools.isFloatingPoint(meta.getPixelType());
+			littleEndian = meta.isLittleEndian();
+		}
+
+		public Object read(final int no) throws IOException {
+			final byte[] bytes = readerCacheService.openPlane(source, imageIndex, no)
+				.getBytes();
+			return DataTools.makeDataArray(bytes, bpp, floatingPoint, littleEndian);
+		}
+	}
+
+}
@@ -0,0 +1,528 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.io;
+
+import io.scif.FormatException;
+import io.scif.Metadata;
+import io.scif.Plane;
+import io.scif.Reader;
+import io.scif.services.InitializeService;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import net.imagej.metrics.MetricsService;
+import net.imagej.metrics.Timer;
+
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default implementation of {@link ReaderCacheService}.
+ * <p>
+ * The maximum number of open readers can be given by the
+ * {@value #READERS_PROPERTY} system property; it defaults to
+ * {@value #DEFAULT_MAX_OPEN_READERS}. The maximum number of readers per source
+ * can be given by the {@value #READERS_PER_SOURCE_PROPERTY} system property;
+ * it defaults to the number of processors, but at most
+ * {@value #DEFAULT_MAX_READERS_PER_SOURCE}.
+ * </p>
+ * 
+ * @author agent
+ */
+@Plugin(type = Service.class)
+public class DefaultReaderCacheService extends AbstractService implements
+	ReaderCacheService
+{
+
+	/** System property defining the maximum number of open readers. */
+	public static final String READERS_PROPERTY = "imagej.io.readers";
+
+	/** System property defining the maximum number of readers per source. */
+	public static final String READERS_PER_SOURCE_PROPERTY =
+		"imagej.io.readersPerSource";
+
+	public static final int DEFAULT_MAX_OPEN_READERS = 16;
+
+	public static final int DEFAULT_MAX_READERS_PER_SOURCE = 4;
+
+	public static final int DEFAULT_MAX_ENTRIES = 256;
+
+	@Parameter
+	private InitializeService initializeService;
+
+	@Parameter(required = false)
+	private MetricsService metricsService;
+
+	@Parameter(required = false)
+	private LogService log;
+
+	/** The pools of cached readers, in least recently used order. */
+	private final LinkedHashMap<Key, List<Handle>> pools = new LinkedHashMap<>(
+		16, 0.75f, true);
+
+	private int maxOpenReaders;
+	private int maxReadersPerSource;
+	private int maxEntries = DEFAULT_MAX_ENTRIES;
+	private int entries;
+	private int openReaders;
+	private long hits;
+	private long misses;
+	private long reopens;
+	private long closes;
+	private long evictions;
+
+	// -- ReaderCacheService methods --
+
+	@Override
+	public <R> R read(final String source, final Task<R> task)
+		throws IOException
+	{
+		final Handle handle = acquire(source);
+		try {
+			if (!handle.open) reopen(handle);
+			return task.run(handle.reader);
+		}
+		catch (final FormatException exc) {
+			throw new IOException(exc);
+		}
+		finally {
+			release(handle);
+		}
+	}
+
+	@Override
+	public Metadata getMetadata(final String source) throws IOException {
+		return read(source, reader -> reader.getMetadata());
+	}
+
+	@Override
+	public Plane openPlane(final String source, final int imageIndex,
+		final long planeIndex) throws IOException
+	{
+		final Plane plane;
+		try (final Timer.Sample sample = metricsService == null ? null
+			: metricsService.timer("io.planes.read").start())
+		{
+			plane = read(source, reader -> reader.openPlane(imageIndex,
+				planeIndex));
+		}
+		if (metricsService != null) {
+			metricsService.counter("io.bytes.read").add(plane.getBytes().length);
+		}
+		return plane;
+	}
+
+	@Override
+	public void invalidate(final String source) {
+		final List<Handle> discarded = new ArrayList<>();
+		synchronized (this) {
+			final Iterator<List<Handle>> iter = pools.values().iterator();
+			while (iter.hasNext()) {
+				final List<Handle> pool = iter.next();
+				if (!pool.get(0).source.equals(source)) continue;
+				iter.remove();
+				for (final Handle handle : pool) {
+					if (discard(handle)) discarded.add(handle);
+				}
+			}
+			notifyAll();
+		}
+		close(discarded);
+	}
+
+	@Override
+	public void clear() {
+		final List<Handle> discarded = new ArrayList<>();
+		synchronized (this) {
+			for (final List<Handle> pool : pools.values()) {
+				for (final Handle handle : pool) {
+					if (discard(handle)) discarded.add(handle);
+				}
+			}
+			pools.clear();
+			notifyAll();
+		}
+		close(discarded);
+	}
+
+	@Override
+	public synchronized int getMaxOpenReaders() {
+		return maxOpenReaders;
+	}
+
+	@Override
+	public void setMaxOpenReaders(final int maxOpenReaders) {
+		if (maxOpenReaders < 1) {
+			throw new IllegalArgumentException("Invalid reader count: " +
+				maxOpenReaders);
+		}
+		synchronized (this) {
+			this.maxOpenReaders = maxOpenReaders;
+		}
+		close(evict());
+	}
+
+	@Override
+	public synchronized int getMaxReadersPerSource() {
+		return maxReadersPerSource;
+	}
+
+	@Override
+	public synchronized void setMaxReadersPerSource(
+		final int maxReadersPerSource)
+	{
+		if (maxReadersPerSource < 1) {
+			throw new IllegalArgumentException("Invalid reader count: " +
+				maxReadersPerSource);
+		}
+		this.maxReadersPerSource = maxReadersPerSource;
+		notifyAll();
+	}
+
+	@Override
+	public synchronized int getMaxEntries() {
+		return maxEntries;
+	}
+
+	@Override
+	public void setMaxEntries(final int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("Invalid entry count: " + maxEntries);
+		}
+		synchronized (this) {
+			this.maxEntries = maxEntries;
+		}
+		close(evict());
+	}
+
+	@Override
+	public synchronized ReaderCacheStatistics getStatistics() {
+		return new ReaderCacheStatistics(entries, openReaders, hits, misses,
+			reopens, closes, evictions);
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		maxOpenReaders = Integer.getInteger(READERS_PROPERTY,
+			DEFAULT_MAX_OPEN_READERS);
+		maxReadersPerSource = Integer.getInteger(READERS_PER_SOURCE_PROPERTY, Math
+			.min(DEFAULT_MAX_READERS_PER_SOURCE, Runtime.getRuntime()
+				.availableProcessors()));
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public void dispose() {
+		clear();
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Leases an idle reader of the given source, parsing a new one if all are
+	 * busy and the pool of the source is not full yet, or waiting for one to
+	 * become idle otherwise.
+	 */
+	private Handle acquire(final String source) throws IOException {
+		final Key key = new Key(source);
+		final Handle handle;
+		synchronized (this) {
+			while (true) {
+				final List<Handle> pool = pools.get(key);
+				final Handle idle = pool == null ? null : idle(pool);
+				if (idle != null) {
+					hits++;
+					idle.busy = true;
+					return idle;
+				}
+				if (pool == null || pool.size() < maxReadersPerSource) break;
+				try {
+					wait();
+				}
+				catch (final InterruptedException exc) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted waiting for a " +
+						"reader of " + source);
+				}
+			}
+			misses++;
+
+			// NB: Reserve the slot, so that concurrent callers do not overfill
+			// the pool while the reader is parsed.
+			handle = new Handle(source);
+			pools.computeIfAbsent(key, k -> new ArrayList<>()).add(handle);
+			entries++;
+		}
+
+		// NB: Parse outside the lock, so that other sources remain accessible.
+		Reader reader = null;
+		try (final Timer.Sample sample = metricsService == null ? null
+			: metricsService.timer("io.readers.parse").start())
+		{
+			reader = initializeService.initializeReader(source);
+		}
+		catch (final FormatException exc) {
+			throw new IOException(exc);
+		}
+		finally {
+			if (reader == null) {
+				synchronized (this) {
+					remove(key, handle);
+					notifyAll();
+				}
+			}
+		}
+
+		final List<Handle> evicted;
+		synchronized (this) {
+			handle.reader = reader;
+			handle.open = true;
+			if (!handle.discarded) openReaders++;
+			evicted = evict();
+		}
+		close(evicted);
+		return handle;
+	}
+
+	private void release(final Handle handle) {
+		final boolean discarded;
+		final List<Handle> evicted;
+		synchronized (this) {
+			handle.busy = false;
+			discarded = handle.discarded;
+			evicted = evict();
+			notifyAll();
+		}
+		if (discarded) close(handle.reader);
+		close(evicted);
+	}
+
+	/** Reopens the file of a reader whose file was closed. */
+	private void reopen(final Handle handle) throws IOException {
+		handle.reader.setSource(handle.source);
+		final List<Handle> evicted;
+		synchronized (this) {
+			handle.open = true;
+			if (!handle.discarded) openReaders++;
+			reopens++;
+			evicted = evict();
+		}
+		close(evicted);
+	}
+
+	/** Gets an idle reader of the given pool, or null if all are busy. */
+	private static Handle idle(final List<Handle> pool) {
+		for (final Handle handle : pool) {
+			if (!handle.busy) return handle;
+		}
+		return null;
+	}
+
+	/** Removes the given reader from the pool of the given source. */
+	private void remove(final Key key, final Handle handle) {
+		final List<Handle> pool = pools.get(key);
+		if (pool == null || !pool.remove(handle)) return;
+		entries--;
+		if (pool.isEmpty()) pools.remove(key);
+	}
+
+	/**
+	 * Selects the least recently used idle readers beyond the bound of open
+	 * readers, whose files are to be closed, and removes the least recently used
+	 * idle readers beyond the bound of entries. Readers whose files are to be
+	 * closed are marked busy until {@link #close(List)} is done with them.
+	 * 
+	 * @return The removed readers and those whose files are to be closed, which
+	 *         the caller must pass to {@link #close(List)} outside the lock.
+	 */
+	private synchronized List<Handle> evict() {
+		final List<Handle> evicted = new ArrayList<>();
+		final Iterator<List<Handle>> pIter = pools.values().iterator();
+		while (pIter.hasNext() && (openReaders > maxOpenReaders ||
+			entries > maxEntries))
+		{
+			final List<Handle> pool = pIter.next();
+			final Iterator<Handle> iter = pool.iterator();
+			while (iter.hasNext() && (openReaders > maxOpenReaders ||
+				entries > maxEntries))
+			{
+				final Handle handle = iter.next();
+				if (handle.busy) continue;
+				if (entries > maxEntries) {
+					iter.remove();
+					evictions++;
+					if (discard(handle)) evicted.add(handle);
+				}
+				else if (handle.open) {
+					handle.open = false;
+					handle.busy = true;
+					handle.closing = true;
+					openReaders--;
+					closes++;
+					evicted.add(handle);
+				}
+			}
+			if (pool.isEmpty()) pIter.remove();
+		}
+		return evicted;
+	}
+
+	/**
+	 * Marks the given reader, which has been removed from the cache, as
+	 * discarded.
+	 * 
+	 * @return True if the reader is idle and should be closed right away.
+	 */
+	private boolean discard(final Handle handle) {
+		handle.discarded = true;
+		if (handle.open) openReaders--;
+		entries--;
+		return !handle.busy;
+	}
+
+	/**
+	 * Closes the given readers, or only the files of those selected by
+	 * {@link #evict()} for that; the latter are then idle again, unless they
+	 * were discarded meanwhile.
+	 */
+	private void close(final List<Handle> evicted) {
+		final List<Handle> closed = new ArrayList<>();
+		for (final Handle handle : evicted) {
+			if (!handle.closing) {
+				close(handle.reader);
+				continue;
+			}
+			try {
+				handle.reader.close(true);
+			}
+			catch (final IOException exc) {
+				if (log != null) log.debug(exc);
+			}
+			closed.add(handle);
+		}
+		if (closed.isEmpty()) return;
+		final List<Handle> discarded = new ArrayList<>();
+		synchronized (this) {
+			for (final Handle handle : closed) {
+				handle.closing = false;
+				handle.busy = false;
+				if (handle.discarded) discarded.add(handle);
+			}
+			notifyAll();
+		}
+		close(discarded);
+	}
+
+	private void close(final Reader reader) {
+		try {
+			reader.close();
+		}
+		catch (final IOException exc) {
+			if (log != null) log.debug(exc);
+		}
+	}
+
+	// -- Helper classes --
+
+	/** Identifies a version of a source, by its path, size and timestamp. */
+	private static class Key {
+
+		private final String path;
+		private final long lastModified;
+		private final long length;
+
+		public Key(final String source) {
+			final File file = new File(source);
+			if (file.isFile()) {
+				path = file.getAbsolutePath();
+				lastModified = file.lastModified();
+				length = file.length();
+			}
+			else {
+				path = source;
+				lastModified = 0;
+				length = -1;
+			}
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Key)) return false;
+			final Key key = (Key) o;
+			return path.equals(key.path) && lastModified == key.lastModified &&
+				length == key.length;
+		}
+
+		@Override
+		public int hashCode() {
+			return (31 * path.hashCode() + Long.hashCode(lastModified)) * 31 + Long
+				.hashCode(length);
+		}
+	}
+
+	private static class Handle {
+
+		private final String source;
+
+		/** The reader, or null while it is being parsed. */
+		private Reader reader;
+
+		/** Whether the reader holds an open file handle. */
+		private boolean open;
+
+		/** Whether a thread is currently using the reader. */
+		private boolean busy = true;
+
+		/** Whether the reader's file is being closed by {@link #close(List)}. */
+		private boolean closing;
+
+		/** Whether the reader has been removed from the cache. */
+		private boolean discarded;
+
+		public Handle(final String source) {
+			this.source = source;
+		}
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.io;
+
+import java.io.IOException;
+
+import net.imagej.Dataset;
+import net.imagej.OnDemandService;
+import net.imagej.axis.CalibratedAxis;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+
+/**
+ * Interface for services which open images lazily, so that images larger than
+ * the available memory can be processed.
+ * <p>
+ * The planes of a lazily opened {@link Dataset} are read on demand, as they
+ * are accessed, and kept in a {@link PlaneCache} of bounded size. Such a
+ * dataset can be passed to ops like any other, as an input: it is read-only,
+ * since changes to a plane would be lost when the plane is evicted from the
+ * cache, and writing to its pixels throws an
+ * {@link UnsupportedOperationException}.
+ * </p>
+ * 
+ * @author agent
+ */
+public interface LazyIOService extends OnDemandService {
+
+	/**
+	 * Opens the first image of the given source lazily.
+	 * 
+	 * @param source The location of the image, e.g. a file path.
+	 * @return A dataset whose planes are read on demand.
+	 * @throws IOException If the source cannot be read, or its planes are not
+	 *           stored as separate XY planes.
+	 */
+	Dataset open(String source) throws IOException;
+
+	/**
+	 * Opens the given image of the given source lazily.
+	 * 
+	 * @param source The location of the image, e.g. a file path.
+	 * @param imageIndex The index of the image (i.e., series) to open.
+	 * @return A dataset whose planes are read on demand.
+	 * @throws IOException If the source cannot be read, or its planes are not
+	 *           stored as separate XY planes.
+	 */
+	Dataset open(String source, int imageIndex) throws IOException;
+
+	/**
+	 * Creates a dataset whose planes are computed on demand, e.g. by reading
+	 * them from a file or by processing the planes of another dataset.
+	 * 
+	 * @param name The name of the dataset.
+	 * @param type The pixel type of the dataset.
+	 * @param axes The axes of the dataset, the first two of which must be X and
+	 *          Y.
+	 * @param dims The dimensions of the dataset.
+	 * @param planes Computes a plane of the dataset, given its index, as a
+	 *          primitive array matching the pixel type.
+	 * @return A dataset whose planes are computed on demand.
+	 * @throws IllegalArgumentException If the pixel type is not supported.
+	 */
+	<T extends RealType<T> & NativeType<T>> Dataset create(String name, T type,
+		CalibratedAxis[] axes, long[] dims, PlaneCache.Loader<Object> planes);
+
+	/**
+	 * Gets whether the planes of the given image (a {@link Dataset}, an
+	 * {@link net.imagej.ImgPlus} or an {@link net.imglib2.img.Img}) are read on
+	 * demand by this service, i.e. whether its pixels only occupy memory while
+	 * in the {@link #getCache() cache}.
+	 */
+	boolean isLazy(Object image);
+
+	/**
+	 * Gets the cache holding the planes of lazily opened datasets, e.g. to
+	 * adjust its size or to inspect its statistics.
+	 */
+	PlaneCache getCache();
+
+}
@@ -0,0 +1,163 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.io;
+
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.array.ByteArray;
+import net.imglib2.img.basictypeaccess.array.DoubleArray;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.img.basictypeaccess.array.IntArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.planar.PlanarImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.util.Fraction;
+
+/**
+ * A {@link PlanarImg} whose planes are not held in memory, but fetched from a
+ * {@link PlaneCache} as they are accessed.
+ * <p>
+ * Such an image is read-only: its planes are held by the read-only accesses of
+ * this class, which reject writes through the image's pixel type, since a
+ * changed plane would be lost once it is evicted from the cache.
+ * </p>
+ * 
+ * @author agent
+ */
+class LazyPlanarImg<T extends NativeType<T>, A extends ArrayDataAccess<A>>
+	extends PlanarImg<T, A>
+{
+
+	private final PlaneCache cache;
+	private final long planeSize;
+	private final PlaneCache.Loader<A> loader;
+
+	public LazyPlanarImg(final long[] dims, final int bytesPerPixel,
+		final PlaneCache cache, final PlaneCache.Loader<A> loader)
+	{
+		super(dims, new Fraction());
+		this.cache = cache;
+		this.planeSize = (long) bytesPerPixel * dims[0] * dims[1];
+		this.loader = loader;
+	}
+
+	// -- PlanarImg methods --
+
+	@Override
+	public A update(final Object c) {
+		return getPlane(((PlanarContainerSampler) c).getCurrentSliceIndex());
+	}
+
+	@Override
+	public A getPlane(final int no) {
+		return cache.get(this, no, planeSize, loader);
+	}
+
+	@Override
+	public void setPlane(final int no, final A plane) {
+		throw readOnly();
+	}
+
+	// -- Helper methods --
+
+	private static UnsupportedOperationException readOnly() {
+		return new UnsupportedOperationException("Lazily loaded images are " +
+			"read-only; copy the image to modify it");
+	}
+
+	// -- Helper classes --
+
+	/** A {@link ByteArray} which rejects writes. */
+	static class ReadOnlyByteArray extends ByteArray {
+
+		public ReadOnlyByteArray(final byte[] data) {
+			super(data);
+		}
+
+		@Override
+		public void setValue(final int index, final byte value) {
+			throw readOnly();
+		}
+	}
+
+	/** A {@link ShortArray} which rejects writes. */
+	static class ReadOnlyShortArray extends ShortArray {
+
+		public ReadOnlyShortArray(final short[] data) {
+			super(data);
+		}
+
+		@Override
+		public void setValue(final int index, final short value) {
+			throw readOnly();
+		}
+	}
+
+	/** An {@link IntArray} which rejects writes. */
+	static class ReadOnlyIntArray extends IntArray {
+
+		public ReadOnlyIntArray(final int[] data) {
+			super(data);
+		}
+
+		@Override
+		public void setValue(final int index, final int value) {
+			throw readOnly();
+		}
+	}
+
+	/** A {@link FloatArray} which rejects writes. */
+	static class ReadOnlyFloatArray extends FloatArray {
+
+		public ReadOnlyFloatArray(final float[] data) {
+			super(data);
+		}
+
+		@Override
+		public void setValue(final int index, final float value) {
+			throw readOnly();
+		}
+	}
+
+	/** A {@link DoubleArray} which rejects writes. */
+	static class ReadOnlyDoubleArray extends DoubleArray {
+
+		public ReadOnlyDoubleArray(final double[] data) {
+			super(data);
+		}
+
+		@Override
+		public void setValue(final int index, final double value) {
+			throw readOnly();
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.io;
+
+import io.scif.Metadata;
+import io.scif.config.SCIFIOConfig;
+import io.scif.services.DatasetIOService;
+import io.scif.services.DefaultDatasetIOService;
+
+import java.io.IOException;
+
+import net.imagej.Dataset;
+import net.imagej.metrics.MetricsService;
+import net.imagej.metrics.Timer;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.Service;
+
+/**
+ * A {@link DatasetIOService} which times every dataset opened and saved, and
+ * counts the bytes read and written, with the {@link MetricsService}.
+ * 
+ * @author agent
+ */
+
+@Plugin(type = Service.class, priority = Priority.NORMAL_PRIORITY + 1)
+public class MeteredDatasetIOService extends DefaultDatasetIOService {
+
+	// NB: This service replaces the DefaultDatasetIOService by its higher
+	// priority. The variants without a configuration delegate to those with
+	// one, so that each call is recorded once.
+
+	// -- DatasetIOService methods --
+
+	@Override
+	public Dataset open(final String source, final SCIFIOConfig config)
+		throws IOException
+	{
+		final MetricsService metricsService = metricsService();
+		final Dataset dataset;
+		try (final Timer.Sample sample = metricsService == null ? null
+			: metricsService.timer("io.open").start())
+		{
+			dataset = super.open(source, config);
+		}
+		if (metricsService != null) {
+			metricsService.counter("io.bytes.read").add(dataset.getBytesOfInfo());
+		}
+		return dataset;
+	}
+
+	@Override
+	public Metadata save(final Dataset dataset, final String destination,
+		final SCIFIOConfig config) throws IOException
+	{
+		final MetricsService metricsService = metricsService();
+		final Metadata metadata;
+		try (final Timer.Sample sample = metricsService == null ? null
+			: metricsService.timer("io.save").start())
+		{
+			metadata = super.save(dataset, destination, config);
+		}
+		if (metricsService != null) {
+			metricsService.counter("io.bytes.written").add(dataset.getBytesOfInfo());
+		}
+		return metadata;
+	}
+
+	// -- Helper methods --
+
+	/** Gets the metrics service, if it has been started. */
+	private MetricsService metricsService() {
+		return context().getService(MetricsService.class);
+	}
+
+}
@@ -0,0 +1,291 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.io;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of image planes, bounded by the total number of bytes it holds.
+ * <p>
+ * Planes are evicted in least recently used order once the cache exceeds its
+ * capacity. The cache is shared between all images opened lazily through the
+ * same {@link LazyIOService}, and keeps statistics on its effectiveness.
+ * </p>
+ * <p>
+ * The cache only references images weakly: once an image is no longer
+ * referenced elsewhere, its planes are discarded.
+ * </p>
+ * 
+ * @author agent
+ */
+public class PlaneCache {
+
+	/** Loads a plane which is not in the cache. */
+	public interface Loader<A> {
+
+		A load(int no) throws IOException;
+	}
+
+	/** The cached planes, in least recently used order. */
+	private final LinkedHashMap<Key, Entry> planes = new LinkedHashMap<>(16,
+		0.75f, true);
+
+	/** Keys whose images have been garbage collected. */
+	private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+	private long maxBytes;
+	private long bytes;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public PlaneCache(final long maxBytes) {
+		setMaxBytes(maxBytes);
+	}
+
+	// -- PlaneCache methods --
+
+	/**
+	 * Gets a plane of the given image, loading it if it is not in the cache.
+	 * 
+	 * @param owner The image to which the plane belongs.
+	 * @param no The index of the plane within its image.
+	 * @param size The size of the plane in bytes.
+	 * @param loader The means of loading the plane on a cache miss.
+	 * @throws UncheckedIOException If the plane cannot be loaded.
+	 */
+	public <A> A get(final Object owner, final int no, final long size,
+		final Loader<A> loader)
+	{
+		final Key key = new Key(owner, no, collected);
+		synchronized (this) {
+			purge();
+			final Entry entry = planes.get(key);
+			if (entry != null) {
+				hits++;
+				@SuppressWarnings("unchecked")
+				final A plane = (A) entry.plane;
+				return plane;
+			}
+			misses++;
+		}
+
+		// NB: Load outside the lock, so that planes can be read concurrently.
+		final A plane;
+		try {
+			plane = loader.load(no);
+		}
+		catch (final IOException exc) {
+			throw new UncheckedIOException(exc);
+		}
+
+		synchronized (this) {
+			final Entry existing = planes.get(key);
+			if (existing != null) {
+				// NB: Another thread loaded the same plane meanwhile; share its copy.
+				@SuppressWarnings("unchecked")
+				final A shared = (A) existing.plane;
+				return shared;
+			}
+			if (size <= maxBytes) {
+				planes.put(key, new Entry(plane, size));
+				bytes += size;
+				evict();
+			}
+		}
+		return plane;
+	}
+
+	/** Discards all cached planes of the given image. */
+	public synchronized void invalidate(final Object owner) {
+		final Iterator<Map.Entry<Key, Entry>> iter = planes.entrySet().iterator();
+		while (iter.hasNext()) {
+			final Map.Entry<Key, Entry> e = iter.next();
+			if (e.getKey().get() != owner) continue;
+			bytes -= e.getValue().size;
+			iter.remove();
+		}
+	}
+
+	/** Discards all cached planes. */
+	public synchronized void clear() {
+		planes.clear();
+		bytes = 0;
+	}
+
+	/** Gets the capacity of the cache, in bytes. */
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/** Sets the capacity of the cache in bytes, evicting planes as needed. */
+	public synchronized void setMaxBytes(final long maxBytes) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Invalid cache size: " + maxBytes);
+		}
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	/** Gets a snapshot of the cache's statistics. */
+	public synchronized Statistics getStatistics() {
+		purge();
+		return new Statistics(this);
+	}
+
+	// -- Helper methods --
+
+	/** Discards the planes of images which have been garbage collected. */
+	private void purge() {
+		Reference<?> ref;
+		while ((ref = collected.poll()) != null) {
+			final Entry entry = planes.remove(ref);
+			if (entry != null) bytes -= entry.size;
+		}
+	}
+
+	private void evict() {
+		final Iterator<Entry> iter = planes.values().iterator();
+		while (bytes > maxBytes && iter.hasNext()) {
+			bytes -= iter.next().size;
+			iter.remove();
+			evictions++;
+		}
+	}
+
+	// -- Helper classes --
+
+	/** Identifies a plane by its image, which it references weakly. */
+	private static class Key extends WeakReference<Object> {
+
+		private final int no;
+		private final int hash;
+
+		public Key(final Object owner, final int no,
+			final ReferenceQueue<Object> queue)
+		{
+			super(owner, queue);
+			this.no = no;
+			hash = 31 * System.identityHashCode(owner) + no;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (o == this) return true;
+			if (!(o instanceof Key)) return false;
+			final Key key = (Key) o;
+			final Object owner = get();
+			return owner != null && owner == key.get() && no == key.no;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	private static class Entry {
+
+		private final Object plane;
+		private final long size;
+
+		public Entry(final Object plane, final long size) {
+			this.plane = plane;
+			this.size = size;
+		}
+	}
+
+	/** A snapshot of the statistics of a {@link PlaneCache}. */
+	public static class Statistics {
+
+		private final long maxBytes;
+		private final long bytes;
+		private final int planes;
+		private final long hits;
+		private final long misses;
+		private final long evictions;
+
+		private Statistics(final PlaneCache cache) {
+			maxBytes = cache.maxBytes;
+			bytes = cache.bytes;
+			planes = cache.planes.size();
+			hits = cache.hits;
+			misses = cache.misses;
+			evictions = cache.evictions;
+		}
+
+		public long getMaxBytes() {
+			return maxBytes;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public int getPlanes() {
+			return planes;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public long getMisses() {
+			return misses;
+		}
+
+		public long getEvictions() {
+			return evictions;
+		}
+
+		/** Gets the fraction of plane requests which hit the cache. */
+		public double getHitRatio() {
+			final long requests = hits + misses;
+			return requests == 0 ? 0 : (double) hits / requests;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+				"%d planes (%d/%d bytes), %d hits, %d misses, %d evictions", planes,
+				bytes, maxBytes, hits, misses, evictions);
+		}
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.io;
+
+import io.scif.FormatException;
+import io.scif.Metadata;
+import io.scif.Plane;
+import io.scif.Reader;
+
+import java.io.IOException;
+
+import net.imagej.OnDemandService;
+
+/**
+ * Interface for services which cache SCIFIO readers, along with their parsed
+ * metadata, for reuse across accesses to the same image.
+ * <p>
+ * Parsing the header of a large file can take seconds with some formats.
+ * Readers are cached per source, keyed on its path, modification time and
+ * size, so that a changed file is parsed anew. The number of readers holding
+ * an open file handle is bounded: an idle reader beyond the bound closes its
+ * file but keeps its metadata, and reopens the file when used again. Each
+ * reader is used by one thread at a time. Concurrent accesses to the same
+ * source parse additional readers, up to a bound per source, beyond which
+ * they wait for a reader to become idle; readers of different sources are
+ * used concurrently.
+ * </p>
+ * 
+ * @author agent
+ */
+public interface ReaderCacheService extends OnDemandService {
+
+	/** An operation on a reader. */
+	interface Task<R> {
+
+		R run(Reader reader) throws FormatException, IOException;
+	}
+
+	/**
+	 * Runs the given operation on the cached reader of the given source, with
+	 * exclusive access to that reader.
+	 * 
+	 * @throws IOException If the source cannot be read, or the operation fails.
+	 */
+	<R> R read(String source, Task<R> task) throws IOException;
+
+	/**
+	 * Gets the parsed metadata of the given source. The metadata is shared, and
+	 * must not be modified. It belongs to a cached reader, and is only valid as
+	 * long as that reader: once the reader is discarded (e.g., evicted or
+	 * {@link #invalidate invalidated}), closing it may reset the metadata. To
+	 * keep any of it, use {@link #read} and copy what is needed, e.g. via
+	 * {@link io.scif.ImageMetadata#copy()}.
+	 */
+	Metadata getMetadata(String source) throws IOException;
+
+	/** Reads a plane of the given source. */
+	Plane openPlane(String source, int imageIndex, long planeIndex)
+		throws IOException;
+
+	/** Discards the cached reader(s) of the given source. */
+	void invalidate(String source);
+
+	/** Discards all cached readers. */
+	void clear();
+
+	/** Gets the maximum number of readers holding an open file handle. */
+	int getMaxOpenReaders();
+
+	/** Sets the maximum number of readers holding an open file handle. */
+	void setMaxOpenReaders(int maxOpenReaders);
+
+	/** Gets the maximum number of readers of the same source. */
+	int getMaxReadersPerSource();
+
+	/** Sets the maximum number of readers of the same source. */
+	void setMaxReadersPerSource(int maxReadersPerSource);
+
+	/** Gets the maximum number of cached readers, open or not. */
+	int getMaxEntries();
+
+	/** Sets the maximum number of cached readers, open or not. */
+	void setMaxEntries(int maxEntries);
+
+	/** Gets a snapshot of the cache's statistics. */
+	ReaderCacheStatistics getStatistics();
+
+}
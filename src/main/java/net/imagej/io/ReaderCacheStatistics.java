@@ -0,0 +1,111 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.io;
+
+/**
+ * A snapshot of the statistics of a {@link ReaderCacheService}.
+ * 
+ * @author agent
+ */
+public class ReaderCacheStatistics {
+
+	private final int entries;
+	private final int openReaders;
+	private final long hits;
+	private final long misses;
+	private final long reopens;
+	private final long closes;
+	private final long evictions;
+
+	public ReaderCacheStatistics(final int entries, final int openReaders,
+		final long hits, final long misses, final long reopens, final long closes,
+		final long evictions)
+	{
+		this.entries = entries;
+		this.openReaders = openReaders;
+		this.hits = hits;
+		this.misses = misses;
+		this.reopens = reopens;
+		this.closes = closes;
+		this.evictions = evictions;
+	}
+
+	/** Gets the number of cached readers. */
+	public int getEntries() {
+		return entries;
+	}
+
+	/** Gets the number of cached readers holding an open file handle. */
+	public int getOpenReaders() {
+		return openReaders;
+	}
+
+	/** Gets the number of accesses which reused a cached reader. */
+	public long getHits() {
+		return hits;
+	}
+
+	/** Gets the number of accesses which had to parse their source. */
+	public long getMisses() {
+		return misses;
+	}
+
+	/** Gets the number of times a cached reader reopened its file. */
+	public long getReopens() {
+		return reopens;
+	}
+
+	/** Gets the number of times an idle reader closed its file. */
+	public long getCloses() {
+		return closes;
+	}
+
+	/** Gets the number of readers discarded from the cache. */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/** Gets the fraction of accesses which reused a cached reader. */
+	public double getHitRatio() {
+		final long requests = hits + misses;
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+			"%d readers (%d open), %d hits, %d misses, %d reopens, %d closes, " +
+				"%d evictions", entries, openReaders, hits, misses, reopens, closes,
+			evictions);
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.memory;
+
+import net.imagej.Dataset;
+import net.imagej.DatasetService;
+import net.imagej.DefaultDatasetService;
+import net.imagej.axis.AxisType;
+import net.imglib2.img.ImgFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.Service;
+
+/**
+ * A {@link DatasetService} which {@link MemoryBudgetService#reserve reserves}
+ * the pixels of every dataset it allocates with the
+ * {@link MemoryBudgetService}, if that service has been started, so that the
+ * budget is enforced before the memory is used rather than after.
+ * 
+ * @author agent
+ */
+@Plugin(type = Service.class, priority = Priority.NORMAL_PRIORITY + 1)
+public class BudgetedDatasetService extends DefaultDatasetService {
+
+	// NB: This service replaces the DefaultDatasetService by its higher
+	// priority. The other methods which allocate pixels delegate to this one.
+
+	// -- DatasetService methods --
+
+	@Override
+	public <T extends RealType<T>> Dataset create(final ImgFactory<T> factory,
+		final T type, final long[] dims, final String name, final AxisType[] axes)
+	{
+		// NB: The budget is opt-in, so never start its service from here.
+		final MemoryBudgetService memoryBudgetService = context().getService(
+			MemoryBudgetService.class);
+		if (memoryBudgetService == null) {
+			return super.create(factory, type, dims, name, axes);
+		}
+		final long bytes = Intervals.numElements(dims) * type.getBitsPerPixel() /
+			8;
+		try (final MemoryBudgetService.Scope reservation = memoryBudgetService
+			.reserve(bytes))
+		{
+			return super.create(factory, type, dims, name, axes);
+		}
+	}
+
+}
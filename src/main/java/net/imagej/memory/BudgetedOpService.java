@@ -0,0 +1,84 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.memory;
+
+import net.imagej.metrics.MetricsService;
+import net.imagej.metrics.Timer;
+import net.imagej.ops.DefaultOpService;
+import net.imagej.ops.OpService;
+
+import org.scijava.Priority;
+import org.scijava.module.Module;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.Service;
+
+/**
+ * An {@link OpService} which accounts for the outputs of the ops it runs with
+ * the {@link MemoryBudgetService}, if that service has been started, so that
+ * ops called directly through {@code ij.op()} count against the budget just
+ * like those run by ImageJ's job runners. As the size of an output is not
+ * known before the op runs, outputs are accounted once they exist, so that the
+ * budget holds back the job's next allocation rather than this one. It also
+ * times every op run, and counts those which fail, with the
+ * {@link MetricsService}.
+ * 
+ * @author agent
+ */
+@Plugin(type = Service.class, priority = Priority.NORMAL_PRIORITY + 1)
+public class BudgetedOpService extends DefaultOpService {
+
+	// NB: This service replaces the DefaultOpService by its higher priority.
+
+	// -- OpEnvironment methods --
+
+	@Override
+	public Object run(final Module module) {
+		final MetricsService metricsService = context().getService(
+			MetricsService.class);
+		final Object result;
+		try (final Timer.Sample sample = metricsService == null ? null
+			: metricsService.timer("ops.run").start())
+		{
+			result = super.run(module);
+		}
+		catch (final RuntimeException | Error exc) {
+			if (metricsService != null) metricsService.counter("ops.errors").inc();
+			throw exc;
+		}
+		// NB: The budget is opt-in, so never start its service from here.
+		final MemoryBudgetService memoryBudgetService = context().getService(
+			MemoryBudgetService.class);
+		return memoryBudgetService == null ? result : memoryBudgetService.track(
+			result);
+	}
+
+}
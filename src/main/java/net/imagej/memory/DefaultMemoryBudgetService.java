@@ -0,0 +1,728 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.memory;
+
+import io.scif.services.DatasetIOService;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import net.imagej.Dataset;
+import net.imagej.ImgPlus;
+import net.imagej.event.DatasetCreatedEvent;
+import net.imagej.event.DatasetDeletedEvent;
+import net.imagej.event.DatasetUpdatedEvent;
+import net.imagej.io.LazyIOService;
+import net.imagej.metrics.MetricsService;
+import net.imglib2.IterableInterval;
+import net.imglib2.img.ImgView;
+import net.imglib2.type.numeric.RealType;
+
+import org.scijava.event.EventHandler;
+import org.scijava.event.EventService;
+import org.scijava.log.LogService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default implementation of {@link MemoryBudgetService}.
+ * <p>
+ * Nothing is accounted until the service is started on demand, by
+ * {@code ij.memoryBudget()} or, for the jobs of the daemon, by setting the
+ * {@value #BUDGET_PROPERTY} system property.
+ * </p>
+ * <p>
+ * The budget can be given in MiB by the {@value #BUDGET_PROPERTY} system
+ * property; it defaults to three quarters of the maximum heap size. The
+ * {@value #POLICY_PROPERTY} property selects the policy ({@code block},
+ * {@code spill} or {@code fail}; the default is {@code block}), and
+ * {@value #TIMEOUT_PROPERTY} the number of seconds after which a blocked job
+ * gives up (default 600). Spilled datasets are written as TIFF files to the
+ * directory named by {@value #SPILL_PROPERTY}, by default a subdirectory of
+ * the temporary directory, and read back through the {@link LazyIOService}.
+ * </p>
+ * <p>
+ * The budget is enforced before memory is allocated only where the size of an
+ * image is known up front: the {@link BudgetedDatasetService} {@link #reserve
+ * reserves} the pixels of a new dataset before creating them. All other images,
+ * such as the outputs of ops, are accounted once they exist, so the policy can
+ * only hold back the job's next allocation. Datasets are tracked as soon as
+ * they are created; as event handlers must not block the thread publishing the
+ * event, a new dataset is accounted from the {@link DatasetCreatedEvent}
+ * without enforcing the budget, against the reservation made for it if any.
+ * </p>
+ * <p>
+ * Only datasets of jobs which were {@link #enter entered}, and which all
+ * threads have exited since, are spilled, least recently used first, since
+ * replacing the pixels of a dataset which a running job writes to would lose
+ * those writes; images attributed to a thread's name belong to no job which
+ * is known to be done. A spilled file is deleted once the image reading it
+ * back has been garbage collected, or else when the service is disposed.
+ * Lazily opened datasets count as using no memory, as their planes are
+ * bounded by the lazy IO service's cache.
+ * </p>
+ * 
+ * @author agent
+ */
+@Plugin(type = Service.class)
+public class DefaultMemoryBudgetService extends AbstractService implements
+	MemoryBudgetService
+{
+
+	/** System property defining the budget, in MiB. */
+	public static final String BUDGET_PROPERTY = "imagej.memory.budget";
+
+	/** System property defining the policy. */
+	public static final String POLICY_PROPERTY = "imagej.memory.policy";
+
+	/** System property defining the timeout of blocked jobs, in seconds. */
+	public static final String TIMEOUT_PROPERTY = "imagej.memory.timeout";
+
+	/** System property defining the directory of spilled datasets. */
+	public static final String SPILL_PROPERTY = "imagej.memory.spill";
+
+	/** Interval at which blocked jobs check for collected images, in ms. */
+	private static final long POLL_INTERVAL = 100;
+
+	// NB: Ensures that dataset events reach this service.
+	@Parameter
+	private EventService eventService;
+
+	@Parameter(required = false)
+	private DatasetIOService datasetIOService;
+
+	@Parameter(required = false)
+	private LazyIOService lazyIOService;
+
+	@Parameter(required = false)
+	private MetricsService metricsService;
+
+	@Parameter(required = false)
+	private LogService log;
+
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+
+	/** The files of the spilled images, by the images reading them back. */
+	private final Map<Reference<?>, File> spillFiles = new HashMap<>();
+
+	private final ReferenceQueue<Object> spillQueue = new ReferenceQueue<>();
+
+	/** The tracked images, by identity hash code. */
+	private final Map<Integer, List<Record>> records = new HashMap<>();
+
+	private final Map<String, Long> usageByJob = new HashMap<>();
+
+	/** Number of threads within each entered job. */
+	private final Map<String, Integer> activeJobs = new HashMap<>();
+
+	/** Jobs holding memory which were entered, and exited by all threads. */
+	private final Set<String> exitedJobs = new HashSet<>();
+
+	/** Number of threads of each job waiting for memory. */
+	private final Map<String, Integer> waitingJobs = new HashMap<>();
+
+	private final ThreadLocal<Deque<String>> jobs = new ThreadLocal<Deque<String>>() {
+
+		@Override
+		protected Deque<String> initialValue() {
+			return new ArrayDeque<>();
+		}
+	};
+
+	/** The innermost reservation of each thread. */
+	private final ThreadLocal<Reservation> reservations = new ThreadLocal<>();
+
+	private long usage;
+	private long budget;
+	private Policy policy;
+	private long timeout;
+	private File spillDir;
+	private long clock;
+
+	// -- MemoryBudgetService methods --
+
+	@Override
+	public <T> T track(final T image) {
+		return track(image, true);
+	}
+
+	@Override
+	public synchronized void release(final Object image) {
+		final Record record = find(image);
+		if (record != null) remove(record);
+	}
+
+	@Override
+	public Scope enter(final String job) {
+		final Deque<String> stack = jobs.get();
+		stack.push(job);
+		synchronized (this) {
+			count(activeJobs, job, 1);
+			exitedJobs.remove(job);
+		}
+		return new Scope() {
+
+			private boolean closed;
+
+			@Override
+			public void close() {
+				if (closed) return;
+				closed = true;
+				stack.remove(job);
+				synchronized (DefaultMemoryBudgetService.this) {
+					count(activeJobs, job, -1);
+					if (!activeJobs.containsKey(job) && usageByJob.containsKey(job)) {
+						exitedJobs.add(job);
+					}
+				}
+			}
+		};
+	}
+
+	@Override
+	public Scope reserve(final long bytes) {
+		if (bytes < 0) throw new IllegalArgumentException("Invalid size: " +
+			bytes);
+		final String job = getCurrentJob();
+		final boolean spill;
+		synchronized (this) {
+			spill = policy == Policy.SPILL;
+		}
+		if (spill) spill(bytes, job);
+		admit(null, bytes, job);
+		final Reservation reservation = new Reservation(job, bytes, reservations
+			.get());
+		reservations.set(reservation);
+		return reservation;
+	}
+
+	@Override
+	public String getCurrentJob() {
+		final String job = jobs.get().peek();
+		return job == null ? Thread.currentThread().getName() : job;
+	}
+
+	@Override
+	public synchronized long getUsage() {
+		expunge();
+		return usage;
+	}
+
+	@Override
+	public synchronized Map<String, Long> getUsageByJob() {
+		expunge();
+		final List<Map.Entry<String, Long>> entries = new ArrayList<>(usageByJob
+			.entrySet());
+		Collections.sort(entries, (e1, e2) -> Long.compare(e2.getValue(), e1
+			.getValue()));
+		final Map<String, Long> result = new LinkedHashMap<>();
+		for (final Map.Entry<String, Long> entry : entries) {
+			result.put(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+
+	@Override
+	public synchronized long getBudget() {
+		return budget;
+	}
+
+	@Override
+	public synchronized void setBudget(final long bytes) {
+		if (bytes <= 0) throw new IllegalArgumentException("Invalid budget: " +
+			bytes);
+		budget = bytes;
+		notifyAll();
+	}
+
+	@Override
+	public synchronized Policy getPolicy() {
+		return policy;
+	}
+
+	@Override
+	public synchronized void setPolicy(final Policy policy) {
+		if (policy == null) throw new NullPointerException();
+		this.policy = policy;
+		notifyAll();
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		final long defaultBudget = Runtime.getRuntime().maxMemory() / 4 * 3;
+		setBudget(Long.getLong(BUDGET_PROPERTY, defaultBudget >> 20) << 20);
+		setPolicy(Policy.valueOf(System.getProperty(POLICY_PROPERTY, "block")
+			.toUpperCase(Locale.ENGLISH)));
+		timeout = Long.getLong(TIMEOUT_PROPERTY, 600) * 1000;
+		final String spill = System.getProperty(SPILL_PROPERTY);
+		spillDir = spill != null ? new File(spill) : new File(System.getProperty(
+			"java.io.tmpdir"), "imagej-spill");
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public synchronized void dispose() {
+		for (final File file : spillFiles.values()) {
+			delete(file);
+		}
+		spillFiles.clear();
+		records.clear();
+		usageByJob.clear();
+		exitedJobs.clear();
+		usage = 0;
+		notifyAll();
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	protected void onEvent(final DatasetCreatedEvent evt) {
+		// NB: Never block or spill on the thread publishing the event.
+		track(evt.getObject(), false);
+	}
+
+	@EventHandler
+	protected void onEvent(final DatasetUpdatedEvent evt) {
+		synchronized (this) {
+			final Record record = find(evt.getObject());
+			if (record != null) record.lastUsed = ++clock;
+		}
+	}
+
+	@EventHandler
+	protected void onEvent(final DatasetDeletedEvent evt) {
+		release(evt.getObject());
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Accounts for the given image.
+	 * 
+	 * @param enforce Whether to enforce the budget by the policy, or merely to
+	 *          report an image exceeding it.
+	 */
+	private <T> T track(final T image, final boolean enforce) {
+		final long bytes = sizeOf(image);
+		if (bytes < 0) return image;
+		final String job = getCurrentJob();
+		final boolean spill;
+		synchronized (this) {
+			expunge();
+			final Record existing = find(image);
+			if (existing != null) {
+				existing.lastUsed = ++clock;
+				return image;
+			}
+			if (image instanceof Dataset) {
+				// NB: A dataset wrapping a tracked image takes over its account.
+				final Record wrapped = find(((Dataset) image).getImgPlus().getImg());
+				if (wrapped != null) remove(wrapped);
+			}
+			final Reservation reservation = reservations.get();
+			if (reservation != null && reservation.bytes >= bytes) {
+				// NB: The budget was enforced when the memory was reserved.
+				reservation.take(bytes);
+				add(new Record(image, bytes, job));
+				return image;
+			}
+			if (!enforce) {
+				add(new Record(image, bytes, job));
+				if (usage > budget && log != null) {
+					log.warn(describe(job, bytes, "is over budget"));
+				}
+				return image;
+			}
+			spill = policy == Policy.SPILL;
+		}
+		if (spill) spill(bytes, job);
+		admit(image, bytes, job);
+		return image;
+	}
+
+	/** Gets the bytes used by the given image, or -1 if it is no image. */
+	private long sizeOf(final Object image) {
+		if (lazyIOService != null && lazyIOService.isLazy(image)) return 0;
+		// NB: Views share the pixels of their source.
+		if (image instanceof Dataset && ((Dataset) image).getImgPlus()
+			.getImg() instanceof ImgView) return 0;
+		if (image instanceof ImgView) return 0;
+		if (image instanceof Dataset) return ((Dataset) image).getBytesOfInfo();
+		if (!(image instanceof IterableInterval)) return -1;
+		final IterableInterval<?> ii = (IterableInterval<?>) image;
+		if (ii.size() == 0) return 0;
+		final Object type = ii.firstElement();
+		final int bits = type instanceof RealType ? //
+			((RealType<?>) type).getBitsPerPixel() : Long.SIZE;
+		return ii.size() * bits / 8;
+	}
+
+	/**
+	 * Adds the image, waiting or failing as the policy demands if it does not
+	 * fit into the budget.
+	 * 
+	 * @param image The image to add, or null to reserve the bytes for the job.
+	 */
+	private synchronized void admit(final Object image, final long bytes,
+		final String job)
+	{
+		final long deadline = System.currentTimeMillis() + timeout;
+		boolean waited = false, collected = false;
+		while (true) {
+			expunge();
+			// NB: Another thread may have tracked the same image meanwhile.
+			if (image != null && find(image) != null) return;
+			if (usage + bytes <= budget) {
+				if (image != null) add(new Record(image, bytes, job));
+				else {
+					usage += bytes;
+					increment(usageByJob, job, bytes);
+				}
+				if (waited) notifyAll();
+				return;
+			}
+			if (bytes > budget) {
+				throw exceeded(job, bytes, "exceeds the whole budget");
+			}
+			if (policy == Policy.FAIL) throw exceeded(job, bytes, "is over budget");
+			if (deadlocked(job)) {
+				if (collected) {
+					throw exceeded(job, bytes,
+						"is over budget, and all jobs holding memory are waiting");
+				}
+				// NB: Images which are unreachable but not yet collected still count;
+				// give them one polling interval to be collected.
+				collected = true;
+			}
+			final long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				throw exceeded(job, bytes, "is over budget after waiting " + //
+					timeout / 1000 + " s");
+			}
+			if (!waited && metricsService != null) {
+				metricsService.counter("memory.waits").inc();
+			}
+			waited = true;
+			count(waitingJobs, job, 1);
+			try {
+				wait(Math.min(remaining, POLL_INTERVAL));
+			}
+			catch (final InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				throw exceeded(job, bytes, "is over budget; interrupted while waiting");
+			}
+			finally {
+				count(waitingJobs, job, -1);
+			}
+		}
+	}
+
+	/** Gets whether every job which holds memory is waiting for more. */
+	private boolean deadlocked(final String job) {
+		for (final Map.Entry<String, Long> entry : usageByJob.entrySet()) {
+			if (entry.getValue() == 0 || entry.getKey().equals(job)) continue;
+			if (!waitingJobs.containsKey(entry.getKey())) return false;
+		}
+		for (final List<Record> list : records.values()) {
+			for (final Record record : list) {
+				if (record.spilling) return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Spills datasets of exited jobs other than the given one, least recently
+	 * used first, until the given number of bytes fits into the budget.
+	 */
+	private void spill(final long bytes, final String job) {
+		if (datasetIOService == null || lazyIOService == null) return;
+		final List<Record> victims = new ArrayList<>();
+		synchronized (this) {
+			expunge();
+			long excess = usage + bytes - budget;
+			if (excess <= 0) return;
+			final List<Record> candidates = new ArrayList<>();
+			for (final List<Record> list : records.values()) {
+				for (final Record record : list) {
+					if (record.get() instanceof Dataset && record.bytes > 0 &&
+						!record.spilling && !record.job.equals(job) && exitedJobs
+							.contains(record.job)) candidates.add(record);
+				}
+			}
+			Collections.sort(candidates, (r1, r2) -> Long.compare(r1.lastUsed,
+				r2.lastUsed));
+			for (final Record record : candidates) {
+				if (excess <= 0) break;
+				record.spilling = true;
+				victims.add(record);
+				excess -= record.bytes;
+			}
+		}
+		for (final Record record : victims) {
+			final Dataset dataset = (Dataset) record.get();
+			File file = null;
+			try {
+				if (dataset != null) file = spill(dataset);
+			}
+			catch (final IOException | RuntimeException exc) {
+				if (log != null) log.warn("Cannot spill " + dataset, exc);
+			}
+			synchronized (this) {
+				record.spilling = false;
+				if (file != null) {
+					subtract(record);
+					record.bytes = 0;
+					if (metricsService != null) {
+						metricsService.counter("memory.spills").inc();
+					}
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Writes the given dataset to disk, and replaces its pixels by read-only
+	 * ones read back on demand. The file lives as long as the image reading
+	 * it, which may outlive the dataset.
+	 * 
+	 * @return The file holding the dataset's pixels, or null if they cannot be
+	 *         read back as they are.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private File spill(final Dataset dataset) throws IOException {
+		if (!spillDir.isDirectory() && !spillDir.mkdirs()) {
+			throw new IOException("Cannot create directory: " + spillDir);
+		}
+		final File file = File.createTempFile("spill-", ".tif", spillDir);
+		datasetIOService.save(dataset, file.getPath());
+		final ImgPlus original = dataset.getImgPlus();
+		final ImgPlus lazy = lazyIOService.open(file.getPath()).getImgPlus();
+		if (lazy.numDimensions() != original.numDimensions() || lazy
+			.firstElement().getClass() != original.firstElement().getClass())
+		{
+			file.delete();
+			return null;
+		}
+		lazy.setName(original.getName());
+		for (int d = 0; d < original.numDimensions(); d++) {
+			lazy.setAxis(original.axis(d).copy(), d);
+		}
+		dataset.setImgPlus(lazy);
+		synchronized (this) {
+			spillFiles.put(new WeakReference<>(lazy.getImg(), spillQueue), file);
+		}
+		return file;
+	}
+
+	private MemoryBudgetException exceeded(final String job, final long bytes,
+		final String reason)
+	{
+		if (metricsService != null) metricsService.counter("memory.failures").inc();
+		return new MemoryBudgetException(job, bytes, describe(job, bytes, reason));
+	}
+
+	private String describe(final String job, final long bytes,
+		final String reason)
+	{
+		final StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Job '%s' requested %s, which %s: %s of %s in use",
+			job, mib(bytes), reason, mib(usage), mib(budget)));
+		final Map<String, Long> byJob = getUsageByJob();
+		if (!byJob.isEmpty()) {
+			sb.append(" (");
+			final Iterator<Map.Entry<String, Long>> iter = byJob.entrySet()
+				.iterator();
+			for (int i = 0; i < 5 && iter.hasNext(); i++) {
+				final Map.Entry<String, Long> e = iter.next();
+				if (i > 0) sb.append(", ");
+				sb.append(e.getKey()).append(": ").append(mib(e.getValue()));
+			}
+			if (iter.hasNext()) sb.append(", ...");
+			sb.append(")");
+		}
+		return sb.toString();
+	}
+
+	private static String mib(final long bytes) {
+		return String.format("%.1f MiB", bytes / 1024.0 / 1024.0);
+	}
+
+	private Record find(final Object image) {
+		final List<Record> list = records.get(System.identityHashCode(image));
+		if (list == null) return null;
+		for (final Record record : list) {
+			if (record.get() == image) return record;
+		}
+		return null;
+	}
+
+	private void add(final Record record) {
+		record.lastUsed = ++clock;
+		records.computeIfAbsent(record.hash, h -> new ArrayList<>(1)).add(record);
+		usage += record.bytes;
+		increment(usageByJob, record.job, record.bytes);
+	}
+
+	private void remove(final Record record) {
+		final List<Record> list = records.get(record.hash);
+		if (list == null || !list.remove(record)) return;
+		if (list.isEmpty()) records.remove(record.hash);
+		subtract(record);
+		notifyAll();
+	}
+
+	private void subtract(final Record record) {
+		unreserve(record.job, record.bytes);
+	}
+
+	/** Takes the given number of bytes off the usage of the given job. */
+	private void unreserve(final String job, final long bytes) {
+		usage -= bytes;
+		increment(usageByJob, job, -bytes);
+		if (!usageByJob.containsKey(job)) exitedJobs.remove(job);
+	}
+
+	/**
+	 * Releases the images which have been garbage collected, and deletes the
+	 * files of spilled images which have been.
+	 */
+	private void expunge() {
+		Reference<?> ref;
+		while ((ref = queue.poll()) != null) {
+			remove((Record) ref);
+		}
+		while ((ref = spillQueue.poll()) != null) {
+			final File file = spillFiles.remove(ref);
+			if (file != null) delete(file);
+		}
+	}
+
+	private static void delete(final File file) {
+		// NB: A file still open for reading cannot be deleted on all platforms.
+		if (!file.delete() && file.exists()) file.deleteOnExit();
+	}
+
+	private static void count(final Map<String, Integer> map, final String key,
+		final int delta)
+	{
+		final int value = map.getOrDefault(key, 0) + delta;
+		if (value == 0) map.remove(key);
+		else map.put(key, value);
+	}
+
+	private static void increment(final Map<String, Long> map, final String key,
+		final long delta)
+	{
+		final long value = map.getOrDefault(key, 0L) + delta;
+		if (value == 0) map.remove(key);
+		else map.put(key, value);
+	}
+
+	// -- Helper classes --
+
+	/** Memory reserved by a thread for the images it is about to allocate. */
+	private class Reservation implements Scope {
+
+		private final String job;
+		private final Reservation outer;
+		private long bytes;
+		private boolean closed;
+
+		public Reservation(final String job, final long bytes,
+			final Reservation outer)
+		{
+			this.job = job;
+			this.bytes = bytes;
+			this.outer = outer;
+		}
+
+		/** Hands the given bytes over to a tracked image. */
+		private void take(final long amount) {
+			bytes -= amount;
+			unreserve(job, amount);
+		}
+
+		@Override
+		public void close() {
+			if (closed) return;
+			closed = true;
+			if (reservations.get() == this) {
+				if (outer == null) reservations.remove();
+				else reservations.set(outer);
+			}
+			synchronized (DefaultMemoryBudgetService.this) {
+				take(bytes);
+				DefaultMemoryBudgetService.this.notifyAll();
+			}
+		}
+	}
+
+	/** The account of one tracked image. */
+	private class Record extends WeakReference<Object> {
+
+		private final int hash;
+		private final String job;
+		private long bytes;
+		private long lastUsed;
+		private boolean spilling;
+
+		public Record(final Object image, final long bytes, final String job) {
+			super(image, queue);
+			hash = System.identityHashCode(image);
+			this.bytes = bytes;
+			this.job = job;
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.memory;
+
+import java.util.Map;
+
+import net.imagej.OnDemandService;
+
+/**
+ * Interface for services which govern the memory used by images, so that
+ * concurrent jobs in one JVM degrade gracefully instead of failing together
+ * with an {@link OutOfMemoryError}.
+ * <p>
+ * The service accounts for the pixel data of every live image it
+ * {@link #track tracks} against a budget: all {@link net.imagej.Dataset}s
+ * created through the {@link net.imagej.DatasetService}, and the images
+ * obtained from ops, whether run by ImageJ's job runners or directly through
+ * the {@link net.imagej.ops.OpService}. Images are released when their
+ * dataset is deleted, when they are {@link #release released} explicitly, or
+ * at the latest when they are garbage collected. When a new image would
+ * exceed the budget, the {@link Policy} decides what happens.
+ * </p>
+ * <p>
+ * An image which is tracked has been allocated already, so the policy can
+ * only hold back the job's next allocation. Where the size of an image is known
+ * before it is allocated, the memory can be {@link #reserve reserved} first,
+ * which enforces the budget before the memory is used; datasets created
+ * through the {@link net.imagej.DatasetService} are reserved this way.
+ * </p>
+ * <p>
+ * Usage is attributed to the job of the thread which allocated the image; see
+ * {@link #enter(String)}.
+ * </p>
+ * <p>
+ * The service is started on demand, so that nothing is accounted, and no job
+ * ever waits for memory, unless it is requested.
+ * </p>
+ * 
+ * @author agent
+ */
+public interface MemoryBudgetService extends OnDemandService {
+
+	/** What to do when an image would exceed the budget. */
+	enum Policy {
+		/**
+		 * Wait until other jobs release enough memory. Fails instead if that
+		 * cannot happen, i.e. if the image exceeds the whole budget, or all jobs
+		 * holding memory are waiting themselves.
+		 */
+		BLOCK,
+
+		/**
+		 * Write the least recently used datasets of all jobs to disk, replacing
+		 * their pixels by read-only ones read back on demand, until the image
+		 * fits. Blocks if that does not free enough memory.
+		 */
+		SPILL,
+
+		/** Fail immediately with a {@link MemoryBudgetException}. */
+		FAIL
+	}
+
+	/**
+	 * Accounts for the given image, enforcing the budget. Objects which are no
+	 * images, and images which are tracked already, are left alone (except that
+	 * the latter count as recently used).
+	 * 
+	 * @return The given image.
+	 * @throws MemoryBudgetException if the image does not fit into the budget.
+	 */
+	<T> T track(T image);
+
+	/** Stops accounting for the given image. */
+	void release(Object image);
+
+	/**
+	 * Reserves memory for images which the current thread is about to allocate,
+	 * enforcing the budget as {@link #track} does. The images the thread tracks
+	 * next are accounted against the reservation, as long as it holds enough,
+	 * without enforcing the budget again; the rest of the reservation is
+	 * released when the returned scope is closed.
+	 * 
+	 * @param bytes The number of bytes to reserve.
+	 * @throws MemoryBudgetException if the bytes do not fit into the budget.
+	 */
+	Scope reserve(long bytes);
+
+	/**
+	 * Attributes the images allocated by the current thread to the given job,
+	 * until the returned scope is closed.
+	 */
+	Scope enter(String job);
+
+	/**
+	 * Gets the job to which the current thread's images are attributed: the
+	 * innermost one {@link #enter entered}, or else the thread's name.
+	 */
+	String getCurrentJob();
+
+	/** Gets the number of bytes used by the tracked images. */
+	long getUsage();
+
+	/** Gets the number of bytes used by the tracked images of each job. */
+	Map<String, Long> getUsageByJob();
+
+	/** Gets the budget, in bytes. */
+	long getBudget();
+
+	/** Sets the budget in bytes, waking up jobs which are waiting for memory. */
+	void setBudget(long bytes);
+
+	/** Gets what happens when an image would exceed the budget. */
+	Policy getPolicy();
+
+	/** Sets what happens when an image would exceed the budget. */
+	void setPolicy(Policy policy);
+
+	/** A job attribution or reservation, which ends when closed. */
+	interface Scope extends AutoCloseable {
+
+		@Override
+		void close();
+	}
+
+}
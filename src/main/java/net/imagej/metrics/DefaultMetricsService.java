@@ -0,0 +1,321 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import net.imagej.Dataset;
+import net.imagej.event.DatasetCreatedEvent;
+import net.imagej.event.DatasetDeletedEvent;
+
+import org.scijava.event.EventHandler;
+import org.scijava.event.EventService;
+import org.scijava.log.LogService;
+import org.scijava.module.Module;
+import org.scijava.module.event.ModuleCanceledEvent;
+import org.scijava.module.event.ModuleErroredEvent;
+import org.scijava.module.event.ModuleFinishedEvent;
+import org.scijava.module.event.ModuleStartedEvent;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.script.ScriptModule;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Default implementation of {@link MetricsService}.
+ * <p>
+ * Besides the metrics recorded by other services, this service counts the
+ * datasets created and deleted (along with their sizes), and times the
+ * scripts and other modules run, counting those which were canceled or
+ * failed. All metrics are exported over JMX, as the attributes of an MBean
+ * named {@code net.imagej:type=Metrics,context=<id>}, one attribute per value
+ * of each metric (e.g. {@code ops.run.p99Ms}); the {@code context} key, the
+ * hexadecimal identity hash code of the application context, tells apart the
+ * MBeans of several contexts in the same JVM.
+ * </p>
+ * 
+ * @author agent
+ */
+@Plugin(type = Service.class)
+public class DefaultMetricsService extends AbstractService implements
+	MetricsService
+{
+
+	// NB: Ensures that dataset and module events reach this service.
+	@Parameter
+	private EventService eventService;
+
+	@Parameter(required = false)
+	private LogService log;
+
+	private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+	/** Start times of the modules currently running. */
+	private final Map<Module, Long> moduleStarts = new ConcurrentHashMap<>();
+
+	private ObjectName objectName;
+
+	// -- MetricsService methods --
+
+	@Override
+	public Counter counter(final String name) {
+		return metric(name, Counter.class, Counter::new);
+	}
+
+	@Override
+	public Timer timer(final String name) {
+		return metric(name, Timer.class, Timer::new);
+	}
+
+	@Override
+	public Histogram histogram(final String name) {
+		return metric(name, Histogram.class, Histogram::new);
+	}
+
+	@Override
+	public Map<String, Metric> getMetrics() {
+		return new TreeMap<>(metrics);
+	}
+
+	@Override
+	public String toJSON() {
+		final StringBuilder sb = new StringBuilder("{");
+		String separator = "\n";
+		for (final Metric metric : getMetrics().values()) {
+			sb.append(separator).append("  ");
+			appendString(sb, metric.getName());
+			sb.append(": {\"type\": ");
+			appendString(sb, metric.getType());
+			for (final Map.Entry<String, Number> e : metric.getValues().entrySet()) {
+				sb.append(", ");
+				appendString(sb, e.getKey());
+				sb.append(": ").append(json(e.getValue()));
+			}
+			sb.append("}");
+			separator = ",\n";
+		}
+		return sb.append("\n}\n").toString();
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void initialize() {
+		try {
+			final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			// NB: Each application context gets an MBean of its own.
+			objectName = new ObjectName("net.imagej:type=Metrics,context=" + Integer
+				.toHexString(System.identityHashCode(getContext())));
+			server.registerMBean(new MetricsMBean(), objectName);
+		}
+		catch (final JMException | SecurityException exc) {
+			if (log != null) log.debug("Cannot export metrics over JMX", exc);
+			objectName = null;
+		}
+	}
+
+	// -- Disposable methods --
+
+	@Override
+	public void dispose() {
+		if (objectName == null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		}
+		catch (final JMException exc) {
+			if (log != null) log.debug(exc);
+		}
+		objectName = null;
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	protected void onEvent(final DatasetCreatedEvent evt) {
+		final Dataset dataset = evt.getObject();
+		counter("datasets.created").inc();
+		histogram("datasets.bytes").update(dataset.getBytesOfInfo());
+	}
+
+	@EventHandler
+	protected void onEvent(final DatasetDeletedEvent evt) {
+		counter("datasets.deleted").inc();
+	}
+
+	@EventHandler
+	protected void onEvent(final ModuleStartedEvent evt) {
+		moduleStarts.put(evt.getModule(), System.nanoTime());
+	}
+
+	@EventHandler
+	protected void onEvent(final ModuleFinishedEvent evt) {
+		final Long start = moduleStarts.remove(evt.getModule());
+		if (start == null) return;
+		timer(prefix(evt.getModule()) + ".run").update(System.nanoTime() - start);
+	}
+
+	@EventHandler
+	protected void onEvent(final ModuleCanceledEvent evt) {
+		moduleStarts.remove(evt.getModule());
+		counter(prefix(evt.getModule()) + ".canceled").inc();
+	}
+
+	@EventHandler
+	protected void onEvent(final ModuleErroredEvent evt) {
+		moduleStarts.remove(evt.getModule());
+		counter(prefix(evt.getModule()) + ".errors").inc();
+	}
+
+	// -- Helper methods --
+
+	private <M extends Metric> M metric(final String name, final Class<M> type,
+		final Function<String, M> factory)
+	{
+		final Metric metric = metrics.computeIfAbsent(name, factory);
+		if (!type.isInstance(metric)) {
+			throw new IllegalArgumentException("Metric " + name + " is a " + metric
+				.getType());
+		}
+		return type.cast(metric);
+	}
+
+	private static String prefix(final Module module) {
+		return module instanceof ScriptModule ? "scripts" : "modules";
+	}
+
+	private static String json(final Number n) {
+		final double d = n.doubleValue();
+		if (Double.isNaN(d) || Double.isInfinite(d)) return "null";
+		return n.toString();
+	}
+
+	private static void appendString(final StringBuilder sb, final String s) {
+		sb.append('"');
+		for (final char c : s.toCharArray()) {
+			if (c == '"' || c == '\\') sb.append('\\').append(c);
+			else if (c < ' ') sb.append(String.format("\\u%04x", (int) c));
+			else sb.append(c);
+		}
+		sb.append('"');
+	}
+
+	// -- Helper classes --
+
+	/** Exposes the values of all metrics as read-only MBean attributes. */
+	private class MetricsMBean implements DynamicMBean {
+
+		@Override
+		public Object getAttribute(final String attribute)
+			throws AttributeNotFoundException
+		{
+			final int dot = attribute.lastIndexOf('.');
+			final Metric metric = dot < 0 ? null : metrics.get(attribute.substring(
+				0, dot));
+			final Number value = metric == null ? null : metric.getValues().get(
+				attribute.substring(dot + 1));
+			if (value == null) throw new AttributeNotFoundException(attribute);
+			return value;
+		}
+
+		@Override
+		public void setAttribute(final Attribute attribute)
+			throws AttributeNotFoundException
+		{
+			throw new AttributeNotFoundException("Read-only: " + attribute
+				.getName());
+		}
+
+		@Override
+		public AttributeList getAttributes(final String[] attributes) {
+			final AttributeList list = new AttributeList();
+			for (final String attribute : attributes) {
+				try {
+					list.add(new Attribute(attribute, getAttribute(attribute)));
+				}
+				catch (final AttributeNotFoundException exc) {
+					// NB: Omit unknown attributes, as specified by DynamicMBean.
+				}
+			}
+			return list;
+		}
+
+		@Override
+		public AttributeList setAttributes(final AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(final String actionName, final Object[] params,
+			final String[] signature) throws ReflectionException
+		{
+			throw new ReflectionException(new NoSuchMethodException(actionName));
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			final List<MBeanAttributeInfo> attributes = new ArrayList<>();
+			for (final Metric metric : getMetrics().values()) {
+				for (final Map.Entry<String, Number> e : metric.getValues()
+					.entrySet())
+				{
+					attributes.add(new MBeanAttributeInfo(metric.getName() + "." + e
+						.getKey(), e.getValue().getClass().getName(), metric.getType() +
+							" " + metric.getName(), true, false, false));
+				}
+			}
+			return new MBeanInfo(getClass().getName(), "ImageJ runtime metrics",
+				attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+				new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+		}
+	}
+
+}
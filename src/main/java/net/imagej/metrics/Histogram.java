@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A metric which records the distribution of non-negative values, e.g. the
+ * sizes of the datasets created.
+ * <p>
+ * Values are counted in buckets of exponentially increasing size, one per
+ * power of two, so that recording a value costs a few atomic increments
+ * regardless of the number of values recorded, and percentiles are estimated
+ * to within a factor of two.
+ * </p>
+ * 
+ * @author agent
+ */
+public class Histogram implements Metric {
+
+	private final String name;
+
+	/** Bucket {@code i} counts the values whose highest set bit is bit i-1. */
+	private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE + 1);
+
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	public Histogram(final String name) {
+		this.name = name;
+	}
+
+	// -- Histogram methods --
+
+	/** Records the given value; negative values are recorded as zero. */
+	public void update(final long value) {
+		final long v = Math.max(0, value);
+		buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(v));
+		count.increment();
+		sum.add(v);
+		long m = max.get();
+		while (v > m && !max.compareAndSet(m, v)) {
+			m = max.get();
+		}
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		final long n = getCount();
+		return n == 0 ? 0 : (double) getSum() / n;
+	}
+
+	/**
+	 * Estimates the given percentile of the recorded values, as the upper bound
+	 * of the bucket containing it.
+	 * 
+	 * @param p The percentile, between 0 and 100.
+	 */
+	public long getPercentile(final double p) {
+		long total = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			total += buckets.get(i);
+		}
+		if (total == 0) return 0;
+		final long rank = (long) Math.ceil(total * p / 100);
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= Math.max(1, rank)) return Math.min(upperBound(i), getMax());
+		}
+		return getMax();
+	}
+
+	// -- Metric methods --
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String getType() {
+		return "histogram";
+	}
+
+	@Override
+	public Map<String, Number> getValues() {
+		final Map<String, Number> values = new LinkedHashMap<>();
+		values.put("count", getCount());
+		values.put("sum", getSum());
+		values.put("mean", getMean());
+		values.put("max", getMax());
+		values.put("p50", getPercentile(50));
+		values.put("p95", getPercentile(95));
+		values.put("p99", getPercentile(99));
+		return values;
+	}
+
+	// -- Helper methods --
+
+	private static long upperBound(final int bucket) {
+		if (bucket == 0) return 0;
+		if (bucket >= Long.SIZE) return Long.MAX_VALUE;
+		return (1L << bucket) - 1;
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.metrics;
+
+import java.util.Map;
+
+import net.imagej.ImageJService;
+
+/**
+ * Interface for services which keep a registry of runtime metrics.
+ * <p>
+ * Metrics are created on first use, and identified by a dotted name such as
+ * {@code ops.run}. Recording a value is cheap enough to be left enabled under
+ * load: counters and histograms only perform a few uncontended atomic
+ * increments.
+ * </p>
+ * <p>
+ * This service is started along with the gateway, so that the ops, dataset
+ * I/O, datasets and scripts of a context are recorded from the start, and its
+ * metrics are exported over JMX as soon as the gateway is up. Only a gateway
+ * which starts its services lazily starts this one on first use, e.g. by
+ * {@link net.imagej.ImageJ#metrics()} or by a service which records metrics.
+ * </p>
+ * 
+ * @author agent
+ */
+public interface MetricsService extends ImageJService {
+
+	/**
+	 * Gets the counter with the given name, creating it if needed.
+	 * 
+	 * @throws IllegalArgumentException If a metric of another kind already has
+	 *           the given name.
+	 */
+	Counter counter(String name);
+
+	/**
+	 * Gets the timer with the given name, creating it if needed.
+	 * 
+	 * @throws IllegalArgumentException If a metric of another kind already has
+	 *           the given name.
+	 */
+	Timer timer(String name);
+
+	/**
+	 * Gets the histogram with the given name, creating it if needed.
+	 * 
+	 * @throws IllegalArgumentException If a metric of another kind already has
+	 *           the given name.
+	 */
+	Histogram histogram(String name);
+
+	/** Gets all metrics, sorted by name. */
+	Map<String, Metric> getMetrics();
+
+	/** Gets a snapshot of all metrics, as a JSON object keyed by name. */
+	String toJSON();
+
+}
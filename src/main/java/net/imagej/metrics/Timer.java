@@ -0,0 +1,121 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A metric which records the durations of an operation, e.g. of op
+ * executions.
+ * <p>
+ * Typical usage:
+ * </p>
+ * 
+ * <pre>
+ * try (Timer.Sample sample = timer.start()) {
+ * 	// perform the operation
+ * }
+ * </pre>
+ * 
+ * @author agent
+ */
+public class Timer implements Metric {
+
+	private final String name;
+	private final Histogram nanos;
+
+	public Timer(final String name) {
+		this.name = name;
+		nanos = new Histogram(name);
+	}
+
+	// -- Timer methods --
+
+	/** Starts timing one execution of the operation. */
+	public Sample start() {
+		return new Sample();
+	}
+
+	/** Records one execution of the operation, which took the given time. */
+	public void update(final long durationNanos) {
+		nanos.update(durationNanos);
+	}
+
+	public long getCount() {
+		return nanos.getCount();
+	}
+
+	/** Gets the distribution of the recorded durations, in nanoseconds. */
+	public Histogram getHistogram() {
+		return nanos;
+	}
+
+	// -- Metric methods --
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String getType() {
+		return "timer";
+	}
+
+	@Override
+	public Map<String, Number> getValues() {
+		final Map<String, Number> values = new LinkedHashMap<>();
+		values.put("count", nanos.getCount());
+		values.put("totalMs", nanos.getSum() / 1e6);
+		values.put("meanMs", nanos.getMean() / 1e6);
+		values.put("maxMs", nanos.getMax() / 1e6);
+		values.put("p50Ms", nanos.getPercentile(50) / 1e6);
+		values.put("p95Ms", nanos.getPercentile(95) / 1e6);
+		values.put("p99Ms", nanos.getPercentile(99) / 1e6);
+		return values;
+	}
+
+	// -- Helper classes --
+
+	/** One timed execution, which is recorded when closed. */
+	public class Sample implements AutoCloseable {
+
+		private final long start = System.nanoTime();
+
+		@Override
+		public void close() {
+			update(System.nanoTime() - start);
+		}
+	}
+
+}
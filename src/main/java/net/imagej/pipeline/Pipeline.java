@@ -0,0 +1,341 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.pipeline;
+
+import io.scif.services.DatasetIOService;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imagej.axis.CalibratedAxis;
+import net.imagej.io.LazyIOService;
+import net.imagej.ops.OpService;
+import net.imagej.thread.Parallel;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.BooleanType;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+import org.scijava.thread.ThreadService;
+
+/**
+ * A chain of ops which is run tile by tile over an image.
+ * <p>
+ * Each plane of the output is assembled from XY tiles, which are processed in
+ * parallel, one per core at a time, and written into the output plane as soon
+ * as each is done. A tile is read from its input together with a surrounding halo,
+ * wide enough for the neighborhoods of all stages (e.g., the radius of a
+ * Gaussian kernel), run through the ops of each stage in turn, and cropped
+ * back to the tile. Intermediate results are thus never larger than a tile
+ * plus its halo, and besides the output plane, at most one tile per core is
+ * in memory at a time. The output of {@link #apply(Dataset)} is computed plane by
+ * plane as it is accessed, so chaining it to a dataset opened via
+ * {@link LazyIOService} and saving it (see {@link #run(String, String)})
+ * streams the image from reader to writer.
+ * </p>
+ * <p>
+ * Each stage must produce an image of the same dimensions as its input, and
+ * compute each pixel from a bounded neighborhood of the input. Ops which
+ * aggregate over the whole image, such as automatic thresholds or connected
+ * component labelings, would see only one tile at a time. Boolean results are
+ * converted to 8-bit masks.
+ * </p>
+ * 
+ * @author agent
+ * @see PipelineService
+ */
+public class Pipeline {
+
+	private static final int DEFAULT_TILE_SIZE = 512;
+
+	private final OpService opService;
+	private final LazyIOService lazyIOService;
+	private final DatasetIOService datasetIOService;
+	private final ThreadService threadService;
+
+	private final List<Stage> stages = new ArrayList<>();
+
+	private int tileWidth = DEFAULT_TILE_SIZE;
+	private int tileHeight = DEFAULT_TILE_SIZE;
+
+	Pipeline(final OpService opService, final LazyIOService lazyIOService,
+		final DatasetIOService datasetIOService,
+		final ThreadService threadService)
+	{
+		this.opService = opService;
+		this.lazyIOService = lazyIOService;
+		this.datasetIOService = datasetIOService;
+		this.threadService = threadService;
+	}
+
+	// -- Pipeline methods --
+
+	/**
+	 * Appends a pointwise op to the pipeline.
+	 * 
+	 * @param op The name of the op, e.g. {@code math.sqrt}.
+	 * @param args The arguments of the op following its input image.
+	 * @return This pipeline, for chaining.
+	 */
+	public Pipeline then(final String op, final Object... args) {
+		return then(0, op, args);
+	}
+
+	/**
+	 * Appends a neighborhood op to the pipeline.
+	 * 
+	 * @param halo The distance (in pixels) from an output pixel up to which the
+	 *          op reads its input.
+	 * @param op The name of the op, e.g. {@code filter.gauss}.
+	 * @param args The arguments of the op following its input image.
+	 * @return This pipeline, for chaining.
+	 */
+	public Pipeline then(final int halo, final String op, final Object... args) {
+		if (halo < 0) throw new IllegalArgumentException("Invalid halo: " + halo);
+		stages.add(new Stage(halo, op, args));
+		return this;
+	}
+
+	/** Sets the size of the tiles into which each plane is divided. */
+	public Pipeline setTileSize(final int width, final int height) {
+		if (width <= 0 || height <= 0) {
+			throw new IllegalArgumentException("Invalid tile size: " + width + "x" +
+				height);
+		}
+		tileWidth = width;
+		tileHeight = height;
+		return this;
+	}
+
+	/** Gets the halo read around each tile, i.e. the sum of all stages' halos. */
+	public int getHalo() {
+		int halo = 0;
+		for (final Stage stage : stages) {
+			halo += stage.halo;
+		}
+		return halo;
+	}
+
+	/**
+	 * Applies the pipeline to the given dataset. The returned dataset is
+	 * computed plane by plane as its planes are accessed.
+	 * 
+	 * @throws IllegalArgumentException If the first two axes of the dataset are
+	 *           not X and Y.
+	 */
+	public <T extends RealType<T> & NativeType<T>> Dataset apply(
+		final Dataset input)
+	{
+		final long[] dims = Intervals.dimensionsAsLongArray(input);
+		final CalibratedAxis[] axes = new CalibratedAxis[dims.length];
+		input.axes(axes);
+		if (dims.length < 2 || axes[0].type() != Axes.X || //
+			axes[1].type() != Axes.Y)
+		{
+			throw new IllegalArgumentException("Not an XY image: " + input);
+		}
+
+		// NB: Ops declare their output images with generic element types, which
+		// are only bound when the op is matched against an actual input. So run
+		// the stages on a single pixel (plus halo) to find out the output type.
+		final Interval probe = new FinalInterval(new long[] { 0, 0 },
+			new long[] { 0, 0 });
+		final T type = outputType(Util.getTypeFromInterval(process(plane(input,
+			0), probe)));
+
+		return lazyIOService.create(input.getName(), type, axes, dims,
+			no -> computePlane(input, no, type));
+	}
+
+	/**
+	 * Applies the pipeline to the given source image, saving the result to the
+	 * given destination. The source is read lazily, and the result saved plane
+	 * by plane, so that images larger than memory can be processed.
+	 */
+	public void run(final String source, final String destination)
+		throws IOException
+	{
+		datasetIOService.save(apply(lazyIOService.open(source)), destination);
+	}
+
+	// -- Helper methods --
+
+	private <T extends RealType<T> & NativeType<T>> Object computePlane(
+		final Dataset input, final int no, final T type) throws IOException
+	{
+		final RandomAccessible<?> plane = plane(input, no);
+		final long width = input.dimension(0);
+		final long height = input.dimension(1);
+		// NB: The plane's array is the storage of the output plane itself, into
+		// which each tile is written as soon as it is done.
+		final ArrayImg<T, ?> output = new ArrayImgFactory<T>().create(new long[] {
+			width, height }, type);
+
+		final long tilesX = (width + tileWidth - 1) / tileWidth;
+		final long tilesY = (height + tileHeight - 1) / tileHeight;
+		if (tilesX * tilesY > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many tiles: " + tilesX + "x" +
+				tilesY);
+		}
+		try {
+			Parallel.forEach(threadService, (int) (tilesX * tilesY), i -> {
+				final Interval tile = tile(input, i % tilesX * tileWidth, i / tilesX *
+					tileHeight);
+				copy(process(plane, tile), Views.interval(output, tile));
+			});
+		}
+		catch (final InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted computing plane " + no);
+		}
+		return ((ArrayDataAccess<?>) output.update(null)).getCurrentStorageArray();
+	}
+
+	/** Gets the tile of the given plane starting at the given position. */
+	private Interval tile(final Dataset input, final long x, final long y) {
+		final long maxX = Math.min(x + tileWidth, input.dimension(0)) - 1;
+		final long maxY = Math.min(y + tileHeight, input.dimension(1)) - 1;
+		return new FinalInterval(new long[] { x, y }, new long[] { maxX, maxY });
+	}
+
+	/**
+	 * Gets the given plane of the input, zero-based in X and Y and extended by
+	 * mirroring, so that halos can be read beyond its borders.
+	 */
+	private static RandomAccessible<?> plane(final Dataset input, final int no) {
+		RandomAccessibleInterval<?> plane = Views.zeroMin(input);
+		long index = no;
+		final long[] position = new long[input.numDimensions()];
+		for (int d = 2; d < position.length; d++) {
+			position[d] = index % input.dimension(d);
+			index /= input.dimension(d);
+		}
+		for (int d = position.length - 1; d >= 2; d--) {
+			plane = Views.hyperSlice(plane, d, position[d]);
+		}
+		return Views.extendMirrorSingle(plane);
+	}
+
+	/** Runs all stages on the given tile, returning the result without halo. */
+	private RandomAccessibleInterval<?> process(final RandomAccessible<?> plane,
+		final Interval tile)
+	{
+		final int halo = getHalo();
+		RandomAccessibleInterval<?> result = Views.zeroMin(Views.interval(plane,
+			Intervals.expand(tile, halo)));
+		for (final Stage stage : stages) {
+			result = stage.run(result);
+		}
+		final long[] min = new long[2];
+		final long[] max = new long[2];
+		for (int d = 0; d < 2; d++) {
+			min[d] = result.min(d) + halo;
+			max[d] = min[d] + tile.dimension(d) - 1;
+		}
+		return Views.interval(result, min, max);
+	}
+
+	private static void copy(final RandomAccessibleInterval<?> source,
+		final RandomAccessibleInterval<? extends RealType<?>> target)
+	{
+		final Cursor<?> in = Views.flatIterable(source).cursor();
+		final Cursor<? extends RealType<?>> out = Views.flatIterable(target)
+			.cursor();
+		if (Util.getTypeFromInterval(source) instanceof BooleanType) {
+			while (out.hasNext()) {
+				out.next().setReal(((BooleanType<?>) in.next()).get() ? 1 : 0);
+			}
+			return;
+		}
+		while (out.hasNext()) {
+			out.next().setReal(((RealType<?>) in.next()).getRealDouble());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T extends RealType<T> & NativeType<T>> T outputType(
+		final Object sample)
+	{
+		if (sample instanceof BooleanType) return (T) new UnsignedByteType();
+		if (sample instanceof RealType && sample instanceof NativeType) {
+			return ((T) sample).createVariable();
+		}
+		throw new IllegalStateException("Unsupported output type: " + sample
+			.getClass().getName());
+	}
+
+	// -- Helper classes --
+
+	private class Stage {
+
+		private final int halo;
+		private final String op;
+		private final Object[] args;
+
+		public Stage(final int halo, final String op, final Object[] args) {
+			this.halo = halo;
+			this.op = op;
+			this.args = args.clone();
+		}
+
+		public RandomAccessibleInterval<?> run(
+			final RandomAccessibleInterval<?> input)
+		{
+			final List<Object> inputs = new ArrayList<>(args.length + 1);
+			inputs.add(input);
+			Collections.addAll(inputs, args);
+			final Object result = opService.run(op, inputs.toArray());
+			if (!(result instanceof RandomAccessibleInterval)) {
+				throw new IllegalStateException("Op " + op +
+					" did not produce an image");
+			}
+			return (RandomAccessibleInterval<?>) result;
+		}
+	}
+
+}
@@ -0,0 +1,302 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.spatial;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imagej.display.ImageDisplay;
+import net.imagej.display.OverlayService;
+import net.imagej.event.OverlayDeletedEvent;
+import net.imagej.event.OverlayRestructuredEvent;
+import net.imagej.event.OverlayUpdatedEvent;
+import net.imagej.metrics.MetricsService;
+import net.imagej.metrics.Timer;
+import net.imagej.overlay.Overlay;
+import net.imagej.thread.Parallel;
+import net.imglib2.RandomAccess;
+import net.imglib2.roi.RegionOfInterest;
+import net.imglib2.type.numeric.RealType;
+
+import org.scijava.display.event.DisplayUpdatedEvent;
+import org.scijava.event.EventHandler;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Default implementation of {@link OverlayIndexService}.
+ * <p>
+ * Indexes are held weakly, so that the index of a display goes away with the
+ * display. The index of a display also reflects overlays added or removed
+ * through the {@link OverlayService} directly: when it is requested after the
+ * display was updated, or after the number of views of the display changed,
+ * it is reconciled with the display's overlays. Otherwise, the index is
+ * returned as it is, without looking at the overlays. Measurements run one
+ * task per core, each taking the next overlay until none are left.
+ * </p>
+ * 
+ * @author agent
+ */
+@Plugin(type = Service.class)
+public class DefaultOverlayIndexService extends AbstractService implements
+	OverlayIndexService
+{
+
+	private static final RegionStatistics EMPTY = new RegionStatistics(0, 0, 0,
+		Double.NaN, Double.NaN);
+
+	@Parameter
+	private OverlayService overlayService;
+
+	@Parameter
+	private ThreadService threadService;
+
+	@Parameter(required = false)
+	private MetricsService metricsService;
+
+	private final Map<ImageDisplay, DisplayIndex> displayIndexes =
+		new WeakHashMap<>();
+
+	private final Set<OverlayIndex> indexes = Collections.newSetFromMap(
+		new WeakHashMap<>());
+
+	// -- OverlayIndexService methods --
+
+	@Override
+	public OverlayIndex getIndex(final ImageDisplay display) {
+		synchronized (indexes) {
+			final DisplayIndex entry = displayIndexes.get(display);
+			if (entry != null) {
+				if (!entry.changed && entry.views == display.size()) {
+					return entry.index;
+				}
+				// NB: Changes from now on mark the display again.
+				entry.changed = false;
+			}
+		}
+		final int views = display.size();
+		final List<Overlay> overlays = overlayService.getOverlays(display);
+		synchronized (indexes) {
+			DisplayIndex entry = displayIndexes.get(display);
+			if (entry == null) {
+				entry = new DisplayIndex(createIndex(overlays));
+				displayIndexes.put(display, entry);
+			}
+			else reconcile(entry.index, overlays);
+			entry.views = views;
+			return entry.index;
+		}
+	}
+
+	@Override
+	public OverlayIndex createIndex(final Collection<? extends Overlay> overlays) {
+		final OverlayIndex index = new OverlayIndex();
+		try (final Timer.Sample sample = metricsService == null ? null
+			: metricsService.timer("overlays.index.load").start())
+		{
+			index.addAll(overlays);
+		}
+		synchronized (indexes) {
+			indexes.add(index);
+		}
+		return index;
+	}
+
+	@Override
+	public void addOverlays(final ImageDisplay display,
+		final List<? extends Overlay> overlays)
+	{
+		overlayService.addOverlays(display, overlays);
+		getIndex(display).addAll(overlays);
+	}
+
+	@Override
+	public void removeOverlay(final ImageDisplay display,
+		final Overlay overlay)
+	{
+		overlayService.removeOverlay(display, overlay);
+		getIndex(display).remove(overlay);
+	}
+
+	@Override
+	public List<RegionStatistics> measure(final Dataset dataset,
+		final List<? extends Overlay> overlays, final long[] position)
+		throws InterruptedException
+	{
+		final int xIndex = dataset.dimensionIndex(Axes.X);
+		final int yIndex = dataset.dimensionIndex(Axes.Y);
+		if (xIndex < 0 || yIndex < 0) {
+			throw new IllegalArgumentException("Not an XY image: " + dataset);
+		}
+		final RegionStatistics[] results = new RegionStatistics[overlays.size()];
+		try (final Timer.Sample sample = metricsService == null ? null
+			: metricsService.timer("overlays.measure").start())
+		{
+			Parallel.forEach(threadService, overlays.size(), i -> results[i] =
+				measure(dataset, xIndex, yIndex, position, overlays.get(i)));
+		}
+		return Arrays.asList(results);
+	}
+
+	// -- Event handlers --
+
+	@EventHandler
+	protected void onEvent(final OverlayUpdatedEvent evt) {
+		update(evt.getObject());
+	}
+
+	@EventHandler
+	protected void onEvent(final OverlayRestructuredEvent evt) {
+		update(evt.getObject());
+	}
+
+	@EventHandler
+	protected void onEvent(final DisplayUpdatedEvent evt) {
+		synchronized (indexes) {
+			final DisplayIndex entry = displayIndexes.get(evt.getDisplay());
+			if (entry != null) entry.changed = true;
+		}
+	}
+
+	@EventHandler
+	protected void onEvent(final OverlayDeletedEvent evt) {
+		for (final OverlayIndex index : indexes()) {
+			index.remove(evt.getObject());
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Brings the index of a display up to date with the display's overlays,
+	 * which may have been added or removed other than through this service.
+	 */
+	private static void reconcile(final OverlayIndex index,
+		final List<Overlay> overlays)
+	{
+		final Set<Overlay> current = Collections.newSetFromMap(
+			new IdentityHashMap<>());
+		current.addAll(overlays);
+		for (final Overlay overlay : index.getOverlays()) {
+			if (!current.remove(overlay)) index.remove(overlay);
+		}
+		// NB: What remains is new, or has no bounds to index.
+		for (final Overlay overlay : current) {
+			index.add(overlay);
+		}
+	}
+
+	private void update(final Overlay overlay) {
+		for (final OverlayIndex index : indexes()) {
+			index.update(overlay);
+		}
+	}
+
+	private List<OverlayIndex> indexes() {
+		synchronized (indexes) {
+			return new ArrayList<>(indexes);
+		}
+	}
+
+	/** Measures the pixels of one plane within the bounds of an overlay. */
+	private static RegionStatistics measure(final Dataset dataset,
+		final int xIndex, final int yIndex, final long[] position,
+		final Overlay overlay)
+	{
+		final RegionOfInterest roi = overlay.getRegionOfInterest();
+		if (roi == null || roi.numDimensions() < 2) return EMPTY;
+		final long x0 = Math.max(0, (long) Math.ceil(roi.realMin(0)));
+		final long y0 = Math.max(0, (long) Math.ceil(roi.realMin(1)));
+		final long x1 = Math.min(dataset.dimension(xIndex) - 1, (long) Math
+			.floor(roi.realMax(0)));
+		final long y1 = Math.min(dataset.dimension(yIndex) - 1, (long) Math
+			.floor(roi.realMax(1)));
+		if (x1 < x0 || y1 < y0) return EMPTY;
+
+		final RandomAccess<RealType<?>> access = dataset.randomAccess();
+		for (int d = 0; d < dataset.numDimensions(); d++) {
+			access.setPosition(position != null && d < position.length
+				? position[d] : 0, d);
+		}
+		final double[] pos = new double[roi.numDimensions()];
+		long count = 0;
+		double sum = 0, sumOfSquares = 0;
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		for (long y = y0; y <= y1; y++) {
+			pos[1] = y;
+			access.setPosition(y, yIndex);
+			for (long x = x0; x <= x1; x++) {
+				pos[0] = x;
+				if (!roi.contains(pos)) continue;
+				access.setPosition(x, xIndex);
+				final double v = access.get().getRealDouble();
+				count++;
+				sum += v;
+				sumOfSquares += v * v;
+				if (v < min) min = v;
+				if (v > max) max = v;
+			}
+		}
+		return new RegionStatistics(count, sum, sumOfSquares, min, max);
+	}
+
+	// -- Helper classes --
+
+	/** The index of a display, along with what is known of its freshness. */
+	private static class DisplayIndex {
+
+		private final OverlayIndex index;
+
+		/** The number of views of the display when it was last reconciled. */
+		private int views;
+
+		/** Whether the display has been updated since it was last reconciled. */
+		private boolean changed;
+
+		public DisplayIndex(final OverlayIndex index) {
+			this.index = index;
+		}
+	}
+
+}
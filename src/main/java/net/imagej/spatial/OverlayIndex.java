@@ -0,0 +1,271 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.spatial;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.imagej.overlay.Overlay;
+import net.imglib2.RealInterval;
+import net.imglib2.roi.RegionOfInterest;
+
+/**
+ * A spatial index of overlays by the XY bounds of their regions of interest,
+ * for hit testing and region and nearest-neighbor queries without scanning
+ * every overlay.
+ * <p>
+ * Overlays without a region of interest, or whose XY bounds are empty or NaN,
+ * are not indexed. When an overlay changes shape or position,
+ * {@link #update(Overlay)} must be called; the {@link OverlayIndexService}
+ * does so on overlay update events. Indexes are safe for concurrent queries
+ * and updates.
+ * </p>
+ * 
+ * @author agent
+ * @see RTree
+ */
+public class OverlayIndex {
+
+	private final RTree<Overlay> tree = new RTree<>();
+
+	private final Map<Overlay, RTree.Entry<Overlay>> entries =
+		new IdentityHashMap<>();
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// -- OverlayIndex methods --
+
+	/** Gets the number of indexed overlays. */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return entries.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** Gets whether the given overlay is indexed. */
+	public boolean contains(final Overlay overlay) {
+		lock.readLock().lock();
+		try {
+			return entries.containsKey(overlay);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** Gets the indexed overlays, in no particular order. */
+	public List<Overlay> getOverlays() {
+		lock.readLock().lock();
+		try {
+			return new ArrayList<>(entries.keySet());
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds an overlay to the index, or updates its bounds if it is indexed
+	 * already.
+	 * 
+	 * @return True if the overlay has a region of interest with valid bounds,
+	 *         and is thus indexed.
+	 */
+	public boolean add(final Overlay overlay) {
+		lock.writeLock().lock();
+		try {
+			return insert(overlay);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds many overlays to the index. If they outnumber the overlays indexed
+	 * already, the whole index is rebuilt by bulk loading, which is faster
+	 * than adding them one by one and yields a better tree.
+	 */
+	public void addAll(final Collection<? extends Overlay> overlays) {
+		lock.writeLock().lock();
+		try {
+			if (overlays.size() < entries.size()) {
+				for (final Overlay overlay : overlays) {
+					insert(overlay);
+				}
+				return;
+			}
+			for (final Overlay overlay : overlays) {
+				entries.remove(overlay);
+				final RegionOfInterest roi = roi(overlay);
+				if (roi == null) continue;
+				entries.put(overlay, RTree.entry(overlay, roi.realMin(0), roi.realMin(
+					1), roi.realMax(0), roi.realMax(1)));
+			}
+			tree.load(new ArrayList<>(entries.values()));
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes an overlay from the index.
+	 * 
+	 * @return True if the overlay was indexed.
+	 */
+	public boolean remove(final Overlay overlay) {
+		lock.writeLock().lock();
+		try {
+			final RTree.Entry<Overlay> entry = entries.remove(overlay);
+			if (entry == null) return false;
+			tree.remove(entry);
+			return true;
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Updates the bounds of an indexed overlay, e.g. after it was moved or
+	 * reshaped. Overlays which are not indexed are ignored.
+	 */
+	public void update(final Overlay overlay) {
+		lock.writeLock().lock();
+		try {
+			if (entries.containsKey(overlay)) insert(overlay);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/** Removes all overlays from the index. */
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			entries.clear();
+			tree.load(new ArrayList<>());
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the overlays whose bounds intersect the XY extent of the given
+	 * region, in no particular order.
+	 */
+	public List<Overlay> intersecting(final RealInterval region) {
+		return intersecting(region.realMin(0), region.realMin(1), region.realMax(
+			0), region.realMax(1));
+	}
+
+	/**
+	 * Gets the overlays whose bounds intersect the given rectangle, in no
+	 * particular order.
+	 */
+	public List<Overlay> intersecting(final double minX, final double minY,
+		final double maxX, final double maxY)
+	{
+		final List<Overlay> result = new ArrayList<>();
+		lock.readLock().lock();
+		try {
+			tree.search(minX, minY, maxX, maxY, result::add);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+		return result;
+	}
+
+	/** Gets the overlays whose regions of interest contain the given point. */
+	public List<Overlay> at(final double x, final double y) {
+		final List<Overlay> result = new ArrayList<>();
+		for (final Overlay overlay : intersecting(x, y, x, y)) {
+			final RegionOfInterest roi = overlay.getRegionOfInterest();
+			if (roi == null) continue;
+			final double[] pos = new double[roi.numDimensions()];
+			pos[0] = x;
+			pos[1] = y;
+			if (roi.contains(pos)) result.add(overlay);
+		}
+		return result;
+	}
+
+	/**
+	 * Gets up to {@code k} overlays whose bounds are nearest to the given
+	 * point, nearest first.
+	 */
+	public List<Overlay> nearest(final double x, final double y, final int k) {
+		lock.readLock().lock();
+		try {
+			return tree.nearest(x, y, k);
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	// -- Helper methods --
+
+	/** Inserts or reinserts an overlay. The write lock must be held. */
+	private boolean insert(final Overlay overlay) {
+		final RTree.Entry<Overlay> old = entries.remove(overlay);
+		if (old != null) tree.remove(old);
+		final RegionOfInterest roi = roi(overlay);
+		if (roi == null) return false;
+		entries.put(overlay, tree.insert(overlay, roi.realMin(0), roi.realMin(1),
+			roi.realMax(0), roi.realMax(1)));
+		return true;
+	}
+
+	/** Gets the region of interest to index, or null if it has no XY bounds. */
+	private static RegionOfInterest roi(final Overlay overlay) {
+		final RegionOfInterest roi = overlay.getRegionOfInterest();
+		if (roi == null || roi.numDimensions() < 2) return null;
+		// NB: The tree rejects empty or NaN bounds.
+		return roi.realMin(0) <= roi.realMax(0) && roi.realMin(1) <= roi.realMax(
+			1) ? roi : null;
+	}
+
+}
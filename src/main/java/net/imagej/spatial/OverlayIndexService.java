@@ -0,0 +1,102 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.spatial;
+
+import java.util.Collection;
+import java.util.List;
+
+import net.imagej.Dataset;
+import net.imagej.OnDemandService;
+import net.imagej.display.ImageDisplay;
+import net.imagej.overlay.Overlay;
+
+/**
+ * Interface for services which maintain spatial indexes of overlays, so that
+ * hit testing, region queries and per-ROI measurements on images with many
+ * thousands of overlays do not scan all of them.
+ * <p>
+ * The index of a display is built by bulk loading on first use, and then
+ * kept up to date: overlays added and removed through this service are
+ * indexed incrementally, and indexed overlays are reindexed or dropped as
+ * they are updated or deleted.
+ * </p>
+ * 
+ * @author agent
+ * @see OverlayIndex
+ */
+public interface OverlayIndexService extends OnDemandService {
+
+	/**
+	 * Gets the index of the overlays of the given display, building it from the
+	 * {@link net.imagej.display.OverlayService} on first request, and bringing
+	 * it up to date with the display's overlays on later ones, if the display
+	 * has changed since.
+	 */
+	OverlayIndex getIndex(ImageDisplay display);
+
+	/**
+	 * Creates an index of the given overlays, bulk loading them. The index is
+	 * kept up to date as its overlays are updated or deleted.
+	 */
+	OverlayIndex createIndex(Collection<? extends Overlay> overlays);
+
+	/**
+	 * Adds overlays to a display through the
+	 * {@link net.imagej.display.OverlayService}, and to the display's index.
+	 */
+	void addOverlays(ImageDisplay display, List<? extends Overlay> overlays);
+
+	/**
+	 * Removes an overlay from a display through the
+	 * {@link net.imagej.display.OverlayService}, and from the display's index.
+	 */
+	void removeOverlay(ImageDisplay display, Overlay overlay);
+
+	/**
+	 * Measures the pixel values of a dataset within each of the given overlays,
+	 * in parallel. Only the pixels within each overlay's bounds are visited.
+	 * 
+	 * @param dataset The dataset, which must have X and Y axes.
+	 * @param overlays The overlays, in the pixel coordinates of the dataset.
+	 * @param position The position of the plane to measure, in all dimensions
+	 *          of the dataset; the entries of X and Y are ignored. May be null
+	 *          for the first plane.
+	 * @return The statistics of each overlay, in the given order; overlays
+	 *         without a region of interest yield empty statistics.
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 *           measuring.
+	 */
+	List<RegionStatistics> measure(Dataset dataset,
+		List<? extends Overlay> overlays, long[] position)
+		throws InterruptedException;
+
+}
@@ -0,0 +1,461 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.spatial;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * A two-dimensional R-tree of items with rectangular bounds, supporting bulk
+ * loading, incremental insertion and removal, and region and
+ * nearest-neighbor queries.
+ * <p>
+ * Bulk loading packs the items by Sort-Tile-Recursive, which yields nearly
+ * full nodes with little overlap. Insertion descends by least enlargement and
+ * splits overfull nodes quadratically; removal reinserts the items of
+ * underfull nodes.
+ * </p>
+ * <p>
+ * This class is not thread-safe.
+ * </p>
+ * 
+ * @author agent
+ * @param <T> The type of the indexed items.
+ */
+public class RTree<T> {
+
+	/** Maximum number of children of a node. */
+	public static final int MAX_CHILDREN = 16;
+
+	/** Minimum number of children of a node, other than the root. */
+	public static final int MIN_CHILDREN = 6;
+
+	private Node<T> root = new Node<>(true);
+	private int size;
+
+	// -- RTree methods --
+
+	/** Gets the number of items in the tree. */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Creates an entry for the given item and bounds, to be {@link #load}ed.
+	 * 
+	 * @throws IllegalArgumentException if the bounds are empty or NaN.
+	 */
+	public static <T> Entry<T> entry(final T item, final double minX,
+		final double minY, final double maxX, final double maxY)
+	{
+		return new Entry<>(item, minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * Adds an item with the given bounds.
+	 * 
+	 * @return The entry of the item, with which it can be removed.
+	 * @throws IllegalArgumentException if the bounds are empty or NaN.
+	 */
+	public Entry<T> insert(final T item, final double minX, final double minY,
+		final double maxX, final double maxY)
+	{
+		final Entry<T> entry = entry(item, minX, minY, maxX, maxY);
+		insert(entry);
+		size++;
+		return entry;
+	}
+
+	/** Removes the given entry from the tree. */
+	public void remove(final Entry<T> entry) {
+		final Node<T> leaf = entry.parent;
+		if (leaf == null) throw new IllegalArgumentException("Not in tree");
+		leaf.children.remove(entry);
+		entry.parent = null;
+		size--;
+		condense(leaf);
+	}
+
+	/**
+	 * Replaces the contents of the tree by the given entries, packing them in
+	 * Sort-Tile-Recursive order. Entries are reused; entries still in the
+	 * tree are dropped if not given.
+	 */
+	public void load(final List<Entry<T>> entries) {
+		for (final Entry<T> entry : entries) {
+			entry.parent = null;
+		}
+		size = entries.size();
+		if (entries.isEmpty()) {
+			root = new Node<>(true);
+			return;
+		}
+		List<Bounded<T>> level = new ArrayList<>(entries);
+		boolean leaves = true;
+		while (true) {
+			final List<Node<T>> nodes = pack(level, leaves);
+			if (nodes.size() == 1) {
+				root = nodes.get(0);
+				root.parent = null;
+				return;
+			}
+			level = new ArrayList<>(nodes);
+			leaves = false;
+		}
+	}
+
+	/** Gets all entries of the tree. */
+	public List<Entry<T>> entries() {
+		final List<Entry<T>> entries = new ArrayList<>(size);
+		collect(root, entries);
+		return entries;
+	}
+
+	/**
+	 * Passes each item whose bounds intersect the given rectangle (including
+	 * its border) to the given consumer.
+	 */
+	public void search(final double minX, final double minY, final double maxX,
+		final double maxY, final Consumer<? super T> consumer)
+	{
+		search(root, minX, minY, maxX, maxY, consumer);
+	}
+
+	/**
+	 * Gets up to {@code k} items whose bounds are closest to the given point,
+	 * nearest first. Items whose bounds contain the point have distance 0.
+	 */
+	public List<T> nearest(final double x, final double y, final int k) {
+		final List<T> result = new ArrayList<>(Math.min(k, size));
+		if (k <= 0 || size == 0) return result;
+		// NB: Best-first search; a node's distance bounds that of its items.
+		final PriorityQueue<Candidate<T>> queue = new PriorityQueue<>(
+			Comparator.comparingDouble((final Candidate<T> c) -> c.distance));
+		queue.add(new Candidate<>(root, root.distance(x, y)));
+		while (!queue.isEmpty() && result.size() < k) {
+			final Bounded<T> next = queue.poll().bounded;
+			if (next instanceof Entry) {
+				result.add(((Entry<T>) next).item);
+				continue;
+			}
+			for (final Bounded<T> child : ((Node<T>) next).children) {
+				queue.add(new Candidate<>(child, child.distance(x, y)));
+			}
+		}
+		return result;
+	}
+
+	// -- Helper methods --
+
+	/** Inserts the given entry into the leaf needing the least enlargement. */
+	private void insert(final Entry<T> entry) {
+		Node<T> node = root;
+		while (!node.leaf) {
+			node = choose(node, entry);
+		}
+		node.add(entry);
+		Node<T> n = node;
+		while (n != null) {
+			if (n.children.size() > MAX_CHILDREN) {
+				final Node<T> sibling = split(n);
+				if (n.parent == null) {
+					final Node<T> newRoot = new Node<>(false);
+					newRoot.add(n);
+					newRoot.add(sibling);
+					root = newRoot;
+					return;
+				}
+				n.parent.add(sibling);
+			}
+			n.recompute();
+			n = n.parent;
+		}
+	}
+
+	/** Chooses the child of a node needing the least enlargement. */
+	private static <T> Node<T> choose(final Node<T> node,
+		final Bounded<T> child)
+	{
+		Node<T> best = null;
+		double bestGrowth = Double.POSITIVE_INFINITY;
+		double bestArea = Double.POSITIVE_INFINITY;
+		for (final Bounded<T> b : node.children) {
+			final double area = b.area();
+			final double growth = b.unionArea(child) - area;
+			if (growth < bestGrowth || growth == bestGrowth && area < bestArea) {
+				best = (Node<T>) b;
+				bestGrowth = growth;
+				bestArea = area;
+			}
+		}
+		return best;
+	}
+
+	/** Moves about half of the children of a node into a new sibling. */
+	private static <T> Node<T> split(final Node<T> node) {
+		final List<Bounded<T>> children = new ArrayList<>(node.children);
+		node.children.clear();
+		node.recompute();
+		final Node<T> sibling = new Node<>(node.leaf);
+
+		// NB: Seed the groups with the pair which would waste the most area.
+		int seed1 = 0, seed2 = 1;
+		double worst = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < children.size(); i++) {
+			for (int j = i + 1; j < children.size(); j++) {
+				final Bounded<T> a = children.get(i), b = children.get(j);
+				final double waste = a.unionArea(b) - a.area() - b.area();
+				if (waste > worst) {
+					worst = waste;
+					seed1 = i;
+					seed2 = j;
+				}
+			}
+		}
+		node.add(children.get(seed1));
+		sibling.add(children.get(seed2));
+		children.remove(seed2);
+		children.remove(seed1);
+
+		while (!children.isEmpty()) {
+			// NB: Fill up a group which could otherwise not reach the minimum.
+			if (node.children.size() + children.size() == MIN_CHILDREN) {
+				for (final Bounded<T> b : children) node.add(b);
+				break;
+			}
+			if (sibling.children.size() + children.size() == MIN_CHILDREN) {
+				for (final Bounded<T> b : children) sibling.add(b);
+				break;
+			}
+			// NB: Assign the child with the strongest preference first.
+			int pick = 0;
+			double pickDiff = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < children.size(); i++) {
+				final Bounded<T> b = children.get(i);
+				final double diff = Math.abs((node.unionArea(b) - node.area()) -
+					(sibling.unionArea(b) - sibling.area()));
+				if (diff > pickDiff) {
+					pickDiff = diff;
+					pick = i;
+				}
+			}
+			final Bounded<T> b = children.remove(pick);
+			final double g1 = node.unionArea(b) - node.area();
+			final double g2 = sibling.unionArea(b) - sibling.area();
+			if (g1 < g2 || g1 == g2 && node.children.size() <= sibling.children
+				.size())
+			{
+				node.add(b);
+			}
+			else sibling.add(b);
+		}
+		return sibling;
+	}
+
+	/**
+	 * Removes underfull nodes on the path from the given node to the root,
+	 * reinserting their entries, and tightens the bounds along the way.
+	 */
+	private void condense(final Node<T> leaf) {
+		final List<Entry<T>> orphans = new ArrayList<>();
+		Node<T> node = leaf;
+		while (node.parent != null) {
+			final Node<T> parent = node.parent;
+			if (node.children.size() < MIN_CHILDREN) {
+				parent.children.remove(node);
+				node.parent = null;
+				collect(node, orphans);
+			}
+			else node.recompute();
+			node = parent;
+		}
+		root.recompute();
+		// NB: Shorten the tree while its root has a single subtree.
+		while (!root.leaf && root.children.size() == 1) {
+			root = (Node<T>) root.children.get(0);
+			root.parent = null;
+		}
+		if (!root.leaf && root.children.isEmpty()) root = new Node<>(true);
+		for (final Entry<T> orphan : orphans) {
+			orphan.parent = null;
+			insert(orphan);
+		}
+	}
+
+	private static <T> void collect(final Node<T> node,
+		final List<Entry<T>> entries)
+	{
+		for (final Bounded<T> child : node.children) {
+			if (node.leaf) entries.add((Entry<T>) child);
+			else collect((Node<T>) child, entries);
+		}
+	}
+
+	private static <T> void search(final Node<T> node, final double minX,
+		final double minY, final double maxX, final double maxY,
+		final Consumer<? super T> consumer)
+	{
+		for (final Bounded<T> child : node.children) {
+			if (!child.intersects(minX, minY, maxX, maxY)) continue;
+			if (node.leaf) consumer.accept(((Entry<T>) child).item);
+			else search((Node<T>) child, minX, minY, maxX, maxY, consumer);
+		}
+	}
+
+	/** Packs the given children into nodes by Sort-Tile-Recursive. */
+	private static <T> List<Node<T>> pack(final List<Bounded<T>> children,
+		final boolean leaves)
+	{
+		final int n = children.size();
+		final int nodeCount = (n + MAX_CHILDREN - 1) / MAX_CHILDREN;
+		final int sliceCount = (int) Math.ceil(Math.sqrt(nodeCount));
+		final int sliceSize = sliceCount * MAX_CHILDREN;
+		children.sort(Comparator.comparingDouble(b -> b.minX + b.maxX));
+		final List<Node<T>> nodes = new ArrayList<>(nodeCount);
+		for (int s = 0; s < n; s += sliceSize) {
+			final List<Bounded<T>> slice = children.subList(s, Math.min(n, s +
+				sliceSize));
+			slice.sort(Comparator.comparingDouble(b -> b.minY + b.maxY));
+			for (int i = 0; i < slice.size(); i += MAX_CHILDREN) {
+				final Node<T> node = new Node<>(leaves);
+				for (final Bounded<T> b : slice.subList(i, Math.min(slice.size(), i +
+					MAX_CHILDREN)))
+				{
+					node.add(b);
+				}
+				nodes.add(node);
+			}
+		}
+		return nodes;
+	}
+
+	// -- Helper classes --
+
+	/** An axis-aligned rectangle within the tree. */
+	private abstract static class Bounded<T> {
+
+		double minX, minY, maxX, maxY;
+		Node<T> parent;
+
+		double area() {
+			return (maxX - minX) * (maxY - minY);
+		}
+
+		double unionArea(final Bounded<T> b) {
+			return (Math.max(maxX, b.maxX) - Math.min(minX, b.minX)) * //
+				(Math.max(maxY, b.maxY) - Math.min(minY, b.minY));
+		}
+
+		boolean intersects(final double x0, final double y0, final double x1,
+			final double y1)
+		{
+			return minX <= x1 && x0 <= maxX && minY <= y1 && y0 <= maxY;
+		}
+
+		double distance(final double x, final double y) {
+			final double dx = Math.max(0, Math.max(minX - x, x - maxX));
+			final double dy = Math.max(0, Math.max(minY - y, y - maxY));
+			return Math.sqrt(dx * dx + dy * dy);
+		}
+	}
+
+	/** An item of the tree, with its bounds. */
+	public static final class Entry<T> extends Bounded<T> {
+
+		private final T item;
+
+		private Entry(final T item, final double minX, final double minY,
+			final double maxX, final double maxY)
+		{
+			if (!(minX <= maxX && minY <= maxY)) {
+				throw new IllegalArgumentException("Invalid bounds: [" + minX + ", " +
+					minY + "] - [" + maxX + ", " + maxY + "]");
+			}
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+			this.item = item;
+		}
+
+		public T getItem() {
+			return item;
+		}
+	}
+
+	private static final class Node<T> extends Bounded<T> {
+
+		final boolean leaf;
+		final List<Bounded<T>> children = new ArrayList<>(MAX_CHILDREN + 1);
+
+		Node(final boolean leaf) {
+			this.leaf = leaf;
+			minX = minY = Double.POSITIVE_INFINITY;
+			maxX = maxY = Double.NEGATIVE_INFINITY;
+		}
+
+		void add(final Bounded<T> child) {
+			children.add(child);
+			child.parent = this;
+			minX = Math.min(minX, child.minX);
+			minY = Math.min(minY, child.minY);
+			maxX = Math.max(maxX, child.maxX);
+			maxY = Math.max(maxY, child.maxY);
+		}
+
+		void recompute() {
+			minX = minY = Double.POSITIVE_INFINITY;
+			maxX = maxY = Double.NEGATIVE_INFINITY;
+			for (final Bounded<T> child : children) {
+				minX = Math.min(minX, child.minX);
+				minY = Math.min(minY, child.minY);
+				maxX = Math.max(maxX, child.maxX);
+				maxY = Math.max(maxY, child.maxY);
+			}
+		}
+	}
+
+	private static final class Candidate<T> {
+
+		final Bounded<T> bounded;
+		final double distance;
+
+		Candidate(final Bounded<T> bounded, final double distance) {
+			this.bounded = bounded;
+			this.distance = distance;
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.spatial;
+
+/**
+ * Statistics of the pixel values within one region of interest.
+ * 
+ * @author agent
+ * @see OverlayIndexService#measure
+ */
+public class RegionStatistics {
+
+	private final long count;
+	private final double sum, sumOfSquares, min, max;
+
+	public RegionStatistics(final long count, final double sum,
+		final double sumOfSquares, final double min, final double max)
+	{
+		this.count = count;
+		this.sum = sum;
+		this.sumOfSquares = sumOfSquares;
+		this.min = min;
+		this.max = max;
+	}
+
+	// -- RegionStatistics methods --
+
+	/** Gets the number of pixels within the region. */
+	public long getCount() {
+		return count;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	/** Gets the mean value, or NaN for an empty region. */
+	public double getMean() {
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	/** Gets the sample standard deviation, or NaN for fewer than two pixels. */
+	public double getStdDev() {
+		if (count < 2) return Double.NaN;
+		final double variance = (sumOfSquares - sum * sum / count) / (count - 1);
+		return Math.sqrt(Math.max(0, variance));
+	}
+
+	/** Gets the minimum value, or NaN for an empty region. */
+	public double getMin() {
+		return count == 0 ? Double.NaN : min;
+	}
+
+	/** Gets the maximum value, or NaN for an empty region. */
+	public double getMax() {
+		return count == 0 ? Double.NaN : max;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", mean=" + getMean() + ", stdDev=" +
+			getStdDev() + ", min=" + getMin() + ", max=" + getMax();
+	}
+
+}
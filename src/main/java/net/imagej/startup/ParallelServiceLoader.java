@@ -0,0 +1,380 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.startup;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imagej.OnDemandService;
+
+import org.scijava.Context;
+import org.scijava.InstantiableException;
+import org.scijava.event.EventHandler;
+import org.scijava.event.EventService;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.PluginIndex;
+import org.scijava.plugin.PluginInfo;
+import org.scijava.service.Service;
+import org.scijava.service.ServiceHelper;
+import org.scijava.util.ClassUtils;
+
+/**
+ * Creates an application context whose services are initialized in parallel,
+ * wherever their declared dependencies allow it.
+ * <p>
+ * The loader selects the same services a regular {@link Context} would, and
+ * derives a dependency graph between them from their {@link Parameter}
+ * service fields (plus the {@link EventService}, for services with
+ * {@link EventHandler} methods). Services are then initialized level by
+ * level: all services whose dependencies are satisfied are initialized
+ * concurrently, and are registered with the context in priority order once
+ * the whole level is done. Registration order, and therefore service lookup,
+ * is thus deterministic.
+ * </p>
+ * <p>
+ * Services whose dependencies cannot be expressed this way (e.g., non-service
+ * parameters, or dependencies on services outside the requested set), any
+ * service whose parallel initialization fails, and all services depending on
+ * a failed one, are left to a regular {@link ServiceHelper} pass at the end,
+ * which initializes them sequentially just as the {@link Context} would have.
+ * </p>
+ * 
+ * @author agent
+ */
+public class ParallelServiceLoader {
+
+	private final int threads;
+	private final StartupProfiler profiler;
+
+	/**
+	 * Creates a loader using one thread per available processor.
+	 * 
+	 * @param profiler Profiler with which to measure each service's
+	 *          initialization, or null.
+	 */
+	public ParallelServiceLoader(final StartupProfiler profiler) {
+		this(Runtime.getRuntime().availableProcessors(), profiler);
+	}
+
+	public ParallelServiceLoader(final int threads,
+		final StartupProfiler profiler)
+	{
+		this.threads = threads;
+		this.profiler = profiler;
+	}
+
+	// -- ParallelServiceLoader methods --
+
+	/** Creates an application context with the given services. */
+	public Context createContext(
+		final Collection<Class<? extends Service>> serviceClasses,
+		final PluginIndex pluginIndex)
+	{
+		final Context context = new Context(Collections
+			.<Class<? extends Service>> emptyList(), pluginIndex);
+
+		final List<Class<? extends Service>> requested = OnDemandService
+			.startupServices(context.getPluginIndex(), serviceClasses);
+		final Map<Class<? extends Service>, PluginInfo<Service>> selected =
+			select(context, requested);
+		final Map<Class<? extends Service>, Set<Class<? extends Service>>> deps =
+			dependencies(selected.keySet());
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threads,
+			threadFactory());
+		try {
+			final Set<Class<? extends Service>> done = new HashSet<>();
+			while (true) {
+				final List<Class<? extends Service>> level = new ArrayList<>();
+				for (final Class<? extends Service> c : deps.keySet()) {
+					if (!done.contains(c) && done.containsAll(deps.get(c))) level.add(c);
+				}
+				if (level.isEmpty()) break;
+				final Set<Class<? extends Service>> initialized = initializeLevel(
+					context, level, selected, executor);
+				if (initialized == null) break; // interrupted
+				done.addAll(initialized);
+				// NB: Leave failed services, and everything depending on them, to
+				// the ServiceHelper, which reports failures properly.
+				if (initialized.size() < level.size()) {
+					level.removeAll(initialized);
+					deps.keySet().removeAll(level);
+					prune(deps);
+				}
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		// NB: Initialize whatever is left sequentially, and announce completion.
+		new ServiceHelper(context, requested).loadServices();
+		return context;
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Selects the service classes the context would instantiate, in priority
+	 * order: every concrete requested service, unless a higher priority
+	 * service already covers it.
+	 */
+	private Map<Class<? extends Service>, PluginInfo<Service>> select(
+		final Context context,
+		final Collection<Class<? extends Service>> serviceClasses)
+	{
+		final Map<Class<? extends Service>, PluginInfo<Service>> selected =
+			new LinkedHashMap<>();
+		for (final PluginInfo<Service> info : context.getPluginIndex().getPlugins(
+			Service.class))
+		{
+			final Class<? extends Service> c;
+			try {
+				c = info.loadClass();
+			}
+			catch (final InstantiableException exc) {
+				continue; // NB: Left for the ServiceHelper to report.
+			}
+			if (c.isInterface() || Modifier.isAbstract(c.getModifiers())) continue;
+			if (!isRequested(c, serviceClasses)) continue;
+			if (provider(c, selected.keySet()) != null) continue;
+			selected.put(c, info);
+		}
+		return selected;
+	}
+
+	/**
+	 * Computes the dependencies of each selected service on other selected
+	 * services. Services with dependencies which cannot be satisfied from the
+	 * selection are omitted entirely.
+	 */
+	private Map<Class<? extends Service>, Set<Class<? extends Service>>>
+		dependencies(final Set<Class<? extends Service>> selected)
+	{
+		final Map<Class<? extends Service>, Set<Class<? extends Service>>> deps =
+			new LinkedHashMap<>();
+		for (final Class<? extends Service> c : selected) {
+			final Set<Class<? extends Service>> cDeps = new HashSet<>();
+			boolean ok = true;
+			for (final Field f : ClassUtils.getAnnotatedFields(c, Parameter.class)) {
+				final Class<?> type = f.getType();
+				if (Context.class.isAssignableFrom(type)) continue;
+				if (!Service.class.isAssignableFrom(type)) {
+					ok = false;
+					break;
+				}
+				final Class<? extends Service> provider = provider(type, selected);
+				if (provider == null) {
+					if (f.getAnnotation(Parameter.class).required()) {
+						ok = false;
+						break;
+					}
+				}
+				else if (provider != c) cDeps.add(provider);
+			}
+			if (!ok) continue;
+			if (!ClassUtils.getAnnotatedMethods(c, EventHandler.class).isEmpty()) {
+				final Class<? extends Service> eventService = provider(
+					EventService.class, selected);
+				if (eventService != null && eventService != c) cDeps.add(
+					eventService);
+			}
+			deps.put(c, cDeps);
+		}
+		prune(deps);
+		return deps;
+	}
+
+	/**
+	 * Drops the services which depend, directly or not, on services missing
+	 * from the given dependency graph.
+	 */
+	private static void prune(
+		final Map<Class<? extends Service>, Set<Class<? extends Service>>> deps)
+	{
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (final Class<? extends Service> c : new ArrayList<>(deps.keySet())) {
+				if (!deps.keySet().containsAll(deps.get(c))) {
+					deps.remove(c);
+					changed = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Initializes one level of services concurrently, then registers those
+	 * which initialized successfully.
+	 * 
+	 * @return The classes of the registered services, or null if interrupted.
+	 */
+	private Set<Class<? extends Service>> initializeLevel(final Context context,
+		final List<Class<? extends Service>> level,
+		final Map<Class<? extends Service>, PluginInfo<Service>> selected,
+		final ExecutorService executor)
+	{
+		final Map<Class<? extends Service>, Future<Service>> futures =
+			new HashMap<>();
+		for (final Class<? extends Service> c : level) {
+			futures.put(c, executor.submit(new Callable<Service>() {
+
+				@Override
+				public Service call() throws Exception {
+					if (profiler == null) return create(context, c, selected.get(c));
+					return profiler.measure(c.getName(), () -> create(context, c,
+						selected.get(c)));
+				}
+			}));
+		}
+		// NB: Join the whole level before registering any of it, so that no
+		// service of the level can observe another one while it initializes.
+		final List<Service> services = new ArrayList<>();
+		final Set<Class<? extends Service>> initialized = new HashSet<>();
+		for (final Class<? extends Service> c : selected.keySet()) {
+			final Future<Service> future = futures.get(c);
+			if (future == null) continue;
+			try {
+				final Service service = future.get();
+				if (service != null) {
+					services.add(service);
+					initialized.add(c);
+				}
+			}
+			catch (final ExecutionException exc) {
+				// NB: Left for the ServiceHelper, which reports failures properly.
+			}
+			catch (final InterruptedException exc) {
+				for (final Future<Service> f : futures.values()) {
+					f.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+		// register in priority order, for deterministic service lookup
+		for (final Service service : services) {
+			service.registerEventHandlers();
+			context.getServiceIndex().add(service);
+		}
+		return initialized;
+	}
+
+	/**
+	 * Instantiates, injects and initializes the given service, the same way the
+	 * {@link ServiceHelper} does.
+	 * 
+	 * @return The service, or null if it could not be created.
+	 * @throws IllegalStateException if a required service is missing.
+	 */
+	private static Service create(final Context context,
+		final Class<? extends Service> c, final PluginInfo<Service> info)
+	{
+		final Service service;
+		try {
+			service = c.newInstance();
+		}
+		catch (final InstantiationException | IllegalAccessException exc) {
+			return null;
+		}
+		service.setContext(context);
+		service.setInfo(info);
+		service.setPriority(info.getPriority());
+		for (final Field f : ClassUtils.getAnnotatedFields(c, Parameter.class)) {
+			final Class<?> type = f.getType();
+			final Object value;
+			if (Context.class.isAssignableFrom(type)) value = context;
+			else value = context.getService(type.asSubclass(Service.class));
+			if (value != null) ClassUtils.setValue(f, service, value);
+			else if (f.getAnnotation(Parameter.class).required()) {
+				throw new IllegalStateException(c.getName() +
+					": required service is missing: " + type.getName());
+			}
+		}
+		service.initialize();
+		return service;
+	}
+
+	/**
+	 * Gets the first of the given service classes which provides the given
+	 * service type, or null if none does.
+	 */
+	private static Class<? extends Service> provider(final Class<?> type,
+		final Collection<Class<? extends Service>> candidates)
+	{
+		for (final Class<? extends Service> c : candidates) {
+			if (type.isAssignableFrom(c)) return c;
+		}
+		return null;
+	}
+
+	private static boolean isRequested(final Class<?> c,
+		final Collection<Class<? extends Service>> serviceClasses)
+	{
+		for (final Class<?> serviceClass : serviceClasses) {
+			if (serviceClass.isAssignableFrom(c)) return true;
+		}
+		return false;
+	}
+
+	private static ThreadFactory threadFactory() {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "imagej-service-init-" + count
+					.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,232 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.startup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import net.imagej.OnDemandService;
+
+import org.scijava.Context;
+import org.scijava.InstantiableException;
+import org.scijava.plugin.PluginIndex;
+import org.scijava.plugin.PluginInfo;
+import org.scijava.service.Service;
+import org.scijava.service.ServiceHelper;
+
+/**
+ * Measures the individual steps of an ImageJ gateway's startup, producing a
+ * {@link StartupReport}.
+ * <p>
+ * For each step, the profiler records its wall time, its thread, the bytes
+ * allocated by that thread and the number of classes loaded meanwhile. Where
+ * the JVM supports Flight Recorder and ImageJ was built with the {@code jfr}
+ * profile (as it is on Java 11 and newer), each step is also emitted as a
+ * {@code net.imagej.ServiceStartup} JFR event.
+ * </p>
+ * <p>
+ * A profiler is passed to the {@link net.imagej.ImageJ} gateway explicitly,
+ * as the {@code --profile-startup} argument of {@link net.imagej.Main} does.
+ * Alternatively, setting the {@link #PROPERTY} system property to
+ * {@code true} profiles every gateway created with the default constructors.
+ * Profiling never changes the outcome of the startup: a service which fails
+ * to start fails the profiled startup exactly as it would the regular one,
+ * after its failure has been recorded.
+ * </p>
+ * 
+ * @author agent
+ */
+public class StartupProfiler {
+
+	/** System property which enables startup profiling. */
+	public static final String PROPERTY = "imagej.profile.startup";
+
+	/** Emits a {@code StartupEvent}, or null if Flight Recorder is missing. */
+	private static final MethodHandle JFR_EVENT = jfrEvent();
+
+	private final StartupReport report = new StartupReport();
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final ClassLoadingMXBean classLoading = ManagementFactory
+		.getClassLoadingMXBean();
+
+	// -- StartupProfiler methods --
+
+	/** Gets whether startup profiling has been requested. */
+	public static boolean isEnabled() {
+		return Boolean.getBoolean(PROPERTY);
+	}
+
+	/** Gets the report of the steps measured so far. */
+	public StartupReport getReport() {
+		return report;
+	}
+
+	/**
+	 * Executes and measures a startup step.
+	 * 
+	 * @param name The name under which to report the step.
+	 * @param step The step to execute.
+	 * @return The result of the step.
+	 */
+	public <T> T measure(final String name, final Supplier<T> step) {
+		final Thread thread = Thread.currentThread();
+		final long bytes = allocatedBytes(thread);
+		final long classes = classLoading.getTotalLoadedClassCount();
+		final long start = System.nanoTime();
+		Throwable error = null;
+		try {
+			return step.get();
+		}
+		catch (final RuntimeException | Error exc) {
+			error = exc;
+			throw exc;
+		}
+		finally {
+			final long end = System.nanoTime();
+			final long allocated = bytes < 0 ? -1 : allocatedBytes(thread) - bytes;
+			final StartupReport.Entry entry = new StartupReport.Entry(name, thread
+				.getName(), (end - start) / 1e6, allocated, classLoading
+					.getTotalLoadedClassCount() - classes);
+			entry.setError(error);
+			report.add(entry);
+			if (JFR_EVENT != null) {
+				try {
+					JFR_EVENT.invoke(name, end - start, allocated, entry
+						.getClassesLoaded());
+				}
+				catch (final Throwable exc) {
+					// NB: Flight Recorder is not usable after all; ignore.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates an application context with the given services, measuring the
+	 * plugin discovery and the initialization of each service separately.
+	 * <p>
+	 * Services are started in the same order the {@link Context} itself would
+	 * start them. When a service requires other services which have not been
+	 * started yet, those are started along with it; they are listed as its
+	 * {@link StartupReport.Entry#getDependencies() dependencies}.
+	 * </p>
+	 */
+	public Context createContext(
+		final Collection<Class<? extends Service>> serviceClasses,
+		final PluginIndex pluginIndex)
+	{
+		final Context context = measure("[plugin discovery]",
+			() -> new Context(Collections.<Class<? extends Service>> emptyList(),
+				pluginIndex));
+
+		final List<Class<? extends Service>> requested = OnDemandService
+			.startupServices(context.getPluginIndex(), serviceClasses);
+		final ServiceHelper helper = new ServiceHelper(context, requested);
+		for (final PluginInfo<Service> info : context.getPluginIndex().getPlugins(
+			Service.class))
+		{
+			final Class<? extends Service> c;
+			try {
+				c = info.loadClass();
+			}
+			catch (final InstantiableException exc) {
+				continue;
+			}
+			if (!requested.contains(c) || context.getService(c) != null) {
+				continue;
+			}
+
+			final Map<Service, Boolean> before = new IdentityHashMap<>();
+			for (final Service s : context.getServiceIndex().getAll()) {
+				before.put(s, true);
+			}
+			// NB: Failures are recorded in the report, then propagate as usual.
+			measure(c.getName(), () -> helper.loadService(c));
+			final List<String> dependencies = new ArrayList<>();
+			for (final Service s : context.getServiceIndex().getAll()) {
+				if (!before.containsKey(s) && s.getClass() != c) {
+					dependencies.add(s.getClass().getName());
+				}
+			}
+			final List<StartupReport.Entry> entries = report.getEntries();
+			entries.get(entries.size() - 1).getDependencies().addAll(dependencies);
+		}
+
+		// NB: Let the helper start anything left over and announce completion.
+		measure("[remaining services]", () -> {
+			helper.loadServices();
+			return null;
+		});
+		return context;
+	}
+
+	// -- Helper methods --
+
+	private long allocatedBytes(final Thread thread) {
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) return -1;
+		final com.sun.management.ThreadMXBean t =
+			(com.sun.management.ThreadMXBean) threads;
+		if (!t.isThreadAllocatedMemorySupported() || !t
+			.isThreadAllocatedMemoryEnabled()) return -1;
+		return t.getThreadAllocatedBytes(thread.getId());
+	}
+
+	/**
+	 * Looks up the emitter of the JFR event, which is only compiled (and only
+	 * loadable) where the {@code jdk.jfr} API exists.
+	 */
+	private static MethodHandle jfrEvent() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			final Class<?> event = Class.forName(
+				"net.imagej.startup.StartupEvent");
+			return MethodHandles.lookup().findStatic(event, "emit", MethodType
+				.methodType(void.class, String.class, long.class, long.class,
+					long.class));
+		}
+		catch (final ReflectiveOperationException | LinkageError exc) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.startup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A report of the time and resources spent starting up an ImageJ gateway,
+ * broken down by the individual steps (mostly service initializations) which
+ * make up the startup.
+ * 
+ * @author agent
+ * @see StartupProfiler
+ */
+public class StartupReport {
+
+	private final List<Entry> entries = new ArrayList<>();
+
+	// -- StartupReport methods --
+
+	/** Gets the measured steps, in the order in which they were executed. */
+	public List<Entry> getEntries() {
+		synchronized (entries) {
+			return new ArrayList<>(entries);
+		}
+	}
+
+	/** Gets the measured step with the given name, or null if none. */
+	public Entry getEntry(final String name) {
+		for (final Entry entry : getEntries()) {
+			if (entry.getName().equals(name)) return entry;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the sum of the wall times of all top-level steps, in milliseconds.
+	 */
+	public double getTotalTime() {
+		double total = 0;
+		for (final Entry entry : getEntries()) {
+			total += entry.getWallTime();
+		}
+		return total;
+	}
+
+	/** Adds a measured step to the report. */
+	public void add(final Entry entry) {
+		synchronized (entries) {
+			entries.add(entry);
+		}
+	}
+
+	// -- Object methods --
+
+	/** Gets the report as a table, slowest steps first. */
+	@Override
+	public String toString() {
+		final List<Entry> sorted = getEntries();
+		Collections.sort(sorted, new Comparator<Entry>() {
+
+			@Override
+			public int compare(final Entry e1, final Entry e2) {
+				return Double.compare(e2.getWallTime(), e1.getWallTime());
+			}
+		});
+		final StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%10s %12s %8s  %-20s %s%n", "ms", "bytes",
+			"classes", "thread", "step"));
+		for (final Entry entry : sorted) {
+			sb.append(String.format("%10.2f %12d %8d  %-20s %s%n", entry
+				.getWallTime(), entry.getAllocatedBytes(), entry.getClassesLoaded(),
+				entry.getThread(), entry.getName()));
+			if (!entry.getDependencies().isEmpty()) {
+				sb.append(String.format("%54s(with %s)%n", "", entry
+					.getDependencies()));
+			}
+			if (entry.getError() != null) {
+				sb.append(String.format("%54sFAILED: %s%n", "", entry.getError()));
+			}
+		}
+		sb.append(String.format("%10.2f total%n", getTotalTime()));
+		return sb.toString();
+	}
+
+	// -- Helper classes --
+
+	/** A single measured startup step. */
+	public static class Entry {
+
+		private final String name;
+		private final String thread;
+		private final double wallTime;
+		private final long allocatedBytes;
+		private final long classesLoaded;
+		private final List<String> dependencies = new ArrayList<>();
+		private Throwable error;
+
+		public Entry(final String name, final String thread,
+			final double wallTime, final long allocatedBytes,
+			final long classesLoaded)
+		{
+			this.name = name;
+			this.thread = thread;
+			this.wallTime = wallTime;
+			this.allocatedBytes = allocatedBytes;
+			this.classesLoaded = classesLoaded;
+		}
+
+		/** Gets the name of the step, typically a service class name. */
+		public String getName() {
+			return name;
+		}
+
+		/** Gets the name of the thread which executed the step. */
+		public String getThread() {
+			return thread;
+		}
+
+		/** Gets the wall time of the step, in milliseconds. */
+		public double getWallTime() {
+			return wallTime;
+		}
+
+		/**
+		 * Gets the number of bytes allocated by the step's thread while executing
+		 * it, or -1 if the JVM cannot measure this.
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+
+		/**
+		 * Gets the number of classes loaded (by any thread) while the step was
+		 * executing.
+		 */
+		public long getClassesLoaded() {
+			return classesLoaded;
+		}
+
+		/**
+		 * Gets the names of other services which were started as dependencies of
+		 * this step, and whose cost is therefore included in it.
+		 */
+		public List<String> getDependencies() {
+			return dependencies;
+		}
+
+		/** Gets the error which made the step fail, or null if it succeeded. */
+		public Throwable getError() {
+			return error;
+		}
+
+		public void setError(final Throwable error) {
+			this.error = error;
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.startup;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+
+/**
+ * A representative ImageJ session, used to record which classes ImageJ loads
+ * during startup and a typical headless job.
+ * <p>
+ * The {@code app} build profile runs this class with
+ * {@code -XX:DumpLoadedClassList}; the resulting class list is shipped with
+ * the application as {@code cds/imagej.classlist}, from which
+ * {@code ImageJ.sh} dumps a class data sharing archive matching the local
+ * Java runtime and {@code jars/} folder. Passing {@code --cds-train} to
+ * {@code ImageJ.sh} reruns the training against the installed jars, e.g.
+ * after adding update sites.
+ * </p>
+ * 
+ * @author agent
+ */
+public final class TrainingRun {
+
+	private static final String SOURCE =
+		"training&pixelType=uint16&lengths=256,256,3,4&axes=X,Y,Channel,Z.fake";
+
+	private TrainingRun() {
+		// prevent instantiation of utility class
+	}
+
+	public static void main(final String... args) throws IOException {
+		final ImageJ ij = new ImageJ(ImageJ.Startup.EAGER);
+		try {
+			run(ij);
+		}
+		finally {
+			ij.getContext().dispose();
+		}
+		// NB: Exit explicitly, in case a service left a non-daemon thread behind.
+		System.exit(0);
+	}
+
+	// -- Helper methods --
+
+	private static void run(final ImageJ ij) throws IOException {
+		final Dataset dataset = ij.scifio().datasetIO().open(SOURCE);
+		ij.op().run("stats.mean", dataset);
+		ij.op().run("filter.gauss", dataset, 2.0);
+
+		final File file = File.createTempFile("imagej-training", ".tif");
+		try {
+			ij.scifio().datasetIO().save(dataset, file.getAbsolutePath());
+			ij.scifio().datasetIO().open(file.getAbsolutePath());
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+}
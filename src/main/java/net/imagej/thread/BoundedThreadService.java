@@ -0,0 +1,130 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.thread;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+
+import org.scijava.Priority;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.Service;
+import org.scijava.thread.DefaultThreadService;
+import org.scijava.thread.ThreadService;
+
+/**
+ * A {@link ThreadService} which can bound the number of threads occupied by
+ * the work of a caller.
+ * <p>
+ * Code run via {@link #callWithin} may split its work across this service as
+ * usual, e.g. ops parallelizing internally. Each piece of work it submits
+ * (directly, or from the threads running its other pieces) takes a permit of
+ * the given budget and runs on a thread of its own; once the budget is
+ * exhausted, further pieces run right away on the submitting thread, which is
+ * busy anyway. The number of busy threads is thus bounded by the callers plus
+ * the permits of the budget, without any piece ever waiting for a thread.
+ * Work submitted to the executor service directly is not bounded.
+ * </p>
+ * 
+ * @author agent
+ */
+@Plugin(type = Service.class, priority = Priority.NORMAL_PRIORITY + 1)
+public class BoundedThreadService extends DefaultThreadService {
+
+	// NB: This service replaces the DefaultThreadService by its higher priority.
+
+	/** The budget of the work running on the current thread, if any. */
+	private final ThreadLocal<Semaphore> budget = new ThreadLocal<>();
+
+	// -- BoundedThreadService methods --
+
+	/**
+	 * Calls the given code on the current thread, such that the work it submits
+	 * to this service occupies at most as many other threads as the given
+	 * budget has permits.
+	 */
+	public <V> V callWithin(final Semaphore permits, final Callable<V> code)
+		throws Exception
+	{
+		final Semaphore outer = budget.get();
+		budget.set(permits);
+		try {
+			return code.call();
+		}
+		finally {
+			if (outer == null) budget.remove();
+			else budget.set(outer);
+		}
+	}
+
+	// -- ThreadService methods --
+
+	@Override
+	public <V> Future<V> run(final Callable<V> code) {
+		final Semaphore permits = budget.get();
+		if (permits == null) return super.run(code);
+		if (!permits.tryAcquire()) return runHere(new FutureTask<>(code));
+		try {
+			return super.run(() -> {
+				try {
+					return callWithin(permits, code);
+				}
+				finally {
+					permits.release();
+				}
+			});
+		}
+		catch (final RuntimeException | Error exc) {
+			permits.release();
+			throw exc;
+		}
+	}
+
+	@Override
+	public Future<?> run(final Runnable code) {
+		final Semaphore permits = budget.get();
+		if (permits == null) return super.run(code);
+		return run(() -> {
+			code.run();
+			return null;
+		});
+	}
+
+	// -- Helper methods --
+
+	private static <V> Future<V> runHere(final FutureTask<V> task) {
+		task.run();
+		return task;
+	}
+
+}
@@ -0,0 +1,173 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.thread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.scijava.thread.ThreadService;
+
+/**
+ * Utility methods for splitting work across the threads of a
+ * {@link ThreadService}.
+ * <p>
+ * The calling thread waits until all parts of the work are done. If a part
+ * fails, or the calling thread is interrupted, the other parts are cancelled,
+ * and the part's exception is rethrown as is. Work which consists of a single
+ * part runs on the calling thread.
+ * </p>
+ * 
+ * @author agent
+ */
+public final class Parallel {
+
+	private Parallel() {
+		// prevent instantiation of utility class
+	}
+
+	// -- Utility methods --
+
+	/**
+	 * Runs the given task for each index from 0 to {@code count - 1}, on up to
+	 * one thread per core, each of which takes on the next index as soon as it
+	 * is done with the previous one.
+	 */
+	public static <E extends Exception> void forEach(
+		final ThreadService threadService, final int count,
+		final IndexTask<E> task) throws E, InterruptedException
+	{
+		final AtomicInteger next = new AtomicInteger();
+		final int workers = Math.min(count, Runtime.getRuntime()
+			.availableProcessors());
+		final List<Part<E>> parts = new ArrayList<>(workers);
+		for (int w = 0; w < workers; w++) {
+			parts.add(() -> {
+				int i;
+				// NB: Stop taking on indices once cancelled.
+				while (!Thread.currentThread().isInterrupted() && (i = next
+					.getAndIncrement()) < count)
+				{
+					task.run(i);
+				}
+			});
+		}
+		invokeAll(threadService, parts);
+	}
+
+	/**
+	 * Splits the indices from 0 to {@code size - 1} into the given number of
+	 * contiguous ranges of about equal length, and runs the given task for each
+	 * range on its own thread.
+	 */
+	public static <E extends Exception> void forRanges(
+		final ThreadService threadService, final long size, final int ranges,
+		final RangeTask<E> task) throws E, InterruptedException
+	{
+		final int count = (int) Math.min(ranges, size);
+		final List<Part<E>> parts = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			final long start = size * i / count;
+			final long end = size * (i + 1) / count;
+			parts.add(() -> task.run(start, end));
+		}
+		invokeAll(threadService, parts);
+	}
+
+	// -- Helper methods --
+
+	private static <E extends Exception> void invokeAll(
+		final ThreadService threadService, final List<Part<E>> parts)
+		throws E, InterruptedException
+	{
+		if (parts.isEmpty()) return;
+		if (parts.size() == 1) {
+			parts.get(0).run();
+			return;
+		}
+		final List<Future<Void>> futures = new ArrayList<>(parts.size());
+		for (final Part<E> part : parts) {
+			futures.add(threadService.run(() -> {
+				part.run();
+				return null;
+			}));
+		}
+		try {
+			for (final Future<Void> future : futures) {
+				future.get();
+			}
+		}
+		catch (final InterruptedException exc) {
+			cancel(futures);
+			throw exc;
+		}
+		catch (final ExecutionException exc) {
+			cancel(futures);
+			final Throwable cause = exc.getCause();
+			if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			// NB: The parts throw nothing else.
+			@SuppressWarnings("unchecked")
+			final E e = (E) cause;
+			throw e;
+		}
+	}
+
+	private static void cancel(final List<Future<Void>> futures) {
+		for (final Future<Void> future : futures) {
+			future.cancel(true);
+		}
+	}
+
+	// -- Helper classes --
+
+	/** A task over a single index. */
+	public interface IndexTask<E extends Exception> {
+
+		void run(int index) throws E;
+	}
+
+	/** A task over a range of indices, from start (inclusive) to end. */
+	public interface RangeTask<E extends Exception> {
+
+		void run(long start, long end) throws E;
+	}
+
+	/** One part of the work. */
+	private interface Part<E extends Exception> {
+
+		void run() throws E;
+	}
+
+}
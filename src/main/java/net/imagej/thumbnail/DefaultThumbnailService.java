@@ -0,0 +1,419 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.thumbnail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import net.imagej.Dataset;
+import net.imagej.axis.Axes;
+import net.imagej.composite.CompositeService;
+import net.imagej.metrics.MetricsService;
+import net.imagej.metrics.Timer;
+import net.imagej.overlay.Overlay;
+import net.imagej.thread.Parallel;
+import net.imglib2.RandomAccess;
+import net.imglib2.display.ColorTable;
+import net.imglib2.display.ColorTables;
+import net.imglib2.roi.RegionOfInterest;
+import net.imglib2.type.numeric.RealType;
+
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+import org.scijava.thread.ThreadService;
+import org.scijava.util.ColorRGB;
+
+/**
+ * Default implementation of {@link ThumbnailService}.
+ * <p>
+ * Each channel is sampled at the thumbnail's resolution (nearest neighbor),
+ * scaled to 16 bits by its display range and composited through the
+ * {@link CompositeService}. Overlays are rasterized by testing the centers of
+ * the thumbnail's pixels against their regions of interest.
+ * </p>
+ * <p>
+ * Batches are rendered by one task per core, each borrowing a
+ * {@link RenderBuffer} from a pool of at most {@link #POOL_SIZE}; buffers
+ * for more than {@link #MAX_POOLED_PIXELS} pixels are dropped after use.
+ * </p>
+ * 
+ * @author agent
+ */
+@Plugin(type = Service.class)
+public class DefaultThumbnailService extends AbstractService implements
+	ThumbnailService
+{
+
+	/** Maximum number of pooled render buffers. */
+	public static final int POOL_SIZE = 2 * Runtime.getRuntime()
+		.availableProcessors();
+
+	/** Render buffers for more pixels than this are not pooled. */
+	public static final int MAX_POOLED_PIXELS = 1 << 22;
+
+	private static final ColorTable[] CHANNEL_LUTS = { ColorTables.RED,
+		ColorTables.GREEN, ColorTables.BLUE, ColorTables.GRAYS, ColorTables.CYAN,
+		ColorTables.MAGENTA, ColorTables.YELLOW };
+
+	private static final int BACKGROUND = 0xff000000;
+
+	private static final int DEFAULT_LINE_COLOR = 0xffffff00;
+
+	@Parameter
+	private CompositeService compositeService;
+
+	@Parameter
+	private ThreadService threadService;
+
+	@Parameter(required = false)
+	private MetricsService metricsService;
+
+	private final BlockingQueue<RenderBuffer> pool = new ArrayBlockingQueue<>(
+		POOL_SIZE);
+
+	// -- ThumbnailService methods --
+
+	@Override
+	public int[] renderARGB(final Dataset dataset, final RenderOptions options) {
+		final RenderBuffer buffer = acquire();
+		try {
+			final int[] size = render(dataset, options, buffer);
+			return Arrays.copyOf(buffer.argb, size[0] * size[1]);
+		}
+		finally {
+			release(buffer);
+		}
+	}
+
+	@Override
+	public int[] getSize(final Dataset dataset, final RenderOptions options) {
+		final int xIndex = dataset.dimensionIndex(Axes.X);
+		final int yIndex = dataset.dimensionIndex(Axes.Y);
+		if (xIndex < 0 || yIndex < 0) {
+			throw new IllegalArgumentException("Not an XY image: " + dataset);
+		}
+		final long w = dataset.dimension(xIndex), h = dataset.dimension(yIndex);
+		final double scale = Math.min(1, Math.min( //
+			(double) options.getMaxWidth() / w, (double) options.getMaxHeight() / h));
+		return new int[] { (int) Math.max(1, Math.round(w * scale)), //
+			(int) Math.max(1, Math.round(h * scale)) };
+	}
+
+	@Override
+	public byte[] render(final Dataset dataset, final RenderOptions options)
+		throws IOException
+	{
+		final RenderBuffer buffer = acquire();
+		try {
+			final int[] size = render(dataset, options, buffer);
+			return encode(buffer, size[0], size[1], options);
+		}
+		finally {
+			release(buffer);
+		}
+	}
+
+	@Override
+	public List<byte[]> render(final List<Dataset> datasets,
+		final RenderOptions options) throws IOException, InterruptedException
+	{
+		final byte[][] results = new byte[datasets.size()][];
+		Parallel.forEach(threadService, datasets.size(), i -> results[i] = render(
+			datasets.get(i), options));
+		return Arrays.asList(results);
+	}
+
+	@Override
+	public byte[] montage(final List<Dataset> datasets,
+		final RenderOptions options, final int columns) throws IOException,
+		InterruptedException
+	{
+		if (columns < 1) {
+			throw new IllegalArgumentException("Invalid columns: " + columns);
+		}
+		final int cellWidth = options.getMaxWidth();
+		final int cellHeight = options.getMaxHeight();
+		final int cols = Math.max(1, Math.min(columns, datasets.size()));
+		final int rows = Math.max(1, (datasets.size() + cols - 1) / cols);
+		final long pixels = (long) cols * cellWidth * rows * cellHeight;
+		if (pixels > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Montage is too large: " + cols *
+				cellWidth + " x " + rows * cellHeight);
+		}
+		final int width = cols * cellWidth, height = rows * cellHeight;
+
+		final RenderBuffer canvas = acquire();
+		try (final Timer.Sample sample = metricsService == null ? null
+			: metricsService.timer("thumbnail.montage").start())
+		{
+			canvas.ensurePixels(width * height);
+			final int[] argb = canvas.argb;
+			Arrays.fill(argb, 0, width * height, BACKGROUND);
+			// NB: Each task writes to its own cell of the canvas.
+			Parallel.forEach(threadService, datasets.size(), i -> {
+				final RenderBuffer buffer = acquire();
+				try {
+					final int[] size = render(datasets.get(i), options, buffer);
+					final int x0 = i % cols * cellWidth + (cellWidth - size[0]) / 2;
+					final int y0 = i / cols * cellHeight + (cellHeight - size[1]) / 2;
+					for (int y = 0; y < size[1]; y++) {
+						System.arraycopy(buffer.argb, y * size[0], argb, (y0 + y) * width +
+							x0, size[0]);
+					}
+				}
+				finally {
+					release(buffer);
+				}
+			});
+			return encode(canvas, width, height, options);
+		}
+		finally {
+			release(canvas);
+		}
+	}
+
+	// -- Service methods --
+
+	@Override
+	public void dispose() {
+		RenderBuffer buffer;
+		while ((buffer = pool.poll()) != null) {
+			buffer.dispose();
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Renders a dataset into the ARGB pixels of the given buffer.
+	 * 
+	 * @return The size of the rendered image, as {@code {width, height}}.
+	 */
+	private int[] render(final Dataset dataset, final RenderOptions options,
+		final RenderBuffer buffer)
+	{
+		try (final Timer.Sample sample = metricsService == null ? null
+			: metricsService.timer("thumbnail.render").start())
+		{
+			final int[] size = getSize(dataset, options);
+			final int width = size[0], height = size[1], count = width * height;
+			final int xIndex = dataset.dimensionIndex(Axes.X);
+			final int yIndex = dataset.dimensionIndex(Axes.Y);
+			final int cIndex = dataset.dimensionIndex(Axes.CHANNEL);
+			final int channelCount = cIndex < 0 ? 1 : (int) dataset.dimension(
+				cIndex);
+			buffer.ensure(channelCount, width, height);
+
+			// NB: Sample the center of each thumbnail pixel.
+			final long w = dataset.dimension(xIndex), h = dataset.dimension(yIndex);
+			for (int x = 0; x < width; x++) {
+				buffer.columns[x] = Math.min(w - 1, (long) ((x + 0.5) * w / width));
+			}
+			for (int y = 0; y < height; y++) {
+				buffer.rows[y] = Math.min(h - 1, (long) ((y + 0.5) * h / height));
+			}
+
+			final RandomAccess<RealType<?>> access = dataset.randomAccess();
+			final long[] position = options.getPosition();
+			for (int d = 0; d < dataset.numDimensions(); d++) {
+				access.setPosition(position != null && d < position.length
+					? position[d] : 0, d);
+			}
+			final int[][] tables = new int[channelCount][];
+			for (int c = 0; c < channelCount; c++) {
+				if (cIndex >= 0) access.setPosition(c, cIndex);
+				sample(access, xIndex, yIndex, width, height, buffer);
+				final double[] range = range(options.getRange(c), buffer.values,
+					count);
+				quantize(buffer.values, count, range[0], range[1],
+					buffer.channels[c]);
+				tables[c] = compositeService.getTable(lut(options, c, channelCount),
+					0, 0xffff);
+			}
+			final short[][] channels = channelCount == buffer.channels.length
+				? buffer.channels : Arrays.copyOf(buffer.channels, channelCount);
+			compositeService.composite(channels, tables, width, height,
+				buffer.argb);
+
+			final double scaleX = (double) width / w, scaleY = (double) height / h;
+			for (final Overlay overlay : options.getOverlays()) {
+				draw(overlay, scaleX, scaleY, width, height, buffer);
+			}
+			return size;
+		}
+	}
+
+	/** Reads the current channel at the sampled columns and rows. */
+	private static void sample(final RandomAccess<RealType<?>> access,
+		final int xIndex, final int yIndex, final int width, final int height,
+		final RenderBuffer buffer)
+	{
+		final double[] values = buffer.values;
+		for (int y = 0, i = 0; y < height; y++) {
+			access.setPosition(buffer.rows[y], yIndex);
+			for (int x = 0; x < width; x++, i++) {
+				access.setPosition(buffer.columns[x], xIndex);
+				values[i] = access.get().getRealDouble();
+			}
+		}
+	}
+
+	/** Gets the given display range, or else the range of the values. */
+	private static double[] range(final double[] range, final double[] values,
+		final int count)
+	{
+		if (range != null) return range;
+		double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < count; i++) {
+			final double v = values[i];
+			if (v < min) min = v;
+			if (v > max) max = v;
+		}
+		if (!(min <= max)) return new double[] { 0, 1 };
+		return new double[] { min, max > min ? max : min + 1 };
+	}
+
+	/** Scales the values from the given range to unsigned 16 bits. */
+	private static void quantize(final double[] values, final int count,
+		final double min, final double max, final short[] result)
+	{
+		final double scale = 0xffff / (max - min);
+		for (int i = 0; i < count; i++) {
+			final double v = (values[i] - min) * scale;
+			// NB: NaN is rendered as the minimum.
+			result[i] = (short) (v >= 0xffff ? 0xffff : v > 0 ? (int) (v + 0.5)
+				: 0);
+		}
+	}
+
+	private static ColorTable lut(final RenderOptions options, final int c,
+		final int channelCount)
+	{
+		final ColorTable lut = options.getLUT(c);
+		if (lut != null) return lut;
+		if (channelCount == 1) return ColorTables.GRAYS;
+		return CHANNEL_LUTS[c % CHANNEL_LUTS.length];
+	}
+
+	/**
+	 * Draws an overlay, filling its region with the fill color at the overlay's
+	 * alpha, and tracing its outline in the line color.
+	 */
+	private static void draw(final Overlay overlay, final double scaleX,
+		final double scaleY, final int width, final int height,
+		final RenderBuffer buffer)
+	{
+		final RegionOfInterest roi = overlay.getRegionOfInterest();
+		if (roi == null || roi.numDimensions() < 2) return;
+		final int x0 = (int) Math.max(0, Math.floor(roi.realMin(0) * scaleX));
+		final int y0 = (int) Math.max(0, Math.floor(roi.realMin(1) * scaleY));
+		final int x1 = (int) Math.min(width - 1, Math.ceil(roi.realMax(0) *
+			scaleX));
+		final int y1 = (int) Math.min(height - 1, Math.ceil(roi.realMax(1) *
+			scaleY));
+		if (x1 < x0 || y1 < y0) return;
+
+		// NB: Test each pixel center once, then derive fill and outline.
+		final int bw = x1 - x0 + 1, bh = y1 - y0 + 1;
+		buffer.ensureMask(bw * bh);
+		final byte[] mask = buffer.mask;
+		final double[] pos = new double[roi.numDimensions()];
+		for (int y = 0, i = 0; y < bh; y++) {
+			pos[1] = (y0 + y + 0.5) / scaleY;
+			for (int x = 0; x < bw; x++, i++) {
+				pos[0] = (x0 + x + 0.5) / scaleX;
+				mask[i] = (byte) (roi.contains(pos) ? 1 : 0);
+			}
+		}
+
+		final ColorRGB fill = overlay.getFillColor();
+		final int alpha = fill == null ? 0 : Math.max(0, Math.min(255, overlay
+			.getAlpha()));
+		final ColorRGB line = overlay.getLineColor();
+		final int lineARGB = line == null ? DEFAULT_LINE_COLOR : 0xff000000 | line
+			.getARGB();
+		final int[] argb = buffer.argb;
+		for (int y = 0, i = 0; y < bh; y++) {
+			for (int x = 0; x < bw; x++, i++) {
+				if (mask[i] == 0) continue;
+				final int p = (y0 + y) * width + x0 + x;
+				final boolean edge = x == 0 || y == 0 || x == bw - 1 ||
+					y == bh - 1 || mask[i - 1] == 0 || mask[i + 1] == 0 ||
+					mask[i - bw] == 0 || mask[i + bw] == 0;
+				if (edge) argb[p] = lineARGB;
+				else if (alpha > 0) argb[p] = blend(argb[p], fill, alpha);
+			}
+		}
+	}
+
+	private static int blend(final int argb, final ColorRGB color,
+		final int alpha)
+	{
+		final int beta = 255 - alpha;
+		final int r = (color.getRed() * alpha + (argb >> 16 & 0xff) * beta) / 255;
+		final int g = (color.getGreen() * alpha + (argb >> 8 & 0xff) * beta) / 255;
+		final int b = (color.getBlue() * alpha + (argb & 0xff) * beta) / 255;
+		return 0xff000000 | r << 16 | g << 8 | b;
+	}
+
+	private byte[] encode(final RenderBuffer buffer, final int width,
+		final int height, final RenderOptions options) throws IOException
+	{
+		switch (options.getFormat()) {
+			case JPEG:
+				return buffer.encodeJPEG(width, height, options.getQuality());
+			default:
+				return buffer.encodePNG(width, height);
+		}
+	}
+
+	private RenderBuffer acquire() {
+		final RenderBuffer buffer = pool.poll();
+		if (buffer != null) return buffer;
+		if (metricsService != null) {
+			metricsService.counter("thumbnail.buffers").inc();
+		}
+		return new RenderBuffer();
+	}
+
+	private void release(final RenderBuffer buffer) {
+		if (buffer.capacity() > MAX_POOLED_PIXELS || !pool.offer(buffer)) {
+			buffer.dispose();
+		}
+	}
+
+}
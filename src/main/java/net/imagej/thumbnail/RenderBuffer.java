@@ -0,0 +1,236 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.thumbnail;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Reusable buffers for rendering and encoding one image at a time: channel
+ * planes, ARGB pixels, an overlay mask and the encoders with their output.
+ * Buffers only ever grow, so that a pooled instance soon stops allocating.
+ * 
+ * @author agent
+ */
+class RenderBuffer {
+
+	private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G',
+		'\r', '\n', 0x1a, '\n' };
+
+	private static final int[] RGB_MASKS = { 0xff0000, 0xff00, 0xff };
+
+	short[][] channels = new short[0][];
+	double[] values = new double[0];
+	long[] columns = new long[0], rows = new long[0];
+	int[] argb = new int[0];
+	byte[] mask = new byte[0];
+
+	private final Bytes out = new Bytes();
+	private final Bytes idat = new Bytes();
+	private final CRC32 crc = new CRC32();
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private byte[] row = new byte[0];
+	private final byte[] chunk = new byte[8192];
+	private ImageWriter jpegWriter;
+
+	// -- RenderBuffer methods --
+
+	/** Ensures room for the given number of channels and pixels. */
+	void ensure(final int channelCount, final int width, final int height) {
+		final int size = width * height;
+		if (channels.length < channelCount) {
+			final short[][] grown = new short[channelCount][];
+			System.arraycopy(channels, 0, grown, 0, channels.length);
+			for (int c = channels.length; c < channelCount; c++) {
+				grown[c] = new short[0];
+			}
+			channels = grown;
+		}
+		for (int c = 0; c < channelCount; c++) {
+			if (channels[c].length < size) channels[c] = new short[size];
+		}
+		if (values.length < size) values = new double[size];
+		if (argb.length < size) argb = new int[size];
+		if (columns.length < width) columns = new long[width];
+		if (rows.length < height) rows = new long[height];
+	}
+
+	/** Ensures room for an ARGB image of the given size. */
+	void ensurePixels(final int size) {
+		if (argb.length < size) argb = new int[size];
+	}
+
+	/** Ensures room for an overlay mask of the given size. */
+	void ensureMask(final int size) {
+		if (mask.length < size) mask = new byte[size];
+	}
+
+	/** Gets the number of pixels these buffers hold room for. */
+	int capacity() {
+		return argb.length;
+	}
+
+	/** Encodes the first {@code width * height} pixels as an RGB PNG. */
+	byte[] encodePNG(final int width, final int height) {
+		out.reset();
+		out.write(PNG_SIGNATURE, 0, PNG_SIGNATURE.length);
+		final byte[] header = new byte[13];
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = 8; // bit depth
+		header[9] = 2; // color type: RGB
+		writeChunk("IHDR", header, header.length);
+
+		// NB: Filter each row by its left neighbor ("Sub"), which is cheap and
+		// compresses smooth images much better than no filter at all.
+		final int stride = 3 * width + 1;
+		if (row.length < stride) row = new byte[stride];
+		idat.reset();
+		deflater.reset();
+		row[0] = 1;
+		for (int y = 0; y < height; y++) {
+			int prev = 0;
+			for (int x = 0, i = y * width, o = 1; x < width; x++, i++, o += 3) {
+				final int p = argb[i];
+				row[o] = (byte) ((p >> 16) - (prev >> 16));
+				row[o + 1] = (byte) ((p >> 8) - (prev >> 8));
+				row[o + 2] = (byte) (p - prev);
+				prev = p;
+			}
+			deflater.setInput(row, 0, stride);
+			while (!deflater.needsInput()) {
+				idat.write(chunk, 0, deflater.deflate(chunk));
+			}
+		}
+		deflater.finish();
+		while (!deflater.finished()) {
+			idat.write(chunk, 0, deflater.deflate(chunk));
+		}
+		writeChunk("IDAT", idat.array(), idat.size());
+		writeChunk("IEND", header, 0);
+		return out.toByteArray();
+	}
+
+	/** Encodes the first {@code width * height} pixels as a JPEG. */
+	byte[] encodeJPEG(final int width, final int height, final float quality)
+		throws IOException
+	{
+		if (jpegWriter == null) {
+			final Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(
+				"jpeg");
+			if (!writers.hasNext()) throw new IOException("No JPEG writer");
+			jpegWriter = writers.next();
+		}
+		// NB: Wrap the pixels without copying them. Opaque RGB images need no
+		// display, so this works in headless mode.
+		final DirectColorModel model = new DirectColorModel(24, RGB_MASKS[0],
+			RGB_MASKS[1], RGB_MASKS[2]);
+		final WritableRaster raster = Raster.createPackedRaster(new DataBufferInt(
+			argb, width * height), width, height, width, RGB_MASKS, null);
+		final BufferedImage image = new BufferedImage(model, raster, false, null);
+
+		final ImageWriteParam param = jpegWriter.getDefaultWriteParam();
+		param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		param.setCompressionQuality(quality);
+		out.reset();
+		try (final ImageOutputStream stream = new MemoryCacheImageOutputStream(
+			out))
+		{
+			jpegWriter.setOutput(stream);
+			jpegWriter.write(null, new IIOImage(image, null, null), param);
+		}
+		finally {
+			jpegWriter.reset();
+		}
+		return out.toByteArray();
+	}
+
+	/** Releases the native resources of the encoders. */
+	void dispose() {
+		deflater.end();
+		if (jpegWriter != null) jpegWriter.dispose();
+	}
+
+	// -- Helper methods --
+
+	private void writeChunk(final String type, final byte[] data,
+		final int length)
+	{
+		final byte[] word = new byte[4];
+		putInt(word, 0, length);
+		out.write(word, 0, 4);
+		final byte[] name = { (byte) type.charAt(0), (byte) type.charAt(1),
+			(byte) type.charAt(2), (byte) type.charAt(3) };
+		out.write(name, 0, 4);
+		out.write(data, 0, length);
+		crc.reset();
+		crc.update(name, 0, 4);
+		crc.update(data, 0, length);
+		putInt(word, 0, (int) crc.getValue());
+		out.write(word, 0, 4);
+	}
+
+	private static void putInt(final byte[] b, final int offset,
+		final int value)
+	{
+		b[offset] = (byte) (value >>> 24);
+		b[offset + 1] = (byte) (value >>> 16);
+		b[offset + 2] = (byte) (value >>> 8);
+		b[offset + 3] = (byte) value;
+	}
+
+	// -- Helper classes --
+
+	/** A byte array output stream whose array can be read in place. */
+	private static class Bytes extends ByteArrayOutputStream {
+
+		public byte[] array() {
+			return buf;
+		}
+	}
+
+}
@@ -0,0 +1,194 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.thumbnail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.imagej.overlay.Overlay;
+import net.imglib2.display.ColorTable;
+
+/**
+ * Settings for rendering thumbnails and montages: the maximum size, plane,
+ * LUTs and display ranges, overlays and output format.
+ * <p>
+ * Channels without a LUT are shown in gray if there is only one, or else in
+ * red, green, blue, gray, cyan, magenta and yellow. Channels without a
+ * display range are autoscaled to the minimum and maximum of their rendered
+ * pixels.
+ * </p>
+ * 
+ * @author agent
+ * @see ThumbnailService
+ */
+public class RenderOptions {
+
+	/** The encodings in which thumbnails can be rendered. */
+	public enum Format {
+		PNG, JPEG
+	}
+
+	private int maxWidth = 128, maxHeight = 128;
+	private long[] position;
+	private final Map<Integer, ColorTable> luts = new HashMap<>();
+	private final Map<Integer, double[]> ranges = new HashMap<>();
+	private final List<Overlay> overlays = new ArrayList<>();
+	private Format format = Format.PNG;
+	private float quality = 0.85f;
+
+	// -- RenderOptions methods --
+
+	/**
+	 * Sets the size into which images are scaled down, keeping their aspect
+	 * ratio. Images are never scaled up. The default is 128 x 128.
+	 * 
+	 * @return These options, for chaining.
+	 */
+	public RenderOptions size(final int width, final int height) {
+		if (width < 1 || height < 1) {
+			throw new IllegalArgumentException("Invalid size: " + width + " x " +
+				height);
+		}
+		maxWidth = width;
+		maxHeight = height;
+		return this;
+	}
+
+	/**
+	 * Sets the position of the plane to render, in all dimensions of the image;
+	 * the entries of X, Y and the channel axis are ignored. By default, the
+	 * first plane is rendered.
+	 * 
+	 * @return These options, for chaining.
+	 */
+	public RenderOptions position(final long... pos) {
+		position = pos == null ? null : pos.clone();
+		return this;
+	}
+
+	/**
+	 * Sets the LUT of the given channel.
+	 * 
+	 * @return These options, for chaining.
+	 */
+	public RenderOptions lut(final int channel, final ColorTable lut) {
+		luts.put(channel, lut);
+		return this;
+	}
+
+	/**
+	 * Sets the display range of the given channel, instead of autoscaling it.
+	 * 
+	 * @return These options, for chaining.
+	 */
+	public RenderOptions range(final int channel, final double min,
+		final double max)
+	{
+		if (!(max > min)) {
+			throw new IllegalArgumentException("Invalid range: " + min + "-" + max);
+		}
+		ranges.put(channel, new double[] { min, max });
+		return this;
+	}
+
+	/**
+	 * Adds overlays to draw over the image, in its pixel coordinates.
+	 * 
+	 * @return These options, for chaining.
+	 */
+	public RenderOptions overlays(final List<? extends Overlay> list) {
+		overlays.addAll(list);
+		return this;
+	}
+
+	/**
+	 * Sets the encoding, and for JPEG the quality between 0 and 1. The default
+	 * is PNG.
+	 * 
+	 * @return These options, for chaining.
+	 */
+	public RenderOptions format(final Format f, final float q) {
+		if (q < 0 || q > 1) {
+			throw new IllegalArgumentException("Invalid quality: " + q);
+		}
+		format = f;
+		quality = q;
+		return this;
+	}
+
+	/** @see #format(Format, float) */
+	public RenderOptions format(final Format f) {
+		return format(f, quality);
+	}
+
+	public int getMaxWidth() {
+		return maxWidth;
+	}
+
+	public int getMaxHeight() {
+		return maxHeight;
+	}
+
+	/** Gets the position of the plane to render, or null for the first. */
+	public long[] getPosition() {
+		return position;
+	}
+
+	/** Gets the LUT of the given channel, or null if it has none. */
+	public ColorTable getLUT(final int channel) {
+		return luts.get(channel);
+	}
+
+	/**
+	 * Gets the display range of the given channel as {@code {min, max}}, or
+	 * null if it is autoscaled.
+	 */
+	public double[] getRange(final int channel) {
+		return ranges.get(channel);
+	}
+
+	public List<Overlay> getOverlays() {
+		return Collections.unmodifiableList(overlays);
+	}
+
+	public Format getFormat() {
+		return format;
+	}
+
+	public float getQuality() {
+		return quality;
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.thumbnail;
+
+import java.io.IOException;
+import java.util.List;
+
+import net.imagej.Dataset;
+import net.imagej.OnDemandService;
+
+/**
+ * Interface for services which render datasets to PNG or JPEG thumbnails and
+ * contact-sheet montages, without a display.
+ * <p>
+ * Unlike the {@link net.imagej.render.RenderingService}, which draws through
+ * the user interface and has no implementation in a headless context, these
+ * services composite pixels directly, so that they work on servers. Batches
+ * are rendered in parallel, reusing a bounded pool of pixel and encoding
+ * buffers.
+ * </p>
+ * 
+ * @author agent
+ * @see RenderOptions
+ */
+public interface ThumbnailService extends OnDemandService {
+
+	/**
+	 * Renders a dataset to opaque ARGB pixels, scaled down to fit the size of
+	 * the options.
+	 * 
+	 * @return The rendered pixels, in row major order; the width and height
+	 *         are given by {@link #getSize(Dataset, RenderOptions)}.
+	 * @throws IllegalArgumentException if the dataset has no X and Y axes.
+	 */
+	int[] renderARGB(Dataset dataset, RenderOptions options);
+
+	/**
+	 * Gets the size of the thumbnail of a dataset, as {@code {width, height}}.
+	 */
+	int[] getSize(Dataset dataset, RenderOptions options);
+
+	/**
+	 * Renders a dataset and encodes it in the format of the options.
+	 * 
+	 * @throws IOException if the image cannot be encoded.
+	 */
+	byte[] render(Dataset dataset, RenderOptions options) throws IOException;
+
+	/**
+	 * Renders and encodes many datasets in parallel.
+	 * 
+	 * @return The encoded thumbnails, in the order of the datasets.
+	 * @throws IOException if an image cannot be encoded.
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 *           rendering.
+	 */
+	List<byte[]> render(List<Dataset> datasets, RenderOptions options)
+		throws IOException, InterruptedException;
+
+	/**
+	 * Renders the thumbnails of many datasets in parallel into the cells of a
+	 * grid, centered on a black background, and encodes the grid as one image.
+	 * Each cell has the size of the options.
+	 * 
+	 * @param columns The number of cells per row of the grid.
+	 * @throws IOException if the montage cannot be encoded.
+	 * @throws InterruptedException if the calling thread is interrupted while
+	 *           rendering.
+	 */
+	byte[] montage(List<Dataset> datasets, RenderOptions options, int columns)
+		throws IOException, InterruptedException;
+
+}
@@ -0,0 +1,182 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link ImageJPool}.
+ * 
+ * @author agent
+ */
+public class ImageJPoolTest {
+
+	private ImageJPool pool;
+
+	@Before
+	public void setUp() {
+		pool = new ImageJPool(1, ImageJ.Startup.LAZY);
+	}
+
+	@After
+	public void tearDown() {
+		pool.dispose();
+	}
+
+	@Test
+	public void testLeaseAndRelease() throws InterruptedException {
+		final ImageJ ij = pool.lease();
+		assertEquals(1, pool.getInUse());
+		assertNull(pool.lease(10, TimeUnit.MILLISECONDS));
+
+		pool.release(ij);
+		assertEquals(0, pool.getInUse());
+		final ImageJ again = pool.lease();
+		assertSame(ij, again);
+		pool.release(again);
+
+		final ImageJPool.Statistics stats = pool.getStatistics();
+		assertEquals(1, stats.getSize());
+		assertEquals(1, stats.getCreated());
+		assertEquals(2, stats.getLeases());
+		assertEquals(0, stats.getDiscarded());
+	}
+
+	@Test
+	public void testReset() throws InterruptedException {
+		final ImageJ ij = pool.lease();
+		final Dataset dataset = ij.dataset().create(new UnsignedByteType(),
+			new long[] { 4, 4 }, "test", new AxisType[] { Axes.X, Axes.Y });
+		ij.display().createDisplay(dataset);
+		assertEquals(1, ij.display().getDisplays().size());
+		pool.release(ij);
+
+		final ImageJ again = pool.lease();
+		assertSame(ij, again);
+		assertTrue(again.display().getDisplays().isEmpty());
+		pool.release(again);
+	}
+
+	@Test
+	public void testResetDatasets() throws InterruptedException {
+		final ImageJ ij = pool.lease();
+		ij.dataset().create(new UnsignedByteType(), new long[] { 4, 4 }, "test",
+			new AxisType[] { Axes.X, Axes.Y });
+		assertEquals(1, ij.dataset().getDatasets().size());
+		pool.release(ij);
+
+		final ImageJ again = pool.lease();
+		assertSame(ij, again);
+		assertTrue(again.dataset().getDatasets().isEmpty());
+		assertTrue(again.overlay().getOverlays().isEmpty());
+		assertEquals(0, pool.getStatistics().getDiscarded());
+		pool.release(again);
+	}
+
+	@Test
+	public void testUnhealthy() throws InterruptedException {
+		final ImageJPool sick = new ImageJPool(1, ImageJ.Startup.LAZY) {
+
+			@Override
+			protected boolean isHealthy(final ImageJ ij) {
+				return false;
+			}
+		};
+		try {
+			final ImageJ ij = sick.lease();
+			sick.release(ij);
+
+			final ImageJ replacement = sick.lease(10, TimeUnit.SECONDS);
+			assertNotNull(replacement);
+			assertNotSame(ij, replacement);
+			sick.release(replacement);
+
+			final ImageJPool.Statistics stats = sick.getStatistics();
+			assertEquals(0, stats.getCreated());
+			assertEquals(2, stats.getDiscarded());
+		}
+		finally {
+			sick.dispose();
+		}
+	}
+
+	@Test
+	public void testDisposeWakesWaiters() throws InterruptedException {
+		final ImageJ ij = pool.lease();
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final Thread waiter = new Thread(() -> {
+			try {
+				pool.lease();
+			}
+			catch (final Throwable t) {
+				failure.set(t);
+			}
+		});
+		waiter.start();
+		pool.dispose();
+		waiter.join(10000);
+		assertFalse(waiter.isAlive());
+		assertTrue(failure.get() instanceof IllegalStateException);
+
+		pool.release(ij);
+		assertEquals(0, pool.getStatistics().getCreated());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testForeignRelease() {
+		final ImageJ ij = new ImageJ(ImageJ.Startup.LAZY);
+		try {
+			pool.release(ij);
+		}
+		finally {
+			ij.getContext().dispose();
+		}
+	}
+
+}
@@ -0,0 +1,213 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.List;
+
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.display.WindowService;
+import net.imagej.memory.MemoryBudgetService;
+import net.imagej.metrics.MetricsService;
+import net.imagej.ops.OpService;
+import net.imagej.updater.UpdateService;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+import org.junit.Test;
+import org.scijava.InstantiableException;
+import org.scijava.display.DisplayService;
+import org.scijava.object.ObjectService;
+import org.scijava.plugin.PluginInfo;
+import org.scijava.service.Service;
+
+/**
+ * Tests {@link ImageJ}.
+ * 
+ * @author agent
+ */
+public class ImageJTest {
+
+	/** Tests that a lazy gateway only starts the services it is asked for. */
+	@Test
+	public void testLazyStartup() {
+		final ImageJ ij = new ImageJ(ImageJ.Startup.LAZY);
+		try {
+			assertEquals(ImageJ.Startup.LAZY, ij.getStartup());
+			assertFalse(isStarted(ij, OpService.class));
+
+			assertNotNull(ij.op());
+			assertNotNull(ij.dataset());
+			assertNotNull(ij.scifio().format());
+
+			assertTrue(isStarted(ij, OpService.class));
+			assertTrue(isStarted(ij, DatasetService.class));
+			assertFalse(isStarted(ij, UpdateService.class));
+			assertFalse(isStarted(ij, WindowService.class));
+		}
+		finally {
+			ij.getContext().dispose();
+		}
+	}
+
+	/** Tests that an eager gateway starts everything up front. */
+	@Test
+	public void testEagerStartup() {
+		final ImageJ ij = new ImageJ();
+		try {
+			assertEquals(ImageJ.Startup.EAGER, ij.getStartup());
+			assertTrue(isStarted(ij, OpService.class));
+			assertTrue(isStarted(ij, UpdateService.class));
+			assertTrue(ij.getStartupTime() > 0);
+		}
+		finally {
+			ij.getContext().dispose();
+		}
+	}
+
+	/**
+	 * Tests that an eager gateway leaves {@link OnDemandService}s alone until
+	 * they are requested.
+	 */
+	@Test
+	public void testOnDemandServices() throws InstantiableException {
+		final ImageJ ij = new ImageJ();
+		try {
+			for (final Class<? extends Service> c : ij.getStartedServices()) {
+				assertFalse(c.getName(), OnDemandService.class.isAssignableFrom(c));
+			}
+			for (final PluginInfo<Service> info : ij.getContext().getPluginIndex()
+				.getPlugins(Service.class))
+			{
+				final Class<? extends Service> c = info.loadClass();
+				if (!OnDemandService.class.isAssignableFrom(c) || c.isInterface() ||
+					Modifier.isAbstract(c.getModifiers())) continue;
+				assertNotNull(c.getName(), ij.get(c));
+				assertTrue(c.getName(), isStarted(ij, c));
+			}
+		}
+		finally {
+			ij.getContext().dispose();
+		}
+	}
+
+	/** Tests that a parallel gateway ends up with the same services. */
+	@Test
+	public void testParallelStartup() {
+		final ImageJ eager = new ImageJ();
+		final ImageJ parallel = new ImageJ(ImageJ.Startup.PARALLEL);
+		try {
+			assertEquals(ImageJ.Startup.PARALLEL, parallel.getStartup());
+			assertEquals(new HashSet<>(eager.getStartedServices()), new HashSet<>(
+				parallel.getStartedServices()));
+			assertSame(eager.op().getClass(), parallel.op().getClass());
+		}
+		finally {
+			eager.getContext().dispose();
+			parallel.getContext().dispose();
+		}
+	}
+
+	/**
+	 * Tests that a forked gateway shares stateless services and the plugin
+	 * index, but has its own stateful services.
+	 */
+	@Test
+	public void testFork() {
+		final ImageJ ij = new ImageJ();
+		try {
+			final ImageJ child = ij.fork();
+			assertSame(ij, child.getParent());
+			assertNull(ij.getParent());
+			assertEquals(ImageJ.Startup.LAZY, child.getStartup());
+
+			assertSame(ij.op(), child.op());
+			assertSame(ij.scifio().format(), child.scifio().format());
+
+			// NB: Forking does not start on-demand services, but shares them.
+			assertNull(ij.getContext().getService(MemoryBudgetService.class));
+			assertSame(child.getContext().service(MemoryBudgetService.class), ij
+				.getContext().getService(MemoryBudgetService.class));
+			assertSame(ij.metrics(), child.getContext().getService(
+				MetricsService.class));
+			assertEquals(ij.getContext().getPluginIndex().size(), child
+				.getContext().getPluginIndex().size());
+			assertNotSame(ij.get(DisplayService.class), child.get(
+				DisplayService.class));
+			assertNotSame(ij.get(ObjectService.class), child.get(
+				ObjectService.class));
+
+			// NB: Objects of the child do not leak into the parent.
+			final int objects = ij.get(ObjectService.class).getObjects(
+				Dataset.class).size();
+			child.dataset().create(new UnsignedByteType(), new long[] { 4, 4 },
+				"child", new AxisType[] { Axes.X, Axes.Y });
+			assertEquals(objects, ij.get(ObjectService.class).getObjects(
+				Dataset.class).size());
+
+			// Disposing the child leaves the shared services alone.
+			child.getContext().dispose();
+			final Object sum = ij.op().run("math.add", 2, 3);
+			assertEquals(5, ((Number) sum).intValue());
+
+			// Forking a child forks its parent.
+			final ImageJ sibling = ij.fork().fork();
+			assertSame(ij, sibling.getParent());
+			sibling.getContext().dispose();
+		}
+		finally {
+			ij.getContext().dispose();
+		}
+	}
+
+	// -- Helper methods --
+
+	private boolean isStarted(final ImageJ ij,
+		final Class<? extends Service> serviceClass)
+	{
+		final List<Class<? extends Service>> started = ij.getStartedServices();
+		for (final Class<? extends Service> c : started) {
+			if (serviceClass.isAssignableFrom(c)) return true;
+		}
+		return false;
+	}
+
+}
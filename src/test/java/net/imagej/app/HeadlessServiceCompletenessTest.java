@@ -0,0 +1,156 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.app;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import net.imagej.ImageJService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.service.Service;
+
+/**
+ * Tests that exactly the expected ImageJ services are present in the headless
+ * distribution, i.e. without the Swing UI, script editor and uploaders. See
+ * the {@code headless} profile of the {@code pom.xml}, which enables this test
+ * via the {@value #PROPERTY} system property.
+ *
+ * @author agent
+ */
+public class HeadlessServiceCompletenessTest {
+
+	/** System property, set by the headless profile, enabling this test. */
+	public static final String PROPERTY = "imagej.test.headless";
+
+	private Context ctx;
+
+	@Before
+	public void setUp() {
+		assumeTrue("Not a headless build", Boolean.getBoolean(PROPERTY));
+		ctx = new Context(ImageJService.class);
+	}
+
+	/** Tests that no dependency pulls the user interface back in. */
+	@Test
+	public void testNoUI() {
+		assertFalse(present("net.imagej.ui.awt.AWTRenderingService"));
+		assertFalse(present("net.imagej.ui.swing.overlay.JHotDrawService"));
+		assertFalse(present("org.scijava.ui.swing.script.TextEditor"));
+	}
+
+	@After
+	public void tearDown() {
+		if (ctx != null) ctx.dispose();
+	}
+
+	@SuppressWarnings("deprecation")
+	@Test
+	public void testServices() {
+		final Set<String> services = new TreeSet<>();
+		add(services, net.imagej.DefaultImgPlusService.class);
+		add(services, net.imagej.animation.DefaultAnimationService.class);
+		add(services, net.imagej.async.DefaultAsyncService.class);
+		add(services, net.imagej.autoscale.DefaultAutoscaleService.class);
+		add(services, net.imagej.cache.DefaultOpCacheService.class);
+		add(services, net.imagej.composite.DefaultCompositeService.class);
+		add(services, net.imagej.display.DefaultImageDisplayService.class);
+		add(services, net.imagej.display.DefaultOverlayService.class);
+		add(services, net.imagej.display.DefaultWindowService.class);
+		add(services, net.imagej.display.DefaultZoomService.class);
+		add(services, net.imagej.display.DummyScreenCaptureService.class);
+		add(services, net.imagej.hyperslab.DefaultHyperslabService.class);
+		add(services, net.imagej.io.DefaultLazyIOService.class);
+		add(services, net.imagej.io.DefaultReaderCacheService.class);
+		add(services, net.imagej.legacy.display.LegacyImageDisplayService.class);
+		add(services, net.imagej.lut.DefaultLUTService.class);
+		add(services, net.imagej.measure.DefaultMeasurementService.class);
+		add(services, net.imagej.measure.DefaultStatisticsService.class);
+		add(services, net.imagej.memory.BudgetedDatasetService.class);
+		add(services, net.imagej.memory.BudgetedOpService.class);
+		add(services, net.imagej.memory.DefaultMemoryBudgetService.class);
+		add(services, net.imagej.metrics.DefaultMetricsService.class);
+		add(services, net.imagej.notebook.DefaultNotebookService.class);
+		add(services, net.imagej.operator.DefaultCalculatorService.class);
+		add(services, net.imagej.ops.DefaultNamespaceService.class);
+		add(services, net.imagej.ops.DefaultOpMatchingService.class);
+		add(services, net.imagej.pipeline.DefaultPipelineService.class);
+		add(services, net.imagej.render.DummyRenderingService.class);
+		add(services, net.imagej.sampler.DefaultSamplerService.class);
+		add(services, net.imagej.spatial.DefaultOverlayIndexService.class);
+		add(services, net.imagej.thread.BoundedThreadService.class);
+		add(services, net.imagej.threshold.DefaultThresholdService.class);
+		add(services, net.imagej.thumbnail.DefaultThumbnailService.class);
+		add(services, net.imagej.types.DefaultDataTypeService.class);
+		add(services, net.imagej.ui.DefaultImageJUIService.class);
+		add(services, net.imagej.updater.DefaultUpdateService.class);
+		add(services, net.imagej.updater.DefaultUploaderService.class);
+
+		final Set<String> actual = new TreeSet<>();
+		for (final Service s : ctx.getServiceIndex().getAll()) {
+			if (s instanceof ImageJService) actual.add(s.getClass().getName());
+		}
+		// NB: As in ServiceCompletenessTest, the legacy service itself is not
+		// checked: whether it starts depends on whether ImageJ 1.x can still be
+		// patched in this JVM, not on the distribution.
+		actual.remove("net.imagej.legacy.LegacyService");
+		// NB: Compare names, so that a failure lists the differences.
+		assertEquals(services, actual);
+	}
+
+	// -- Helper methods --
+
+	private static void add(final Set<String> services,
+		final Class<? extends Service> c)
+	{
+		services.add(c.getName());
+	}
+
+	private static boolean present(final String className) {
+		try {
+			Class.forName(className, false, //
+				HeadlessServiceCompletenessTest.class.getClassLoader());
+			return true;
+		}
+		catch (final ClassNotFoundException exc) {
+			return false;
+		}
+	}
+
+}
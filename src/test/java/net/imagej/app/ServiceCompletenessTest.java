@@ -75,27 +75,39 @@ public void tearDown() {
 	public void testServices() {
 		final ArrayList<Class<? extends Service>> services =
 			new ArrayList<>();
-		services.add(net.imagej.DefaultDatasetService.class);
 		services.add(net.imagej.DefaultImgPlusService.class);
 		services.add(net.imagej.animation.DefaultAnimationService.class);
+		services.add(net.imagej.async.DefaultAsyncService.class);
 		services.add(net.imagej.autoscale.DefaultAutoscaleService.class);
+		services.add(net.imagej.cache.DefaultOpCacheService.class);
+		services.add(net.imagej.composite.DefaultCompositeService.class);
 		services.add(net.imagej.display.DefaultImageDisplayService.class);
 		services.add(net.imagej.display.DefaultOverlayService.class);
 		services.add(net.imagej.display.DefaultWindowService.class);
 		services.add(net.imagej.display.DefaultZoomService.class);
 		services.add(net.imagej.display.DummyScreenCaptureService.class);
+		services.add(net.imagej.hyperslab.DefaultHyperslabService.class);
+		services.add(net.imagej.io.DefaultLazyIOService.class);
+		services.add(net.imagej.io.DefaultReaderCacheService.class);
 //		services.add(net.imagej.legacy.LegacyService.class);
 		services.add(net.imagej.legacy.display.LegacyImageDisplayService.class);
 		services.add(net.imagej.lut.DefaultLUTService.class);
 		services.add(net.imagej.measure.DefaultMeasurementService.class);
 		services.add(net.imagej.measure.DefaultStatisticsService.class);
+		services.add(net.imagej.memory.BudgetedDatasetService.class);
+		services.add(net.imagej.memory.BudgetedOpService.class);
+		services.add(net.imagej.memory.DefaultMemoryBudgetService.class);
+		services.add(net.imagej.metrics.DefaultMetricsService.class);
 		services.add(net.imagej.operator.DefaultCalculatorService.class);
 		services.add(net.imagej.ops.DefaultNamespaceService.class);
 		services.add(net.imagej.ops.DefaultOpMatchingService.class);
-		services.add(net.imagej.ops.DefaultOpService.class);
+		services.add(net.imagej.pipeline.DefaultPipelineService.class);
 		services.add(net.imagej.render.DummyRenderingService.class);
 		services.add(net.imagej.sampler.DefaultSamplerService.class);
+		services.add(net.imagej.spatial.DefaultOverlayIndexService.class);
+		services.add(net.imagej.thread.BoundedThreadService.class);
 		services.add(net.imagej.threshold.DefaultThresholdService.class);
+		services.add(net.imagej.thumbnail.DefaultThumbnailService.class);
 		services.add(net.imagej.types.DefaultDataTypeService.class);
 		services.add(net.imagej.ui.DefaultImageJUIService.class);
 		services.add(net.imagej.ui.awt.AWTRenderingService.class);
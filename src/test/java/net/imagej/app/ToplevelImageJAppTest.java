@@ -32,15 +32,22 @@
 package net.imagej.app;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
+import java.io.StringReader;
+
 import net.imagej.ImageJ;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.scijava.app.App;
+import org.scijava.module.Module;
+import org.scijava.script.ScriptInfo;
+import org.scijava.service.Service;
 
 /**
  * Tests {@link ToplevelImageJApp}.
@@ -71,4 +78,67 @@ public void testApp() {
 		assertTrue(version.contains("/1."));
 	}
 
+	@Test
+	public void testDeferredLegacy() {
+		final ImageJ deferred = deferred();
+		try {
+			assertTrue(DeferredLegacy.isDeferred(deferred.getContext()));
+			assertTrue(deferred.app().getApp().getVersion().contains("/1."));
+			for (final Service service : deferred.getContext().getServiceIndex()) {
+				assertFalse(DeferredLegacy.isLegacy(service.getClass().getName()));
+			}
+
+			assertNotNull(deferred.legacy());
+			assertFalse(DeferredLegacy.isDeferred(deferred.getContext()));
+		}
+		finally {
+			deferred.getContext().dispose();
+		}
+	}
+
+	/**
+	 * Tests that the script service runs scripts without the legacy layer, and
+	 * that only ImageJ 1.x macros start it.
+	 */
+	@Test
+	public void testDeferredLegacyScripts() {
+		final ImageJ deferred = deferred();
+		try {
+			assertTrue(DeferredLegacy.isDeferred(deferred.getContext()));
+			deferred.op();
+			deferred.script();
+			deferred.command();
+			assertTrue(DeferredLegacy.isDeferred(deferred.getContext()));
+
+			final DeferredLegacyPreprocessor preprocessor =
+				new DeferredLegacyPreprocessor();
+			preprocessor.setContext(deferred.getContext());
+			preprocessor.process(script(deferred, "script.js"));
+			assertTrue(DeferredLegacy.isDeferred(deferred.getContext()));
+			preprocessor.process(script(deferred, "macro.ijm"));
+			assertFalse(DeferredLegacy.isDeferred(deferred.getContext()));
+			assertNotNull(deferred.script().getLanguageByExtension("ijm"));
+		}
+		finally {
+			deferred.getContext().dispose();
+		}
+	}
+
+	// -- Helper methods --
+
+	private static Module script(final ImageJ ij, final String path) {
+		return ij.module().createModule(new ScriptInfo(ij.getContext(), path,
+			new StringReader("")));
+	}
+
+	private static ImageJ deferred() {
+		System.setProperty(DeferredLegacy.PROPERTY, "true");
+		try {
+			return new ImageJ();
+		}
+		finally {
+			System.clearProperty(DeferredLegacy.PROPERTY);
+		}
+	}
+
 }
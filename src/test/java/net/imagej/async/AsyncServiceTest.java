@@ -0,0 +1,205 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.async;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.imagej.ImageJ;
+import net.imagej.thread.Parallel;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Test;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Tests {@link AsyncService}.
+ * 
+ * @author agent
+ */
+public class AsyncServiceTest {
+
+	private ImageJ ij;
+
+	@After
+	public void tearDown() {
+		System.clearProperty(DefaultAsyncService.THREADS_PROPERTY);
+		System.clearProperty(DefaultAsyncService.QUEUE_PROPERTY);
+		if (ij != null) ij.getContext().dispose();
+	}
+
+	@Test
+	public void testOp() throws Exception {
+		ij = new ImageJ(ImageJ.Startup.LAZY);
+		final Img<FloatType> img = ArrayImgs.floats(new float[] { 1, 2, 3, 4 },
+			2, 2);
+		final Object sum = ij.async().op("stats.sum", img).get(10,
+			TimeUnit.SECONDS);
+		assertEquals(10, ((RealType<?>) sum).getRealDouble(), 0);
+	}
+
+	/**
+	 * Tests that concurrent operations which parallelize internally never
+	 * occupy more threads than the larger of the concurrency and the number of
+	 * processors.
+	 */
+	@Test
+	public void testBoundedThreads() throws Exception {
+		ij = new ImageJ(ImageJ.Startup.LAZY);
+		final ThreadService threadService = ij.thread();
+		final int cores = Runtime.getRuntime().availableProcessors();
+		final int bound = Math.max(ij.async().getConcurrency(), cores);
+		final AtomicInteger busy = new AtomicInteger();
+		final AtomicInteger maxBusy = new AtomicInteger();
+		final List<CompletableFuture<Object>> futures = new ArrayList<>();
+		for (int i = 0; i < ij.async().getConcurrency(); i++) {
+			futures.add(ij.async().submit(() -> {
+				Parallel.forEach(threadService, 4 * cores, index -> {
+					maxBusy.accumulateAndGet(busy.incrementAndGet(), Math::max);
+					try {
+						Thread.sleep(5);
+					}
+					finally {
+						busy.decrementAndGet();
+					}
+				});
+				return null;
+			}));
+		}
+		for (final CompletableFuture<Object> future : futures) {
+			future.get(60, TimeUnit.SECONDS);
+		}
+		assertTrue(maxBusy.get() + " > " + bound, maxBusy.get() <= bound);
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		ij = new ImageJ(ImageJ.Startup.LAZY);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch interrupted = new CountDownLatch(1);
+		final CompletableFuture<Object> future = ij.async().submit(() -> {
+			started.countDown();
+			try {
+				Thread.sleep(60000);
+			}
+			catch (final InterruptedException exc) {
+				interrupted.countDown();
+			}
+			return null;
+		});
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		assertTrue(future.cancel(true));
+		assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+		try {
+			future.join();
+		}
+		catch (final CancellationException exc) {
+			// NB: Expected.
+		}
+		assertTrue(future.isCancelled());
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		System.setProperty(DefaultAsyncService.THREADS_PROPERTY, "1");
+		System.setProperty(DefaultAsyncService.QUEUE_PROPERTY, "1");
+		ij = new ImageJ(ImageJ.Startup.LAZY);
+		assertEquals(1, ij.async().getConcurrency());
+		assertEquals(1, ij.async().getMaxPending());
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final CompletableFuture<Object> first = ij.async().submit(() -> {
+			release.await();
+			return null;
+		});
+		assertEquals(1, ij.async().getPending());
+
+		// NB: Submitting another task blocks until the first one completes.
+		final Thread submitter = new Thread(() -> ij.async().submit(() -> null));
+		submitter.start();
+		submitter.join(200);
+		assertTrue(submitter.isAlive());
+		assertFalse(first.isDone());
+
+		release.countDown();
+		submitter.join(10000);
+		assertFalse(submitter.isAlive());
+		first.get(10, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testNested() throws Exception {
+		System.setProperty(DefaultAsyncService.THREADS_PROPERTY, "1");
+		ij = new ImageJ(ImageJ.Startup.LAZY);
+
+		// NB: With a single running permit, waiting for a queued nested
+		// operation would never complete.
+		final CompletableFuture<Integer> outer = ij.async().submit(() -> ij
+			.async().submit(() -> 42).get(10, TimeUnit.SECONDS));
+		assertEquals(42, outer.get(10, TimeUnit.SECONDS).intValue());
+	}
+
+	@Test
+	public void testDispose() throws Exception {
+		System.setProperty(DefaultAsyncService.THREADS_PROPERTY, "1");
+		ij = new ImageJ(ImageJ.Startup.LAZY);
+		final CountDownLatch started = new CountDownLatch(1);
+		final CompletableFuture<Object> running = ij.async().submit(() -> {
+			started.countDown();
+			Thread.sleep(60000);
+			return null;
+		});
+		final CompletableFuture<Object> queued = ij.async().submit(() -> null);
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+
+		final AsyncService async = ij.async();
+		ij.getContext().dispose();
+		ij = null;
+		assertTrue(running.isCompletedExceptionally());
+		assertTrue(queued.isCompletedExceptionally());
+		assertTrue(async.submit(() -> null).isCompletedExceptionally());
+	}
+
+}
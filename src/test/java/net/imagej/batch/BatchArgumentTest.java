@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.batch;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import net.imagej.ImageJ;
+import net.imagej.daemon.JobRunner;
+import net.imglib2.img.array.ArrayImgs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link BatchArgument}.
+ * 
+ * @author agent
+ */
+public class BatchArgumentTest {
+
+	private ImageJ ij;
+	private BatchArgument argument;
+	private File inputDir;
+	private File outputDir;
+
+	@Before
+	public void setUp() throws IOException {
+		ij = new ImageJ();
+		argument = new BatchArgument();
+		ij.getContext().inject(argument);
+		inputDir = Files.createTempDirectory("batch-in").toFile();
+		outputDir = new File(Files.createTempDirectory("batch-out").toFile(),
+			"results");
+		new JobRunner(ij.getContext()).save(ArrayImgs.unsignedBytes(16, 16),
+			new File(inputDir, "image.tif").getPath());
+	}
+
+	@After
+	public void tearDown() {
+		ij.getContext().dispose();
+		delete(inputDir);
+		delete(outputDir);
+		outputDir.getParentFile().delete();
+	}
+
+	@Test
+	public void testBatch() {
+		final LinkedList<String> args = args("--batch", inputDir.getPath(),
+			"--op", "filter.gauss", "1.5", "--out", outputDir.getPath(),
+			"--threads", "2");
+		assertTrue(argument.supports(args));
+		argument.handle(args);
+		assertTrue(args.isEmpty());
+		assertTrue(new File(outputDir, "image.tif").isFile());
+	}
+
+	/** Tests that invalid counts are reported instead of thrown. */
+	@Test
+	public void testInvalidCount() {
+		argument.handle(args("--batch", inputDir.getPath(), "--op",
+			"filter.gauss", "1.5", "--out", outputDir.getPath(), "--threads",
+			"many"));
+		argument.handle(args("--batch", inputDir.getPath(), "--op",
+			"filter.gauss", "1.5", "--out", outputDir.getPath(), "--workers", "-1"));
+		assertFalse(outputDir.exists());
+	}
+
+	@Test
+	public void testMissingOptions() {
+		argument.handle(args("--batch", inputDir.getPath(), "--out", outputDir
+			.getPath()));
+		argument.handle(args("--batch"));
+		assertFalse(outputDir.exists());
+	}
+
+	@Test
+	public void testSupports() {
+		assertFalse(argument.supports(args("--serve")));
+		assertFalse(argument.supports(new LinkedList<String>()));
+	}
+
+	// -- Helper methods --
+
+	private static LinkedList<String> args(final String... args) {
+		return new LinkedList<>(Arrays.asList(args));
+	}
+
+	private static void delete(final File dir) {
+		final File[] files = dir.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+}
@@ -0,0 +1,166 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Set;
+
+import net.imagej.ImageJ;
+import net.imagej.daemon.JobRunner;
+import net.imglib2.img.array.ArrayImgs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link BatchProcessor}.
+ * 
+ * @author agent
+ */
+public class BatchProcessorTest {
+
+	private static final int FILES = 4;
+
+	private ImageJ ij;
+	private File inputDir;
+	private File outputDir;
+
+	@Before
+	public void setUp() throws IOException {
+		ij = new ImageJ();
+		inputDir = Files.createTempDirectory("batch-in").toFile();
+		outputDir = Files.createTempDirectory("batch-out").toFile();
+		final JobRunner runner = new JobRunner(ij.getContext());
+		for (int i = 0; i < FILES; i++) {
+			runner.save(ArrayImgs.unsignedBytes(16, 16), new File(inputDir, "image" +
+				i + ".tif").getPath());
+		}
+	}
+
+	@After
+	public void tearDown() {
+		ij.getContext().dispose();
+		delete(inputDir);
+		delete(outputDir);
+	}
+
+	/** Tests that a run processes every file, and that a rerun resumes. */
+	@Test
+	public void testProcess() throws IOException, InterruptedException {
+		final BatchProcessor processor = processor();
+		final BatchProcessor.Report report = processor.process(inputDir,
+			outputDir);
+		assertEquals(FILES, report.getSucceeded());
+		assertTrue(report.getFailures().isEmpty());
+		for (int i = 0; i < FILES; i++) {
+			assertTrue(new File(outputDir, "image" + i + ".tif").isFile());
+		}
+		final Set<String> done = BatchProcessor.readManifest(new File(outputDir,
+			BatchProcessor.MANIFEST));
+		assertEquals(FILES, done.size());
+
+		final BatchProcessor.Report again = processor.process(inputDir,
+			outputDir);
+		assertEquals(0, again.getSucceeded());
+		assertEquals(FILES, again.getSkipped());
+	}
+
+	/** Tests that a file which fails is recorded, and retried on a rerun. */
+	@Test
+	public void testFailure() throws IOException, InterruptedException {
+		final File broken = new File(inputDir, "broken.tif");
+		try (final FileOutputStream out = new FileOutputStream(broken)) {
+			out.write("not an image".getBytes("UTF-8"));
+		}
+		final BatchProcessor processor = processor();
+		final BatchProcessor.Report report = processor.process(inputDir,
+			outputDir);
+		assertEquals(FILES, report.getSucceeded());
+		assertEquals(1, report.getFailures().size());
+		assertTrue(report.getFailures().containsKey(broken));
+
+		final BatchProcessor.Report again = processor.process(inputDir,
+			outputDir);
+		assertEquals(FILES, again.getSkipped());
+		assertEquals(1, again.getFailures().size());
+	}
+
+	/** Tests that results are never written into the input directory. */
+	@Test(expected = IOException.class)
+	public void testSameDirectory() throws IOException, InterruptedException {
+		processor().process(inputDir, inputDir);
+	}
+
+	@Test
+	public void testOutputName() {
+		assertEquals("a.tif", BatchProcessor.outputName(new File("a.tif")));
+		assertEquals("a.TIFF", BatchProcessor.outputName(new File("a.TIFF")));
+		assertEquals("a.png.tif", BatchProcessor.outputName(new File("a.png")));
+	}
+
+	@Test
+	public void testIsInput() throws IOException {
+		assertTrue(BatchProcessor.isInput(new File(inputDir, "image0.tif")));
+		final File manifest = new File(inputDir, BatchProcessor.MANIFEST);
+		assertTrue(manifest.createNewFile());
+		assertFalse(BatchProcessor.isInput(manifest));
+		assertFalse(BatchProcessor.isInput(inputDir));
+	}
+
+	// -- Helper methods --
+
+	private BatchProcessor processor() {
+		final BatchProcessor processor = new BatchProcessor(ij.getContext(), 2);
+		processor.setOp("filter.gauss", Arrays.asList("1.5"));
+		return processor;
+	}
+
+	private static void delete(final File dir) {
+		final File[] files = dir.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+}
@@ -0,0 +1,368 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import net.imagej.ImageJ;
+import net.imagej.daemon.JobRunner;
+import net.imagej.daemon.JobServer;
+import net.imglib2.img.array.ArrayImgs;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link ShardCoordinator}.
+ * 
+ * @author agent
+ */
+public class ShardCoordinatorTest {
+
+	private static final int FILES = 6;
+
+	private static final String LOOPBACK = InetAddress.getLoopbackAddress()
+		.getHostAddress();
+
+	private ImageJ ij;
+	private File inputDir;
+	private File outputDir;
+
+	@Before
+	public void setUp() throws IOException {
+		ij = new ImageJ();
+		inputDir = Files.createTempDirectory("shard-in").toFile();
+		outputDir = Files.createTempDirectory("shard-out").toFile();
+		final JobRunner runner = new JobRunner(ij.getContext());
+		for (int i = 0; i < FILES; i++) {
+			runner.save(ArrayImgs.unsignedBytes(16, 16), new File(inputDir, "image" +
+				i + ".tif").getPath());
+		}
+	}
+
+	@After
+	public void tearDown() {
+		ij.getContext().dispose();
+		delete(inputDir);
+		delete(outputDir);
+	}
+
+	/** Tests sharding across worker processes spawned on this host. */
+	@Test
+	public void testSpawnedWorkers() throws Exception {
+		try (final ShardCoordinator coordinator = coordinator()) {
+			coordinator.spawn(2, 1);
+			assertEquals(2, coordinator.getWorkerCount());
+			final BatchProcessor.Report report = coordinator.process(inputDir,
+				outputDir);
+			assertEquals(FILES, report.getSucceeded());
+			assertTrue(report.getFailures().isEmpty());
+			assertOutputs();
+			// NB: Both workers opened and saved images.
+			assertEquals(Long.valueOf(FILES), coordinator.getWorkerMetrics().get(
+				"io.save.count"));
+
+			// Running again resumes, skipping all files.
+			final BatchProcessor.Report again = coordinator.process(inputDir,
+				outputDir);
+			assertEquals(0, again.getSucceeded());
+			assertEquals(FILES, again.getSkipped());
+			// NB: The metrics are those of the run, not since the workers started.
+			assertEquals(Long.valueOf(0), coordinator.getWorkerMetrics().get(
+				"io.save.count"));
+		}
+	}
+
+	/** Tests that spawned workers start through the same launcher as this JVM. */
+	@Test
+	public void testLauncher() throws Exception {
+		final File marker = new File(outputDir, "launched");
+		System.setProperty(ShardCoordinator.LAUNCHER_PROPERTY, Launcher.class
+			.getName());
+		System.setProperty(ShardCoordinator.OPTIONS_PROPERTY, "-D" +
+			Launcher.MARKER_PROPERTY + "=" + marker.getAbsolutePath());
+		try (final ShardCoordinator coordinator = coordinator()) {
+			coordinator.spawn(1, 2);
+			assertEquals(1, coordinator.getWorkerCount());
+			assertTrue(marker.isFile());
+			marker.delete();
+			final BatchProcessor.Report report = coordinator.process(inputDir,
+				outputDir);
+			assertEquals(FILES, report.getSucceeded());
+			assertOutputs();
+		}
+		finally {
+			System.clearProperty(ShardCoordinator.LAUNCHER_PROPERTY);
+			System.clearProperty(ShardCoordinator.OPTIONS_PROPERTY);
+		}
+	}
+
+	/** Tests that shards which fail on one worker are retried on another. */
+	@Test
+	public void testRetry() throws Exception {
+		final JobServer server = new JobServer(ij.getContext(), 2, 0);
+		try (final FakeWorker broken = new FakeWorker(Mode.FAIL);
+				final ShardCoordinator coordinator = coordinator())
+		{
+			coordinator.connect(LOOPBACK, broken.port, 2);
+			coordinator.connect(LOOPBACK, server.listen(0), 2);
+			final BatchProcessor.Report report = coordinator.process(inputDir,
+				outputDir);
+			assertEquals(FILES, report.getSucceeded());
+			assertOutputs();
+			assertTrue(ij.metrics().counter("batch.shards.retried").getCount() > 0);
+		}
+		finally {
+			server.shutdown();
+		}
+	}
+
+	/** Tests that idle workers steal the shards dealt out to busy ones. */
+	@Test
+	public void testWorkStealing() throws Exception {
+		try (final FakeWorker slow = new FakeWorker(Mode.SLOW);
+				final FakeWorker fast = new FakeWorker(Mode.OK);
+				final ShardCoordinator coordinator = coordinator())
+		{
+			coordinator.connect(LOOPBACK, slow.port, 1);
+			coordinator.connect(LOOPBACK, fast.port, 1);
+			final BatchProcessor.Report report = coordinator.process(inputDir,
+				outputDir);
+			assertEquals(FILES, report.getSucceeded());
+			assertEquals(FILES, slow.requests + fast.requests);
+			// NB: Each worker was dealt half the shards.
+			assertTrue(fast.requests > FILES / 2);
+			assertTrue(ij.metrics().counter("batch.shards.stolen").getCount() > 0);
+		}
+	}
+
+	/** Tests that a stopped job keeps its slot until it has returned. */
+	@Test
+	public void testStuckSlot() throws Exception {
+		try (final FakeWorker stuck = new FakeWorker(Mode.TIMEOUT);
+				final FakeWorker fine = new FakeWorker(Mode.OK);
+				final ShardCoordinator coordinator = coordinator())
+		{
+			coordinator.connect(LOOPBACK, stuck.port, 1);
+			coordinator.connect(LOOPBACK, fine.port, 1);
+			final BatchProcessor.Report report = coordinator.process(inputDir,
+				outputDir);
+			assertEquals(FILES, report.getSucceeded());
+			// NB: The stuck job never returned, so its slot was never reused.
+			assertEquals(1, stuck.requests);
+			assertEquals(FILES, fine.requests);
+		}
+	}
+
+	/** Tests that the shards of a lost worker are taken over by another. */
+	@Test
+	public void testLostWorker() throws Exception {
+		final JobServer server = new JobServer(ij.getContext(), 2, 0);
+		try (final FakeWorker crashing = new FakeWorker(Mode.CRASH);
+				final ShardCoordinator coordinator = coordinator())
+		{
+			coordinator.connect(LOOPBACK, crashing.port, 2);
+			coordinator.connect(LOOPBACK, server.listen(0), 2);
+			final BatchProcessor.Report report = coordinator.process(inputDir,
+				outputDir);
+			assertEquals(FILES, report.getSucceeded());
+			assertOutputs();
+			assertEquals(1, coordinator.getWorkerCount());
+		}
+		finally {
+			server.shutdown();
+		}
+	}
+
+	/** Tests that shards fail once they run out of attempts. */
+	@Test
+	public void testFailure() throws Exception {
+		try (final FakeWorker broken = new FakeWorker(Mode.FAIL);
+				final ShardCoordinator coordinator = coordinator())
+		{
+			coordinator.setMaxAttempts(2);
+			coordinator.connect(LOOPBACK, broken.port, 2);
+			final BatchProcessor.Report report = coordinator.process(inputDir,
+				outputDir);
+			assertEquals(0, report.getSucceeded());
+			assertEquals(FILES, report.getFailures().size());
+			assertEquals(2 * FILES, broken.requests);
+		}
+	}
+
+	/** Tests that files which cannot be passed to the workers fail up front. */
+	@Test
+	public void testWhitespace() throws Exception {
+		final File spaced = new File(inputDir, "image " + FILES + ".tif");
+		new JobRunner(ij.getContext()).save(ArrayImgs.unsignedBytes(16, 16),
+			spaced.getPath());
+		try (final FakeWorker fine = new FakeWorker(Mode.OK);
+				final ShardCoordinator coordinator = coordinator())
+		{
+			coordinator.connect(LOOPBACK, fine.port, 2);
+			final BatchProcessor.Report report = coordinator.process(inputDir,
+				outputDir);
+			assertEquals(FILES, report.getSucceeded());
+			assertEquals(1, report.getFailures().size());
+			assertTrue(report.getFailures().containsKey(spaced));
+			assertEquals(FILES, fine.requests);
+		}
+	}
+
+	// -- Helper methods --
+
+	private ShardCoordinator coordinator() {
+		final ShardCoordinator coordinator = new ShardCoordinator(ij
+			.getContext());
+		coordinator.setOp("filter.gauss", Arrays.asList("1.5"));
+		return coordinator;
+	}
+
+	private void assertOutputs() {
+		for (int i = 0; i < FILES; i++) {
+			assertTrue(new File(outputDir, "image" + i + ".tif").isFile());
+		}
+	}
+
+	private static void delete(final File dir) {
+		final File[] files = dir.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	// -- Helper classes --
+
+	/** What a {@link FakeWorker} does with the jobs it is given. */
+	private enum Mode {
+		/** Fails every job. */
+		FAIL,
+		/** Crashes on the first job. */
+		CRASH,
+		/** Pretends to complete every job right away. */
+		OK,
+		/** Pretends to complete every job after a while. */
+		SLOW,
+		/** Times out on every job, which never returns. */
+		TIMEOUT
+	}
+
+	/**
+	 * A worker which speaks the protocol of a {@link JobServer}, but does not
+	 * actually process any files.
+	 */
+	private static class FakeWorker implements AutoCloseable {
+
+		private final ServerSocket serverSocket;
+		private final int port;
+		private volatile int requests;
+
+		public FakeWorker(final Mode mode) throws IOException {
+			serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			port = serverSocket.getLocalPort();
+			final Thread thread = new Thread(() -> {
+				try (final Socket socket = serverSocket.accept()) {
+					final BufferedReader in = new BufferedReader(new InputStreamReader(
+						socket.getInputStream(), StandardCharsets.UTF_8));
+					final PrintWriter out = new PrintWriter(socket.getOutputStream(),
+						true);
+					String line;
+					while ((line = in.readLine()) != null) {
+						final String[] tokens = line.split(" ");
+						if ("metrics".equals(tokens[0])) out.println("metrics");
+						if (!"run".equals(tokens[0])) continue;
+						requests++;
+						if (mode == Mode.CRASH) return;
+						out.println("accepted " + tokens[1]);
+						switch (mode) {
+							case FAIL:
+								out.println("error " + tokens[1] + " boom");
+								break;
+							case TIMEOUT:
+								out.println("timeout " + tokens[1]);
+								break;
+							case SLOW:
+								Thread.sleep(500);
+								out.println("ok " + tokens[1]);
+								break;
+							default:
+								out.println("ok " + tokens[1]);
+						}
+					}
+				}
+				catch (final IOException | InterruptedException exc) {
+					// NB: The coordinator hung up.
+				}
+			}, "fake-worker");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		@Override
+		public void close() throws IOException {
+			serverSocket.close();
+		}
+	}
+
+	/**
+	 * A launcher which leaves a marker file behind, then runs the given main
+	 * class.
+	 */
+	public static class Launcher {
+
+		private static final String MARKER_PROPERTY = "imagej.test.launched";
+
+		public static void main(final String... args) throws Exception {
+			new File(System.getProperty(MARKER_PROPERTY)).createNewFile();
+			Class.forName(args[0]).getMethod("main", String[].class).invoke(null,
+				(Object) Arrays.copyOfRange(args, 1, args.length));
+		}
+	}
+
+}
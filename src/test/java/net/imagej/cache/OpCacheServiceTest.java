@@ -0,0 +1,177 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.object.ObjectService;
+
+/**
+ * Tests {@link OpCacheService}.
+ * 
+ * @author agent
+ */
+public class OpCacheServiceTest {
+
+	private ImageJ ij;
+
+	@Before
+	public void setUp() {
+		ij = new ImageJ();
+	}
+
+	@After
+	public void tearDown() {
+		ij.getContext().dispose();
+	}
+
+	@Test
+	public void testMemoize() {
+		final Dataset dataset = ij.dataset().create(new FloatType(), new long[] {
+			32, 32 }, "test", new AxisType[] { Axes.X, Axes.Y });
+		final Object first = ij.opCache().run("filter.gauss", dataset, 2.0);
+		assertSame(first, ij.opCache().run("filter.gauss", dataset, 2.0));
+		assertNotSame(first, ij.opCache().run("filter.gauss", dataset, 3.0));
+
+		final OpCacheStatistics stats = ij.opCache().getStatistics();
+		assertEquals(1, stats.getHits());
+		assertEquals(2, stats.getMisses());
+		assertEquals(2, stats.getEntries());
+		assertEquals(2 * (32 * 32 * 4 + 64), stats.getBytes());
+	}
+
+	@Test
+	public void testDatasetUpdate() {
+		final Dataset dataset = ij.dataset().create(new FloatType(), new long[] {
+			32, 32 }, "test", new AxisType[] { Axes.X, Axes.Y });
+		final Object first = ij.opCache().run("stats.mean", dataset);
+
+		dataset.getImgPlus().firstElement().setReal(1000);
+		dataset.update();
+		final Object second = ij.opCache().run("stats.mean", dataset);
+		assertNotSame(first, second);
+		assertEquals(1000.0 / (32 * 32), ((RealType<?>) second).getRealDouble(),
+			1e-6);
+		assertEquals(1, ij.opCache().getStatistics().getInvalidations());
+	}
+
+	@Test
+	public void testCollectedDataset() throws InterruptedException {
+		Dataset dataset = ij.dataset().create(new FloatType(), new long[] { 32,
+			32 }, "test", new AxisType[] { Axes.X, Axes.Y });
+		ij.get(ObjectService.class).removeObject(dataset);
+		ij.opCache().run("stats.mean", dataset);
+		assertEquals(1, ij.opCache().getStatistics().getEntries());
+
+		dataset = null;
+		for (int i = 0; i < 100 && ij.opCache().getStatistics()
+			.getEntries() > 0; i++)
+		{
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertEquals(0, ij.opCache().getStatistics().getEntries());
+		assertEquals(0, ij.opCache().getStatistics().getBytes());
+	}
+
+	@Test
+	public void testContent() {
+		final Img<FloatType> a = ArrayImgs.floats(16, 16);
+		final Img<FloatType> b = ArrayImgs.floats(16, 16);
+		final Object first = ij.opCache().run("stats.sum", a);
+		assertSame(first, ij.opCache().run("stats.sum", b));
+
+		b.firstElement().set(1);
+		assertNotSame(first, ij.opCache().run("stats.sum", b));
+	}
+
+	@Test
+	public void testSnapshot() {
+		final Img<FloatType> a = ArrayImgs.floats(16, 16);
+		final Object first = ij.opCache().run("stats.sum", a);
+
+		// NB: The cached key must not follow later changes to the image.
+		a.firstElement().set(1);
+		assertNotSame(first, ij.opCache().run("stats.sum", a));
+		assertSame(first, ij.opCache().run("stats.sum", ArrayImgs.floats(16, 16)));
+		assertEquals(2 * (16 * 16 * 8 + 64), ij.opCache().getStatistics()
+			.getBytes());
+	}
+
+	@Test
+	public void testPreallocatedOutput() {
+		final Img<FloatType> a = ArrayImgs.floats(16, 16);
+		final Img<FloatType> b = ArrayImgs.floats(16, 16);
+		for (final FloatType t : a) {
+			t.set(1);
+		}
+		for (final FloatType t : b) {
+			t.set(2);
+		}
+		final Img<FloatType> out1 = ArrayImgs.floats(16, 16);
+		final Img<FloatType> out2 = ArrayImgs.floats(16, 16);
+		ij.opCache().run("math.add", out1, a, b);
+		ij.opCache().run("math.add", out2, a, b);
+		assertEquals(3, out1.firstElement().get(), 0);
+		assertEquals(3, out2.firstElement().get(), 0);
+		assertEquals(0, ij.opCache().getStatistics().getEntries());
+		assertEquals(0, ij.opCache().getStatistics().getHits());
+	}
+
+	@Test
+	public void testEviction() {
+		ij.opCache().setMaxBytes(32 * 32 * 4 + 64);
+		final Dataset dataset = ij.dataset().create(new FloatType(), new long[] {
+			32, 32 }, "test", new AxisType[] { Axes.X, Axes.Y });
+		ij.opCache().run("filter.gauss", dataset, 2.0);
+		ij.opCache().run("filter.gauss", dataset, 3.0);
+
+		final OpCacheStatistics stats = ij.opCache().getStatistics();
+		assertEquals(1, stats.getEntries());
+		assertEquals(1, stats.getEvictions());
+	}
+
+}
@@ -0,0 +1,200 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.composite;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.RandomAccess;
+import net.imglib2.display.ColorTable;
+import net.imglib2.display.ColorTables;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link CompositeService}.
+ * 
+ * @author agent
+ */
+public class CompositeServiceTest {
+
+	private ImageJ ij;
+	private CompositeService compositeService;
+
+	@Before
+	public void setUp() {
+		ij = new ImageJ();
+		compositeService = ij.composite();
+	}
+
+	@After
+	public void tearDown() {
+		ij.getContext().dispose();
+	}
+
+	@Test
+	public void testTable() {
+		final int[] table = compositeService.getTable(ColorTables.GRAYS, 0,
+			65535);
+		assertEquals(0, table[0]);
+		assertEquals(255 << 20 | 255 << 10 | 255, table[65535]);
+		assertSame(table, compositeService.getTable(ColorTables.GRAYS, 0,
+			65535));
+	}
+
+	@Test
+	public void testTwoChannels() {
+		final short[][] channels = { { 0, (short) 65535, (short) 65535 }, //
+			{ 0, 0, (short) 65535 } };
+		final int[][] tables = { table(ColorTables.RED), table(ColorTables.GREEN) };
+		final int[] argb = new int[3];
+		compositeService.composite(channels, tables, 3, argb);
+		assertArrayEquals(new int[] { 0xff000000, 0xffff0000, 0xffffff00 }, argb);
+	}
+
+	@Test
+	public void testSaturation() {
+		final short[][] channels = { { (short) 65535 }, { (short) 65535 } };
+		final int[][] tables = { table(ColorTables.GRAYS), table(ColorTables.RED) };
+		final int[] argb = new int[1];
+		compositeService.composite(channels, tables, 1, argb);
+		assertEquals(0xffffffff, argb[0]);
+	}
+
+	@Test
+	public void testManyChannels() {
+		// NB: More than four channels are summed in more than one group.
+		final short[][] channels = new short[5][1];
+		final int[][] tables = new int[5][];
+		for (int c = 0; c < 5; c++) {
+			channels[c][0] = (short) 13107;
+			tables[c] = table(ColorTables.RED);
+		}
+		final int[] argb = new int[1];
+		compositeService.composite(channels, tables, 1, argb);
+		assertEquals(0xffff0000, argb[0]);
+		channels[4][0] = 0;
+		compositeService.composite(channels, tables, 1, argb);
+		assertEquals(0xffcc0000, argb[0]);
+	}
+
+	@Test
+	public void testParallel() {
+		final int width = 512, height = 384;
+		final Random random = new Random(0xcafe);
+		final ColorTable[] luts = { ColorTables.RED, ColorTables.GREEN,
+			ColorTables.BLUE };
+		final short[][] channels = new short[luts.length][width * height];
+		final int[][] tables = new int[luts.length][];
+		for (int c = 0; c < luts.length; c++) {
+			for (int i = 0; i < channels[c].length; i++) {
+				channels[c][i] = (short) random.nextInt(65536);
+			}
+			tables[c] = compositeService.getTable(luts[c], 1000, 60000);
+		}
+		final int[] argb = new int[width * height];
+		compositeService.composite(channels, tables, width, argb);
+		for (int i = 0; i < argb.length; i++) {
+			int r = 0, g = 0, b = 0;
+			for (int c = 0; c < luts.length; c++) {
+				final int v = luts[c].lookupARGB(1000, 60000, channels[c][i] &
+					0xffff);
+				r += v >> 16 & 0xff;
+				g += v >> 8 & 0xff;
+				b += v & 0xff;
+			}
+			final int expected = 0xff000000 | Math.min(r, 255) << 16 | Math.min(g,
+				255) << 8 | Math.min(b, 255);
+			assertEquals("pixel " + i, expected, argb[i]);
+		}
+	}
+
+	@Test
+	public void testDataset() {
+		final Dataset dataset = ij.dataset().create(new UnsignedShortType(),
+			new long[] { 2, 2, 2 }, "composite", new AxisType[] { Axes.X, Axes.Y,
+				Axes.CHANNEL });
+		final RandomAccess<? extends RealType<?>> access = dataset.randomAccess();
+		access.setPosition(new long[] { 1, 0, 0 });
+		access.get().setReal(65535);
+		access.setPosition(new long[] { 1, 1, 1 });
+		access.get().setReal(65535);
+		final int[] argb = compositeService.composite(dataset, Arrays.asList(
+			ColorTables.RED, ColorTables.GREEN), null, null);
+		assertArrayEquals(new int[] { 0xff000000, 0xffff0000, 0xff000000,
+			0xff00ff00 }, argb);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongLUTCount() {
+		final Dataset dataset = ij.dataset().create(new UnsignedShortType(),
+			new long[] { 2, 2, 3 }, "composite", new AxisType[] { Axes.X, Axes.Y,
+				Axes.CHANNEL });
+		compositeService.composite(dataset, Arrays.asList(ColorTables.RED),
+			null, null);
+	}
+
+	@Test
+	public void testLUTCache() throws IOException {
+		final Map<String, ?> luts = ij.lut().findLUTs();
+		Assume.assumeFalse(luts.isEmpty());
+		final String name = luts.keySet().iterator().next();
+		assertSame(compositeService.getLUT(name), compositeService.getLUT(name));
+	}
+
+	@Test(expected = IOException.class)
+	public void testNoSuchLUT() throws IOException {
+		compositeService.getLUT("no/such/lut.lut");
+	}
+
+	// -- Helper methods --
+
+	private int[] table(final ColorTable lut) {
+		return compositeService.getTable(lut, 0, 65535);
+	}
+
+}
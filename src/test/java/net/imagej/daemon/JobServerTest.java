@@ -0,0 +1,202 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.daemon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.imagej.ImageJ;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link JobServer}.
+ * 
+ * @author agent
+ */
+public class JobServerTest {
+
+	private ImageJ ij;
+	private JobServer server;
+
+	@Before
+	public void setUp() {
+		ij = new ImageJ();
+		server = new JobServer(ij.getContext(), 2, 0);
+	}
+
+	@After
+	public void tearDown() {
+		server.shutdown();
+		ij.getContext().dispose();
+	}
+
+	@Test
+	public void testOp() throws IOException, InterruptedException {
+		final List<String> response = serve("run a op math.add 2 3", "quit");
+		assertEquals("accepted a", response.get(0));
+		assertEquals("ok a 5", response.get(1));
+	}
+
+	@Test
+	public void testInvalidRequests() throws IOException,
+		InterruptedException
+	{
+		final List<String> response = serve("frobnicate", "run b bogus x",
+			"cancel c", "quit");
+		assertTrue(response.get(0).startsWith("error - unknown command"));
+		assertTrue(response.get(1).startsWith("error b unknown job type"));
+		assertEquals("error c no such job", response.get(2));
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		server.submit(new JobServer.Connection(out), "d", 0, sleep());
+		assertTrue(server.cancel("d"));
+		assertTrue(server.awaitJobs(10, TimeUnit.SECONDS));
+		awaitLine(out, "returned d");
+		assertEquals(Arrays.asList("accepted d", "cancelled d", "returned d"),
+			lines(out));
+	}
+
+	@Test
+	public void testTimeout() throws InterruptedException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		server.submit(new JobServer.Connection(out), "e", 1, sleep());
+		assertTrue(server.awaitJobs(10, TimeUnit.SECONDS));
+		awaitLine(out, "returned e");
+		assertEquals(Arrays.asList("accepted e", "timeout e", "returned e"),
+			lines(out));
+	}
+
+	/** Tests that jobs which ignore being stopped do not block the others. */
+	@Test
+	public void testStuckJobs() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final JobServer.Connection conn = new JobServer.Connection(out);
+		final Callable<String> stubborn = () -> {
+			while (true) {
+				try {
+					release.await();
+					return "";
+				}
+				catch (final InterruptedException exc) {
+					// NB: Ignore the interruption.
+				}
+			}
+		};
+		try {
+			server.submit(conn, "f", 0, stubborn);
+			server.submit(conn, "g", 0, stubborn);
+			assertTrue(server.cancel("f"));
+			assertTrue(server.cancel("g"));
+			server.submit(conn, "h", 0, () -> "done");
+			assertTrue(server.awaitJobs(10, TimeUnit.SECONDS));
+			assertTrue(lines(out).contains("ok h done"));
+			assertFalse(lines(out).contains("returned f"));
+			// NB: The stuck jobs are reported once they actually return.
+			release.countDown();
+			awaitLine(out, "returned f");
+			awaitLine(out, "returned g");
+		}
+		finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void testSubmitAfterShutdown() throws InterruptedException {
+		server.shutdown();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		server.submit(new JobServer.Connection(out), "i", 0, () -> "done");
+		assertTrue(server.awaitJobs(10, TimeUnit.SECONDS));
+		// NB: The job never ran, so it has returned right away.
+		assertEquals(Arrays.asList("accepted i", "cancelled i", "returned i"),
+			lines(out));
+	}
+
+	// -- Helper methods --
+
+	private static Callable<String> sleep() {
+		return () -> {
+			Thread.sleep(60000);
+			return "";
+		};
+	}
+
+	/** Waits up to ten seconds until the given line has been written. */
+	private static void awaitLine(final ByteArrayOutputStream out,
+		final String line) throws InterruptedException
+	{
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (!lines(out).contains(line)) {
+			assertTrue("Expected " + line, System.currentTimeMillis() < deadline);
+			Thread.sleep(10);
+		}
+	}
+
+	private static List<String> lines(final ByteArrayOutputStream out) {
+		return Arrays.asList(new String(out.toByteArray(),
+			StandardCharsets.UTF_8).split("\n"));
+	}
+
+	private List<String> serve(final String... requests) throws IOException,
+		InterruptedException
+	{
+		final StringBuilder sb = new StringBuilder();
+		for (final String request : requests) {
+			sb.append(request).append("\n");
+		}
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		server.serve(new ByteArrayInputStream(sb.toString().getBytes(
+			StandardCharsets.UTF_8)), out);
+		// NB: Wait for submitted jobs to report their outcome.
+		assertTrue(server.awaitJobs(10, TimeUnit.SECONDS));
+		return lines(out);
+	}
+
+}
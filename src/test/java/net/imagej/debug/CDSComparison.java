@@ -0,0 +1,134 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.debug;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import net.imagej.startup.TrainingRun;
+
+/**
+ * Compares the wall time of a {@link TrainingRun} with and without a class
+ * data sharing archive, the way {@code ImageJ.sh} launches ImageJ.
+ * <p>
+ * The first argument is an ImageJ application directory, e.g. the unpacked
+ * {@code imagej-x.y.z-application.zip}; the optional second argument is the
+ * number of runs per configuration (default 5). Requires Java 11 or later.
+ * </p>
+ * 
+ * @author agent
+ */
+public class CDSComparison {
+
+	public static void main(final String[] args) throws IOException,
+		InterruptedException
+	{
+		final File app = new File(args[0]);
+		final int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		final String classPath = classPath(app);
+		final Path dir = Files.createTempDirectory("imagej-cds");
+		final String classList = dir.resolve("imagej.classlist").toString();
+		final String archive = dir.resolve("imagej.jsa").toString();
+
+		run(classPath, "-Xshare:off", "-XX:DumpLoadedClassList=" + classList,
+			TrainingRun.class.getName());
+		run(classPath, "-Xshare:dump", "-XX:SharedClassListFile=" + classList,
+			"-XX:SharedArchiveFile=" + archive);
+
+		report("JDK archive only", classPath, runs, "-Xshare:auto");
+		report("application archive", classPath, runs,
+			"-XX:SharedArchiveFile=" + archive);
+		System.out.println("archive size: " + new File(archive).length() /
+			1024 / 1024 + " MiB");
+
+		Files.delete(dir.resolve("imagej.classlist"));
+		Files.delete(dir.resolve("imagej.jsa"));
+		Files.delete(dir);
+	}
+
+	// -- Helper methods --
+
+	private static String classPath(final File app) throws IOException {
+		final List<Path> jars = new ArrayList<>();
+		for (final String sub : new String[] { "jars", "plugins" }) {
+			final Path path = new File(app, sub).toPath();
+			if (!Files.isDirectory(path)) continue;
+			try (final Stream<Path> stream = Files.walk(path)) {
+				stream.filter(p -> p.toString().endsWith(".jar")).forEach(jars::add);
+			}
+		}
+		return jars.stream().sorted().map(Path::toString).collect(Collectors
+			.joining(File.pathSeparator));
+	}
+
+	private static void report(final String label, final String classPath,
+		final int runs, final String option) throws IOException,
+		InterruptedException
+	{
+		// NB: Discard the first run, which warms up the file system cache.
+		run(classPath, option, TrainingRun.class.getName());
+		long total = 0, min = Long.MAX_VALUE;
+		for (int i = 0; i < runs; i++) {
+			final long start = System.nanoTime();
+			run(classPath, option, TrainingRun.class.getName());
+			final long time = (System.nanoTime() - start) / 1000000;
+			total += time;
+			min = Math.min(min, time);
+		}
+		System.out.println(label + ": mean " + total / runs + " ms, best " + min +
+			" ms");
+	}
+
+	private static void run(final String classPath, final String... args)
+		throws IOException, InterruptedException
+	{
+		final List<String> command = new ArrayList<>();
+		command.add(new File(System.getProperty("java.home"), "bin/java")
+			.getPath());
+		command.add("-Djava.awt.headless=true");
+		command.add("-Djava.class.path=" + classPath);
+		command.addAll(Arrays.asList(args));
+		final Process process = new ProcessBuilder(command).inheritIO().start();
+		final int status = process.waitFor();
+		if (status != 0) {
+			throw new IOException("Exit status " + status + ": " + command);
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.debug;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.imagej.ImageJ;
+
+/**
+ * Compares the footprint of ImageJ distributions: the number of JAR files,
+ * the gateway's startup time, the number of classes loaded and the heap used
+ * once idle.
+ * <p>
+ * The arguments are unpacked ImageJ distributions, e.g. the
+ * {@code imagej-x.y.z-application.zip} and {@code imagej-x.y.z-headless.zip}
+ * bundles. Each is measured in a fresh headless JVM.
+ * </p>
+ * 
+ * @author agent
+ */
+public class FootprintReport {
+
+	private static final String MEASURE = "--measure";
+
+	public static void main(final String[] args) throws IOException,
+		InterruptedException
+	{
+		if (args.length > 0 && args[0].equals(MEASURE)) {
+			measure();
+			return;
+		}
+		final Map<String, Map<String, String>> results = new LinkedHashMap<>();
+		for (final String app : args) {
+			results.put(app, run(new File(app)));
+		}
+		report(results);
+	}
+
+	// -- Helper methods --
+
+	/** Measures this JVM, printing one {@code key=value} line per measure. */
+	private static void measure() {
+		final long start = System.nanoTime();
+		final ImageJ ij = new ImageJ();
+		final long startup = (System.nanoTime() - start) / 1000000;
+		final int services = ij.getContext().getServiceIndex().size();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		final MemoryUsage heap = ManagementFactory.getMemoryMXBean()
+			.getHeapMemoryUsage();
+		System.out.println("startup ms=" + startup);
+		System.out.println("services=" + services);
+		System.out.println("classes loaded=" + ManagementFactory
+			.getClassLoadingMXBean().getLoadedClassCount());
+		System.out.println("idle heap MiB=" + heap.getUsed() / 1024 / 1024);
+		ij.getContext().dispose();
+	}
+
+	private static Map<String, String> run(final File app) throws IOException,
+		InterruptedException
+	{
+		final List<File> jars = new ArrayList<>();
+		addJars(new File(app, "jars"), jars);
+		addJars(new File(app, "plugins"), jars);
+		final StringBuilder classPath = new StringBuilder(self());
+		for (final File jar : jars) {
+			classPath.append(File.pathSeparator).append(jar.getPath());
+		}
+
+		final List<String> command = new ArrayList<>();
+		command.add(new File(System.getProperty("java.home"), "bin/java")
+			.getPath());
+		command.add("-Djava.awt.headless=true");
+		command.add("-Dimagej.dir=" + app.getAbsolutePath());
+		command.add("-classpath");
+		command.add(classPath.toString());
+		command.add(FootprintReport.class.getName());
+		command.add(MEASURE);
+		final Process process = new ProcessBuilder(command).redirectError(
+			ProcessBuilder.Redirect.INHERIT).start();
+
+		final Map<String, String> result = new LinkedHashMap<>();
+		result.put("jars", "" + jars.size());
+		try (final BufferedReader in = new BufferedReader(new InputStreamReader(
+			process.getInputStream(), StandardCharsets.UTF_8)))
+		{
+			String line;
+			while ((line = in.readLine()) != null) {
+				final int equals = line.indexOf('=');
+				if (equals > 0) {
+					result.put(line.substring(0, equals), line.substring(equals + 1));
+				}
+			}
+		}
+		if (process.waitFor() != 0) {
+			throw new IOException("Measuring " + app + " failed");
+		}
+		return result;
+	}
+
+	private static void report(final Map<String, Map<String, String>> results) {
+		final List<String> keys = new ArrayList<>();
+		for (final Map<String, String> result : results.values()) {
+			for (final String key : result.keySet()) {
+				if (!keys.contains(key)) keys.add(key);
+			}
+		}
+		System.out.printf("%-16s", "");
+		for (final String app : results.keySet()) {
+			System.out.printf("%16s", new File(app).getName());
+		}
+		System.out.println();
+		for (final String key : keys) {
+			System.out.printf("%-16s", key);
+			for (final Map<String, String> result : results.values()) {
+				final String value = result.get(key);
+				System.out.printf("%16s", value == null ? "-" : value);
+			}
+			System.out.println();
+		}
+	}
+
+	private static void addJars(final File dir, final List<File> jars) {
+		final File[] files = dir.listFiles();
+		if (files == null) return;
+		for (final File file : files) {
+			if (file.isDirectory()) addJars(file, jars);
+			else if (file.getName().endsWith(".jar")) jars.add(file);
+		}
+	}
+
+	/** Gets the class path entry containing this class. */
+	private static String self() {
+		try {
+			return new File(FootprintReport.class.getProtectionDomain()
+				.getCodeSource().getLocation().toURI()).getPath();
+		}
+		catch (final URISyntaxException exc) {
+			throw new IllegalStateException(exc);
+		}
+	}
+
+}
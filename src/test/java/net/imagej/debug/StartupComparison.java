@@ -0,0 +1,77 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.debug;
+
+import net.imagej.ImageJ;
+
+import org.scijava.service.Service;
+
+/**
+ * Compares the cost of starting an ImageJ gateway eagerly versus lazily.
+ * <p>
+ * The class names given as arguments are services to request from the lazy
+ * gateway after it has been constructed, e.g.
+ * {@code net.imagej.ops.OpService net.imagej.DatasetService}.
+ * </p>
+ * 
+ * @author agent
+ */
+public class StartupComparison {
+
+	public static void main(final String[] args) throws ClassNotFoundException {
+		final ImageJ eager = new ImageJ(ImageJ.Startup.EAGER);
+		report(eager);
+		eager.getContext().dispose();
+
+		final ImageJ lazy = new ImageJ(ImageJ.Startup.LAZY);
+		final long start = System.nanoTime();
+		for (final String className : args) {
+			lazy.get(Class.forName(className).asSubclass(Service.class));
+		}
+		final double requestTime = (System.nanoTime() - start) / 1e6;
+		report(lazy);
+		System.out.println("  on-demand service creation: " + requestTime +
+			" ms");
+		lazy.getContext().dispose();
+	}
+
+	// -- Helper methods --
+
+	private static void report(final ImageJ ij) {
+		System.out.println(ij.getStartup() + ": constructed in " + //
+			ij.getStartupTime() + " ms");
+		for (final Class<? extends Service> c : ij.getStartedServices()) {
+			System.out.println("  " + c.getName());
+		}
+	}
+
+}
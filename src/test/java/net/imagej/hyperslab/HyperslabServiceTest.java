@@ -0,0 +1,178 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.hyperslab;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.axis.DefaultLinearAxis;
+import net.imagej.axis.LinearAxis;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Intervals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link HyperslabService}.
+ * 
+ * @author agent
+ */
+public class HyperslabServiceTest {
+
+	private static final long[] DIMS = { 4, 3, 3, 5, 6 };
+
+	private ImageJ ij;
+	private Dataset source;
+
+	@Before
+	public void setUp() {
+		ij = new ImageJ();
+		source = ij.dataset().create(new UnsignedShortType(), DIMS, "source",
+			new AxisType[] { Axes.X, Axes.Y, Axes.CHANNEL, Axes.Z, Axes.TIME });
+		source.setAxis(new DefaultLinearAxis(Axes.Z, "um", 2, 0), 3);
+		source.setAxis(new DefaultLinearAxis(Axes.TIME, "s", 10, 0), 4);
+		final Cursor<? extends RealType<?>> cursor = source.localizingCursor();
+		final long[] pos = new long[DIMS.length];
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.localize(pos);
+			cursor.get().setReal(encode(pos));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		ij.getContext().dispose();
+	}
+
+	@Test
+	public void testRange() {
+		final Dataset view = ij.hyperslab().view(source, new Hyperslab().range(
+			Axes.Z, 1, 3));
+		assertArrayEquals(new long[] { 4, 3, 3, 3, 6 }, Intervals
+			.dimensionsAsLongArray(view));
+		assertEquals(encode(2, 1, 0, 3, 5), value(view, 2, 1, 0, 2, 5), 0);
+		final LinearAxis z = (LinearAxis) view.axis(3);
+		assertEquals(2, z.scale(), 0);
+		assertEquals(2, z.origin(), 0);
+	}
+
+	@Test
+	public void testStride() {
+		final Dataset view = ij.hyperslab().view(source, new Hyperslab().every(
+			Axes.TIME, 2).range(Axes.X, 1, -1));
+		assertArrayEquals(new long[] { 3, 3, 3, 5, 3 }, Intervals
+			.dimensionsAsLongArray(view));
+		assertEquals(encode(3, 2, 1, 4, 4), value(view, 2, 2, 1, 4, 2), 0);
+		assertEquals(20, ((LinearAxis) view.axis(4)).scale(), 0);
+	}
+
+	@Test
+	public void testPick() {
+		final Dataset view = ij.hyperslab().view(source, new Hyperslab().pick(
+			Axes.CHANNEL, 2, 0));
+		assertArrayEquals(new long[] { 4, 3, 2, 5, 6 }, Intervals
+			.dimensionsAsLongArray(view));
+		assertEquals(encode(1, 2, 2, 3, 4), value(view, 1, 2, 0, 3, 4), 0);
+		assertEquals(encode(1, 2, 0, 3, 4), value(view, 1, 2, 1, 3, 4), 0);
+		assertEquals(Axes.CHANNEL, view.axis(2).type());
+	}
+
+	@Test
+	public void testZeroCopy() {
+		final Dataset view = ij.hyperslab().view(source, new Hyperslab().pick(
+			Axes.CHANNEL, 1).range(Axes.Z, 2, 4));
+		assertTrue(ij.hyperslab().isView(view));
+		assertFalse(ij.hyperslab().isView(source));
+		final RandomAccess<? extends RealType<?>> access = source.randomAccess();
+		access.setPosition(new long[] { 0, 0, 1, 3, 0 });
+		access.get().setReal(4242);
+		assertEquals(4242, value(view, 0, 0, 0, 1, 0), 0);
+	}
+
+	@Test
+	public void testMaterialize() throws InterruptedException {
+		final Dataset view = ij.hyperslab().view(source, new Hyperslab().pick(
+			Axes.CHANNEL, 2, 1).every(Axes.Z, 2));
+		final Dataset copy = ij.hyperslab().materialize(view);
+		assertFalse(ij.hyperslab().isView(copy));
+		assertArrayEquals(Intervals.dimensionsAsLongArray(view), Intervals
+			.dimensionsAsLongArray(copy));
+		final Cursor<? extends RealType<?>> cursor = copy.localizingCursor();
+		final long[] pos = new long[DIMS.length];
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.localize(pos);
+			assertEquals(value(view, pos), cursor.get().getRealDouble(), 0);
+		}
+		assertEquals(4, ((LinearAxis) copy.axis(3)).scale(), 0);
+
+		// NB: The copy no longer reads through to the source.
+		final RandomAccess<? extends RealType<?>> access = source.randomAccess();
+		access.setPosition(new long[] { 0, 0, 2, 0, 0 });
+		access.get().setReal(4242);
+		assertEquals(encode(0, 0, 2, 0, 0), value(copy, 0, 0, 0, 0, 0), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutOfBounds() {
+		ij.hyperslab().view(source, new Hyperslab().range(Axes.Z, 3, 5));
+	}
+
+	// -- Helper methods --
+
+	private static double encode(final long... pos) {
+		long value = 0;
+		for (int d = pos.length - 1; d >= 0; d--) {
+			value = value * DIMS[d] + pos[d];
+		}
+		return value;
+	}
+
+	private static double value(final Dataset dataset, final long... pos) {
+		final RandomAccess<? extends RealType<?>> access = dataset.randomAccess();
+		access.setPosition(pos);
+		return access.get().getRealDouble();
+	}
+
+}
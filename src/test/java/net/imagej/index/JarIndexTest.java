@@ -0,0 +1,222 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link JarIndex} and {@link IndexedClassLoader}.
+ * 
+ * @author agent
+ */
+public class JarIndexTest {
+
+	private static final String PLUGINS = "META-INF/json/org.scijava.plugin.Plugin";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testLocate() throws IOException {
+		final File a = jar("a.jar", "x/y/A.class", "x/y/a.txt");
+		final File b = jar("b.jar", "w/B.class", "x/y/b.txt");
+		final JarIndex index = JarIndex.load(folder.newFolder(), Arrays.asList(a,
+			b));
+
+		assertEquals(Arrays.asList(a, b), index.getJars());
+		assertEquals(Arrays.asList(a, b), index.locate("x/y/C.class"));
+		assertEquals(Arrays.asList(a, b), index.locate("x/y/"));
+		assertEquals(Collections.singletonList(b), index.locate("w/B.class"));
+		assertEquals(Collections.emptyList(), index.locate("z/Z.class"));
+	}
+
+	@Test
+	public void testPlugins() throws IOException {
+		final File a = jar("a.jar", PLUGINS);
+		final File b = jar("b.jar", "x/B.class");
+		final File c = jar("c.jar", PLUGINS);
+		final JarIndex index = JarIndex.load(folder.newFolder(), Arrays.asList(a,
+			b, c));
+
+		final String plugins = new String(Files.readAllBytes(index
+			.getPluginsFile().toPath()), StandardCharsets.UTF_8);
+		assertEquals(PLUGINS + "@a.jar\n" + PLUGINS + "@c.jar\n", plugins);
+	}
+
+	/** Tests that merged plugins are only trusted for their own JAR files. */
+	@Test
+	public void testIsCurrent() throws IOException {
+		final File a = jar("a.jar", PLUGINS);
+		final File b = jar("b.jar", PLUGINS);
+		final File plugins = JarIndex.load(folder.newFolder(), Arrays.asList(a,
+			b)).getPluginsFile();
+		assertTrue(JarIndex.isCurrent(plugins, Arrays.asList(a, b)));
+
+		assertFalse(JarIndex.isCurrent(plugins, Collections.singletonList(a)));
+		final File c = jar("c.jar", PLUGINS);
+		assertFalse(JarIndex.isCurrent(plugins, Arrays.asList(a, b, c)));
+		assertFalse(JarIndex.isCurrent(plugins, Arrays.asList(a, c)));
+		assertTrue(b.setLastModified(b.lastModified() - 60000));
+		assertFalse(JarIndex.isCurrent(plugins, Arrays.asList(a, b)));
+		assertFalse(JarIndex.isCurrent(a, Arrays.asList(a, b)));
+	}
+
+	/** Tests that only changed JAR files are indexed anew. */
+	@Test
+	public void testInvalidation() throws IOException {
+		final File dir = folder.newFolder();
+		final File a = jar("a.jar", "x/A.class");
+		final File b = jar("b.jar", "y/B.class");
+		final List<File> jars = Arrays.asList(a, b);
+		JarIndex.load(dir, jars);
+		final long indexed = new File(dir, "jars").lastModified();
+
+		// NB: An unchanged JAR file is not read at all, and a touched one is
+		// recognized by its checksum; neither rewrites the stored index.
+		assertTrue(a.setLastModified(a.lastModified() - 60000));
+		assertEquals(Collections.singletonList(a), JarIndex.load(dir, jars)
+			.locate("x/A.class"));
+		assertTrue(new File(dir, "jars").setLastModified(indexed - 60000));
+		final long touched = new File(dir, "jars").lastModified();
+		JarIndex.load(dir, jars);
+		assertEquals(touched, new File(dir, "jars").lastModified());
+
+		// NB: Same size, different contents.
+		final long mtime = b.lastModified();
+		jar("b.jar", "z/B.class");
+		assertTrue(b.setLastModified(mtime + 60000));
+		final JarIndex index = JarIndex.load(dir, jars);
+		assertEquals(Collections.emptyList(), index.locate("y/B.class"));
+		assertEquals(Collections.singletonList(b), index.locate("z/B.class"));
+	}
+
+	@Test
+	public void testClassLoader() throws Exception {
+		final String path = Probe.class.getName().replace('.', '/') + ".class";
+		final byte[] bytes;
+		try (final InputStream in = Probe.class.getResourceAsStream("/" + path)) {
+			bytes = readFully(in);
+		}
+		final File jar = folder.newFile("probe.jar");
+		try (final ZipOutputStream out = new ZipOutputStream(
+			new FileOutputStream(jar)))
+		{
+			out.putNextEntry(new ZipEntry(path));
+			out.write(bytes);
+			out.putNextEntry(new ZipEntry("x/probe.txt"));
+			out.write('!');
+		}
+		final JarIndex index = JarIndex.load(null, Collections.singletonList(jar));
+		try (final IndexedClassLoader loader = new IndexedClassLoader(index,
+			null))
+		{
+			final Class<?> c = loader.loadClass(Probe.class.getName());
+			assertNotSame(Probe.class, c);
+			assertSame(loader, c.getClassLoader());
+			assertEquals(jar.toURI().toURL(), c.getProtectionDomain()
+				.getCodeSource().getLocation());
+			assertSame(c, loader.loadClass(Probe.class.getName()));
+
+			assertNotNull(loader.getResource("x/probe.txt"));
+			try (final InputStream in = loader.getResourceAsStream(
+				"x/probe.txt"))
+			{
+				assertArrayEquals(new byte[] { '!' }, readFully(in));
+			}
+			assertEquals(null, loader.getResource("x/missing.txt"));
+		}
+	}
+
+	// -- Helper methods --
+
+	/**
+	 * Writes a JAR file with the given entries, each containing its own name
+	 * and that of the JAR file.
+	 */
+	private File jar(final String name, final String... entries)
+		throws IOException
+	{
+		final File jar = new File(folder.getRoot(), name);
+		try (final ZipOutputStream out = new ZipOutputStream(
+			new FileOutputStream(jar)))
+		{
+			for (final String entry : entries) {
+				final ZipEntry zipEntry = new ZipEntry(entry);
+				// NB: Fix the time stamp, so that the size depends on the names only.
+				zipEntry.setTime(0);
+				out.putNextEntry(zipEntry);
+				out.write((entry + "@" + name).getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		return jar;
+	}
+
+	private static byte[] readFully(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buf = new byte[8192];
+		int r;
+		while ((r = in.read(buf)) > 0) {
+			out.write(buf, 0, r);
+		}
+		return out.toByteArray();
+	}
+
+	// -- Helper classes --
+
+	public static class Probe {
+		// NB: Loaded by the indexed class loader.
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.scijava.plugin.PluginIndex;
+import org.scijava.service.Service;
+
+/**
+ * Tests {@link PluginIndexSnapshot}.
+ * 
+ * @author agent
+ */
+public class PluginIndexSnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/** Tests that a snapshot yields the same plugins as a class path scan. */
+	@Test
+	public void testSnapshot() throws IOException {
+		final File dir = folder.newFolder();
+		PluginIndexSnapshot.write(dir, null);
+
+		final PluginIndex snapshot = PluginIndexSnapshot.load(dir);
+		assertNotNull(snapshot);
+		snapshot.discover();
+		final PluginIndex scanned = new PluginIndex();
+		scanned.discover();
+
+		assertEquals(scanned.size(), snapshot.size());
+		assertEquals(scanned.getPlugins(Service.class).size(), //
+			snapshot.getPlugins(Service.class).size());
+	}
+
+	/** Tests that a snapshot with the wrong fingerprint is not used. */
+	@Test
+	public void testStaleSnapshot() throws IOException {
+		final File dir = folder.newFolder();
+		PluginIndexSnapshot.write(dir, null);
+		try (final FileOutputStream out = new FileOutputStream(new File(dir,
+			"fingerprint")))
+		{
+			out.write("stale".getBytes("UTF-8"));
+		}
+		assertNull(PluginIndexSnapshot.load(dir));
+	}
+
+	/** Tests that rewriting a snapshot replaces it without leftovers. */
+	@Test
+	public void testRewrite() throws IOException {
+		final File dir = folder.newFolder();
+		PluginIndexSnapshot.write(dir, null);
+		PluginIndexSnapshot.write(dir, null);
+		assertEquals(2, dir.list().length);
+		assertNotNull(PluginIndexSnapshot.load(dir));
+		assertEquals(PluginIndexSnapshot.fingerprint(null), //
+			PluginIndexSnapshot.fingerprint(null));
+	}
+
+	/** Tests that a rebuilt JAR file of the same size changes the fingerprint. */
+	@Test
+	public void testRebuiltJar() throws IOException {
+		final File jar = folder.newFile("rebuilt-1.0.0-SNAPSHOT.jar");
+		new JarOutputStream(new FileOutputStream(jar)).close();
+		jar.setLastModified(1000000000000L);
+
+		final Thread thread = Thread.currentThread();
+		final ClassLoader loader = thread.getContextClassLoader();
+		try (final URLClassLoader jarLoader = new URLClassLoader(new URL[] { jar
+			.toURI().toURL() }, loader))
+		{
+			thread.setContextClassLoader(jarLoader);
+			final String before = PluginIndexSnapshot.fingerprint(null);
+			jar.setLastModified(1100000000000L);
+			assertNotEquals(before, PluginIndexSnapshot.fingerprint(null));
+		}
+		finally {
+			thread.setContextClassLoader(loader);
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imglib2.Cursor;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.view.Views;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link LazyIOService}.
+ * 
+ * @author agent
+ */
+public class LazyIOServiceTest {
+
+	private static final String SOURCE =
+		"lazy&pixelType=uint16&lengths=32,24,6&axes=X,Y,Z.fake";
+
+	private static final long PLANE_SIZE = 32 * 24 * 2;
+
+	private ImageJ ij;
+
+	@Before
+	public void setUp() {
+		ij = new ImageJ(ImageJ.Startup.LAZY);
+	}
+
+	@After
+	public void tearDown() {
+		ij.getContext().dispose();
+	}
+
+	@Test
+	public void testOpen() throws IOException {
+		final Dataset lazy = ij.lazyIO().open(SOURCE);
+		final Dataset eager = ij.scifio().datasetIO().open(SOURCE);
+		assertEquals(eager.numDimensions(), lazy.numDimensions());
+		for (int d = 0; d < eager.numDimensions(); d++) {
+			assertEquals(eager.dimension(d), lazy.dimension(d));
+			assertEquals(eager.axis(d).type(), lazy.axis(d).type());
+		}
+		assertSamePixels(eager, lazy);
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		final PlaneCache cache = ij.lazyIO().getCache();
+		cache.setMaxBytes(2 * PLANE_SIZE);
+		final Dataset lazy = ij.lazyIO().open(SOURCE);
+
+		final Dataset eager = ij.scifio().datasetIO().open(SOURCE);
+		assertSamePixels(eager, lazy);
+		assertSamePixels(eager, lazy);
+
+		final PlaneCache.Statistics stats = cache.getStatistics();
+		assertTrue(stats.getBytes() <= 2 * PLANE_SIZE);
+		assertEquals(2, stats.getPlanes());
+		assertTrue(stats.getMisses() >= 12);
+		assertEquals(stats.getMisses() - 2, stats.getEvictions());
+	}
+
+	@Test
+	public void testOps() throws IOException {
+		final Dataset lazy = ij.lazyIO().open(SOURCE);
+		final Dataset eager = ij.scifio().datasetIO().open(SOURCE);
+		final RealType<?> lazySum = (RealType<?>) ij.op().run("stats.sum", lazy);
+		final RealType<?> eagerSum = (RealType<?>) ij.op().run("stats.sum", eager);
+		assertEquals(eagerSum.getRealDouble(), lazySum.getRealDouble(), 0);
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testReadOnly() throws IOException {
+		final Dataset lazy = ij.lazyIO().open(SOURCE);
+		final Cursor<? extends RealType<?>> cursor = lazy.cursor();
+		cursor.next().setReal(1);
+	}
+
+	/** Tests that the cache does not keep unreferenced images alive. */
+	@Test
+	public void testWeakOwners() throws InterruptedException {
+		final PlaneCache cache = new PlaneCache(1 << 20);
+		Object owner = new Object();
+		cache.get(owner, 0, 16, no -> new byte[16]);
+		assertEquals(1, cache.getStatistics().getPlanes());
+		owner = null;
+		for (int i = 0; i < 50 && cache.getStatistics().getPlanes() > 0; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertEquals(0, cache.getStatistics().getPlanes());
+		assertEquals(0, cache.getStatistics().getBytes());
+	}
+
+	// -- Helper methods --
+
+	private void assertSamePixels(final Dataset expected, final Dataset actual) {
+		final Cursor<? extends RealType<?>> e = Views.flatIterable(expected)
+			.cursor();
+		final Cursor<? extends RealType<?>> a = Views.flatIterable(actual)
+			.cursor();
+		while (e.hasNext()) {
+			assertEquals(e.next().getRealDouble(), a.next().getRealDouble(), 0);
+		}
+	}
+
+}
@@ -0,0 +1,212 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import io.scif.Reader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import net.imagej.ImageJ;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link ReaderCacheService}.
+ * 
+ * @author agent
+ */
+public class ReaderCacheServiceTest {
+
+	private static final String A =
+		"a&pixelType=uint8&lengths=16,16,4&axes=X,Y,Z.fake";
+
+	private static final String B =
+		"b&pixelType=uint8&lengths=16,16,4&axes=X,Y,Z.fake";
+
+	private ImageJ ij;
+	private ReaderCacheService readerCache;
+
+	@Before
+	public void setUp() {
+		ij = new ImageJ(ImageJ.Startup.LAZY);
+		readerCache = ij.readerCache();
+	}
+
+	@After
+	public void tearDown() {
+		ij.getContext().dispose();
+	}
+
+	@Test
+	public void testMetadata() throws IOException {
+		assertSame(readerCache.getMetadata(A), readerCache.getMetadata(A));
+		final ReaderCacheStatistics stats = readerCache.getStatistics();
+		assertEquals(1, stats.getMisses());
+		assertEquals(1, stats.getHits());
+		assertEquals(1, stats.getEntries());
+		assertEquals(1, stats.getOpenReaders());
+	}
+
+	@Test
+	public void testOpenReaders() throws IOException {
+		readerCache.setMaxOpenReaders(1);
+		final byte[] plane = readerCache.openPlane(A, 0, 2).getBytes();
+		readerCache.openPlane(B, 0, 2);
+		assertEquals(1, readerCache.getStatistics().getOpenReaders());
+		assertEquals(1, readerCache.getStatistics().getCloses());
+
+		assertArrayEquals(plane, readerCache.openPlane(A, 0, 2).getBytes());
+		final ReaderCacheStatistics stats = readerCache.getStatistics();
+		assertEquals(2, stats.getEntries());
+		assertEquals(1, stats.getOpenReaders());
+		assertEquals(1, stats.getReopens());
+		assertEquals(2, stats.getMisses());
+	}
+
+	@Test
+	public void testEntries() throws IOException {
+		readerCache.setMaxEntries(1);
+		readerCache.getMetadata(A);
+		readerCache.getMetadata(B);
+		final ReaderCacheStatistics stats = readerCache.getStatistics();
+		assertEquals(1, stats.getEntries());
+		assertEquals(1, stats.getEvictions());
+		assertEquals(1, stats.getOpenReaders());
+	}
+
+	@Test
+	public void testConcurrentReads() throws Exception {
+		final byte[][] expected = new byte[4][];
+		for (int no = 0; no < expected.length; no++) {
+			expected[no] = readerCache.openPlane(A, 0, no).getBytes();
+		}
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<byte[]>> planes = new ArrayList<>();
+			for (int i = 0; i < 64; i++) {
+				final int no = i % expected.length;
+				planes.add(executor.submit(() -> readerCache.openPlane(A, 0, no)
+					.getBytes()));
+			}
+			for (int i = 0; i < planes.size(); i++) {
+				assertArrayEquals(expected[i % expected.length], planes.get(i).get());
+			}
+		}
+		catch (final ExecutionException exc) {
+			throw (Exception) exc.getCause();
+		}
+		finally {
+			executor.shutdown();
+		}
+		final ReaderCacheStatistics stats = readerCache.getStatistics();
+		assertTrue(stats.getMisses() <= readerCache.getMaxReadersPerSource());
+		assertEquals(stats.getMisses(), stats.getEntries());
+	}
+
+	@Test
+	public void testReaderPool() throws Exception {
+		readerCache.setMaxReadersPerSource(2);
+		final CountDownLatch busy = new CountDownLatch(2);
+		final CountDownLatch done = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			final List<Future<Reader>> readers = new ArrayList<>();
+			for (int i = 0; i < 2; i++) {
+				readers.add(executor.submit(() -> readerCache.read(A, reader -> {
+					busy.countDown();
+					await(done);
+					return reader;
+				})));
+			}
+			// NB: Both reads hold a reader at once, so neither waits.
+			assertTrue(busy.await(10, TimeUnit.SECONDS));
+
+			// NB: The pool is full, so a third read waits for a reader.
+			final Future<Reader> third = executor.submit(() -> readerCache.read(A,
+				reader -> reader));
+			try {
+				third.get(200, TimeUnit.MILLISECONDS);
+				fail("Read did not wait for a busy reader");
+			}
+			catch (final TimeoutException exc) {
+				// NB: Expected.
+			}
+			done.countDown();
+			assertNotSame(readers.get(0).get(), readers.get(1).get());
+			final Reader reader = third.get(10, TimeUnit.SECONDS);
+			assertTrue(reader == readers.get(0).get() || reader == readers.get(1)
+				.get());
+		}
+		catch (final ExecutionException exc) {
+			throw (Exception) exc.getCause();
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		final ReaderCacheStatistics stats = readerCache.getStatistics();
+		assertEquals(2, stats.getMisses());
+		assertEquals(1, stats.getHits());
+		assertEquals(2, stats.getEntries());
+	}
+
+	// -- Helper methods --
+
+	private static void await(final CountDownLatch latch) throws IOException {
+		try {
+			if (!latch.await(10, TimeUnit.SECONDS)) {
+				throw new IOException("Timed out");
+			}
+		}
+		catch (final InterruptedException exc) {
+			throw new IOException(exc);
+		}
+	}
+
+}
@@ -0,0 +1,274 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imagej.ImgPlus;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.event.DatasetCreatedEvent;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests {@link MemoryBudgetService}.
+ * 
+ * @author agent
+ */
+public class MemoryBudgetServiceTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private ImageJ ij;
+	private MemoryBudgetService memory;
+
+	@Before
+	public void setUp() {
+		ij = new ImageJ();
+		memory = ij.memoryBudget();
+		memory.setBudget(1000);
+		memory.setPolicy(MemoryBudgetService.Policy.BLOCK);
+	}
+
+	@After
+	public void tearDown() {
+		ij.getContext().dispose();
+	}
+
+	@Test
+	public void testDatasets() {
+		final Dataset dataset = memory.track(ij.dataset().create(
+			new UnsignedByteType(), new long[] { 10, 10 }, "test", new AxisType[] {
+				Axes.X, Axes.Y }));
+		assertEquals(100, memory.getUsage());
+		final String job = Thread.currentThread().getName();
+		assertEquals(Long.valueOf(100), memory.getUsageByJob().get(job));
+		memory.release(dataset);
+		assertEquals(0, memory.getUsage());
+		assertFalse(memory.getUsageByJob().containsKey(job));
+	}
+
+	@Test
+	public void testJobs() {
+		final Img<?> a, b;
+		try (final MemoryBudgetService.Scope scope = memory.enter("jobA")) {
+			assertEquals("jobA", memory.getCurrentJob());
+			a = memory.track(ArrayImgs.unsignedShorts(10, 10));
+			try (final MemoryBudgetService.Scope inner = memory.enter("jobB")) {
+				b = memory.track(ArrayImgs.unsignedBytes(10, 30));
+			}
+			assertEquals("jobA", memory.getCurrentJob());
+		}
+		assertEquals(Thread.currentThread().getName(), memory.getCurrentJob());
+		assertEquals(Long.valueOf(200), memory.getUsageByJob().get("jobA"));
+		assertEquals(Long.valueOf(300), memory.getUsageByJob().get("jobB"));
+		assertEquals(500, memory.getUsage());
+		// NB: Tracking an image twice does not count it twice.
+		assertSame(a, memory.track(a));
+		assertEquals(500, memory.getUsage());
+		memory.release(b);
+		assertEquals(200, memory.getUsage());
+	}
+
+	@Test
+	public void testNonImages() {
+		final String text = "not an image";
+		assertSame(text, memory.track(text));
+		assertEquals(0, memory.getUsage());
+	}
+
+	@Test
+	public void testFail() {
+		memory.setPolicy(MemoryBudgetService.Policy.FAIL);
+		final Img<?> img = memory.track(ArrayImgs.unsignedBytes(800));
+		try (final MemoryBudgetService.Scope scope = memory.enter("greedy")) {
+			memory.track(ArrayImgs.unsignedBytes(800));
+			fail("Expected MemoryBudgetException");
+		}
+		catch (final MemoryBudgetException exc) {
+			assertEquals("greedy", exc.getJob());
+			assertEquals(800, exc.getRequested());
+		}
+		assertEquals(800, memory.getUsage());
+		memory.release(img);
+	}
+
+	@Test(expected = MemoryBudgetException.class)
+	public void testExceedsBudget() {
+		// NB: Waiting cannot help, so even a blocking budget fails right away.
+		memory.track(ArrayImgs.unsignedBytes(2000));
+	}
+
+	@Test
+	public void testBlock() throws InterruptedException {
+		final Img<?> held = memory.track(ArrayImgs.unsignedBytes(800));
+		final AtomicReference<Img<?>> result = new AtomicReference<>();
+		final AtomicReference<Throwable> error = new AtomicReference<>();
+		final Thread waiter = new Thread(() -> {
+			try (final MemoryBudgetService.Scope scope = memory.enter("waiter")) {
+				result.set(memory.track(ArrayImgs.unsignedBytes(800)));
+			}
+			catch (final Throwable t) {
+				error.set(t);
+			}
+		});
+		waiter.start();
+		waiter.join(200);
+		assertTrue("The waiter should block", waiter.isAlive());
+		memory.release(held);
+		waiter.join(10000);
+		assertFalse(waiter.isAlive());
+		assertEquals(null, error.get());
+		assertTrue(result.get() != null);
+		assertEquals(Long.valueOf(800), memory.getUsageByJob().get("waiter"));
+	}
+
+	@Test
+	public void testReserve() {
+		memory.setPolicy(MemoryBudgetService.Policy.FAIL);
+		try {
+			ij.dataset().create(new UnsignedByteType(), new long[] { 40, 40 },
+				"big", new AxisType[] { Axes.X, Axes.Y });
+			fail("Expected MemoryBudgetException");
+		}
+		catch (final MemoryBudgetException exc) {
+			assertEquals(1600, exc.getRequested());
+		}
+		assertEquals(0, memory.getUsage());
+
+		// NB: The dataset takes over its reservation, rather than adding to it.
+		final Dataset dataset = ij.dataset().create(new UnsignedByteType(),
+			new long[] { 20, 20 }, "small", new AxisType[] { Axes.X, Axes.Y });
+		assertEquals(400, memory.getUsage());
+		try (final MemoryBudgetService.Scope reservation = memory.reserve(600)) {
+			assertEquals(1000, memory.getUsage());
+			memory.track(ArrayImgs.unsignedBytes(500));
+			assertEquals(1000, memory.getUsage());
+		}
+		assertEquals(900, memory.getUsage());
+		memory.release(dataset);
+	}
+
+	@Test
+	public void testCreatedEventNeverBlocks() {
+		memory.setPolicy(MemoryBudgetService.Policy.FAIL);
+		// NB: Wrapping an existing image reserves nothing.
+		final Dataset dataset = ij.dataset().create(new ImgPlus<>(ArrayImgs
+			.unsignedBytes(40, 40)));
+		// NB: The event handler accounts for the dataset, but does not enforce.
+		ij.event().publish(new DatasetCreatedEvent(dataset));
+		assertEquals(1600, memory.getUsage());
+		memory.release(dataset);
+	}
+
+	@Test
+	public void testSpill() throws Exception {
+		final File spillDir = folder.newFolder("spill");
+		System.setProperty(DefaultMemoryBudgetService.SPILL_PROPERTY, spillDir
+			.getPath());
+		final ImageJ spillIJ;
+		try {
+			spillIJ = new ImageJ();
+		}
+		finally {
+			System.clearProperty(DefaultMemoryBudgetService.SPILL_PROPERTY);
+		}
+		try {
+			final MemoryBudgetService spillMemory = spillIJ.memoryBudget();
+			spillMemory.setBudget(1000);
+			spillMemory.setPolicy(MemoryBudgetService.Policy.SPILL);
+			// NB: Images of no entered job are never spilled, even if older.
+			final Dataset unscoped = spillIJ.dataset().create(
+				new UnsignedByteType(), new long[] { 20, 10 }, "unscoped",
+				new AxisType[] { Axes.X, Axes.Y });
+			final Dataset dataset;
+			try (final MemoryBudgetService.Scope scope = spillMemory.enter("idle")) {
+				dataset = spillMemory.track(spillIJ.dataset().create(
+					new UnsignedByteType(), new long[] { 20, 20 }, "idle",
+					new AxisType[] { Axes.X, Axes.Y }));
+			}
+			dataset.getImgPlus().firstElement().setReal(42);
+			assertEquals(600, spillMemory.getUsage());
+
+			// NB: The idle job's dataset makes room for the worker's image.
+			try (final MemoryBudgetService.Scope scope = spillMemory.enter(
+				"worker"))
+			{
+				spillMemory.track(ArrayImgs.unsignedBytes(800));
+			}
+			assertEquals(1000, spillMemory.getUsage());
+			assertEquals(1, spilled(spillDir).length);
+			unscoped.getImgPlus().firstElement().setReal(1);
+			assertEquals(42, dataset.getImgPlus().firstElement().getRealDouble(), 0);
+			try {
+				dataset.getImgPlus().firstElement().setReal(0);
+				fail("Spilled datasets should be read-only");
+			}
+			catch (final UnsupportedOperationException exc) {
+				// NB: Expected.
+			}
+
+			// NB: The file outlives the dataset's account, as the image reads it.
+			spillMemory.release(dataset);
+			assertEquals(1, spilled(spillDir).length);
+		}
+		finally {
+			spillIJ.getContext().dispose();
+		}
+		assertEquals(0, spilled(spillDir).length);
+	}
+
+	// -- Helper methods --
+
+	private static File[] spilled(final File dir) {
+		return dir.listFiles((d, name) -> name.startsWith("spill-"));
+	}
+
+}
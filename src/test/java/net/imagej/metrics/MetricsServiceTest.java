@@ -0,0 +1,210 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import io.scif.services.DatasetIOService;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.command.Command;
+import org.scijava.command.CommandInfo;
+
+/**
+ * Tests {@link MetricsService}.
+ * 
+ * @author agent
+ */
+public class MetricsServiceTest {
+
+	private ImageJ ij;
+
+	@Before
+	public void setUp() {
+		ij = new ImageJ();
+	}
+
+	@After
+	public void tearDown() {
+		ij.getContext().dispose();
+	}
+
+	@Test
+	public void testCounter() {
+		final Counter counter = ij.metrics().counter("test.counter");
+		counter.inc();
+		counter.add(41);
+		assertEquals(42, ij.metrics().counter("test.counter").getCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNameClash() {
+		ij.metrics().counter("test.clash");
+		ij.metrics().timer("test.clash");
+	}
+
+	@Test
+	public void testHistogram() {
+		final Histogram histogram = ij.metrics().histogram("test.histogram");
+		for (int i = 1; i <= 100; i++) {
+			histogram.update(i);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(5050, histogram.getSum());
+		assertEquals(100, histogram.getMax());
+		assertEquals(50.5, histogram.getMean(), 0);
+		// NB: Percentiles are accurate to within a factor of two.
+		final long p50 = histogram.getPercentile(50);
+		assertTrue(p50 >= 50 && p50 < 100);
+		assertEquals(100, histogram.getPercentile(99));
+	}
+
+	@Test
+	public void testDatasetEvents() {
+		// NB: The service starts with the gateway, so nothing need start it.
+		ij.dataset().create(new UnsignedByteType(), new long[] { 10, 10 }, "test",
+			new AxisType[] { Axes.X, Axes.Y });
+		assertEquals(1, ij.metrics().counter("datasets.created").getCount());
+		assertEquals(100, ij.metrics().histogram("datasets.bytes").getMax());
+	}
+
+	@Test
+	public void testOps() {
+		final Object sum = ij.op().run("math.add", 2, 3);
+		assertEquals(5, ((Number) sum).intValue());
+		assertEquals(1, ij.metrics().timer("ops.run").getCount());
+	}
+
+	@Test
+	public void testDatasetIO() throws IOException {
+		final DatasetIOService datasetIOService = ij.get(DatasetIOService.class);
+		final Dataset dataset = datasetIOService.open(
+			"metrics&pixelType=uint8&lengths=10,10&axes=X,Y.fake");
+		final File file = File.createTempFile("metrics", ".tif");
+		try {
+			datasetIOService.save(dataset, file.getPath());
+		}
+		finally {
+			file.delete();
+		}
+		assertEquals(1, ij.metrics().timer("io.open").getCount());
+		assertEquals(100, ij.metrics().counter("io.bytes.read").getCount());
+		assertEquals(1, ij.metrics().timer("io.save").getCount());
+		assertEquals(100, ij.metrics().counter("io.bytes.written").getCount());
+	}
+
+	@Test
+	public void testModuleErrors() throws Exception {
+		try {
+			ij.module().run(new CommandInfo(FailingCommand.class), false).get();
+		}
+		catch (final ExecutionException exc) {
+			// NB: Expected.
+		}
+		assertEquals(1, ij.metrics().counter("modules.errors").getCount());
+		assertFalse(ij.metrics().getMetrics().containsKey("modules.run"));
+	}
+
+	@Test
+	public void testJSON() {
+		ij.metrics().counter("test.json").add(3);
+		try (final Timer.Sample sample = ij.metrics().timer("test.timer").start()) {
+			// NB: Time nothing in particular.
+		}
+		final String json = ij.metrics().toJSON();
+		assertTrue(json.contains("\"test.json\": {\"type\": \"counter\", " +
+			"\"count\": 3}"));
+		assertTrue(json.contains("\"test.timer\": {\"type\": \"timer\", " +
+			"\"count\": 1,"));
+	}
+
+	@Test
+	public void testMBeanAtStartup() throws Exception {
+		final ObjectName name = new ObjectName(
+			"net.imagej:type=Metrics,context=" + Integer.toHexString(System
+				.identityHashCode(ij.getContext())));
+		assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+
+	@Test
+	public void testJMX() throws Exception {
+		ij.metrics().counter("test.jmx").add(7);
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final Set<ObjectName> names = server.queryNames(new ObjectName(
+			"net.imagej:type=Metrics,*"), null);
+		assertFalse(names.isEmpty());
+		boolean found = false;
+		for (final ObjectName name : names) {
+			assertNotNull(name.getKeyProperty("context"));
+			try {
+				found |= ((Number) server.getAttribute(name, "test.jmx.count"))
+					.longValue() == 7;
+			}
+			catch (final javax.management.AttributeNotFoundException exc) {
+				// NB: The MBean of another context.
+			}
+		}
+		assertTrue(found);
+	}
+
+	// -- Helper classes --
+
+	/** A command which always fails. */
+	public static class FailingCommand implements Command {
+
+		@Override
+		public void run() {
+			throw new IllegalStateException("Failing on purpose");
+		}
+	}
+
+}
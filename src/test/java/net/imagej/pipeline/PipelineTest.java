@@ -0,0 +1,150 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.pipeline;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link Pipeline}.
+ * 
+ * @author agent
+ */
+public class PipelineTest {
+
+	private static final String SOURCE =
+		"pipeline&pixelType=float&lengths=70,50,3&axes=X,Y,Z.fake";
+
+	private ImageJ ij;
+
+	@Before
+	public void setUp() {
+		ij = new ImageJ(ImageJ.Startup.LAZY);
+	}
+
+	@After
+	public void tearDown() {
+		ij.getContext().dispose();
+	}
+
+	@Test
+	public void testTiledGauss() throws IOException {
+		final Dataset input = ij.lazyIO().open(SOURCE);
+		final Pipeline pipeline = ij.pipeline().create() //
+			.then(5, "filter.gauss", 1.0) //
+			.setTileSize(16, 16);
+		assertEquals(5, pipeline.getHalo());
+		final Dataset output = pipeline.apply(input);
+		assertEquals(input.numDimensions(), output.numDimensions());
+		for (int d = 0; d < input.numDimensions(); d++) {
+			assertEquals(input.dimension(d), output.dimension(d));
+		}
+
+		// compare against each plane filtered as a whole
+		final Dataset eager = ij.scifio().datasetIO().open(SOURCE);
+		for (int z = 0; z < eager.dimension(2); z++) {
+			final RandomAccessibleInterval<?> expected = (RandomAccessibleInterval<?>) //
+				ij.op().run("filter.gauss", Views.hyperSlice(eager, 2, z), 1.0);
+			assertSamePixels(expected, Views.hyperSlice(output, 2, z), 1e-4);
+		}
+	}
+
+	@Test
+	public void testRun() throws IOException {
+		final File destination = File.createTempFile("pipeline", ".tif");
+		destination.delete();
+		try {
+			final Pipeline pipeline = ij.pipeline().create() //
+				.then(5, "filter.gauss", 1.0) //
+				.setTileSize(32, 8);
+			pipeline.run(SOURCE, destination.getPath());
+			final Dataset expected = pipeline.apply(ij.lazyIO().open(SOURCE));
+			final Dataset actual = ij.scifio().datasetIO().open(destination
+				.getPath());
+			assertEquals(expected.numDimensions(), actual.numDimensions());
+			assertSamePixels(expected, actual, 0);
+		}
+		finally {
+			destination.delete();
+		}
+	}
+
+	/** Tests that boolean results become 8-bit masks. */
+	@Test
+	public void testMask() throws IOException {
+		final Dataset input = ij.lazyIO().open(SOURCE);
+		final FloatType threshold = new FloatType(10);
+		final Dataset output = ij.pipeline().create() //
+			.then("threshold.apply", threshold) //
+			.setTileSize(16, 16) //
+			.apply(input);
+		assertTrue(output.firstElement() instanceof UnsignedByteType);
+		final Cursor<? extends RealType<?>> in = Views.flatIterable(input)
+			.cursor();
+		final Cursor<? extends RealType<?>> out = Views.flatIterable(output)
+			.cursor();
+		while (in.hasNext()) {
+			final double expected = in.next().getRealDouble() > 10 ? 1 : 0;
+			assertEquals(expected, out.next().getRealDouble(), 0);
+		}
+	}
+
+	// -- Helper methods --
+
+	private void assertSamePixels(final RandomAccessibleInterval<?> expected,
+		final RandomAccessibleInterval<?> actual, final double delta)
+	{
+		final Cursor<?> e = Views.flatIterable(expected).cursor();
+		final Cursor<?> a = Views.flatIterable(actual).cursor();
+		while (e.hasNext()) {
+			assertEquals(((RealType<?>) e.next()).getRealDouble(), ((RealType<?>) a
+				.next()).getRealDouble(), delta);
+		}
+	}
+
+}
@@ -0,0 +1,241 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.spatial;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.display.ImageDisplay;
+import net.imagej.overlay.Overlay;
+import net.imagej.overlay.RectangleOverlay;
+import net.imglib2.Cursor;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link OverlayIndexService}.
+ * 
+ * @author agent
+ */
+public class OverlayIndexServiceTest {
+
+	private ImageJ ij;
+
+	@Before
+	public void setUp() {
+		ij = new ImageJ();
+	}
+
+	@After
+	public void tearDown() {
+		ij.getContext().dispose();
+	}
+
+	@Test
+	public void testQueries() {
+		final List<RectangleOverlay> grid = grid(10, 10);
+		final OverlayIndex index = ij.overlayIndex().createIndex(grid);
+		assertEquals(100, index.size());
+
+		// NB: Cells are 8 x 8 at a pitch of 10.
+		assertEquals(Collections.singletonList(grid.get(23)), index.at(34, 21));
+		assertTrue(index.at(39, 21).isEmpty());
+		assertEquals(new HashSet<>(Arrays.asList(grid.get(0), grid.get(1), grid
+			.get(10), grid.get(11))), new HashSet<>(index.intersecting(5, 5, 15,
+				15)));
+		assertEquals(Arrays.asList(grid.get(55)), index.nearest(54, 54, 1));
+		assertEquals(grid.get(99), index.nearest(1000, 1000, 3).get(0));
+	}
+
+	@Test
+	public void testUpdate() {
+		final List<RectangleOverlay> grid = grid(4, 4);
+		final OverlayIndex index = ij.overlayIndex().createIndex(grid);
+		final RectangleOverlay moved = grid.get(0);
+		moved.setOrigin(500, 0);
+		moved.setOrigin(500, 1);
+		index.update(moved);
+		assertTrue(index.at(2, 2).isEmpty());
+		assertEquals(Collections.singletonList(moved), index.at(502, 502));
+
+		assertTrue(index.remove(moved));
+		assertFalse(index.contains(moved));
+		assertTrue(index.at(502, 502).isEmpty());
+		assertEquals(15, index.size());
+
+		final RectangleOverlay added = rectangle(600, 600, 8, 8);
+		assertTrue(index.add(added));
+		assertEquals(Collections.singletonList(added), index.nearest(650, 650, 1));
+	}
+
+	@Test
+	public void testIncremental() {
+		final OverlayIndex index = ij.overlayIndex().createIndex(grid(20, 20));
+		// NB: Fewer overlays than indexed are inserted one by one.
+		final List<RectangleOverlay> more = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			more.add(rectangle(1000 + 10 * i, 0, 8, 8));
+		}
+		index.addAll(more);
+		assertEquals(450, index.size());
+		assertEquals(50, index.intersecting(1000, 0, 1500, 8).size());
+		assertEquals(Collections.singletonList(more.get(7)), index.at(1074, 4));
+	}
+
+	/** Tests that overlays with empty or NaN bounds are skipped. */
+	@Test
+	public void testInvalidBounds() {
+		final RectangleOverlay valid = rectangle(0, 0, 8, 8);
+		final RectangleOverlay nan = rectangle(Double.NaN, 0, 8, 8);
+		final OverlayIndex index = ij.overlayIndex().createIndex(Arrays.asList(
+			valid, nan));
+		assertEquals(1, index.size());
+		assertFalse(index.contains(nan));
+		assertFalse(index.add(rectangle(0, Double.NaN, 8, 8)));
+		assertEquals(Collections.singletonList(valid), index.at(4, 4));
+	}
+
+	/**
+	 * Tests that the index of a display follows overlays which are added and
+	 * removed through the overlay service directly.
+	 */
+	@Test
+	public void testDisplayIndex() {
+		final Dataset dataset = ij.dataset().create(new FloatType(), new long[] {
+			100, 100 }, "display", new AxisType[] { Axes.X, Axes.Y });
+		final ImageDisplay display = (ImageDisplay) ij.display().createDisplay(
+			dataset);
+		final RectangleOverlay first = rectangle(0, 0, 8, 8);
+		final RectangleOverlay second = rectangle(20, 20, 8, 8);
+		ij.overlay().addOverlays(display, Arrays.asList(first, second));
+		assertEquals(2, ij.overlayIndex().getIndex(display).size());
+
+		final RectangleOverlay third = rectangle(40, 40, 8, 8);
+		ij.overlay().addOverlays(display, Collections.singletonList(third));
+		ij.overlay().removeOverlay(display, first);
+		final OverlayIndex index = ij.overlayIndex().getIndex(display);
+		assertEquals(new HashSet<>(Arrays.asList(second, third)), new HashSet<>(
+			index.getOverlays()));
+		assertEquals(Collections.singletonList(third), index.at(44, 44));
+	}
+
+	/** Tests that the index of an unchanged display is not reconciled. */
+	@Test
+	public void testDisplayChanges() {
+		final Dataset dataset = ij.dataset().create(new FloatType(), new long[] {
+			100, 100 }, "changes", new AxisType[] { Axes.X, Axes.Y });
+		final ImageDisplay display = (ImageDisplay) ij.display().createDisplay(
+			dataset);
+		final RectangleOverlay overlay = rectangle(0, 0, 8, 8);
+		ij.overlay().addOverlays(display, Collections.singletonList(overlay));
+		final OverlayIndex index = ij.overlayIndex().getIndex(display);
+		assertTrue(index.contains(overlay));
+
+		// NB: Nothing signals a change, so the index is returned as it is.
+		index.remove(overlay);
+		assertFalse(ij.overlayIndex().getIndex(display).contains(overlay));
+
+		display.update();
+		assertTrue(ij.overlayIndex().getIndex(display).contains(overlay));
+	}
+
+	@Test
+	public void testMeasure() throws InterruptedException {
+		final Dataset dataset = ij.dataset().create(new FloatType(), new long[] {
+			100, 100 }, "measure", new AxisType[] { Axes.X, Axes.Y });
+		final Cursor<? extends RealType<?>> cursor = dataset.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().setReal(cursor.getLongPosition(0));
+		}
+		final List<Overlay> overlays = new ArrayList<>();
+		overlays.add(rectangle(10, 20, 4, 3));
+		overlays.add(rectangle(96, 96, 10, 10));
+		overlays.add(rectangle(200, 200, 5, 5));
+		final List<RegionStatistics> stats = ij.overlayIndex().measure(dataset,
+			overlays, null);
+		assertEquals(3, stats.size());
+
+		assertEquals(12, stats.get(0).getCount());
+		assertEquals(11.5, stats.get(0).getMean(), 1e-9);
+		assertEquals(10, stats.get(0).getMin(), 0);
+		assertEquals(13, stats.get(0).getMax(), 0);
+		assertEquals(Math.sqrt(15.0 / 11), stats.get(0).getStdDev(), 1e-9);
+
+		// NB: Overlays are clipped to the image.
+		assertEquals(16, stats.get(1).getCount());
+		assertEquals(97.5, stats.get(1).getMean(), 1e-9);
+
+		assertEquals(0, stats.get(2).getCount());
+		assertTrue(Double.isNaN(stats.get(2).getMean()));
+	}
+
+	// -- Helper methods --
+
+	private RectangleOverlay rectangle(final double x, final double y,
+		final double w, final double h)
+	{
+		final RectangleOverlay overlay = new RectangleOverlay(ij.getContext());
+		overlay.setOrigin(x, 0);
+		overlay.setOrigin(y, 1);
+		overlay.setExtent(w, 0);
+		overlay.setExtent(h, 1);
+		return overlay;
+	}
+
+	/** Creates a grid of 8 x 8 rectangles at a pitch of 10, row by row. */
+	private List<RectangleOverlay> grid(final int columns, final int rows) {
+		final List<RectangleOverlay> grid = new ArrayList<>();
+		for (int y = 0; y < rows; y++) {
+			for (int x = 0; x < columns; x++) {
+				grid.add(rectangle(10 * x, 10 * y, 8, 8));
+			}
+		}
+		return grid;
+	}
+
+}
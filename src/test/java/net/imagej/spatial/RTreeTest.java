@@ -0,0 +1,165 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.spatial;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests {@link RTree} against brute force.
+ * 
+ * @author agent
+ */
+public class RTreeTest {
+
+	private final Random random = new Random(0xbeef);
+
+	private final Map<Integer, double[]> boxes = new HashMap<>();
+
+	@Test
+	public void testInsertRemove() {
+		final RTree<Integer> tree = new RTree<>();
+		final Map<Integer, RTree.Entry<Integer>> entries = new HashMap<>();
+		for (int i = 0; i < 2000; i++) {
+			entries.put(i, insert(tree, i));
+		}
+		check(tree);
+		for (int i = 0; i < 2000; i += 3) {
+			tree.remove(entries.remove(i));
+			boxes.remove(i);
+		}
+		check(tree);
+		for (int i = 2000; i < 2500; i++) {
+			entries.put(i, insert(tree, i));
+		}
+		check(tree);
+		for (final RTree.Entry<Integer> entry : entries.values()) {
+			tree.remove(entry);
+		}
+		boxes.clear();
+		assertEquals(0, tree.size());
+		check(tree);
+	}
+
+	@Test
+	public void testLoad() {
+		final List<RTree.Entry<Integer>> entries = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			final double[] b = box(i);
+			entries.add(RTree.entry(i, b[0], b[1], b[2], b[3]));
+		}
+		final RTree<Integer> tree = new RTree<>();
+		tree.load(entries);
+		assertEquals(5000, tree.size());
+		check(tree);
+		// NB: Loaded entries can be removed, and the tree grown further.
+		for (int i = 0; i < 5000; i += 2) {
+			tree.remove(entries.get(i));
+			boxes.remove(i);
+		}
+		for (int i = 5000; i < 5100; i++) {
+			insert(tree, i);
+		}
+		check(tree);
+	}
+
+	// -- Helper methods --
+
+	private double[] box(final int id) {
+		final double x = random.nextDouble() * 1000;
+		final double y = random.nextDouble() * 1000;
+		final double[] b = { x, y, x + random.nextDouble() * 20, y + random
+			.nextDouble() * 20 };
+		boxes.put(id, b);
+		return b;
+	}
+
+	private RTree.Entry<Integer> insert(final RTree<Integer> tree,
+		final int id)
+	{
+		final double[] b = box(id);
+		return tree.insert(id, b[0], b[1], b[2], b[3]);
+	}
+
+	/** Compares queries of the tree to scans of all boxes. */
+	private void check(final RTree<Integer> tree) {
+		assertEquals(boxes.size(), tree.size());
+		assertEquals(boxes.size(), tree.entries().size());
+		for (int q = 0; q < 200; q++) {
+			final double x = random.nextDouble() * 1000;
+			final double y = random.nextDouble() * 1000;
+			final double w = random.nextDouble() * 100;
+			final double h = random.nextDouble() * 100;
+			final Set<Integer> actual = new HashSet<>();
+			tree.search(x, y, x + w, y + h, actual::add);
+			final Set<Integer> expected = new HashSet<>();
+			for (final Map.Entry<Integer, double[]> e : boxes.entrySet()) {
+				final double[] b = e.getValue();
+				if (b[0] <= x + w && x <= b[2] && b[1] <= y + h && y <= b[3]) {
+					expected.add(e.getKey());
+				}
+			}
+			assertEquals(expected, actual);
+
+			final List<Integer> nearest = tree.nearest(x, y, 5);
+			final List<Double> distances = new ArrayList<>();
+			for (final double[] b : boxes.values()) {
+				distances.add(distance(b, x, y));
+			}
+			Collections.sort(distances);
+			assertEquals(Math.min(5, boxes.size()), nearest.size());
+			for (int i = 0; i < nearest.size(); i++) {
+				assertEquals(distances.get(i), distance(boxes.get(nearest.get(i)), x,
+					y), 1e-9);
+			}
+		}
+	}
+
+	private static double distance(final double[] b, final double x,
+		final double y)
+	{
+		final double dx = Math.max(0, Math.max(b[0] - x, x - b[2]));
+		final double dy = Math.max(0, Math.max(b[1] - y, y - b[3]));
+		return Math.sqrt(dx * dx + dy * dy);
+	}
+
+}
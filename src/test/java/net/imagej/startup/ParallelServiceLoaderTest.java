@@ -0,0 +1,120 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.startup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.PluginIndex;
+import org.scijava.plugin.PluginInfo;
+import org.scijava.service.AbstractService;
+import org.scijava.service.Service;
+
+/**
+ * Tests {@link ParallelServiceLoader}.
+ * 
+ * @author agent
+ */
+public class ParallelServiceLoaderTest {
+
+	/**
+	 * Tests that the dependents of a service whose parallel initialization
+	 * fails are never registered without it, but left to the sequential pass.
+	 */
+	@Test
+	public void testFailedDependency() {
+		FlakyService.attempts.set(0);
+		final PluginIndex index = new PluginIndex(plugins -> {
+			plugins.add(new PluginInfo<>(FlakyService.class, Service.class));
+			plugins.add(new PluginInfo<>(DependentService.class, Service.class));
+			return new HashMap<>();
+		});
+		final List<Class<? extends Service>> serviceClasses = Arrays
+			.<Class<? extends Service>> asList(TestService.class);
+		final Context context = new ParallelServiceLoader(2, null).createContext(
+			serviceClasses, index);
+		try {
+			final FlakyService flaky = context.getService(FlakyService.class);
+			final DependentService dependent = context.getService(
+				DependentService.class);
+			assertNotNull(flaky);
+			assertNotNull(dependent);
+			assertSame(flaky, dependent.flaky);
+			assertEquals(2, FlakyService.attempts.get());
+			assertEquals(1, context.getServiceIndex().getAll().stream().filter(
+				s -> s instanceof DependentService).count());
+		}
+		finally {
+			context.dispose();
+		}
+	}
+
+	// -- Helper classes --
+
+	public interface TestService extends Service {
+		// NB: Marker interface.
+	}
+
+	/** A service which fails to initialize on its first attempt. */
+	public static class FlakyService extends AbstractService implements
+		TestService
+	{
+
+		private static final AtomicInteger attempts = new AtomicInteger();
+
+		@Override
+		public void initialize() {
+			if (attempts.getAndIncrement() == 0) {
+				throw new IllegalStateException("First attempt fails");
+			}
+		}
+	}
+
+	/** A service which requires the {@link FlakyService}. */
+	public static class DependentService extends AbstractService implements
+		TestService
+	{
+
+		@Parameter
+		private FlakyService flaky;
+	}
+
+}
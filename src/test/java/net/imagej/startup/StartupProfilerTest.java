@@ -0,0 +1,127 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.startup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+
+import net.imagej.ImageJ;
+import net.imagej.ImageJService;
+import net.imagej.lut.LUTService;
+
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.plugin.PluginIndex;
+import org.scijava.service.Service;
+
+/**
+ * Tests {@link StartupProfiler}.
+ * 
+ * @author agent
+ */
+public class StartupProfilerTest {
+
+	@Test
+	public void testMeasure() {
+		final StartupProfiler profiler = new StartupProfiler();
+		final String result = profiler.measure("step", () -> "done");
+		assertEquals("done", result);
+		final StartupReport.Entry entry = profiler.getReport().getEntry("step");
+		assertNotNull(entry);
+		assertEquals(Thread.currentThread().getName(), entry.getThread());
+		assertTrue(entry.getWallTime() >= 0);
+	}
+
+	@Test
+	public void testCreateContext() {
+		final StartupProfiler profiler = new StartupProfiler();
+		final List<Class<? extends Service>> serviceClasses = Arrays
+			.<Class<? extends Service>> asList(ImageJService.class);
+		final Context context = profiler.createContext(serviceClasses,
+			new PluginIndex());
+		try {
+			final String lutService = context.service(LUTService.class).getClass()
+				.getName();
+			final StartupReport report = profiler.getReport();
+			assertNotNull(report.getEntry("[plugin discovery]"));
+			boolean found = false;
+			for (final StartupReport.Entry entry : report.getEntries()) {
+				found |= entry.getName().equals(lutService) || entry
+					.getDependencies().contains(lutService);
+			}
+			assertTrue(found);
+		}
+		finally {
+			context.dispose();
+		}
+	}
+
+	/** Tests that a failing step is recorded and its failure propagated. */
+	@Test
+	public void testMeasureFailure() {
+		final StartupProfiler profiler = new StartupProfiler();
+		final IllegalStateException failure = new IllegalStateException();
+		try {
+			profiler.measure("step", () -> {
+				throw failure;
+			});
+			fail("Failure was swallowed");
+		}
+		catch (final IllegalStateException exc) {
+			assertSame(failure, exc);
+		}
+		assertSame(failure, profiler.getReport().getEntry("step").getError());
+	}
+
+	/** Tests profiling a gateway without setting the system property. */
+	@Test
+	public void testGateway() {
+		final StartupProfiler profiler = new StartupProfiler();
+		final ImageJ ij = new ImageJ(ImageJ.Startup.EAGER, profiler);
+		try {
+			assertSame(profiler.getReport(), ij.getStartupReport());
+			assertNotNull(profiler.getReport().getEntry("[plugin index]"));
+			assertFalse(StartupProfiler.isEnabled());
+		}
+		finally {
+			ij.getContext().dispose();
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.Context;
+import org.scijava.thread.ThreadService;
+
+/**
+ * Tests {@link Parallel}.
+ * 
+ * @author agent
+ */
+public class ParallelTest {
+
+	private Context context;
+	private ThreadService threadService;
+
+	@Before
+	public void setUp() {
+		context = new Context(ThreadService.class);
+		threadService = context.service(ThreadService.class);
+	}
+
+	@After
+	public void tearDown() {
+		context.dispose();
+	}
+
+	@Test
+	public void testForEach() throws InterruptedException {
+		final AtomicIntegerArray visits = new AtomicIntegerArray(100);
+		Parallel.forEach(threadService, visits.length(), i -> visits
+			.incrementAndGet(i));
+		for (int i = 0; i < visits.length(); i++) {
+			assertEquals(1, visits.get(i));
+		}
+	}
+
+	@Test
+	public void testForRanges() throws InterruptedException {
+		final AtomicIntegerArray visits = new AtomicIntegerArray(100);
+		final AtomicLong ranges = new AtomicLong();
+		Parallel.forRanges(threadService, visits.length(), 7, (start, end) -> {
+			ranges.incrementAndGet();
+			for (long i = start; i < end; i++) {
+				visits.incrementAndGet((int) i);
+			}
+		});
+		assertEquals(7, ranges.get());
+		for (int i = 0; i < visits.length(); i++) {
+			assertEquals(1, visits.get(i));
+		}
+
+		// NB: There are never more ranges than indices.
+		ranges.set(0);
+		Parallel.forRanges(threadService, 3, 7, (start, end) -> ranges
+			.incrementAndGet());
+		assertEquals(3, ranges.get());
+	}
+
+	@Test
+	public void testFailure() throws InterruptedException {
+		final IOException failure = new IOException("boom");
+		try {
+			Parallel.forEach(threadService, 100, i -> {
+				if (i == 42) throw failure;
+			});
+			fail("Expected IOException");
+		}
+		catch (final IOException exc) {
+			assertSame(failure, exc);
+		}
+	}
+
+}
@@ -0,0 +1,218 @@
+/*
+ * #%L
+ * ImageJ software for multidimensional image processing and analysis.
+ * %%
+ * Copyright (C) 2009 - 2015 Board of Regents of the University of
+ * Wisconsin-Madison, Broad Institute of MIT and Harvard, and Max Planck
+ * Institute of Molecular Cell Biology and Genetics.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imagej.thumbnail;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import net.imagej.Dataset;
+import net.imagej.ImageJ;
+import net.imagej.axis.Axes;
+import net.imagej.axis.AxisType;
+import net.imagej.overlay.RectangleOverlay;
+import net.imglib2.Cursor;
+import net.imglib2.display.ColorTables;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.scijava.util.ColorRGB;
+
+/**
+ * Tests {@link ThumbnailService}.
+ * 
+ * @author agent
+ */
+public class ThumbnailServiceTest {
+
+	private ImageJ ij;
+	private ThumbnailService thumbnailService;
+
+	@Before
+	public void setUp() {
+		ij = new ImageJ();
+		thumbnailService = ij.thumbnail();
+	}
+
+	@After
+	public void tearDown() {
+		ij.getContext().dispose();
+	}
+
+	@Test
+	public void testSize() {
+		final RenderOptions options = new RenderOptions().size(100, 100);
+		assertArrayEquals(new int[] { 100, 50 }, thumbnailService.getSize(gradient(
+			400, 200), options));
+		assertArrayEquals(new int[] { 20, 10 }, thumbnailService.getSize(gradient(
+			20, 10), options));
+	}
+
+	@Test
+	public void testAutoscale() {
+		final int[] argb = thumbnailService.renderARGB(gradient(16, 1),
+			new RenderOptions());
+		assertEquals(0xff000000, argb[0]);
+		assertEquals(0xffffffff, argb[15]);
+	}
+
+	@Test
+	public void testChannels() {
+		final Dataset dataset = ij.dataset().create(new UnsignedShortType(),
+			new long[] { 2, 1, 2 }, "channels", new AxisType[] { Axes.X, Axes.Y,
+				Axes.CHANNEL });
+		final Cursor<? extends RealType<?>> cursor = dataset.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			// NB: Channel 0 is bright on the left, channel 1 on the right.
+			final boolean on = cursor.getLongPosition(0) == cursor.getLongPosition(2);
+			cursor.get().setReal(on ? 1000 : 0);
+		}
+		final RenderOptions options = new RenderOptions().range(0, 0, 1000)
+			.range(1, 0, 1000);
+		assertArrayEquals(new int[] { 0xffff0000, 0xff00ff00 }, thumbnailService
+			.renderARGB(dataset, options));
+		options.lut(1, ColorTables.BLUE);
+		assertArrayEquals(new int[] { 0xffff0000, 0xff0000ff }, thumbnailService
+			.renderARGB(dataset, options));
+	}
+
+	@Test
+	public void testOverlay() {
+		final RectangleOverlay overlay = new RectangleOverlay(ij.getContext());
+		overlay.setOrigin(2, 0);
+		overlay.setOrigin(2, 1);
+		overlay.setExtent(4, 0);
+		overlay.setExtent(4, 1);
+		overlay.setLineColor(new ColorRGB(255, 0, 0));
+		overlay.setFillColor(new ColorRGB(0, 0, 255));
+		overlay.setAlpha(255);
+		final Dataset dataset = ij.dataset().create(new UnsignedShortType(),
+			new long[] { 8, 8 }, "blank", new AxisType[] { Axes.X, Axes.Y });
+		final int[] argb = thumbnailService.renderARGB(dataset, new RenderOptions()
+			.overlays(Collections.singletonList(overlay)));
+		assertEquals(0xff000000, argb[1 * 8 + 1]);
+		assertEquals(0xffff0000, argb[2 * 8 + 2]);
+		assertEquals(0xffff0000, argb[5 * 8 + 3]);
+		assertEquals(0xff0000ff, argb[3 * 8 + 3]);
+		assertEquals(0xff000000, argb[6 * 8 + 6]);
+	}
+
+	@Test
+	public void testPNG() throws IOException {
+		final Dataset dataset = gradient(300, 40);
+		final RenderOptions options = new RenderOptions().size(64, 64);
+		final BufferedImage image = decode(thumbnailService.render(dataset,
+			options));
+		assertEquals(64, image.getWidth());
+		assertEquals(9, image.getHeight());
+		final int[] argb = thumbnailService.renderARGB(dataset, options);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				assertEquals(argb[y * 64 + x], image.getRGB(x, y));
+			}
+		}
+	}
+
+	@Test
+	public void testJPEG() throws IOException {
+		final byte[] jpeg = thumbnailService.render(gradient(100, 50),
+			new RenderOptions().format(RenderOptions.Format.JPEG, 0.9f));
+		assertEquals((byte) 0xff, jpeg[0]);
+		assertEquals((byte) 0xd8, jpeg[1]);
+		final BufferedImage image = decode(jpeg);
+		assertEquals(100, image.getWidth());
+		assertEquals(50, image.getHeight());
+	}
+
+	@Test
+	public void testBatch() throws IOException, InterruptedException {
+		final List<Dataset> datasets = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			datasets.add(gradient(50 + 10 * i, 30));
+		}
+		final RenderOptions options = new RenderOptions().size(100, 100);
+		final List<byte[]> thumbnails = thumbnailService.render(datasets, options);
+		assertEquals(datasets.size(), thumbnails.size());
+		for (int i = 0; i < datasets.size(); i++) {
+			assertArrayEquals(thumbnailService.render(datasets.get(i), options),
+				thumbnails.get(i));
+		}
+	}
+
+	@Test
+	public void testMontage() throws IOException, InterruptedException {
+		final List<Dataset> datasets = Arrays.asList(gradient(32, 32), gradient(
+			32, 16), gradient(16, 32));
+		final BufferedImage montage = decode(thumbnailService.montage(datasets,
+			new RenderOptions().size(32, 32), 2));
+		assertEquals(64, montage.getWidth());
+		assertEquals(64, montage.getHeight());
+		// NB: The second cell is centered vertically, leaving a black margin.
+		assertEquals(0xff000000, montage.getRGB(63, 0));
+		assertEquals(0xffffffff, montage.getRGB(63, 8));
+		// NB: The fourth cell is empty.
+		assertEquals(0xff000000, montage.getRGB(48, 48));
+	}
+
+	// -- Helper methods --
+
+	/** Creates an image whose values increase from left to right. */
+	private Dataset gradient(final long width, final long height) {
+		final Dataset dataset = ij.dataset().create(new FloatType(), new long[] {
+			width, height }, "gradient", new AxisType[] { Axes.X, Axes.Y });
+		final Cursor<? extends RealType<?>> cursor = dataset.localizingCursor();
+		while (cursor.hasNext()) {
+			cursor.fwd();
+			cursor.get().setReal(cursor.getLongPosition(0));
+		}
+		return dataset;
+	}
+
+	private static BufferedImage decode(final byte[] bytes) throws IOException {
+		return ImageIO.read(new ByteArrayInputStream(bytes));
+	}
+
+}